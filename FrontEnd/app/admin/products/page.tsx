@@ -500,6 +500,7 @@ export default function ProductPage() {
       ...detail,
       stockQuantity: stockQty,
       quantity: stockQty, // đồng bộ luôn quantity nếu cần dùng ở chỗ khác
+      previousStockQuantity: stockQty, // tồn kho lúc mở form: backend chỉ cộng/trừ phần admin thay đổi
       thumbnailUrl: detail.thumbnailUrl ?? detail.thumbnail_url,
       wage: detail.wage ?? detail.wage,
       // Thêm các trường khác nếu cần
@@ -525,7 +526,7 @@ export default function ProductPage() {
     e.preventDefault();
     if (!editProduct || !(editProduct.id || editProduct.product_id)) return;
     try {
-      const { createdAt, weight: weightStr, ...dataToSend } = editProduct;
+      const { createdAt, weight: weightStr, previousStockQuantity, ...dataToSend } = editProduct;
       // Xử lý weight - chuyển đổi thành double
       let weight: number | null = null;
       if (weightStr) {
@@ -564,7 +565,10 @@ export default function ProductPage() {
       console.log('Data being sent to backend:', payload);
       console.log('Product ID:', editProduct.id || editProduct.product_id);
       
-      const res = await fetch(`http://localhost:9004/api/products/${editProduct.id || editProduct.product_id}`, {
+      const stockParam = previousStockQuantity === '' || previousStockQuantity == null
+        ? ''
+        : `?previousStockQuantity=${previousStockQuantity}`;
+      const res = await fetch(`http://localhost:9004/api/products/${editProduct.id || editProduct.product_id}${stockParam}`, {
         method: 'PUT',
         headers: { 'Content-Type': 'application/json' },
         body: JSON.stringify(payload),
@@ -36,6 +36,7 @@ export interface MembershipStats {
   silverUsers: number;
   goldUsers: number;
   diamondUsers: number;
+  tiers?: Record<string, { users: number; totalSpent: number }>;
 }
 
 export interface PurchaseUpdateRequest {
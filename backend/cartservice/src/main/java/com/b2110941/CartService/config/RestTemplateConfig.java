@@ -4,25 +4,20 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestFactory;
 
 @Configuration
 public class RestTemplateConfig {
-    
+
+    // factory là pool kết nối keep-alive dùng chung từ common-http (timeout cấu hình qua internal.http.*)
     @Bean
     @LoadBalanced
-    public RestTemplate loadBalancedRestTemplate() {
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(5000); // 5s
-        factory.setReadTimeout(10000); // 10s
+    public RestTemplate loadBalancedRestTemplate(ClientHttpRequestFactory factory) {
         return new RestTemplate(factory);
     }
-    
+
     @Bean
-    public RestTemplate restTemplate() {
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(5000); // 5s
-        factory.setReadTimeout(10000); // 10s
+    public RestTemplate restTemplate(ClientHttpRequestFactory factory) {
         return new RestTemplate(factory);
     }
-} 
\ No newline at end of file
+}
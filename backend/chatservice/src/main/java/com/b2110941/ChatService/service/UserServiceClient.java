@@ -1,5 +1,6 @@
 package com.b2110941.ChatService.service;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.client.HttpClientErrorException;
@@ -10,7 +11,9 @@ import java.util.Map;
 @Component
 public class UserServiceClient {
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    // RestTemplate dùng chung (pool keep-alive từ common-http)
+    @Autowired
+    private RestTemplate restTemplate;
 
     public String getUserRole(String userId) {
         // ✅ Nếu là admin, trả role luôn (tránh gọi API)
@@ -0,0 +1,206 @@
+package com.b2110941.CommonHttp;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.common.KeyValue;
+import io.micrometer.common.KeyValues;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.ApacheHttpClientContext;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.DefaultApacheHttpClientObservationConvention;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.ObservationExecChainHandler;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.DefaultHttpRequestRetryStrategy;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.message.BasicHeaderElementIterator;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.boot.web.client.RestTemplateCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP client dùng chung cho các lời gọi nội bộ giữa các service.
+ * - 1 pool kết nối keep-alive cho cả service (giới hạn tổng và theo từng host:port) thay vì mở socket mới mỗi lần gọi.
+ * - Timeout kết nối / chờ pool / chờ phản hồi, thử lại có giới hạn cho request đọc (GET/HEAD/OPTIONS).
+ * - Metric Micrometer: thời gian từng request (httpcomponents.httpclient.request) và trạng thái pool
+ *   (httpcomponents.httpclient.pool.*), đăng ký vào MeterRegistry của service nếu có, nếu không vào Metrics.globalRegistry.
+ * Service chỉ cần inject RestTemplate (hoặc ClientHttpRequestFactory nếu tự tạo RestTemplate, ví dụ @LoadBalanced).
+ */
+@AutoConfiguration
+@ConditionalOnClass({RestTemplate.class, CloseableHttpClient.class})
+@EnableConfigurationProperties(InternalHttpClientProperties.class)
+public class InternalHttpClientAutoConfiguration {
+
+    static final String POOL_NAME = "internal";
+
+    private static final Set<String> RETRYABLE_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+    private static final Pattern ID_SEGMENT = Pattern.compile("[^/]*\\d[^/]*");
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    public PoolingHttpClientConnectionManager internalHttpConnectionManager(InternalHttpClientProperties properties,
+                                                                            ObjectProvider<MeterRegistry> meterRegistry) {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(properties.getMaxTotal())
+                .setMaxConnPerRoute(properties.getMaxPerRoute())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(timeout(properties.getConnectTimeout()))
+                        .setSocketTimeout(timeout(properties.getResponseTimeout()))
+                        .setValidateAfterInactivity(timeValue(properties.getValidateAfterInactivity()))
+                        .setTimeToLive(timeValue(properties.getTimeToLive()))
+                        .build())
+                .setDefaultSocketConfig(SocketConfig.custom()
+                        .setSoTimeout(timeout(properties.getResponseTimeout()))
+                        .setTcpNoDelay(true)
+                        .build())
+                .build();
+
+        for (InternalHttpClientProperties.Route route : properties.getRoutes()) {
+            if (route.getHost() == null || route.getMaxConnections() <= 0) {
+                throw new IllegalArgumentException("internal.http.routes requires host and max-connections > 0");
+            }
+            connectionManager.setMaxPerRoute(
+                    new HttpRoute(new HttpHost(route.getScheme(), route.getHost(), route.getPort())), route.getMaxConnections());
+        }
+
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, POOL_NAME)
+                .bindTo(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    public CloseableHttpClient internalHttpClient(InternalHttpClientProperties properties,
+                                                  PoolingHttpClientConnectionManager connectionManager,
+                                                  ObjectProvider<MeterRegistry> meterRegistry,
+                                                  ObjectProvider<ObservationRegistry> observationRegistry) {
+        ObservationRegistry observations = observationRegistry.getIfAvailable(() -> {
+            // Service không có actuator: tự ghi metric vào MeterRegistry (hoặc globalRegistry)
+            ObservationRegistry registry = ObservationRegistry.create();
+            registry.observationConfig().observationHandler(
+                    new DefaultMeterObservationHandler(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry)));
+            return registry;
+        });
+        long defaultKeepAliveMillis = properties.getKeepAlive().toMillis();
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(timeout(properties.getConnectionRequestTimeout()))
+                        .setResponseTimeout(timeout(properties.getResponseTimeout()))
+                        .build())
+                .setKeepAliveStrategy((response, context) -> {
+                    // Tôn trọng "Keep-Alive: timeout=N" của server, nếu không có thì dùng internal.http.keep-alive
+                    BasicHeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator("Keep-Alive"));
+                    while (it.hasNext()) {
+                        var element = it.next();
+                        if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                            try {
+                                return TimeValue.ofSeconds(Long.parseLong(element.getValue()));
+                            } catch (NumberFormatException ignored) {
+                                // dùng giá trị mặc định
+                            }
+                        }
+                    }
+                    return TimeValue.ofMilliseconds(defaultKeepAliveMillis);
+                })
+                .setRetryStrategy(new DefaultHttpRequestRetryStrategy(
+                        properties.getRetry().getMaxRetries(), timeValue(properties.getRetry().getInterval())) {
+                    @Override
+                    protected boolean handleAsIdempotent(HttpRequest request) {
+                        // Chỉ thử lại request đọc: PUT/DELETE nội bộ (trừ kho, hủy giữ hàng...) không an toàn để gửi lại
+                        return RETRYABLE_METHODS.contains(request.getMethod());
+                    }
+                })
+                // Đặt sau RETRY để mỗi lần thử được đo riêng
+                .addExecInterceptorAfter(ChainElement.RETRY.name(), "micrometer",
+                        new ObservationExecChainHandler(observations, new InternalHttpObservationConvention()))
+                .evictExpiredConnections()
+                .evictIdleConnections(timeValue(properties.getIdleEvictTimeout()))
+                .build();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(ClientHttpRequestFactory.class)
+    public HttpComponentsClientHttpRequestFactory internalClientHttpRequestFactory(CloseableHttpClient internalHttpClient) {
+        return new HttpComponentsClientHttpRequestFactory(internalHttpClient);
+    }
+
+    /**
+     * RestTemplate tạo qua RestTemplateBuilder ở bất kỳ đâu trong service cũng dùng pool chung.
+     */
+    @Bean
+    public RestTemplateCustomizer internalHttpRestTemplateCustomizer(ClientHttpRequestFactory internalClientHttpRequestFactory) {
+        return restTemplate -> restTemplate.setRequestFactory(internalClientHttpRequestFactory);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(RestTemplate.class)
+    public RestTemplate restTemplate(ObjectProvider<RestTemplateBuilder> restTemplateBuilder,
+                                     ClientHttpRequestFactory internalClientHttpRequestFactory) {
+        RestTemplateBuilder builder = restTemplateBuilder.getIfAvailable();
+        if (builder == null) {
+            return new RestTemplate(internalClientHttpRequestFactory);
+        }
+        return builder.requestFactory(() -> internalClientHttpRequestFactory).build();
+    }
+
+    static class InternalHttpObservationConvention extends DefaultApacheHttpClientObservationConvention {
+
+        @Override
+        public KeyValues getLowCardinalityKeyValues(ApacheHttpClientContext context) {
+            KeyValues keyValues = super.getLowCardinalityKeyValues(context);
+            return context.getCarrier() == null ? keyValues : keyValues.and(KeyValue.of("uri", uriTag(context.getCarrier())));
+        }
+    }
+
+    // Tag "uri" cho metric: bỏ query string và thay các đoạn path chứa số (id, mã đơn...) bằng {id} để tránh bùng nổ số series
+    static String uriTag(HttpRequest request) {
+        String path = request.getPath();
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        StringBuilder tag = new StringBuilder();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            tag.append('/').append(ID_SEGMENT.matcher(segment).matches() ? "{id}" : segment);
+        }
+        return tag.length() == 0 ? "/" : tag.toString();
+    }
+
+    private static Timeout timeout(Duration duration) {
+        return Timeout.ofMilliseconds(duration.toMillis());
+    }
+
+    private static TimeValue timeValue(Duration duration) {
+        return TimeValue.ofMilliseconds(duration.toMillis());
+    }
+}
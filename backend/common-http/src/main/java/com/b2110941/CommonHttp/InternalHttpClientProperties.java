@@ -0,0 +1,67 @@
+package com.b2110941.CommonHttp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cấu hình HTTP client dùng chung cho các lời gọi giữa các service (tiền tố internal.http).
+ */
+@Data
+@ConfigurationProperties(prefix = "internal.http")
+public class InternalHttpClientProperties {
+
+    // Tổng số kết nối tối đa của pool
+    private int maxTotal = 200;
+
+    // Số kết nối tối đa tới mỗi host:port
+    private int maxPerRoute = 50;
+
+    // Giới hạn riêng theo route, ví dụ internal.http.routes[0].host=productservice, .port=9004, .max-connections=80
+    private List<Route> routes = new ArrayList<>();
+
+    private Duration connectTimeout = Duration.ofSeconds(2);
+
+    private Duration responseTimeout = Duration.ofSeconds(10);
+
+    // Thời gian chờ tối đa để mượn 1 kết nối từ pool
+    private Duration connectionRequestTimeout = Duration.ofSeconds(2);
+
+    // Giữ kết nối khi server không gửi Keep-Alive header
+    private Duration keepAlive = Duration.ofSeconds(30);
+
+    // Đóng các kết nối rảnh lâu hơn khoảng này
+    private Duration idleEvictTimeout = Duration.ofSeconds(30);
+
+    // Kiểm tra lại kết nối đã rảnh quá khoảng này trước khi dùng lại
+    private Duration validateAfterInactivity = Duration.ofSeconds(2);
+
+    // Tuổi thọ tối đa của 1 kết nối (để theo kịp thay đổi DNS/IP khi container khởi động lại)
+    private Duration timeToLive = Duration.ofMinutes(5);
+
+    private Retry retry = new Retry();
+
+    @Data
+    public static class Route {
+
+        private String scheme = "http";
+
+        private String host;
+
+        private int port = 80;
+
+        private int maxConnections;
+    }
+
+    @Data
+    public static class Retry {
+
+        // Số lần thử lại cho request đọc (GET, HEAD, OPTIONS) khi lỗi I/O hoặc 429/503; PUT/DELETE không được thử lại
+        private int maxRetries = 2;
+
+        private Duration interval = Duration.ofMillis(200);
+    }
+}
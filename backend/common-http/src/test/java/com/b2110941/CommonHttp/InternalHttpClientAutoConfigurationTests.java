@@ -0,0 +1,89 @@
+package com.b2110941.CommonHttp;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class InternalHttpClientAutoConfigurationTests {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(InternalHttpClientAutoConfiguration.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new);
+
+    private HttpServer server;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/products", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void reusesKeepAliveConnectionAndRecordsMetrics() {
+        contextRunner.run(context -> {
+            RestTemplate restTemplate = context.getBean(RestTemplate.class);
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+            for (int i = 0; i < 5; i++) {
+                assertEquals("ok", restTemplate.getForObject(base + "/api/products/" + i, String.class));
+            }
+
+            assertEquals(1, clientPorts.size());
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertEquals(5, registry.get("httpcomponents.httpclient.request")
+                    .tag("uri", "/api/products/{id}").timer().count());
+            assertNotNull(registry.get("httpcomponents.httpclient.pool.total.connections").gauges());
+        });
+    }
+
+    @Test
+    void appliesPerRouteLimits() {
+        contextRunner
+                .withPropertyValues("internal.http.max-per-route=10", "internal.http.routes[0].host=productservice",
+                        "internal.http.routes[0].port=9004", "internal.http.routes[0].max-connections=40")
+                .run(context -> {
+                    PoolingHttpClientConnectionManager connectionManager = context.getBean(PoolingHttpClientConnectionManager.class);
+                    assertEquals(40, connectionManager.getMaxPerRoute(new HttpRoute(new HttpHost("http", "productservice", 9004))));
+                    assertEquals(10, connectionManager.getMaxPerRoute(new HttpRoute(new HttpHost("http", "cartservice", 9005))));
+                });
+    }
+
+    @Test
+    void uriTagStripsQueryAndIds() {
+        assertEquals("/api/products/batch", InternalHttpClientAutoConfiguration.uriTag(
+                new BasicHttpRequest("GET", "/api/products/batch?ids=a,b")));
+        assertEquals("/api/orders/{id}/status", InternalHttpClientAutoConfiguration.uriTag(
+                new BasicHttpRequest("PUT", "/api/orders/68a1f0c2e4b0/status")));
+    }
+}
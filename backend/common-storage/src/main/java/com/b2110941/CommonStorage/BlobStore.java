@@ -0,0 +1,430 @@
+package com.b2110941.CommonStorage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Kho file upload định danh theo nội dung: mỗi file lưu 1 lần tại {@code <directory>/ab/cd/<sha-256>.<ext>}.
+ * - SHA-256 được tính ngay khi ghi (DigestInputStream), không đọc lại file.
+ * - Số tham chiếu của mỗi file nằm trong MongoDB ($inc nguyên tử, an toàn khi chạy nhiều instance);
+ *   upload trùng nội dung chỉ tăng tham chiếu, không ghi thêm file.
+ * - release() chỉ giảm tham chiếu; file (kèm ảnh thu nhỏ cùng tên) được bộ dọn nền xóa khi đã hết tham chiếu
+ *   quá grace period. Bộ dọn cũng xóa file mồ côi (không có bản ghi tham chiếu) và file tạm bị bỏ dở.
+ * Trước khi xóa, bộ dọn đánh dấu bản ghi "deleting" (kèm deletingSince); store() gặp bản ghi đang xóa thì báo lỗi ngay
+ * thay vì chờ, nên 1 file vừa được upload lại không bao giờ bị xóa mất. Bản ghi "deleting" quá deleteClaimTimeout
+ * (bộ dọn chết giữa chừng) được store() chiếm lại để dùng tiếp, hoặc được lần dọn sau xóa nốt.
+ */
+@Slf4j
+public class BlobStore implements AutoCloseable {
+
+    // <sha-256>.<ext> và các file dẫn xuất <sha-256>.<ext>.<...> (ảnh thu nhỏ)
+    private static final Pattern BLOB_NAME = Pattern.compile("^([0-9a-f]{64}\\.[a-z0-9]{1,8})(\\..+)?$");
+    private static final Pattern SHARD_DIR = Pattern.compile("^[0-9a-f]{2}$");
+    private static final Pattern EXTENSION = Pattern.compile("^[a-z0-9]{1,8}$");
+    private static final String TEMP_PREFIX = ".upload-";
+    private static final int SWEEP_BATCH = 100;
+
+    private final Path root;
+    private final String urlPrefix;
+    private final String collection;
+    private final MongoTemplate mongoTemplate;
+    private final BlobStoreProperties properties;
+    private final ScheduledExecutorService sweeper;
+
+    public BlobStore(BlobStoreProperties properties, MongoTemplate mongoTemplate) {
+        this.root = Paths.get(properties.getDirectory()).toAbsolutePath().normalize();
+        String prefix = properties.getUrlPrefix() != null ? properties.getUrlPrefix() : "";
+        this.urlPrefix = prefix.endsWith("/") ? prefix.substring(0, prefix.length() - 1) : prefix;
+        this.collection = properties.getCollection();
+        this.mongoTemplate = mongoTemplate;
+        this.properties = properties;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "blob-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Bắt đầu dọn file định kỳ (lần đầu sau 1 chu kỳ)
+     */
+    public void start() {
+        long interval = properties.getSweepInterval().toMillis();
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (Exception e) {
+                log.warn("Blob sweep failed in {}: {}", root, e.toString());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Lưu nội dung {@code content} và tăng tham chiếu của file tương ứng.
+     * @param originalFilename Tên file gốc, chỉ dùng để lấy phần mở rộng
+     */
+    public StoredBlob store(InputStream content, String originalFilename) throws IOException {
+        Files.createDirectories(root);
+        Path temp = Files.createTempFile(root, TEMP_PREFIX, ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            long size;
+            try (InputStream in = new DigestInputStream(content, digest);
+                 OutputStream out = Files.newOutputStream(temp)) {
+                size = in.transferTo(out);
+            }
+            String name = HexFormat.of().formatHex(digest.digest()) + "." + extension(originalFilename);
+
+            acquireRef(name, size);
+            Path target = resolve(name);
+            boolean deduplicated = true;
+            try {
+                if (!Files.exists(target)) {
+                    Files.createDirectories(target.getParent());
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                    deduplicated = false;
+                }
+            } catch (FileAlreadyExistsException e) {
+                // Instance khác vừa ghi cùng nội dung
+            } catch (IOException | RuntimeException e) {
+                release(name);
+                throw e;
+            }
+            return new StoredBlob(name, target, urlOf(name), size, deduplicated);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Giảm tham chiếu của file (tên blob hoặc URL, kể cả URL ảnh thu nhỏ của nó).
+     * @return false nếu không phải file của kho (ví dụ file cũ đặt tên theo timestamp)
+     */
+    public boolean release(String nameOrUrl) {
+        String name = blobNameOf(nameOrUrl);
+        if (name == null) {
+            return false;
+        }
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(name).and("refs").gt(0)),
+                new Update().inc("refs", -1).set("updatedAt", new Date()),
+                collection);
+        return true;
+    }
+
+    /**
+     * true nếu {@code nameOrUrl} trỏ tới 1 file của kho (hoặc file dẫn xuất của nó)
+     */
+    public boolean isBlob(String nameOrUrl) {
+        return blobNameOf(nameOrUrl) != null;
+    }
+
+    /**
+     * Đường dẫn trên đĩa của file {@code fileName} (blob, file dẫn xuất của blob, hoặc file cũ nằm ngay trong directory)
+     */
+    public Path resolve(String fileName) {
+        return root.resolve(relativePath(fileName)).normalize();
+    }
+
+    /**
+     * Đường dẫn tương đối với directory của file có tên/URL {@code nameOrUrl}: "ab/cd/<file>" với blob, "<file>" với file cũ
+     */
+    public String relativePath(String nameOrUrl) {
+        String fileName = nameOrUrl.substring(nameOrUrl.lastIndexOf('/') + 1);
+        if (!BLOB_NAME.matcher(fileName).matches()) {
+            return fileName;
+        }
+        return fileName.substring(0, 2) + "/" + fileName.substring(2, 4) + "/" + fileName;
+    }
+
+    /**
+     * URL public của file {@code fileName} (blob hoặc file dẫn xuất của blob)
+     */
+    public String urlOf(String fileName) {
+        return urlPrefix + "/" + relativePath(fileName);
+    }
+
+    public Path getDirectory() {
+        return root;
+    }
+
+    /**
+     * Xóa file đã hết tham chiếu, file mồ côi và file tạm cũ hơn grace period.
+     * @return số file đã xóa
+     */
+    public int sweep() throws IOException {
+        Date cutoff = new Date(System.currentTimeMillis() - properties.getGracePeriod().toMillis());
+        int deleted = sweepReleased(cutoff);
+        deleted += sweepOrphans(cutoff);
+        if (deleted > 0) {
+            log.info("Blob sweep removed {} file(s) from {}", deleted, root);
+        }
+        return deleted;
+    }
+
+    private int sweepReleased(Date cutoff) throws IOException {
+        int deleted = 0;
+        Criteria released = Criteria.where("refs").lte(0).orOperator(
+                Criteria.where("updatedAt").lt(cutoff).and("deleting").ne(true),
+                staleClaim());
+        while (true) {
+            Query batch = Query.query(released).limit(SWEEP_BATCH);
+            batch.fields().include("_id");
+            List<Document> candidates = mongoTemplate.find(batch, Document.class, collection);
+            if (candidates.isEmpty()) {
+                return deleted;
+            }
+            for (Document candidate : candidates) {
+                String name = candidate.getString("_id");
+                // Chiếm bản ghi trước khi xóa file: store() đồng thời sẽ bị từ chối tới khi bản ghi bị xóa hẳn
+                Date claimedAt = new Date();
+                Document claimed = mongoTemplate.findAndModify(
+                        Query.query(Criteria.where("_id").is(name).andOperator(released)),
+                        new Update().set("deleting", true).set("deletingSince", claimedAt),
+                        FindAndModifyOptions.options().returnNew(true),
+                        Document.class, collection);
+                if (claimed == null) {
+                    continue;
+                }
+                deleted += deleteBlobFiles(name);
+                removeClaim(name, claimedAt);
+            }
+            if (candidates.size() < SWEEP_BATCH) {
+                return deleted;
+            }
+        }
+    }
+
+    private int sweepOrphans(Date cutoff) throws IOException {
+        int deleted = 0;
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        deleted += deleteStaleTempFiles(root, cutoff);
+        for (Path first : shardDirs(root)) {
+            for (Path shard : shardDirs(first)) {
+                deleted += deleteStaleTempFiles(shard, cutoff);
+                List<Path> files = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(shard)) {
+                    stream.forEach(files::add);
+                }
+                Set<String> names = files.stream()
+                        .map(file -> blobNameOf(file.getFileName().toString()))
+                        .filter(name -> name != null)
+                        .collect(Collectors.toSet());
+                if (names.isEmpty()) {
+                    continue;
+                }
+                Query known = Query.query(Criteria.where("_id").in(names));
+                known.fields().include("_id");
+                Set<String> referenced = new HashSet<>();
+                mongoTemplate.find(known, Document.class, collection)
+                        .forEach(document -> referenced.add(document.getString("_id")));
+
+                Set<String> orphans = new HashSet<>();
+                for (Path file : files) {
+                    String name = blobNameOf(file.getFileName().toString());
+                    if (name != null && !referenced.contains(name) && olderThan(file, cutoff)) {
+                        orphans.add(name);
+                    }
+                }
+                for (String name : orphans) {
+                    // store() có thể vừa tạo bản ghi cho đúng nội dung này sau lần đọc ở trên:
+                    // chỉ xóa khi chiếm được tên bằng 1 bản ghi "deleting" mới
+                    Date claimedAt = new Date();
+                    if (!claimOrphan(name, claimedAt)) {
+                        continue;
+                    }
+                    deleted += deleteBlobFiles(name);
+                    removeClaim(name, claimedAt);
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private boolean claimOrphan(String name, Date claimedAt) {
+        try {
+            mongoTemplate.insert(new Document("_id", name)
+                    .append("refs", 0)
+                    .append("deleting", true)
+                    .append("deletingSince", claimedAt)
+                    .append("updatedAt", claimedAt), collection);
+            return true;
+        } catch (DuplicateKeyException e) {
+            // Đã có bản ghi: file vừa được tham chiếu lại (hoặc đang bị xóa bởi instance khác)
+            return false;
+        }
+    }
+
+    // Xóa bản ghi đã chiếm, trừ khi store() đã chiếm lại nó sau khi claim quá hạn
+    private void removeClaim(String name, Date claimedAt) {
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(name).and("deletingSince").is(claimedAt)), collection);
+    }
+
+    // Bản ghi "deleting" quá deleteClaimTimeout (hoặc tạo trước khi có deletingSince)
+    private Criteria staleClaim() {
+        Date staleBefore = new Date(System.currentTimeMillis() - properties.getDeleteClaimTimeout().toMillis());
+        return Criteria.where("deleting").is(true).orOperator(
+                Criteria.where("deletingSince").lt(staleBefore),
+                Criteria.where("deletingSince").exists(false));
+    }
+
+    private void acquireRef(String name, long size) throws IOException {
+        Date now = new Date();
+        Query usable = Query.query(Criteria.where("_id").is(name).and("deleting").ne(true));
+        Update increment = new Update()
+                .inc("refs", 1)
+                .set("updatedAt", now)
+                .setOnInsert("size", size)
+                .setOnInsert("createdAt", now);
+        try {
+            mongoTemplate.upsert(usable, increment, collection);
+            return;
+        } catch (DuplicateKeyException e) {
+            // Bản ghi đang bị bộ dọn chiếm: lấy lại nếu claim đã quá hạn, còn không thì không chờ trên luồng request
+        }
+        Document reclaimed = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(name).andOperator(staleClaim())),
+                new Update()
+                        .set("refs", 1)
+                        .set("size", size)
+                        .set("updatedAt", now)
+                        .unset("deleting")
+                        .unset("deletingSince"),
+                FindAndModifyOptions.options().returnNew(true),
+                Document.class, collection);
+        if (reclaimed != null) {
+            log.warn("Took over stale delete claim on blob {} in {}", name, root);
+            return;
+        }
+        try {
+            // Bộ dọn có thể vừa xóa xong bản ghi
+            mongoTemplate.upsert(usable, increment, collection);
+        } catch (DuplicateKeyException e) {
+            throw new IOException("Blob " + name + " is being deleted, try again later", e);
+        }
+    }
+
+    // Xóa blob và mọi file dẫn xuất <name>.* trong cùng thư mục shard
+    private int deleteBlobFiles(String name) throws IOException {
+        Path shard = resolve(name).getParent();
+        if (!Files.isDirectory(shard)) {
+            return 0;
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(shard)) {
+            for (Path file : stream) {
+                if (name.equals(blobNameOf(file.getFileName().toString()))) {
+                    Files.deleteIfExists(file);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private static int deleteStaleTempFiles(Path dir, Date cutoff) throws IOException {
+        int deleted = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, ".*.tmp")) {
+            for (Path file : stream) {
+                if (olderThan(file, cutoff)) {
+                    Files.deleteIfExists(file);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private static List<Path> shardDirs(Path dir) throws IOException {
+        List<Path> shards = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir,
+                path -> Files.isDirectory(path) && SHARD_DIR.matcher(path.getFileName().toString()).matches())) {
+            stream.forEach(shards::add);
+        }
+        return shards;
+    }
+
+    private static boolean olderThan(Path file, Date cutoff) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis() < cutoff.getTime();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String blobNameOf(String nameOrUrl) {
+        String fileName = nameOrUrl.substring(nameOrUrl.lastIndexOf('/') + 1);
+        Matcher matcher = BLOB_NAME.matcher(fileName);
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+
+    private static String extension(String originalFilename) {
+        if (originalFilename != null) {
+            int dot = originalFilename.lastIndexOf('.');
+            if (dot >= 0) {
+                String extension = originalFilename.substring(dot + 1).toLowerCase(Locale.ROOT);
+                if (EXTENSION.matcher(extension).matches()) {
+                    return extension;
+                }
+            }
+        }
+        return "bin";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * File vừa lưu
+     * @param name Tên file trong kho (<sha-256>.<ext>)
+     * @param path Đường dẫn trên đĩa
+     * @param url URL public
+     * @param size Kích thước (byte)
+     * @param deduplicated true nếu nội dung đã có sẵn trong kho (không ghi file mới)
+     */
+    public record StoredBlob(String name, Path path, String url, long size, boolean deduplicated) {}
+}
@@ -0,0 +1,35 @@
+package com.b2110941.CommonStorage;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Cấu hình kho file upload định danh theo nội dung (tiền tố storage.blobs).
+ * Chỉ bật khi service khai báo storage.blobs.directory.
+ */
+@Data
+@ConfigurationProperties(prefix = "storage.blobs")
+public class BlobStoreProperties {
+
+    // Thư mục lưu file, ví dụ ./uploads/products
+    private String directory;
+
+    // Tiền tố URL tương ứng với directory (được phục vụ bởi resource handler /uploads/**), ví dụ /uploads/products
+    private String urlPrefix;
+
+    // Collection MongoDB lưu số tham chiếu của từng file. Các service dùng chung database nên mỗi service
+    // (mỗi directory) phải có collection riêng, nếu không cùng 1 nội dung sẽ dùng chung số tham chiếu
+    // và bộ dọn của service này có thể xóa bản ghi của service khác
+    private String collection = "blob_refs";
+
+    // Chu kỳ dọn file không còn tham chiếu
+    private Duration sweepInterval = Duration.ofHours(1);
+
+    // File chỉ bị xóa khi đã hết tham chiếu (hoặc mồ côi) lâu hơn khoảng này
+    private Duration gracePeriod = Duration.ofHours(1);
+
+    // Bản ghi "deleting" giữ lâu hơn khoảng này coi như bộ dọn đã chết giữa chừng: store() hoặc lần dọn sau được chiếm lại
+    private Duration deleteClaimTimeout = Duration.ofMinutes(5);
+}
@@ -0,0 +1,122 @@
+package com.b2110941.CommonStorage;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Trả file trên đĩa về client mà không đọc cả file vào heap.
+ * Body là FileSystemResource nên Spring MVC tự xử lý:
+ * - stream file theo từng đoạn nhỏ thay vì byte[] của cả file,
+ * - Range: bytes=... trả 206 với ResourceRegion (đọc từ vị trí seek, không đọc lại từ đầu),
+ * - If-None-Match / If-Modified-Since trả 304 dựa trên ETag / Last-Modified đặt ở đây.
+ * File có tên kèm timestamp (ví dụ 1719991234567_anh.jpg) hoặc hash không bao giờ bị ghi đè nên URL trỏ thẳng tới
+ * file được cache immutable; endpoint có URL cố định (theo id) tự truyền Cache-Control.
+ * Ảnh thu nhỏ (xem ImageDerivativeService) chưa có trên đĩa thì trả ảnh gốc thay thế.
+ */
+public class FileResponder {
+
+    // Tên file upload: <epoch millis>_<tên gốc> hoặc <sha-256 hex>[.ext]
+    private static final Pattern VERSIONED_NAME = Pattern.compile("^(\\d{13}_.+|[0-9a-f]{64}(\\..+)?)$");
+
+    private final FileServingProperties properties;
+
+    public FileResponder(FileServingProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Trả file {@code fileName} trong thư mục {@code baseDir}; 404 nếu không có hoặc tên file trỏ ra ngoài thư mục.
+     * Cache-Control theo tên file: chỉ dùng cho URL trỏ thẳng tới file (tên file đổi khi nội dung đổi).
+     */
+    public ResponseEntity<?> serve(Path baseDir, String fileName) {
+        return serve(baseDir, fileName, null);
+    }
+
+    /**
+     * Như {@link #serve(Path, String)} nhưng với Cache-Control do caller chọn. Endpoint theo id (ảnh của
+     * sản phẩm/user...) giữ nguyên URL khi ảnh đổi nên phải dùng {@code CacheControl.noCache()}: trình duyệt
+     * luôn hỏi lại và nhận 304 qua ETag nếu ảnh không đổi.
+     * @param cacheControl null = chọn theo tên file
+     */
+    public ResponseEntity<?> serve(Path baseDir, String fileName, CacheControl cacheControl) {
+        Path base = baseDir.toAbsolutePath().normalize();
+        Path file = base.resolve(fileName).normalize();
+        if (!file.startsWith(base) || file.equals(base)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("File not found");
+        }
+        if (!Files.exists(file)) {
+            // Ảnh thu nhỏ chưa tạo xong/không tạo được: trả ảnh gốc nhưng không cho cache lâu dưới tên ảnh thu nhỏ
+            Optional<Path> original = ImageDerivativeService.originalNameOf(file.getFileName().toString())
+                    .map(file::resolveSibling);
+            if (original.isPresent()) {
+                return serve(original.get(), CacheControl.noCache());
+            }
+        }
+        return serve(file, cacheControl != null ? cacheControl : cacheControl(file.getFileName().toString()));
+    }
+
+    /**
+     * Trả file {@code file}; 404 nếu không tồn tại.
+     */
+    public ResponseEntity<?> serve(Path file) {
+        return serve(file, cacheControl(file.getFileName().toString()));
+    }
+
+    private ResponseEntity<?> serve(Path file, CacheControl cacheControl) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("File not found");
+        }
+        if (!attributes.isRegularFile()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("File not found");
+        }
+
+        String fileName = file.getFileName().toString();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        // ETag yếu từ kích thước + thời điểm sửa: không cần đọc nội dung file để tính
+        String etag = "W/\"" + Long.toHexString(attributes.size()) + "-" + Long.toHexString(lastModified) + "\"";
+
+        Resource body = new FileSystemResource(file);
+        return ResponseEntity.ok()
+                .contentType(contentType(fileName))
+                .contentLength(attributes.size())
+                .eTag(etag)
+                .lastModified(lastModified)
+                .cacheControl(cacheControl)
+                .header("Accept-Ranges", "bytes")
+                .body(body);
+    }
+
+    static boolean isVersionedName(String fileName) {
+        return VERSIONED_NAME.matcher(fileName).matches();
+    }
+
+    private CacheControl cacheControl(String fileName) {
+        if (isVersionedName(fileName)) {
+            return CacheControl.maxAge(properties.getImmutableMaxAge().toSeconds(), TimeUnit.SECONDS)
+                    .cachePublic()
+                    .immutable();
+        }
+        return CacheControl.maxAge(properties.getDefaultMaxAge().toSeconds(), TimeUnit.SECONDS).cachePublic();
+    }
+
+    private static MediaType contentType(String fileName) {
+        return MediaTypeFactory.getMediaType(fileName).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    }
+}
@@ -0,0 +1,20 @@
+package com.b2110941.CommonStorage;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Cấu hình phục vụ file upload (ảnh sản phẩm, review, avatar) qua HTTP (tiền tố storage.serving).
+ */
+@Data
+@ConfigurationProperties(prefix = "storage.serving")
+public class FileServingProperties {
+
+    // File có tên không đổi nội dung (tiền tố timestamp/hash): cache lâu dài, immutable
+    private Duration immutableMaxAge = Duration.ofDays(365);
+
+    // File khác: trình duyệt/CDN cache ngắn rồi kiểm tra lại bằng ETag/Last-Modified
+    private Duration defaultMaxAge = Duration.ofHours(1);
+}
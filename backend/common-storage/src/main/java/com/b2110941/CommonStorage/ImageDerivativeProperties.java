@@ -0,0 +1,34 @@
+package com.b2110941.CommonStorage;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Cấu hình tạo ảnh thu nhỏ khi upload (tiền tố storage.images).
+ */
+@Data
+@ConfigurationProperties(prefix = "storage.images")
+public class ImageDerivativeProperties {
+
+    // Các chiều rộng (px) được tạo cho mỗi ảnh upload
+    private List<Integer> widths = List.of(200, 400, 800);
+
+    // Chất lượng nén JPEG của ảnh thu nhỏ (0..1)
+    private float quality = 0.8f;
+
+    // Số điểm ảnh (rộng x cao) tối đa được giải mã; ảnh lớn hơn (vd. ảnh "bom" nén nhỏ nhưng rất nhiều điểm ảnh)
+    // không được tạo ảnh thu nhỏ. Mặc định 40MP ~ 160MB RAM khi giải mã
+    private long maxPixels = 40_000_000L;
+
+    // Số luồng xử lý ảnh (giải mã ảnh lớn tốn RAM nên giữ nhỏ)
+    private int threads = 2;
+
+    // Số ảnh tối đa chờ xử lý; đầy thì bỏ qua tạo ảnh thu nhỏ và dùng ảnh gốc
+    private int queueCapacity = 50;
+
+    // Thời gian tối đa request upload chờ ảnh thu nhỏ
+    private Duration timeout = Duration.ofSeconds(10);
+}
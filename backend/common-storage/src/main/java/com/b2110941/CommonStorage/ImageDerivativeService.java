@@ -0,0 +1,216 @@
+package com.b2110941.CommonStorage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tạo ảnh thu nhỏ (JPEG nén, các chiều rộng cố định) cho ảnh vừa upload, chỉ dùng ImageIO/Java2D.
+ * Ảnh thu nhỏ nằm cạnh ảnh gốc với tên {@code <tên gốc>.w<width>.jpg}, ví dụ 1719991234567_nhan.png.w400.jpg,
+ * nên trang danh sách có thể dùng ảnh nhỏ thay vì ảnh gốc (tới 20MB).
+ * Xử lý trên 1 pool luồng có giới hạn: upload dồn dập không làm service hết RAM/CPU, khi quá tải thì dùng ảnh gốc.
+ */
+@Slf4j
+public class ImageDerivativeService implements AutoCloseable {
+
+    private static final Pattern VARIANT_NAME = Pattern.compile("^(.+)\\.w(\\d+)\\.jpg$");
+
+    private final ImageDerivativeProperties properties;
+    private final ThreadPoolExecutor executor;
+
+    public ImageDerivativeService(ImageDerivativeProperties properties) {
+        this.properties = properties;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                properties.getThreads(), properties.getThreads(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "image-derivatives-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Tên file ảnh thu nhỏ rộng {@code width} của ảnh {@code originalName}
+     */
+    public static String variantName(String originalName, int width) {
+        return originalName + ".w" + width + ".jpg";
+    }
+
+    /**
+     * Tên ảnh gốc nếu {@code fileName} là tên ảnh thu nhỏ
+     */
+    public static Optional<String> originalNameOf(String fileName) {
+        Matcher matcher = VARIANT_NAME.matcher(fileName);
+        return matcher.matches() ? Optional.of(matcher.group(1)) : Optional.empty();
+    }
+
+    /**
+     * Tạo các ảnh thu nhỏ cho {@code original} và chờ tối đa storage.images.timeout.
+     * @return tên file ảnh thu nhỏ rộng {@code preferredWidth} (hoặc ảnh gần nhất nhỏ hơn ảnh gốc);
+     *         rỗng nếu không phải ảnh, ảnh đã đủ nhỏ, quá tải hoặc lỗi - khi đó dùng ảnh gốc
+     */
+    public Optional<String> createVariants(Path original, int preferredWidth) {
+        Future<Map<Integer, Path>> task;
+        try {
+            task = executor.submit(() -> writeVariants(original));
+        } catch (RejectedExecutionException e) {
+            log.warn("Image derivative queue full, serving original {}", original.getFileName());
+            return Optional.empty();
+        }
+        try {
+            Map<Integer, Path> variants = task.get(properties.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            return variants.entrySet().stream()
+                    .filter(entry -> entry.getKey() <= preferredWidth)
+                    .reduce((first, second) -> second)
+                    .or(() -> variants.entrySet().stream().findFirst())
+                    .map(entry -> entry.getValue().getFileName().toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } catch (Exception e) {
+            // Quá thời gian: để task chạy tiếp, lần sau ảnh thu nhỏ sẽ có sẵn trên đĩa
+            log.warn("Could not create derivatives for {}: {}", original.getFileName(), e.toString());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Xóa các ảnh thu nhỏ của {@code original} (khi ảnh gốc bị xóa/thay thế)
+     */
+    public void deleteVariants(Path original) {
+        String originalName = original.getFileName().toString();
+        for (int width : properties.getWidths()) {
+            try {
+                Files.deleteIfExists(original.resolveSibling(variantName(originalName, width)));
+            } catch (IOException e) {
+                log.warn("Could not delete derivative of {}: {}", originalName, e.toString());
+            }
+        }
+    }
+
+    // Ghi các ảnh thu nhỏ theo thứ tự chiều rộng tăng dần; bỏ qua các chiều rộng >= ảnh gốc
+    Map<Integer, Path> writeVariants(Path original) throws IOException {
+        Map<Integer, Path> written = new LinkedHashMap<>();
+        BufferedImage source = readWithinPixelLimit(original);
+        if (source == null) {
+            return written;
+        }
+        String originalName = original.getFileName().toString();
+        for (int width : properties.getWidths().stream().sorted().toList()) {
+            if (width >= source.getWidth()) {
+                break;
+            }
+            Path target = original.resolveSibling(variantName(originalName, width));
+            Path temp = Files.createTempFile(original.getParent(), ".variant-", ".tmp");
+            try {
+                writeJpeg(scale(source, width), temp);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            written.put(width, target);
+        }
+        return written;
+    }
+
+    // Đọc kích thước từ header trước khi giải mã: null nếu không phải ảnh hoặc vượt storage.images.max-pixels
+    private BufferedImage readWithinPixelLimit(Path original) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(original.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > properties.getMaxPixels()) {
+                    log.warn("Image {} has {} pixels (limit {}), serving original without derivatives",
+                            original.getFileName(), pixels, properties.getMaxPixels());
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Thu nhỏ nhiều bước (mỗi bước tối đa 1/2) với nội suy bilinear: nét hơn thu nhỏ 1 lần, nhanh hơn bicubic
+    private static BufferedImage scale(BufferedImage source, int targetWidth) {
+        int targetHeight = Math.max(1, Math.round((float) source.getHeight() * targetWidth / source.getWidth()));
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = width == targetWidth ? targetHeight : Math.max(targetHeight, height / 2);
+            BufferedImage step = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = step.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                // JPEG không có kênh alpha: nền trắng cho ảnh PNG trong suốt
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+                graphics.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = step;
+        } while (width > targetWidth);
+        return current;
+    }
+
+    private void writeJpeg(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (OutputStream out = Files.newOutputStream(target);
+             ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(properties.getQuality());
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
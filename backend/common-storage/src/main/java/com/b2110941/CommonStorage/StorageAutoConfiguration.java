@@ -0,0 +1,45 @@
+package com.b2110941.CommonStorage;
+
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Các thành phần lưu trữ/phục vụ file upload dùng chung cho productservice, reviewservice, userservice.
+ */
+@AutoConfiguration(afterName = "org.springframework.boot.autoconfigure.data.mongo.MongoDataAutoConfiguration")
+@EnableConfigurationProperties({FileServingProperties.class, ImageDerivativeProperties.class, BlobStoreProperties.class})
+public class StorageAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public FileResponder fileResponder(FileServingProperties properties) {
+        return new FileResponder(properties);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public ImageDerivativeService imageDerivativeService(ImageDerivativeProperties properties) {
+        return new ImageDerivativeService(properties);
+    }
+
+    // Kho file định danh theo nội dung: cần MongoDB để đếm tham chiếu và storage.blobs.directory
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MongoTemplate.class)
+    @ConditionalOnProperty(prefix = "storage.blobs", name = "directory")
+    static class BlobStoreConfiguration {
+
+        @Bean(initMethod = "start")
+        @ConditionalOnMissingBean
+        @ConditionalOnBean(MongoTemplate.class)
+        public BlobStore blobStore(BlobStoreProperties properties, MongoTemplate mongoTemplate) {
+            return new BlobStore(properties, mongoTemplate);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.b2110941.CommonStorage;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlobStoreTests {
+
+    // Blob không có bản ghi tham chiếu (mồ côi)
+    private static final String ORPHAN_HASH = "d0f6e2ce2e7ec0a8e9e8e4df7fa7a1ee63d3e5f8b57aacbba6ff3a4d3df1ed55";
+
+    @TempDir
+    Path uploads;
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private BlobStore blobStore;
+
+    @BeforeEach
+    void setUp() {
+        server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+        client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        mongoTemplate = new MongoTemplate(client, "blob_store_test");
+
+        BlobStoreProperties properties = new BlobStoreProperties();
+        properties.setDirectory(uploads.toString());
+        properties.setUrlPrefix("/uploads/products/");
+        properties.setGracePeriod(Duration.ofMinutes(10));
+        blobStore = new BlobStore(properties, mongoTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        blobStore.close();
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    void storesIdenticalContentOnceInShardedDirectory() throws Exception {
+        BlobStore.StoredBlob first = store("ring", "Nhan.PNG");
+        BlobStore.StoredBlob second = store("ring", "copy.png");
+
+        assertEquals(first.name(), second.name());
+        assertFalse(first.deduplicated());
+        assertTrue(second.deduplicated());
+        assertTrue(first.name().matches("[0-9a-f]{64}\\.png"));
+        String hash = first.name().substring(0, 64);
+        assertEquals(uploads.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(first.name()),
+                first.path());
+        assertEquals("/uploads/products/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + first.name(),
+                first.url());
+        assertEquals("ring", Files.readString(first.path(), StandardCharsets.UTF_8));
+        assertEquals(2, refs(first.name()));
+        // Không còn file tạm
+        try (var files = Files.list(uploads)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void sweepsReleasedBlobsAndTheirVariantsAfterGracePeriod() throws Exception {
+        BlobStore.StoredBlob blob = store("ring", "ring.png");
+        store("ring", "ring.png");
+        Path variant = blob.path().resolveSibling(blob.name() + ".w400.jpg");
+        Files.writeString(variant, "small");
+
+        assertTrue(blobStore.release(blob.url() + ".w400.jpg"));
+        blobStore.sweep();
+        assertTrue(Files.exists(blob.path()), "vẫn còn 1 tham chiếu");
+
+        assertTrue(blobStore.release(blob.name()));
+        assertEquals(0, blobStore.sweep(), "chưa hết grace period thì chưa xóa");
+
+        ageRef(blob.name());
+        assertEquals(2, blobStore.sweep());
+        assertFalse(Files.exists(blob.path()));
+        assertFalse(Files.exists(variant));
+        assertEquals(0, mongoTemplate.count(new Query(), "blob_refs"));
+    }
+
+    @Test
+    void reuploadDuringDeletionFailsWithoutWaiting() throws Exception {
+        BlobStore.StoredBlob blob = store("ring", "ring.png");
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(blob.name())),
+                new Update().set("refs", 0).set("deleting", true).set("deletingSince", new Date()), "blob_refs");
+
+        long started = System.nanoTime();
+        assertThrows(IOException.class, () -> store("ring", "ring.png"));
+        assertTrue(Duration.ofNanos(System.nanoTime() - started).toMillis() < 1000);
+
+        // Bộ dọn xóa xong thì upload lại tạo file mới
+        Files.deleteIfExists(blob.path());
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(blob.name())), "blob_refs");
+        BlobStore.StoredBlob again = store("ring", "ring.png");
+        assertFalse(again.deduplicated());
+        assertTrue(Files.exists(again.path()));
+        assertEquals(1, refs(again.name()));
+    }
+
+    @Test
+    void reuploadTakesOverAStaleDeleteClaim() throws Exception {
+        BlobStore.StoredBlob blob = store("ring", "ring.png");
+        // Bộ dọn chết sau khi chiếm bản ghi và đã xóa file
+        Files.delete(blob.path());
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(blob.name())),
+                new Update().set("refs", 0).set("deleting", true).set("deletingSince", hoursAgo(1)), "blob_refs");
+
+        BlobStore.StoredBlob again = store("ring", "ring.png");
+
+        assertFalse(again.deduplicated());
+        assertTrue(Files.exists(again.path()));
+        Document ref = mongoTemplate.findById(again.name(), Document.class, "blob_refs");
+        assertEquals(1, ref.getInteger("refs"));
+        assertNull(ref.get("deleting"));
+        assertEquals(0, blobStore.sweep());
+        assertTrue(Files.exists(again.path()));
+    }
+
+    @Test
+    void sweepFinishesAStaleDeleteClaim() throws Exception {
+        BlobStore.StoredBlob blob = store("ring", "ring.png");
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(blob.name())),
+                new Update().set("refs", 0).set("deleting", true).set("deletingSince", hoursAgo(1))
+                        .set("updatedAt", new Date()), "blob_refs");
+
+        assertEquals(1, blobStore.sweep());
+        assertFalse(Files.exists(blob.path()));
+        assertEquals(0, mongoTemplate.count(new Query(), "blob_refs"));
+    }
+
+    @Test
+    void sweepsOrphanFilesAndStaleTempFiles() throws Exception {
+        BlobStore.StoredBlob kept = store("kept", "kept.jpg");
+        Path orphan = uploads.resolve("d0/f6/" + ORPHAN_HASH + ".png");
+        Files.createDirectories(orphan.getParent());
+        Files.writeString(orphan, "ring");
+        Path temp = Files.writeString(uploads.resolve(".upload-123.tmp"), "partial");
+        Path legacy = Files.writeString(uploads.resolve("1719991234567_old.png"), "legacy");
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - Duration.ofHours(2).toMillis());
+        for (Path file : new Path[] {kept.path(), orphan, temp, legacy}) {
+            Files.setLastModifiedTime(file, old);
+        }
+
+        assertEquals(2, blobStore.sweep());
+        assertTrue(Files.exists(kept.path()));
+        assertTrue(Files.exists(legacy));
+        assertFalse(Files.exists(orphan));
+        assertFalse(Files.exists(temp));
+        // Bản ghi "deleting" dùng để chiếm file mồ côi được xóa sau khi xóa file
+        assertNull(mongoTemplate.findById(ORPHAN_HASH + ".png", Document.class, "blob_refs"));
+    }
+
+    @Test
+    void leavesLegacyNamesAlone() {
+        assertFalse(blobStore.release("/uploads/products/1719991234567_old.png"));
+        assertEquals("1719991234567_old.png", blobStore.relativePath("/uploads/products/1719991234567_old.png"));
+        assertEquals("d0/f6/" + ORPHAN_HASH + ".png.w400.jpg", blobStore.relativePath(ORPHAN_HASH + ".png.w400.jpg"));
+    }
+
+    private BlobStore.StoredBlob store(String content, String filename) throws Exception {
+        return blobStore.store(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), filename);
+    }
+
+    private int refs(String name) {
+        return mongoTemplate.findById(name, Document.class, "blob_refs").getInteger("refs");
+    }
+
+    private void ageRef(String name) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(name)),
+                new Update().set("updatedAt", hoursAgo(1)), "blob_refs");
+    }
+
+    private static Date hoursAgo(int hours) {
+        return new Date(System.currentTimeMillis() - Duration.ofHours(hours).toMillis());
+    }
+}
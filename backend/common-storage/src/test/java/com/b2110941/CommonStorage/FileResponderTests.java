@@ -0,0 +1,132 @@
+package com.b2110941.CommonStorage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class FileResponderTests {
+
+    @TempDir
+    Path root;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path uploads = Files.createDirectories(root.resolve("uploads"));
+        Files.writeString(uploads.resolve("1719991234567_shoe.png"), "0123456789", StandardCharsets.UTF_8);
+        Files.writeString(uploads.resolve("banner.jpg"), "banner", StandardCharsets.UTF_8);
+        Files.writeString(root.resolve("secret.txt"), "secret", StandardCharsets.UTF_8);
+
+        FileResponder responder = new FileResponder(new FileServingProperties());
+        mockMvc = MockMvcBuilders.standaloneSetup(new ImageController(responder, uploads)).build();
+    }
+
+    @Test
+    void servesTimestampedFileAsImmutableWithValidators() throws Exception {
+        MvcResult result = mockMvc.perform(get("/images/1719991234567_shoe.png"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(content().string("0123456789"))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andReturn();
+
+        String cacheControl = result.getResponse().getHeader(HttpHeaders.CACHE_CONTROL);
+        assertTrue(cacheControl.contains("max-age=31536000"));
+        assertTrue(cacheControl.contains("immutable"));
+
+        String etag = result.getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/images/1719991234567_shoe.png").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    void servesByteRanges() throws Exception {
+        mockMvc.perform(get("/images/1719991234567_shoe.png").header(HttpHeaders.RANGE, "bytes=2-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10"))
+                .andExpect(content().string("2345"));
+    }
+
+    @Test
+    void unversionedFileGetsShortCacheLifetime() throws Exception {
+        MvcResult result = mockMvc.perform(get("/images/banner.jpg"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/jpeg"))
+                .andReturn();
+        String cacheControl = result.getResponse().getHeader(HttpHeaders.CACHE_CONTROL);
+        assertTrue(cacheControl.contains("max-age=3600"));
+        assertFalse(cacheControl.contains("immutable"));
+    }
+
+    @Test
+    void fallsBackToOriginalWhileVariantIsMissing() throws Exception {
+        mockMvc.perform(get("/images/1719991234567_shoe.png.w400.jpg"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("0123456789"))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"));
+    }
+
+    @Test
+    void idKeyedEndpointRevalidatesInsteadOfCachingImmutable() throws Exception {
+        MvcResult result = mockMvc.perform(get("/products/p1/image"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"))
+                .andReturn();
+
+        String etag = result.getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/products/p1/image").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void rejectsMissingFilesAndPathsOutsideTheDirectory() throws Exception {
+        mockMvc.perform(get("/images/missing.png")).andExpect(status().isNotFound());
+        mockMvc.perform(get("/images/..%2Fsecret.txt")).andExpect(status().isNotFound());
+    }
+
+    @RestController
+    static class ImageController {
+
+        private final FileResponder responder;
+        private final Path uploads;
+
+        ImageController(FileResponder responder, Path uploads) {
+            this.responder = responder;
+            this.uploads = uploads;
+        }
+
+        @GetMapping("/images/{filename}")
+        ResponseEntity<?> image(@PathVariable String filename) {
+            return responder.serve(uploads, filename);
+        }
+
+        // Same URL whatever image the product currently has
+        @GetMapping("/products/{id}/image")
+        ResponseEntity<?> productImage(@PathVariable String id) {
+            return responder.serve(uploads, "1719991234567_shoe.png", CacheControl.noCache());
+        }
+    }
+}
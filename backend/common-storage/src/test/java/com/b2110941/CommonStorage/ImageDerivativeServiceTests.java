@@ -0,0 +1,99 @@
+package com.b2110941.CommonStorage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageDerivativeServiceTests {
+
+    @TempDir
+    Path uploads;
+
+    private final ImageDerivativeService service = new ImageDerivativeService(new ImageDerivativeProperties());
+
+    @AfterEach
+    void tearDown() {
+        service.close();
+    }
+
+    @Test
+    void writesSmallerJpegVariantsNextToTheOriginal() throws Exception {
+        Path original = writePng("1719991234567_ring.png", 1000, 500);
+
+        assertEquals(Optional.of("1719991234567_ring.png.w400.jpg"), service.createVariants(original, 400));
+
+        for (int width : List.of(200, 400, 800)) {
+            Path variant = uploads.resolve(ImageDerivativeService.variantName("1719991234567_ring.png", width));
+            BufferedImage image = ImageIO.read(variant.toFile());
+            assertEquals(width, image.getWidth());
+            assertEquals(width / 2, image.getHeight());
+            assertTrue(Files.size(variant) < Files.size(original));
+        }
+
+        service.deleteVariants(original);
+        assertFalse(Files.exists(uploads.resolve("1719991234567_ring.png.w200.jpg")));
+        assertTrue(Files.exists(original));
+    }
+
+    @Test
+    void skipsWidthsNotSmallerThanTheOriginal() throws Exception {
+        Path original = writePng("small.png", 300, 300);
+
+        // Không có ảnh 400px: dùng ảnh nhỏ hơn gần nhất
+        assertEquals(Optional.of("small.png.w200.jpg"), service.createVariants(original, 400));
+        assertFalse(Files.exists(uploads.resolve("small.png.w400.jpg")));
+
+        Path tiny = writePng("tiny.png", 120, 80);
+        assertEquals(Optional.empty(), service.createVariants(tiny, 400));
+    }
+
+    @Test
+    void ignoresFilesThatAreNotImages() throws Exception {
+        Path text = Files.writeString(uploads.resolve("notes.png"), "not an image");
+        assertEquals(Optional.empty(), service.createVariants(text, 400));
+    }
+
+    @Test
+    void skipsImagesAboveThePixelLimitWithoutDecodingThem() throws Exception {
+        ImageDerivativeProperties properties = new ImageDerivativeProperties();
+        properties.setMaxPixels(400_000);
+        try (ImageDerivativeService limited = new ImageDerivativeService(properties)) {
+            Path huge = writePng("huge.png", 1000, 500);
+            assertEquals(Optional.empty(), limited.createVariants(huge, 400));
+            assertFalse(Files.exists(uploads.resolve("huge.png.w200.jpg")));
+
+            Path allowed = writePng("allowed.png", 800, 500);
+            assertEquals(Optional.of("allowed.png.w400.jpg"), limited.createVariants(allowed, 400));
+        }
+    }
+
+    @Test
+    void mapsVariantNamesBackToTheOriginal() {
+        assertEquals(Optional.of("1719991234567_ring.png"),
+                ImageDerivativeService.originalNameOf("1719991234567_ring.png.w400.jpg"));
+        assertEquals(Optional.empty(), ImageDerivativeService.originalNameOf("1719991234567_ring.png"));
+    }
+
+    private Path writePng(String name, int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, 0xFF000000 | (x * 31 + y * 17) & 0xFFFFFF);
+            }
+        }
+        Path file = uploads.resolve(name);
+        ImageIO.write(image, "png", file.toFile());
+        return file;
+    }
+}
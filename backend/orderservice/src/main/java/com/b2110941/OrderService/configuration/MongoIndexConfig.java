@@ -0,0 +1,53 @@
+package com.b2110941.OrderService.configuration;
+
+import com.b2110941.OrderService.entity.Order;
+import com.b2110941.OrderService.service.OrderNumberDeduplicator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.List;
+
+/**
+ * Tạo các index khai báo trên entity (@CompoundIndex, @Indexed).
+ * Chạy đồng bộ trước khi web server nhận request: unique index trên orderNumber là thứ duy nhất chặn
+ * hai đơn cùng mã, nên không tạo được thì ứng dụng không khởi động.
+ * orderNumber trùng / thiếu được đổi mã trước, nếu không unique index trên orderNumber không tạo được.
+ */
+@Configuration
+@RequiredArgsConstructor
+@Slf4j
+public class MongoIndexConfig implements SmartInitializingSingleton {
+
+    private static final List<Class<?>> INDEXED_ENTITIES = List.of(Order.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final MongoMappingContext mappingContext;
+    private final OrderNumberDeduplicator orderNumberDeduplicator;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        ensureIndexes();
+    }
+
+    public void ensureIndexes() {
+        MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+        for (Class<?> entity : INDEXED_ENTITIES) {
+            try {
+                if (entity == Order.class) {
+                    orderNumberDeduplicator.deduplicate();
+                }
+                IndexOperations indexOps = mongoTemplate.indexOps(entity);
+                resolver.resolveIndexFor(entity).forEach(indexOps::createIndex);
+                log.info("Ensured indexes for {}", entity.getSimpleName());
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to create indexes for " + entity.getSimpleName(), e);
+            }
+        }
+    }
+}
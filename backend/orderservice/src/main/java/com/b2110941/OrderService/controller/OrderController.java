@@ -1,18 +1,21 @@
 package com.b2110941.OrderService.controller;
 
 import com.b2110941.OrderService.payload.request.CreateOrderRequest;
+import com.b2110941.OrderService.payload.request.OrderPageCriteria;
 import com.b2110941.OrderService.payload.response.OrderResponse;
 import com.b2110941.OrderService.service.OrderService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 
@@ -32,6 +35,9 @@ public class OrderController {
             log.info("Creating order for user: {}", request.getUserId());
             OrderResponse order = orderService.createOrder(request);
             return ResponseEntity.status(HttpStatus.CREATED).body(order);
+        } catch (IllegalStateException e) {
+            log.warn("Cannot create order for user {}: {}", request.getUserId(), e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
         } catch (Exception e) {
             log.error("Error creating order: ", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
@@ -88,6 +94,40 @@ public class OrderController {
         }
     }
 
+    /**
+     * Danh sách đơn hàng cho trang quản trị, mới nhất trước.
+     * from/to là ngày (yyyy-MM-dd), to được tính hết ngày. Trang sau dùng nextCursor của trang trước.
+     */
+    @GetMapping("/page")
+    public ResponseEntity<?> getOrderPage(
+            @RequestParam(required = false) String orderStatus,
+            @RequestParam(required = false) String paymentStatus,
+            @RequestParam(required = false) String shippingStatus,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String customer,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            OrderPageCriteria criteria = OrderPageCriteria.builder()
+                    .orderStatus(orderStatus)
+                    .paymentStatus(paymentStatus)
+                    .shippingStatus(shippingStatus)
+                    .from(from != null ? from.atStartOfDay() : null)
+                    .to(to != null ? to.plusDays(1).atStartOfDay() : null)
+                    .customer(customer)
+                    .cursor(cursor)
+                    .size(Math.max(1, Math.min(size, 100)))
+                    .build();
+            return ResponseEntity.ok(orderService.getOrderPage(criteria));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error getting order page: ", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     @PutMapping("/{orderId}/status")
     public ResponseEntity<OrderResponse> updateOrderStatus(
             @PathVariable String orderId,
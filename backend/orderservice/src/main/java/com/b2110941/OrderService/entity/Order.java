@@ -5,15 +5,28 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "orders")
+// Index cho GET /api/orders/page: lọc theo trạng thái rồi duyệt theo (createdAt, _id) giảm dần
+@CompoundIndexes({
+    @CompoundIndex(name = "created_idx", def = "{'createdAt': -1, '_id': -1}"),
+    @CompoundIndex(name = "order_status_created_idx", def = "{'orderStatus': 1, 'createdAt': -1, '_id': -1}"),
+    @CompoundIndex(name = "payment_status_created_idx", def = "{'paymentStatus': 1, 'createdAt': -1, '_id': -1}"),
+    @CompoundIndex(name = "shipping_status_created_idx", def = "{'shippingStatus': 1, 'createdAt': -1, '_id': -1}"),
+    @CompoundIndex(name = "user_created_idx", def = "{'userId': 1, 'createdAt': -1}"),
+    // Dispatcher tìm các tác vụ nền đến hạn xử lý
+    @CompoundIndex(name = "outbox_due_idx", def = "{'outbox.nextAttemptAt': 1}", sparse = true)
+})
 public class Order {
     @Id
     private String id;
@@ -21,7 +34,7 @@ public class Order {
     @Indexed
     private String userId;
     
-    @Indexed
+    @Indexed(unique = true)
     private String orderNumber;
     
     private String customerName;
@@ -72,4 +85,8 @@ public class Order {
     // Metadata
     private String createdBy;
     private String updatedBy;
+
+    // Tác vụ nền chưa xử lý xong (outbox) và tác vụ đã hết số lần thử
+    private List<OutboxEvent> outbox = new ArrayList<>();
+    private List<OutboxEvent> failedOutbox;
 } 
\ No newline at end of file
@@ -0,0 +1,26 @@
+package com.b2110941.OrderService.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Node id (0-1023) của OrderNumberGenerator đang được 1 instance orderservice thuê.
+ * Instance gia hạn leasedUntil định kỳ; hết hạn mà không gia hạn thì instance khác được nhận node id này.
+ */
+@Document(collection = "order_node_leases")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderNodeLease {
+
+    @Id
+    private Integer nodeId;
+
+    private String owner;
+    private Date leasedUntil;
+}
@@ -0,0 +1,61 @@
+package com.b2110941.OrderService.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Tác vụ phụ của đơn hàng (tạo link thanh toán, gửi thông báo, xác nhận giữ hàng) chờ được xử lý nền.
+ * Được nhúng trong document Order nên được ghi cùng đơn hàng trong 1 lần save.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OutboxEvent {
+
+    public static final String CREATE_PAYMENT = "CREATE_PAYMENT";
+    public static final String ORDER_STATUS_NOTIFICATION = "ORDER_STATUS_NOTIFICATION";
+    public static final String SHIPPING_STATUS_NOTIFICATION = "SHIPPING_STATUS_NOTIFICATION";
+    public static final String COMMIT_STOCK_HOLD = "COMMIT_STOCK_HOLD";
+
+    private String eventId;
+    private String type;
+    private Map<String, String> payload;
+    private int attempts;
+    // Thời điểm được xử lý lần tiếp theo; cũng dùng làm hạn "lease" khi đang xử lý
+    private LocalDateTime nextAttemptAt;
+    private String lastError;
+    private LocalDateTime createdAt;
+
+    // Thông báo đổi trạng thái đơn / giao hàng gửi qua NotificationClientService
+    public static OutboxEvent statusNotification(String type, Order order, String previousStatus, String newStatus) {
+        Map<String, String> payload = new HashMap<>();
+        payload.put("userId", order.getUserId());
+        payload.put("orderNumber", order.getOrderNumber());
+        payload.put("customerName", order.getCustomerName());
+        payload.put("customerEmail", order.getCustomerEmail());
+        payload.put("customerPhone", order.getCustomerPhone());
+        payload.put("previousStatus", previousStatus);
+        payload.put("newStatus", newStatus);
+        return of(type, payload);
+    }
+
+    public static OutboxEvent of(String type, Map<String, String> payload) {
+        LocalDateTime now = LocalDateTime.now();
+        return OutboxEvent.builder()
+                .eventId(UUID.randomUUID().toString())
+                .type(type)
+                .payload(payload)
+                .attempts(0)
+                .nextAttemptAt(now)
+                .createdAt(now)
+                .build();
+    }
+}
@@ -0,0 +1,28 @@
+package com.b2110941.OrderService.payload.request;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderPageCriteria {
+    private String orderStatus;
+    private String paymentStatus;
+    private String shippingStatus;
+
+    // Khoảng thời gian tạo đơn: from <= createdAt < to
+    private LocalDateTime from;
+    private LocalDateTime to;
+
+    // Tên khách hàng (không phân biệt hoa thường), số điện thoại hoặc email
+    private String customer;
+
+    private String cursor;
+    private int size;
+}
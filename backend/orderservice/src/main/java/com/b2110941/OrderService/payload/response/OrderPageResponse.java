@@ -0,0 +1,17 @@
+package com.b2110941.OrderService.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderPageResponse {
+    private List<OrderSummaryResponse> items;
+    // null khi không còn trang sau
+    private String nextCursor;
+    private int size;
+}
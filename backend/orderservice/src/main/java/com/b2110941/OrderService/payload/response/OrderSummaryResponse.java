@@ -0,0 +1,28 @@
+package com.b2110941.OrderService.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Dòng đơn hàng cho trang quản trị: chỉ gồm các trường hiển thị trong bảng danh sách.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderSummaryResponse {
+    private String id;
+    private String orderNumber;
+    private String userId;
+    private String customerName;
+    private String customerPhone;
+    private Double total;
+    private String paymentMethod;
+    private String paymentStatus;
+    private String orderStatus;
+    private String shippingStatus;
+    private Integer itemCount;
+    private LocalDateTime createdAt;
+}
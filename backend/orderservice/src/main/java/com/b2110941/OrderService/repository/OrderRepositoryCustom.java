@@ -0,0 +1,19 @@
+package com.b2110941.OrderService.repository;
+
+import com.b2110941.OrderService.entity.Order;
+import com.b2110941.OrderService.payload.request.OrderPageCriteria;
+import com.b2110941.OrderService.payload.response.OrderPageResponse;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Optional;
+
+public interface OrderRepositoryCustom {
+
+    OrderPageResponse findPage(OrderPageCriteria criteria);
+
+    /**
+     * Cập nhật 1 phần đơn hàng đã có (thay cho save toàn bộ document), trả về đơn sau khi cập nhật.
+     * Tác vụ outbox mới phải được thêm bằng $push trong chính update này.
+     */
+    Optional<Order> updateFields(String orderId, Update update);
+}
@@ -0,0 +1,138 @@
+package com.b2110941.OrderService.repository;
+
+import com.b2110941.OrderService.entity.Order;
+import com.b2110941.OrderService.payload.request.OrderPageCriteria;
+import com.b2110941.OrderService.payload.response.OrderPageResponse;
+import com.b2110941.OrderService.payload.response.OrderSummaryResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+@Repository
+@RequiredArgsConstructor
+public class OrderRepositoryImpl implements OrderRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * Outbox được OrderOutboxDispatcher sửa bằng $pull/arrayFilters trong lúc đơn hàng đang được cập nhật,
+     * nên mọi thay đổi sau khi tạo đơn đi qua 1 findAndModify chỉ chạm các trường trong update.
+     */
+    @Override
+    public Optional<Order> updateFields(String orderId, Update update) {
+        return Optional.ofNullable(mongoTemplate.findAndModify(
+                Query.query(Criteria.where("id").is(orderId)),
+                update,
+                FindAndModifyOptions.options().returnNew(true),
+                Order.class));
+    }
+
+    /**
+     * Danh sách đơn hàng mới nhất trước, phân trang keyset theo (createdAt, _id).
+     * Chỉ project các trường của OrderSummaryResponse (không đọc items/địa chỉ) và
+     * dùng các compound index khai báo trên Order nên thời gian không phụ thuộc số trang.
+     */
+    @Override
+    public OrderPageResponse findPage(OrderPageCriteria criteria) {
+        List<Criteria> filters = new ArrayList<>();
+        if (hasText(criteria.getOrderStatus())) filters.add(Criteria.where("orderStatus").is(criteria.getOrderStatus()));
+        if (hasText(criteria.getPaymentStatus())) filters.add(Criteria.where("paymentStatus").is(criteria.getPaymentStatus()));
+        if (hasText(criteria.getShippingStatus())) filters.add(Criteria.where("shippingStatus").is(criteria.getShippingStatus()));
+        if (criteria.getFrom() != null || criteria.getTo() != null) {
+            Criteria createdAt = Criteria.where("createdAt");
+            if (criteria.getFrom() != null) createdAt = createdAt.gte(criteria.getFrom());
+            if (criteria.getTo() != null) createdAt = createdAt.lt(criteria.getTo());
+            filters.add(createdAt);
+        }
+        if (hasText(criteria.getCustomer())) {
+            String customer = criteria.getCustomer().trim();
+            filters.add(new Criteria().orOperator(
+                    // Khớp tiền tố (như tìm user bên UserService), không quét chuỗi con của mọi tên
+                    Criteria.where("customerName").regex("^" + Pattern.quote(customer), "i"),
+                    Criteria.where("customerPhone").is(customer),
+                    Criteria.where("customerEmail").is(customer),
+                    Criteria.where("orderNumber").is(customer)));
+        }
+        if (hasText(criteria.getCursor())) filters.add(afterCursor(decodeCursor(criteria.getCursor())));
+
+        Criteria match = filters.isEmpty()
+                ? new Criteria()
+                : new Criteria().andOperator(filters.toArray(new Criteria[0]));
+
+        TypedAggregation<Order> aggregation = Aggregation.newAggregation(Order.class,
+                Aggregation.match(match),
+                Aggregation.sort(Sort.by(Sort.Direction.DESC, "createdAt").and(Sort.by(Sort.Direction.DESC, "id"))),
+                // Lấy dư 1 bản ghi để biết còn trang sau hay không
+                Aggregation.limit(criteria.getSize() + 1L),
+                Aggregation.project("orderNumber", "userId", "customerName", "customerPhone", "total",
+                                "paymentMethod", "paymentStatus", "orderStatus", "shippingStatus", "createdAt")
+                        .and(ArrayOperators.Size.lengthOfArray(
+                                ConditionalOperators.ifNull("items").then(Collections.emptyList())))
+                        .as("itemCount"));
+
+        List<OrderSummaryResponse> items = new ArrayList<>(
+                mongoTemplate.aggregate(aggregation, OrderSummaryResponse.class).getMappedResults());
+        String nextCursor = null;
+        if (items.size() > criteria.getSize()) {
+            items = new ArrayList<>(items.subList(0, criteria.getSize()));
+            nextCursor = encodeCursor(items.get(items.size() - 1));
+        }
+        return new OrderPageResponse(items, nextCursor, items.size());
+    }
+
+    // Điều kiện "đứng sau bản ghi cursor" khi sắp xếp giảm dần; createdAt null đứng cuối
+    private Criteria afterCursor(Cursor cursor) {
+        if (cursor.createdAt() == null) {
+            return new Criteria().andOperator(Criteria.where("createdAt").is(null), Criteria.where("id").lt(cursor.id()));
+        }
+        return new Criteria().orOperator(
+                Criteria.where("createdAt").lt(cursor.createdAt()),
+                new Criteria().andOperator(Criteria.where("createdAt").is(cursor.createdAt()), Criteria.where("id").lt(cursor.id())),
+                Criteria.where("createdAt").is(null));
+    }
+
+    private String encodeCursor(OrderSummaryResponse last) {
+        String value = (last.getCreatedAt() == null ? "" : last.getCreatedAt().toString()) + "|" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Cursor decodeCursor(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.lastIndexOf('|');
+            if (separator < 0 || separator == value.length() - 1) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            String createdAt = value.substring(0, separator);
+            return new Cursor(createdAt.isEmpty() ? null : LocalDateTime.parse(createdAt), value.substring(separator + 1));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    private boolean hasText(String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+
+    private record Cursor(LocalDateTime createdAt, String id) {
+    }
+}
@@ -1,5 +1,6 @@
 package com.b2110941.OrderService.service;
 
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -7,11 +8,30 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gửi thông báo tới NotificationService qua danh sách endpoint (service trực tiếp / gateway).
+ * - Health check nền (TCP connect) giữ danh sách endpoint còn sống.
+ * - Mỗi endpoint có circuit breaker: lỗi liên tiếp đủ ngưỡng thì mở mạch trong cooldown,
+ *   hết cooldown cho đúng 1 request thử (half-open).
+ * - Gửi tới endpoint khỏe nhất trước (ít lỗi, độ trễ thấp) và chỉ thử tối đa maxAttemptsPerSend endpoint,
+ *   nên request không phải chờ timeout của host đã chết. Không còn endpoint khả dụng thì lỗi ngay
+ *   để outbox thử lại sau.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
@@ -22,8 +42,46 @@ public class NotificationClientService {
     @Value("${notification.service.urls:http://notificationservice:9002,http://apigateway:9006,http://host.docker.internal:9002,http://host.docker.internal:9006,http://localhost:9002,http://localhost:9006}")
     private String notificationServiceUrls;
 
-    private String[] getBaseUrls() {
-        return notificationServiceUrls.split(",");
+    @Value("${notification.circuit.failure-threshold:3}")
+    private int failureThreshold = 3;
+
+    @Value("${notification.circuit.open-ms:30000}")
+    private long openMillis = 30000;
+
+    @Value("${notification.health.connect-timeout-ms:300}")
+    private int probeTimeoutMillis = 300;
+
+    @Value("${notification.max-attempts-per-send:2}")
+    private int maxAttemptsPerSend = 2;
+
+    private volatile List<Endpoint> endpoints = List.of();
+
+    @PostConstruct
+    void initEndpoints() {
+        List<Endpoint> parsed = new ArrayList<>();
+        for (String base : notificationServiceUrls.split(",")) {
+            if (!base.isBlank()) {
+                parsed.add(new Endpoint(base.trim()));
+            }
+        }
+        endpoints = List.copyOf(parsed);
+    }
+
+    @Scheduled(fixedDelayString = "${notification.health.interval-ms:10000}")
+    public void checkEndpoints() {
+        for (Endpoint endpoint : endpoints) {
+            long start = System.nanoTime();
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(endpoint.host, endpoint.port), probeTimeoutMillis);
+                endpoint.reachable = true;
+                endpoint.recordLatency((System.nanoTime() - start) / 1000);
+            } catch (Exception e) {
+                if (endpoint.reachable) {
+                    log.warn("Notification endpoint {} is unreachable: {}", endpoint.baseUrl, e.getMessage());
+                }
+                endpoint.reachable = false;
+            }
+        }
     }
 
     private void postForm(String path, MultiValueMap<String, String> body) {
@@ -31,22 +89,43 @@ public class NotificationClientService {
         headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
         HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(body, headers);
 
+        List<Endpoint> candidates = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.reachable) {
+                candidates.add(endpoint);
+            }
+        }
+        candidates.sort(Comparator.comparingInt((Endpoint e) -> e.consecutiveFailures.get())
+                .thenComparingLong(e -> e.latencyMicros));
+
         RuntimeException lastEx = null;
-        for (String base : getBaseUrls()) {
-            String url = base.trim() + path;
+        int attempts = 0;
+        for (Endpoint endpoint : candidates) {
+            if (attempts >= maxAttemptsPerSend) {
+                break;
+            }
+            long now = System.currentTimeMillis();
+            if (!endpoint.allowRequest(now)) {
+                continue;
+            }
+            attempts++;
+            String url = endpoint.baseUrl + path;
+            long start = System.nanoTime();
             try {
                 ResponseEntity<String> response = restTemplate.postForEntity(url, request, String.class);
                 if (response.getStatusCode().is2xxSuccessful()) {
+                    endpoint.onSuccess((System.nanoTime() - start) / 1000);
                     return;
-                } else {
-                    lastEx = new RuntimeException("Non-2xx response: " + response.getStatusCode());
                 }
+                lastEx = new RuntimeException("Non-2xx response: " + response.getStatusCode());
+                endpoint.onFailure(System.currentTimeMillis(), failureThreshold, openMillis);
             } catch (Exception e) {
                 lastEx = new RuntimeException(e);
+                endpoint.onFailure(System.currentTimeMillis(), failureThreshold, openMillis);
                 log.warn("Notification post failed to {}: {}", url, e.getMessage());
             }
         }
-        if (lastEx != null) throw lastEx;
+        throw lastEx != null ? lastEx : new IllegalStateException("No healthy notification endpoint available");
     }
 
     public void sendOrderStatusNotification(
@@ -71,8 +150,10 @@ public class NotificationClientService {
             body.add("newStatus", newStatus);
             postForm("/api/notifications/order-status", body);
             log.info("Order status notification sent for order {}", orderNumber);
-        } catch (Exception e) {
-            log.error("Error sending order status notification: {}", e.getMessage(), e);
+        } catch (RuntimeException e) {
+            log.error("Error sending order status notification: {}", e.getMessage());
+            // Ném lại để outbox thử lại với backoff
+            throw e;
         }
     }
 
@@ -98,8 +179,61 @@ public class NotificationClientService {
             body.add("newStatus", newStatus);
             postForm("/api/notifications/shipping-status", body);
             log.info("Shipping status notification sent for order {}", orderNumber);
-        } catch (Exception e) {
-            log.error("Error sending shipping status notification: {}", e.getMessage(), e);
+        } catch (RuntimeException e) {
+            log.error("Error sending shipping status notification: {}", e.getMessage());
+            // Ném lại để outbox thử lại với backoff
+            throw e;
+        }
+    }
+
+    static final class Endpoint {
+        final String baseUrl;
+        final String host;
+        final int port;
+        volatile boolean reachable = true;
+        // Độ trễ trung bình (EWMA, micro giây)
+        volatile long latencyMicros;
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        // 0 = mạch đóng; > 0 = mạch mở tới thời điểm này
+        volatile long openUntil;
+        private final AtomicBoolean trialInFlight = new AtomicBoolean();
+
+        Endpoint(String baseUrl) {
+            this.baseUrl = baseUrl;
+            URI uri = URI.create(baseUrl);
+            this.host = uri.getHost();
+            this.port = uri.getPort() > 0 ? uri.getPort() : ("https".equals(uri.getScheme()) ? 443 : 80);
+        }
+
+        boolean allowRequest(long now) {
+            if (openUntil == 0) {
+                return true;
+            }
+            if (now < openUntil) {
+                return false;
+            }
+            // Half-open: chỉ 1 request thử
+            return trialInFlight.compareAndSet(false, true);
+        }
+
+        void onSuccess(long micros) {
+            consecutiveFailures.set(0);
+            openUntil = 0;
+            trialInFlight.set(false);
+            recordLatency(micros);
+        }
+
+        void onFailure(long now, int threshold, long openMillis) {
+            int failures = consecutiveFailures.incrementAndGet();
+            if (openUntil != 0 || failures >= threshold) {
+                openUntil = now + openMillis;
+            }
+            trialInFlight.set(false);
+        }
+
+        void recordLatency(long micros) {
+            long current = latencyMicros;
+            latencyMicros = current == 0 ? micros : (current * 4 + micros) / 5;
         }
     }
 }
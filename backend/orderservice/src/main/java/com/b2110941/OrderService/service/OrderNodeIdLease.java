@@ -0,0 +1,133 @@
+package com.b2110941.OrderService.service;
+
+import com.b2110941.OrderService.entity.OrderNodeLease;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Thuê node id cho OrderNumberGenerator từ MongoDB (collection order_node_leases) khi không cấu hình
+ * order.number.node-id, để các replica không phải đoán node id từ hash hostname (có thể trùng nhau).
+ * Lấy node id = upsert có điều kiện leasedUntil <= now: node id đang được thuê thì upsert insert trùng _id
+ * và bị DuplicateKey, nên mỗi node id chỉ thuộc 1 instance.
+ * Instance chỉ cấp mã khi lease còn hạn theo đồng hồ của nó (nửa thời gian lease tính từ lần gia hạn gần nhất);
+ * không gia hạn được thì ngừng cấp mã thay vì có thể dùng chung node id với instance khác.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class OrderNodeIdLease {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${order.number.lease-seconds:60}")
+    private long leaseSeconds = 60;
+
+    // Định danh instance này: pid@host + uuid (nhiều instance có thể cùng host trong docker)
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+
+    private volatile int nodeId = -1;
+    private volatile long validUntil;
+
+    /**
+     * Node id đang thuê; thuê mới / gia hạn ngay nếu chưa có hoặc đã quá hạn.
+     * Ném IllegalStateException nếu không thuê được node id nào.
+     */
+    public long currentNodeId() {
+        if (nodeId >= 0 && System.currentTimeMillis() < validUntil) {
+            return nodeId;
+        }
+        synchronized (this) {
+            if (nodeId < 0 || System.currentTimeMillis() >= validUntil) {
+                if (nodeId < 0 || !renew()) {
+                    acquire();
+                }
+            }
+            return nodeId;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${order.number.renew-interval-ms:15000}")
+    public void renewLease() {
+        if (nodeId < 0) {
+            return;
+        }
+        try {
+            synchronized (this) {
+                if (nodeId >= 0 && !renew()) {
+                    log.warn("Lost lease on order node id {}, a new one is leased on the next order", nodeId);
+                    nodeId = -1;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Order node id lease renewal failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void release() {
+        int leased = nodeId;
+        if (leased < 0) {
+            return;
+        }
+        nodeId = -1;
+        try {
+            mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(leased).and("owner").is(owner)),
+                    new Update().set("leasedUntil", new Date()),
+                    OrderNodeLease.class);
+        } catch (Exception e) {
+            log.warn("Could not release order node id {}: {}", leased, e.getMessage());
+        }
+    }
+
+    private void acquire() {
+        int nodes = (int) OrderNumberGenerator.MAX_NODE_ID + 1;
+        // Bắt đầu từ vị trí ngẫu nhiên để các replica khởi động cùng lúc ít tranh nhau
+        int start = ThreadLocalRandom.current().nextInt(nodes);
+        for (int i = 0; i < nodes; i++) {
+            int candidate = (start + i) % nodes;
+            long now = System.currentTimeMillis();
+            Query free = Query.query(Criteria.where("_id").is(candidate).and("leasedUntil").lte(new Date(now)));
+            Update take = new Update()
+                    .set("owner", owner)
+                    .set("leasedUntil", new Date(now + leaseSeconds * 1000));
+            try {
+                mongoTemplate.upsert(free, take, OrderNodeLease.class);
+            } catch (DuplicateKeyException e) {
+                // Instance khác đang thuê node id này
+                continue;
+            }
+            nodeId = candidate;
+            validUntil = now + leaseSeconds * 500;
+            log.info("Leased order node id {}", candidate);
+            return;
+        }
+        throw new IllegalStateException("No free order node id, all " + nodes + " are leased");
+    }
+
+    private boolean renew() {
+        long now = System.currentTimeMillis();
+        boolean renewed = mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(nodeId).and("owner").is(owner)),
+                new Update().set("leasedUntil", new Date(now + leaseSeconds * 1000)),
+                OrderNodeLease.class).getMatchedCount() > 0;
+        if (renewed) {
+            validUntil = now + leaseSeconds * 500;
+        }
+        return renewed;
+    }
+}
@@ -0,0 +1,98 @@
+package com.b2110941.OrderService.service;
+
+import com.b2110941.OrderService.entity.Order;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+
+/**
+ * Migrate trước khi tạo unique index trên orderNumber: mã cũ (sinh theo giây) có thể bị trùng,
+ * đơn không có orderNumber cũng đụng nhau trên giá trị null.
+ * - Nhóm trùng: đơn tạo sớm nhất giữ mã, các đơn sau đổi thành "<mã>-2", "<mã>-3"... (vẫn tra ngược được mã cũ).
+ * - Đơn thiếu orderNumber: cấp mã mới từ OrderNumberGenerator.
+ * Mỗi đơn được đổi bằng update có điều kiện trên mã cũ và thứ tự đổi là cố định, nên nhiều instance cùng chạy vẫn an toàn.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class OrderNumberDeduplicator {
+
+    private static final String FIELD = "orderNumber";
+
+    private final MongoTemplate mongoTemplate;
+    private final OrderNumberGenerator orderNumberGenerator;
+
+    /**
+     * @return số đơn hàng đã được đổi mã (0 nếu unique index đã có sẵn)
+     */
+    public int deduplicate() {
+        if (hasUniqueIndex()) {
+            return 0;
+        }
+        Aggregation duplicates = newAggregation(
+                sort(Sort.by(Sort.Direction.ASC, "createdAt", "_id")),
+                group(FIELD).count().as("count").push("_id").as("ids"),
+                match(new Criteria().orOperator(Criteria.where("count").gt(1), Criteria.where("_id").is(null))));
+
+        int renumbered = 0;
+        for (Document row : mongoTemplate.aggregate(duplicates, Order.class, Document.class).getMappedResults()) {
+            String orderNumber = row.getString("_id");
+            List<?> ids = row.getList("ids", Object.class);
+            if (orderNumber == null) {
+                for (Object id : ids) {
+                    renumbered += renumber(id, null, orderNumberGenerator.next());
+                }
+                continue;
+            }
+            int suffix = 2;
+            // Đơn đầu tiên (tạo sớm nhất) giữ nguyên mã
+            for (Object id : ids.subList(1, ids.size())) {
+                String candidate = orderNumber + "-" + suffix++;
+                while (mongoTemplate.exists(Query.query(Criteria.where(FIELD).is(candidate)), Order.class)) {
+                    candidate = orderNumber + "-" + suffix++;
+                }
+                renumbered += renumber(id, orderNumber, candidate);
+            }
+        }
+        if (renumbered > 0) {
+            log.warn("Renumbered {} orders with duplicate or missing orderNumber", renumbered);
+        }
+        return renumbered;
+    }
+
+    private int renumber(Object id, String from, String to) {
+        long modified = mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(id).and(FIELD).is(from)),
+                new Update().set(FIELD, to),
+                Order.class).getModifiedCount();
+        if (modified > 0) {
+            log.info("Order {}: orderNumber {} -> {}", id, from, to);
+        }
+        return (int) modified;
+    }
+
+    private boolean hasUniqueIndex() {
+        for (IndexInfo index : mongoTemplate.indexOps(Order.class).getIndexInfo()) {
+            if (index.isUnique() && index.getIndexFields().size() == 1
+                    && FIELD.equals(index.getIndexFields().get(0).getKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
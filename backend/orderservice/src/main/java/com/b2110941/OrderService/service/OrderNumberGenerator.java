@@ -0,0 +1,89 @@
+package com.b2110941.OrderService.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Sinh mã đơn hàng kiểu Snowflake: "M" + số 64 bit gồm
+ * [41 bit mili giây từ EPOCH][10 bit node][12 bit sequence].
+ * Mỗi node sinh được 4096 mã / mili giây, không dùng lock (CAS trên 1 AtomicLong) và luôn tăng dần
+ * kể cả khi đồng hồ hệ thống bị lùi. Các instance orderservice phải có node id khác nhau:
+ * cấu hình order.number.node-id, hoặc để trống thì node id được thuê từ MongoDB (OrderNodeIdLease).
+ */
+@Component
+@Slf4j
+public class OrderNumberGenerator {
+
+    static final long EPOCH = 1735689600000L; // 2025-01-01T00:00:00Z
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final LongSupplier nodeIds;
+    private final LongSupplier clock;
+
+    // (timestamp << SEQUENCE_BITS) | sequence của mã được cấp gần nhất
+    private final AtomicLong lastState = new AtomicLong();
+
+    @Autowired
+    public OrderNumberGenerator(@Value("${order.number.node-id:-1}") long configuredNodeId, OrderNodeIdLease nodeIdLease) {
+        this(configuredNodeId >= 0 ? fixedNodeId(configuredNodeId) : nodeIdLease::currentNodeId, System::currentTimeMillis);
+        if (configuredNodeId >= 0) {
+            log.info("Order number generator node id: {}", configuredNodeId);
+        } else {
+            log.info("Order number generator node id is leased from MongoDB");
+        }
+    }
+
+    OrderNumberGenerator(long nodeId, LongSupplier clock) {
+        this(fixedNodeId(nodeId), clock);
+    }
+
+    private OrderNumberGenerator(LongSupplier nodeIds, LongSupplier clock) {
+        this.nodeIds = nodeIds;
+        this.clock = clock;
+    }
+
+    private static LongSupplier fixedNodeId(long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("order.number.node-id must be between 0 and " + MAX_NODE_ID);
+        }
+        return () -> nodeId;
+    }
+
+    public String next() {
+        return "M" + nextId();
+    }
+
+    long nextId() {
+        long nodeId = nodeIds.getAsLong();
+        while (true) {
+            long last = lastState.get();
+            long lastTimestamp = last >>> SEQUENCE_BITS;
+            long now = clock.getAsLong() - EPOCH;
+
+            long next;
+            if (now > lastTimestamp) {
+                next = now << SEQUENCE_BITS;
+            } else if ((last & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                // Cùng mili giây hoặc đồng hồ bị lùi: tiếp tục tăng sequence trên timestamp cũ
+                next = last + 1;
+            } else {
+                // Hết sequence trong mili giây này: mượn mili giây kế tiếp
+                next = (lastTimestamp + 1) << SEQUENCE_BITS;
+            }
+
+            if (lastState.compareAndSet(last, next)) {
+                long timestamp = next >>> SEQUENCE_BITS;
+                long sequence = next & SEQUENCE_MASK;
+                return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | sequence;
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.b2110941.OrderService.service;
+
+import com.b2110941.OrderService.entity.Order;
+import com.b2110941.OrderService.entity.OutboxEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Xử lý nền các tác vụ phụ (outbox) của đơn hàng: tạo link VNPay, gửi thông báo trạng thái,
+ * xác nhận giữ hàng ở ProductService khi đơn đã thanh toán.
+ * - Tác vụ được ghi cùng đơn hàng (lúc tạo đơn, hoặc $push cùng update trạng thái) nên không bị mất khi service dừng giữa chừng.
+ * - Mỗi tác vụ được "claim" bằng 1 update có điều kiện trên nextAttemptAt (lease) nên nhiều instance
+ *   không xử lý trùng trong thời gian lease.
+ * - Pool worker có giới hạn; lỗi được thử lại với backoff lũy thừa, quá số lần thì chuyển sang failedOutbox.
+ * Đảm bảo at-least-once: thông báo có thể được gửi lại nếu instance chết sau khi gửi nhưng trước khi xóa tác vụ.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class OrderOutboxDispatcher {
+
+    private static final int POLL_BATCH_SIZE = 100;
+
+    private final MongoTemplate mongoTemplate;
+    private final RestTemplate restTemplate;
+    private final NotificationClientService notificationClientService;
+    private final ProductServiceClient productServiceClient;
+
+    @Value("${payment.service.url:http://localhost:9006}")
+    private String paymentServiceUrl;
+
+    @Value("${order.outbox.workers:4}")
+    private int workers;
+
+    @Value("${order.outbox.queue-capacity:200}")
+    private int queueCapacity;
+
+    @Value("${order.outbox.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${order.outbox.lease-seconds:60}")
+    private long leaseSeconds;
+
+    @Value("${order.outbox.max-backoff-seconds:300}")
+    private long maxBackoffSeconds;
+
+    private volatile ThreadPoolExecutor executor;
+
+    /**
+     * Xử lý ngay các tác vụ của 1 đơn hàng vừa lưu, không chờ tới lượt quét định kỳ.
+     */
+    public void dispatch(Order order) {
+        if (order.getOutbox() == null) {
+            return;
+        }
+        for (OutboxEvent event : order.getOutbox()) {
+            claimAndSubmit(order.getId(), event);
+        }
+    }
+
+    /**
+     * Xử lý ngay 1 tác vụ vừa được $push vào outbox của đơn hàng.
+     */
+    public void dispatch(String orderId, OutboxEvent event) {
+        claimAndSubmit(orderId, event);
+    }
+
+    @Scheduled(fixedDelayString = "${order.outbox.poll-interval-ms:2000}")
+    public void pollDueEvents() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            Query due = Query.query(Criteria.where("outbox").elemMatch(Criteria.where("nextAttemptAt").lte(now)))
+                    .with(Sort.by(Sort.Direction.ASC, "outbox.nextAttemptAt"))
+                    .limit(POLL_BATCH_SIZE);
+            due.fields().include("outbox");
+            for (Order order : mongoTemplate.find(due, Order.class)) {
+                for (OutboxEvent event : order.getOutbox()) {
+                    if (event.getNextAttemptAt() != null && !event.getNextAttemptAt().isAfter(now)) {
+                        claimAndSubmit(order.getId(), event);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Outbox poll failed: {}", e.getMessage());
+        }
+    }
+
+    private void claimAndSubmit(String orderId, OutboxEvent event) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime leaseUntil = now.plusSeconds(leaseSeconds);
+        Query claim = Query.query(Criteria.where("id").is(orderId)
+                .and("outbox").elemMatch(Criteria.where("eventId").is(event.getEventId()).and("nextAttemptAt").lte(now)));
+        Update lease = new Update().set("outbox.$[e].nextAttemptAt", leaseUntil)
+                .filterArray(Criteria.where("e.eventId").is(event.getEventId()));
+        if (mongoTemplate.updateFirst(claim, lease, Order.class).getModifiedCount() == 0) {
+            // Instance khác đã nhận tác vụ này
+            return;
+        }
+        try {
+            executor().execute(() -> process(orderId, event));
+        } catch (RejectedExecutionException e) {
+            // Hàng đợi đầy: tác vụ giữ nguyên trong outbox và được thử lại khi hết lease
+            log.warn("Outbox queue full, event {} of order {} deferred", event.getType(), orderId);
+        }
+    }
+
+    private void process(String orderId, OutboxEvent event) {
+        try {
+            handle(orderId, event);
+            mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(orderId)),
+                    new Update().pull("outbox", Query.query(Criteria.where("eventId").is(event.getEventId())).getQueryObject()),
+                    Order.class);
+        } catch (Exception e) {
+            onFailure(orderId, event, e);
+        }
+    }
+
+    private void handle(String orderId, OutboxEvent event) {
+        Map<String, String> p = event.getPayload();
+        switch (event.getType()) {
+            case OutboxEvent.CREATE_PAYMENT -> createPaymentUrl(orderId, p.get("orderNumber"), p.get("amount"));
+            case OutboxEvent.ORDER_STATUS_NOTIFICATION -> notificationClientService.sendOrderStatusNotification(
+                    p.get("userId"), orderId, p.get("orderNumber"), p.get("customerName"),
+                    p.get("customerEmail"), p.get("customerPhone"), p.get("previousStatus"), p.get("newStatus"));
+            case OutboxEvent.SHIPPING_STATUS_NOTIFICATION -> notificationClientService.sendShippingStatusNotification(
+                    p.get("userId"), orderId, p.get("orderNumber"), p.get("customerName"),
+                    p.get("customerEmail"), p.get("customerPhone"), p.get("previousStatus"), p.get("newStatus"));
+            case OutboxEvent.COMMIT_STOCK_HOLD -> productServiceClient.commitHold(p.get("orderNumber"));
+            default -> throw new IllegalStateException("Unknown outbox event type: " + event.getType());
+        }
+    }
+
+    private void createPaymentUrl(String orderId, String orderNumber, String amount) {
+        String url = paymentServiceUrl + "/api/payment/vnpay"
+                + "?amount=" + amount
+                + "&orderId=" + orderNumber;
+        ResponseEntity<Map> response = restTemplate.exchange(url, HttpMethod.GET, null, Map.class);
+        if (response.getBody() == null || response.getBody().get("url") == null) {
+            throw new IllegalStateException("PaymentService returned no url");
+        }
+        // Không ghi đè trạng thái nếu callback thanh toán đã về trước
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("id").is(orderId).and("paymentStatus").is("Chưa xử lý")),
+                new Update()
+                        .set("paymentUrl", response.getBody().get("url").toString())
+                        .set("paymentStatus", "Chờ thanh toán"),
+                Order.class);
+    }
+
+    private void onFailure(String orderId, OutboxEvent event, Exception error) {
+        int attempts = event.getAttempts() + 1;
+        String message = error.getMessage();
+
+        if (attempts >= maxAttempts) {
+            log.error("Outbox event {} of order {} failed after {} attempts: {}", event.getType(), orderId, attempts, message);
+            event.setAttempts(attempts);
+            event.setLastError(message);
+            mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(orderId)),
+                    new Update()
+                            .pull("outbox", Query.query(Criteria.where("eventId").is(event.getEventId())).getQueryObject())
+                            .push("failedOutbox", event),
+                    Order.class);
+            if (OutboxEvent.CREATE_PAYMENT.equals(event.getType())) {
+                mongoTemplate.updateFirst(
+                        Query.query(Criteria.where("id").is(orderId).and("paymentStatus").is("Chưa xử lý")),
+                        new Update().set("paymentStatus", "Lỗi thanh toán"),
+                        Order.class);
+            }
+            return;
+        }
+
+        // Backoff lũy thừa có jitter: 1s, 2s, 4s, ... tối đa maxBackoffSeconds
+        long backoffMillis = Math.min(maxBackoffSeconds * 1000, 1000L << Math.min(attempts - 1, 20));
+        backoffMillis += ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+        log.warn("Outbox event {} of order {} failed (attempt {}), retrying in {} ms: {}",
+                event.getType(), orderId, attempts, backoffMillis, message);
+        mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(orderId)),
+                new Update()
+                        .set("outbox.$[e].attempts", attempts)
+                        .set("outbox.$[e].lastError", message)
+                        .set("outbox.$[e].nextAttemptAt", LocalDateTime.now().plusNanos(backoffMillis * 1_000_000))
+                        .filterArray(Criteria.where("e.eventId").is(event.getEventId())),
+                Order.class);
+    }
+
+    private ThreadPoolExecutor executor() {
+        ThreadPoolExecutor current = executor;
+        if (current == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<>(queueCapacity),
+                            runnable -> {
+                                Thread thread = new Thread(runnable, "order-outbox-" + counter.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                }
+                current = executor;
+            }
+        }
+        return current;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -2,27 +2,27 @@ package com.b2110941.OrderService.service;
 
 import com.b2110941.OrderService.entity.Order;
 import com.b2110941.OrderService.entity.OrderItem;
+import com.b2110941.OrderService.entity.OutboxEvent;
 import com.b2110941.OrderService.payload.request.CreateOrderRequest;
 import com.b2110941.OrderService.payload.request.OrderItemRequest;
+import com.b2110941.OrderService.payload.request.OrderPageCriteria;
+import com.b2110941.OrderService.payload.response.OrderPageResponse;
 import com.b2110941.OrderService.payload.response.OrderResponse;
 import com.b2110941.OrderService.payload.response.OrderItemResponse;
 import com.b2110941.OrderService.repository.OrderRepository;
+import com.b2110941.OrderService.service.ProductDisplayCache.ProductDisplay;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
@@ -31,17 +31,17 @@ import java.util.stream.Collectors;
 public class OrderService {
 
     private final OrderRepository orderRepository;
-    private final RestTemplate restTemplate;
-    private final NotificationClientService notificationClientService;
+    private final OrderOutboxDispatcher outboxDispatcher;
+    private final ProductServiceClient productServiceClient;
+    private final OrderNumberGenerator orderNumberGenerator;
+    private final ProductDisplayCache productDisplayCache;
 
     @Value("${user.service.url:http://localhost:9001}")
     private String userServiceUrl;
 
-    @Value("${payment.service.url:http://localhost:9006}")
-    private String paymentServiceUrl;
-
-    @Value("${product.service.url:http://productservice:9004}")
-    private String productServiceUrl;
+    // Tắt để trả về đúng tên/ảnh đã lưu lúc đặt hàng, không gọi ProductService
+    @Value("${order.enrich-product-info:true}")
+    private boolean enrichProductInfo;
 
     public OrderResponse createOrder(CreateOrderRequest request) {
         try {
@@ -97,26 +97,42 @@ public class OrderService {
             order.setCreatedAt(now);
             order.setUpdatedAt(now);
             
+            // ✅ Trừ tồn kho trước khi lưu đơn hàng (all-or-nothing, ném IllegalStateException nếu không đủ hàng)
+            // Đơn thanh toán online chỉ giữ hàng có thời hạn, được xác nhận khi VNPay báo thanh toán thành công
+            boolean onlinePayment = !"cod".equalsIgnoreCase(request.getPaymentMethod());
+            if (onlinePayment) {
+                productServiceClient.holdStock(orderNumber, items);
+            } else {
+                productServiceClient.reserveStock(items);
+            }
+
+            // Link VNPay được tạo nền qua outbox, ghi cùng đơn hàng trong 1 lần save
+            if (onlinePayment) {
+                order.getOutbox().add(OutboxEvent.of(OutboxEvent.CREATE_PAYMENT, Map.of(
+                        "orderNumber", orderNumber,
+                        "amount", String.valueOf(order.getTotal().longValue()))));
+            }
+
             // Save order
-            Order savedOrder = orderRepository.save(order);
-            
-            // ✅ Cập nhật số lượng tồn kho sau khi tạo đơn hàng thành công
+            Order savedOrder;
             try {
-                updateProductStockQuantities(items);
-                log.info("✅ Đã cập nhật số lượng tồn kho cho đơn hàng: {}", orderNumber);
+                savedOrder = orderRepository.save(order);
             } catch (Exception e) {
-                log.error("❌ Lỗi khi cập nhật số lượng tồn kho: {}", e.getMessage());
-                // Không throw exception để tránh làm hỏng flow tạo đơn hàng
-                // Có thể gửi notification cho admin để xử lý thủ công
+                log.error("❌ Lỗi khi lưu đơn hàng {}, hoàn lại tồn kho: {}", orderNumber, e.getMessage());
+                if (onlinePayment) {
+                    productServiceClient.releaseHold(orderNumber);
+                } else {
+                    productServiceClient.restoreStock(items);
+                }
+                throw e;
             }
             
-            // If payment method is not COD, create payment
-            if (!"cod".equalsIgnoreCase(request.getPaymentMethod())) {
-                createPaymentForOrder(savedOrder);
-            }
+            outboxDispatcher.dispatch(savedOrder);
             
-            return convertToOrderResponse(savedOrder);
+            return convertToOrderResponse(savedOrder, Map.of());
             
+        } catch (IllegalStateException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error creating order: ", e);
             throw new RuntimeException("Failed to create order: " + e.getMessage());
@@ -141,16 +157,19 @@ public class OrderService {
 
     public List<OrderResponse> getOrdersByUserId(String userId) {
         List<Order> orders = orderRepository.findByUserIdOrderByCreatedAtDesc(userId);
-        return orders.stream()
-                .map(this::convertToOrderResponse)
-                .collect(Collectors.toList());
+        return convertToOrderResponses(orders);
     }
 
     public List<OrderResponse> getAllOrders() {
         List<Order> orders = orderRepository.findAll();
-        return orders.stream()
-                .map(this::convertToOrderResponse)
-                .collect(Collectors.toList());
+        return convertToOrderResponses(orders);
+    }
+
+    /**
+     * Danh sách đơn hàng cho trang quản trị: phân trang cursor, lọc phía server, chỉ trả về dữ liệu tóm tắt.
+     */
+    public OrderPageResponse getOrderPage(OrderPageCriteria criteria) {
+        return orderRepository.findPage(criteria);
     }
 
     public OrderResponse updateOrderStatus(String orderId, String orderStatus) {
@@ -159,30 +178,22 @@ public class OrderService {
 
         if (orderOpt.isPresent()) {
             Order order = orderOpt.get();
-            String previousStatus = order.getOrderStatus();
-            order.setOrderStatus(orderStatus);
-            order.setUpdatedAt(LocalDateTime.now());
-            
+            LocalDateTime now = LocalDateTime.now();
+            OutboxEvent event = OutboxEvent.statusNotification(
+                    OutboxEvent.ORDER_STATUS_NOTIFICATION, order, order.getOrderStatus(), orderStatus);
+
+            // Chỉ ghi trường thay đổi + $push tác vụ: không ghi đè outbox mà dispatcher đang sửa
+            Update update = new Update()
+                    .set("orderStatus", orderStatus)
+                    .set("updatedAt", now)
+                    .push("outbox", event);
             if ("Đã giao".equals(orderStatus)) {
-                order.setDeliveredAt(LocalDateTime.now());
+                update.set("deliveredAt", now);
             }
-            
-            Order savedOrder = orderRepository.save(order);
 
-            try {
-                notificationClientService.sendOrderStatusNotification(
-                        order.getUserId(),
-                        order.getId(),
-                        order.getOrderNumber(),
-                        order.getCustomerName(),
-                        order.getCustomerEmail(),
-                        order.getCustomerPhone(),
-                        previousStatus,
-                        orderStatus
-                );
-            } catch (Exception e) {
-                log.warn("Failed to send order status notification: {}", e.getMessage());
-            }
+            Order savedOrder = orderRepository.updateFields(order.getId(), update)
+                    .orElseThrow(() -> new RuntimeException("Order not found with id: " + orderId));
+            outboxDispatcher.dispatch(savedOrder.getId(), event);
 
             return convertToOrderResponse(savedOrder);
         }
@@ -195,31 +206,22 @@ public class OrderService {
     
         if (orderOpt.isPresent()) {
             Order order = orderOpt.get();
-            String previousShippingStatus = order.getShippingStatus();
-            order.setShippingStatus(shippingStatus);
-            order.setUpdatedAt(LocalDateTime.now());
-    
+            LocalDateTime now = LocalDateTime.now();
+            OutboxEvent event = OutboxEvent.statusNotification(
+                    OutboxEvent.SHIPPING_STATUS_NOTIFICATION, order, order.getShippingStatus(), shippingStatus);
+
+            Update update = new Update()
+                    .set("shippingStatus", shippingStatus)
+                    .set("updatedAt", now)
+                    .push("outbox", event);
             if ("Đã giao".equals(shippingStatus)) {
-                order.setShippedAt(LocalDateTime.now());
-                order.setDeliveredAt(LocalDateTime.now());
+                update.set("shippedAt", now);
+                update.set("deliveredAt", now);
             }
-    
-            Order savedOrder = orderRepository.save(order);
 
-            try {
-                notificationClientService.sendShippingStatusNotification(
-                        order.getUserId(),
-                        order.getId(),
-                        order.getOrderNumber(),
-                        order.getCustomerName(),
-                        order.getCustomerEmail(),
-                        order.getCustomerPhone(),
-                        previousShippingStatus,
-                        shippingStatus
-                );
-            } catch (Exception e) {
-                log.warn("Failed to send shipping status notification: {}", e.getMessage());
-            }
+            Order savedOrder = orderRepository.updateFields(order.getId(), update)
+                    .orElseThrow(() -> new RuntimeException("Order not found with order number: " + orderNumber));
+            outboxDispatcher.dispatch(savedOrder.getId(), event);
 
             return convertToOrderResponse(savedOrder);
         }
@@ -232,16 +234,25 @@ public class OrderService {
         // Optional<Order> orderOpt = orderRepository.findById(orderId);
         Optional<Order> orderOpt = orderRepository.findByOrderNumber(orderNumber);
         if (orderOpt.isPresent()) {
-            Order order = orderOpt.get();
-            order.setPaymentStatus(paymentStatus);
-            order.setTransactionId(transactionId);
-            order.setUpdatedAt(LocalDateTime.now());
-            
+            LocalDateTime now = LocalDateTime.now();
+            Update update = new Update()
+                    .set("paymentStatus", paymentStatus)
+                    .set("transactionId", transactionId)
+                    .set("updatedAt", now);
+            // Đã thanh toán: xác nhận giữ hàng qua outbox (thử lại tới khi ProductService nhận),
+            // ghi cùng trạng thái thanh toán nên không bị mất nếu service dừng ngay sau đó
+            OutboxEvent commitHold = null;
             if ("Đã thanh toán".equals(paymentStatus)) {
-                order.setPaidAt(LocalDateTime.now());
+                update.set("paidAt", now);
+                commitHold = OutboxEvent.of(OutboxEvent.COMMIT_STOCK_HOLD, Map.of("orderNumber", orderNumber));
+                update.push("outbox", commitHold);
+            }
+
+            Order savedOrder = orderRepository.updateFields(orderOpt.get().getId(), update)
+                    .orElseThrow(() -> new RuntimeException("Order not found with id: " + orderNumber));
+            if (commitHold != null) {
+                outboxDispatcher.dispatch(savedOrder.getId(), commitHold);
             }
-            
-            Order savedOrder = orderRepository.save(order);
             return convertToOrderResponse(savedOrder);
         }
         throw new RuntimeException("Order not found with id: " + orderNumber);
@@ -256,57 +267,8 @@ public class OrderService {
     }
 
     private String generateOrderNumber() {
-        LocalDateTime now = LocalDateTime.now();
-        String timestamp = now.format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
-        return "M" + timestamp;
-    }
-
-    /**
-     * Cập nhật số lượng tồn kho cho các sản phẩm trong đơn hàng
-     * Gọi ProductService để trừ số lượng hàng trong kho
-     */
-    private void updateProductStockQuantities(List<OrderItem> items) {
-        try {
-            // Chuẩn bị danh sách cập nhật số lượng
-            List<Map<String, Object>> stockUpdates = items.stream()
-                    .map(item -> {
-                        Map<String, Object> update = new HashMap<>();
-                        update.put("productId", item.getProductId());
-                        update.put("quantity", item.getQuantity());
-                        return update;
-                    })
-                    .collect(Collectors.toList());
-
-            // Gọi API batch update stock của ProductService
-            String updateStockUrl = productServiceUrl + "/api/products/batch-update-stock";
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(org.springframework.http.MediaType.APPLICATION_JSON);
-            
-            HttpEntity<List<Map<String, Object>>> request = new HttpEntity<>(stockUpdates, headers);
-            
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    updateStockUrl,
-                    HttpMethod.PUT,
-                    request,
-                    Map.class
-            );
-
-            if (response.getStatusCode().is2xxSuccessful()) {
-                Map<String, Object> result = response.getBody();
-                if (result != null && Boolean.TRUE.equals(result.get("success"))) {
-                    log.info("✅ Cập nhật số lượng tồn kho thành công cho {} sản phẩm", items.size());
-                } else {
-                    log.warn("⚠️ Cập nhật số lượng tồn kho không thành công: {}", result);
-                }
-            } else {
-                log.error("❌ Lỗi HTTP khi cập nhật số lượng tồn kho: {}", response.getStatusCode());
-            }
-
-        } catch (Exception e) {
-            log.error("❌ Lỗi khi gọi API cập nhật số lượng tồn kho: {}", e.getMessage());
-            throw new RuntimeException("Không thể cập nhật số lượng tồn kho: " + e.getMessage());
-        }
+        // Mã duy nhất giữa các instance (Snowflake), không trùng khi nhiều đơn trong cùng 1 giây
+        return orderNumberGenerator.next();
     }
 
     private OrderItem convertToOrderItem(OrderItemRequest request) {
@@ -325,40 +287,16 @@ public class OrderService {
         return item;
     }
 
-    private OrderItemResponse convertToOrderItemResponse(OrderItem item) {
-        try {
-            // Gọi ProductService để lấy thông tin sản phẩm mới nhất
-            String productUrl = productServiceUrl + "/api/products/" + item.getProductId();
-            ResponseEntity<Map> productResponse = restTemplate.getForEntity(productUrl, Map.class);
-            
-            if (productResponse.getStatusCode().is2xxSuccessful() && productResponse.getBody() != null) {
-                Map<String, Object> product = productResponse.getBody();
-                String updatedImage = (String) product.get("thumbnailUrl");
-                String updatedName = (String) product.get("name");
-                
-                return new OrderItemResponse(
-                        item.getProductId(),
-                        updatedName != null ? updatedName : item.getProductName(),
-                        updatedImage != null ? updatedImage : item.getProductImage(),
-                        item.getQuantity(),
-                        item.getPrice(),
-                        item.getTotalPrice(),
-                        item.getWeight(),
-                        item.getGoldAge(),
-                        item.getWage(),
-                        item.getCategory(),
-                        item.getBrand()
-                );
-            }
-        } catch (Exception e) {
-            log.warn("Failed to fetch product info for productId {}: {}", item.getProductId(), e.getMessage());
-        }
-        
-        // Fallback to stored data if ProductService call fails
+    private OrderItemResponse convertToOrderItemResponse(OrderItem item, Map<String, ProductDisplay> products) {
+        // Dữ liệu đã lưu trong OrderItem lúc đặt hàng; tên/ảnh mới nhất (nếu có) lấy từ cache sản phẩm
+        ProductDisplay product = products.get(item.getProductId());
+        String name = product != null && product.name() != null ? product.name() : item.getProductName();
+        String image = product != null && product.thumbnailUrl() != null ? product.thumbnailUrl() : item.getProductImage();
+
         return new OrderItemResponse(
                 item.getProductId(),
-                item.getProductName(),
-                item.getProductImage(),
+                name,
+                image,
                 item.getQuantity(),
                 item.getPrice(),
                 item.getTotalPrice(),
@@ -370,9 +308,37 @@ public class OrderService {
         );
     }
 
+    /**
+     * Chuyển 1 trang đơn hàng sang response: thông tin sản phẩm của cả trang được lấy bằng
+     * tối đa 1 lần gọi ProductService, không phụ thuộc số dòng hàng.
+     */
+    private List<OrderResponse> convertToOrderResponses(List<Order> orders) {
+        Map<String, ProductDisplay> products = loadProductDisplays(orders);
+        return orders.stream()
+                .map(order -> convertToOrderResponse(order, products))
+                .collect(Collectors.toList());
+    }
+
     private OrderResponse convertToOrderResponse(Order order) {
+        return convertToOrderResponse(order, loadProductDisplays(List.of(order)));
+    }
+
+    private Map<String, ProductDisplay> loadProductDisplays(List<Order> orders) {
+        if (!enrichProductInfo) {
+            return Map.of();
+        }
+        Set<String> productIds = new HashSet<>();
+        for (Order order : orders) {
+            if (order.getItems() != null) {
+                order.getItems().forEach(item -> productIds.add(item.getProductId()));
+            }
+        }
+        return productIds.isEmpty() ? Map.of() : productDisplayCache.getAll(productIds);
+    }
+
+    private OrderResponse convertToOrderResponse(Order order, Map<String, ProductDisplay> products) {
         List<OrderItemResponse> items = order.getItems().stream()
-                .map(this::convertToOrderItemResponse)
+                .map(item -> convertToOrderItemResponse(item, products))
                 .collect(Collectors.toList());
 
         return new OrderResponse(
@@ -422,34 +388,21 @@ public class OrderService {
                 request.getProvince());
     }
 
-    private void createPaymentForOrder(Order order) {
-        try {
-            String url = paymentServiceUrl + "/api/payment/vnpay"
-                       + "?amount=" + order.getTotal().longValue()
-                       + "&orderId=" + order.getOrderNumber();
-    
-            ResponseEntity<Map> response = restTemplate.exchange(url, HttpMethod.GET, null, Map.class);
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                String paymentUrl = response.getBody().get("url").toString();
-                order.setPaymentUrl(paymentUrl);
-                order.setPaymentStatus("Chờ thanh toán");
-                orderRepository.save(order);
-            }
-        } catch (Exception e) {
-            log.error("Lỗi khi tạo thanh toán VNPay: ", e);
-            order.setPaymentStatus("Lỗi thanh toán");
-            orderRepository.save(order);
-        }
-    }
     
     public OrderResponse cancelOrder(String orderId, String reason) {
         Optional<Order> orderOpt = orderRepository.findById(orderId);
         if (orderOpt.isPresent()) {
             Order order = orderOpt.get();
-            order.setOrderStatus("Đã hủy");
-            order.setNote(reason);
-            order.setUpdatedAt(LocalDateTime.now());
-            Order savedOrder = orderRepository.save(order);
+            Order savedOrder = orderRepository.updateFields(orderId, new Update()
+                            .set("orderStatus", "Đã hủy")
+                            .set("note", reason)
+                            .set("updatedAt", LocalDateTime.now()))
+                    .orElseThrow(() -> new RuntimeException("Order not found with id: " + orderId));
+
+            // Đơn online chưa thanh toán: trả lại hàng đang giữ ngay thay vì chờ hold hết hạn
+            if (!"cod".equalsIgnoreCase(order.getPaymentMethod()) && order.getPaidAt() == null) {
+                productServiceClient.releaseHold(order.getOrderNumber());
+            }
             return convertToOrderResponse(savedOrder);
         }
         throw new RuntimeException("Order not found with id: " + orderId);
@@ -464,8 +417,7 @@ public class OrderService {
             String invoiceUrl = String.format("http://orderservice:9003/api/orders/%s/invoice.pdf", order.getOrderNumber());
             
             // Lưu URL này vào database
-            order.setInvoiceUrl(invoiceUrl);
-            orderRepository.save(order);
+            orderRepository.updateFields(orderId, new Update().set("invoiceUrl", invoiceUrl));
             
             log.info("Generated invoice URL for order {}: {}", orderId, invoiceUrl);
             return invoiceUrl;
@@ -2,6 +2,7 @@ package com.b2110941.OrderService.service;
 
 import com.b2110941.OrderService.entity.Order;
 import com.b2110941.OrderService.entity.OrderItem;
+import com.b2110941.OrderService.entity.OutboxEvent;
 import com.b2110941.OrderService.payload.request.CreateOrderRequest;
 import com.b2110941.OrderService.payload.request.OrderItemRequest;
 import com.b2110941.OrderService.payload.response.OrderResponse;
@@ -10,16 +11,10 @@ import com.b2110941.OrderService.repository.OrderRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -30,15 +25,13 @@ import java.util.stream.Collectors;
 @Slf4j
 public class OrderServiceImpl implements IOrderService {
     private final OrderRepository orderRepository;
-    private final RestTemplate restTemplate;
-    private final NotificationClientService notificationClientService;
+    private final OrderOutboxDispatcher outboxDispatcher;
+    private final ProductServiceClient productServiceClient;
+    private final OrderNumberGenerator orderNumberGenerator;
 
     @Value("${user.service.url:http://localhost:9001}")
     private String userServiceUrl;
 
-    @Value("${payment.service.url:http://localhost:9004}")
-    private String paymentServiceUrl;
-
     @Override
     public OrderResponse createOrder(CreateOrderRequest request) {
         try {
@@ -94,26 +87,42 @@ public class OrderServiceImpl implements IOrderService {
             order.setCreatedAt(now);
             order.setUpdatedAt(now);
             
+            // ✅ Trừ tồn kho trước khi lưu đơn hàng (all-or-nothing, ném IllegalStateException nếu không đủ hàng)
+            // Đơn thanh toán online chỉ giữ hàng có thời hạn, được xác nhận khi VNPay báo thanh toán thành công
+            boolean onlinePayment = !"cod".equalsIgnoreCase(request.getPaymentMethod());
+            if (onlinePayment) {
+                productServiceClient.holdStock(orderNumber, items);
+            } else {
+                productServiceClient.reserveStock(items);
+            }
+
+            // Link VNPay được tạo nền qua outbox, ghi cùng đơn hàng trong 1 lần save
+            if (onlinePayment) {
+                order.getOutbox().add(OutboxEvent.of(OutboxEvent.CREATE_PAYMENT, Map.of(
+                        "orderNumber", orderNumber,
+                        "amount", String.valueOf(order.getTotal().longValue()))));
+            }
+
             // Save order
-            Order savedOrder = orderRepository.save(order);
-            
-            // ✅ Cập nhật số lượng tồn kho sau khi tạo đơn hàng thành công
+            Order savedOrder;
             try {
-                updateProductStockQuantities(items);
-                log.info("✅ Đã cập nhật số lượng tồn kho cho đơn hàng: {}", orderNumber);
+                savedOrder = orderRepository.save(order);
             } catch (Exception e) {
-                log.error("❌ Lỗi khi cập nhật số lượng tồn kho: {}", e.getMessage());
-                // Không throw exception để tránh làm hỏng flow tạo đơn hàng
-                // Có thể gửi notification cho admin để xử lý thủ công
+                log.error("❌ Lỗi khi lưu đơn hàng {}, hoàn lại tồn kho: {}", orderNumber, e.getMessage());
+                if (onlinePayment) {
+                    productServiceClient.releaseHold(orderNumber);
+                } else {
+                    productServiceClient.restoreStock(items);
+                }
+                throw e;
             }
             
-            // If payment method is not COD, create payment
-            if (!"cod".equalsIgnoreCase(request.getPaymentMethod())) {
-                createPaymentForOrder(savedOrder);
-            }
+            outboxDispatcher.dispatch(savedOrder);
             
             return convertToOrderResponse(savedOrder);
             
+        } catch (IllegalStateException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error creating order: ", e);
             throw new RuntimeException("Failed to create order: " + e.getMessage());
@@ -160,30 +169,22 @@ public class OrderServiceImpl implements IOrderService {
 
         if (orderOpt.isPresent()) {
             Order order = orderOpt.get();
-            String previousStatus = order.getOrderStatus();
-            order.setOrderStatus(orderStatus);
-            order.setUpdatedAt(LocalDateTime.now());
-            
+            LocalDateTime now = LocalDateTime.now();
+            OutboxEvent event = OutboxEvent.statusNotification(
+                    OutboxEvent.ORDER_STATUS_NOTIFICATION, order, order.getOrderStatus(), orderStatus);
+
+            // Chỉ ghi trường thay đổi + $push tác vụ: không ghi đè outbox mà dispatcher đang sửa
+            Update update = new Update()
+                    .set("orderStatus", orderStatus)
+                    .set("updatedAt", now)
+                    .push("outbox", event);
             if ("Đã giao".equals(orderStatus)) {
-                order.setDeliveredAt(LocalDateTime.now());
+                update.set("deliveredAt", now);
             }
-            
-            Order savedOrder = orderRepository.save(order);
 
-            try {
-                notificationClientService.sendOrderStatusNotification(
-                        order.getUserId(),
-                        order.getId(),
-                        order.getOrderNumber(),
-                        order.getCustomerName(),
-                        order.getCustomerEmail(),
-                        order.getCustomerPhone(),
-                        previousStatus,
-                        orderStatus
-                );
-            } catch (Exception e) {
-                log.warn("Failed to send order status notification: {}", e.getMessage());
-            }
+            Order savedOrder = orderRepository.updateFields(order.getId(), update)
+                    .orElseThrow(() -> new RuntimeException("Order not found with id: " + orderId));
+            outboxDispatcher.dispatch(savedOrder.getId(), event);
 
             return convertToOrderResponse(savedOrder);
         }
@@ -196,31 +197,22 @@ public class OrderServiceImpl implements IOrderService {
     
         if (orderOpt.isPresent()) {
             Order order = orderOpt.get();
-            String previousShippingStatus = order.getShippingStatus();
-            order.setShippingStatus(shippingStatus);
-            order.setUpdatedAt(LocalDateTime.now());
-    
+            LocalDateTime now = LocalDateTime.now();
+            OutboxEvent event = OutboxEvent.statusNotification(
+                    OutboxEvent.SHIPPING_STATUS_NOTIFICATION, order, order.getShippingStatus(), shippingStatus);
+
+            Update update = new Update()
+                    .set("shippingStatus", shippingStatus)
+                    .set("updatedAt", now)
+                    .push("outbox", event);
             if ("Đã giao".equals(shippingStatus)) {
-                order.setShippedAt(LocalDateTime.now());
-                order.setDeliveredAt(LocalDateTime.now());
+                update.set("shippedAt", now);
+                update.set("deliveredAt", now);
             }
-    
-            Order savedOrder = orderRepository.save(order);
 
-            try {
-                notificationClientService.sendShippingStatusNotification(
-                        order.getUserId(),
-                        order.getId(),
-                        order.getOrderNumber(),
-                        order.getCustomerName(),
-                        order.getCustomerEmail(),
-                        order.getCustomerPhone(),
-                        previousShippingStatus,
-                        shippingStatus
-                );
-            } catch (Exception e) {
-                log.warn("Failed to send shipping status notification: {}", e.getMessage());
-            }
+            Order savedOrder = orderRepository.updateFields(order.getId(), update)
+                    .orElseThrow(() -> new RuntimeException("Order not found with order number: " + orderNumber));
+            outboxDispatcher.dispatch(savedOrder.getId(), event);
 
             return convertToOrderResponse(savedOrder);
         }
@@ -232,16 +224,25 @@ public class OrderServiceImpl implements IOrderService {
     public OrderResponse updatePaymentStatus(String orderNumber, String paymentStatus, String transactionId) {
         Optional<Order> orderOpt = orderRepository.findByOrderNumber(orderNumber);
         if (orderOpt.isPresent()) {
-            Order order = orderOpt.get();
-            order.setPaymentStatus(paymentStatus);
-            order.setTransactionId(transactionId);
-            order.setUpdatedAt(LocalDateTime.now());
-            
+            LocalDateTime now = LocalDateTime.now();
+            Update update = new Update()
+                    .set("paymentStatus", paymentStatus)
+                    .set("transactionId", transactionId)
+                    .set("updatedAt", now);
+            // Đã thanh toán: xác nhận giữ hàng qua outbox (thử lại tới khi ProductService nhận),
+            // ghi cùng trạng thái thanh toán nên không bị mất nếu service dừng ngay sau đó
+            OutboxEvent commitHold = null;
             if ("Đã thanh toán".equals(paymentStatus)) {
-                order.setPaidAt(LocalDateTime.now());
+                update.set("paidAt", now);
+                commitHold = OutboxEvent.of(OutboxEvent.COMMIT_STOCK_HOLD, Map.of("orderNumber", orderNumber));
+                update.push("outbox", commitHold);
+            }
+
+            Order savedOrder = orderRepository.updateFields(orderOpt.get().getId(), update)
+                    .orElseThrow(() -> new RuntimeException("Order not found with id: " + orderNumber));
+            if (commitHold != null) {
+                outboxDispatcher.dispatch(savedOrder.getId(), commitHold);
             }
-            
-            Order savedOrder = orderRepository.save(order);
             return convertToOrderResponse(savedOrder);
         }
         throw new RuntimeException("Order not found with id: " + orderNumber);
@@ -267,14 +268,19 @@ public class OrderServiceImpl implements IOrderService {
                 throw new IllegalStateException("Chỉ được hủy đơn hàng khi trạng thái là 'Chưa xử lý'");
             }
 
-            order.setOrderStatus("Đã hủy");
-            order.setUpdatedAt(LocalDateTime.now());
-
             String updatedNote = order.getNote() != null ? order.getNote() + " | " : "";
             updatedNote += (reason != null ? "Lý do hủy: " + reason : "Lý do hủy: Không có lý do");
-            order.setNote(updatedNote);
 
-            Order savedOrder = orderRepository.save(order);
+            Order savedOrder = orderRepository.updateFields(orderId, new Update()
+                            .set("orderStatus", "Đã hủy")
+                            .set("note", updatedNote)
+                            .set("updatedAt", LocalDateTime.now()))
+                    .orElseThrow(() -> new RuntimeException("Order not found with id: " + orderId));
+
+            // Đơn online chưa thanh toán: trả lại hàng đang giữ ngay thay vì chờ hold hết hạn
+            if (!"cod".equalsIgnoreCase(order.getPaymentMethod()) && order.getPaidAt() == null) {
+                productServiceClient.releaseHold(order.getOrderNumber());
+            }
             return convertToOrderResponse(savedOrder);
         }
 
@@ -282,57 +288,8 @@ public class OrderServiceImpl implements IOrderService {
     }
 
     private String generateOrderNumber() {
-        LocalDateTime now = LocalDateTime.now();
-        String timestamp = now.format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
-        return "M" + timestamp;
-    }
-
-    /**
-     * Cập nhật số lượng tồn kho cho các sản phẩm trong đơn hàng
-     * Gọi ProductService để trừ số lượng hàng trong kho
-     */
-    private void updateProductStockQuantities(List<OrderItem> items) {
-        try {
-            // Chuẩn bị danh sách cập nhật số lượng
-            List<Map<String, Object>> stockUpdates = items.stream()
-                    .map(item -> {
-                        Map<String, Object> update = new HashMap<>();
-                        update.put("productId", item.getProductId());
-                        update.put("quantity", item.getQuantity());
-                        return update;
-                    })
-                    .collect(Collectors.toList());
-
-            // Gọi API batch update stock của ProductService
-            String updateStockUrl = "http://productservice:9004/api/products/batch-update-stock";
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(org.springframework.http.MediaType.APPLICATION_JSON);
-            
-            HttpEntity<List<Map<String, Object>>> request = new HttpEntity<>(stockUpdates, headers);
-            
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    updateStockUrl,
-                    HttpMethod.PUT,
-                    request,
-                    Map.class
-            );
-
-            if (response.getStatusCode().is2xxSuccessful()) {
-                Map<String, Object> result = response.getBody();
-                if (result != null && Boolean.TRUE.equals(result.get("success"))) {
-                    log.info("✅ Cập nhật số lượng tồn kho thành công cho {} sản phẩm", items.size());
-                } else {
-                    log.warn("⚠️ Cập nhật số lượng tồn kho không thành công: {}", result);
-                }
-            } else {
-                log.error("❌ Lỗi HTTP khi cập nhật số lượng tồn kho: {}", response.getStatusCode());
-            }
-
-        } catch (Exception e) {
-            log.error("❌ Lỗi khi gọi API cập nhật số lượng tồn kho: {}", e.getMessage());
-            throw new RuntimeException("Không thể cập nhật số lượng tồn kho: " + e.getMessage());
-        }
+        // Mã duy nhất giữa các instance (Snowflake), không trùng khi nhiều đơn trong cùng 1 giây
+        return orderNumberGenerator.next();
     }
 
     private OrderItem convertToOrderItem(OrderItemRequest request) {
@@ -419,23 +376,4 @@ public class OrderServiceImpl implements IOrderService {
                 request.getProvince());
     }
 
-    private void createPaymentForOrder(Order order) {
-        try {
-            String url = paymentServiceUrl + "/api/payment/vnpay"
-                       + "?amount=" + order.getTotal().longValue()
-                       + "&orderId=" + order.getOrderNumber();
-    
-            ResponseEntity<Map> response = restTemplate.exchange(url, HttpMethod.GET, null, Map.class);
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                String paymentUrl = response.getBody().get("url").toString();
-                order.setPaymentUrl(paymentUrl);
-                order.setPaymentStatus("Chờ thanh toán");
-                orderRepository.save(order);
-            }
-        } catch (Exception e) {
-            log.error("Lỗi khi tạo thanh toán VNPay: ", e);
-            order.setPaymentStatus("Lỗi thanh toán");
-            orderRepository.save(order);
-        }
-    }
 }
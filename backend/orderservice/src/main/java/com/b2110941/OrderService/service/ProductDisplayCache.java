@@ -0,0 +1,117 @@
+package com.b2110941.OrderService.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache LRU thông tin hiển thị sản phẩm (tên, ảnh) cho trang danh sách đơn hàng.
+ * Các sản phẩm chưa có trong cache được lấy bằng 1 lần gọi /api/products/batch cho cả trang,
+ * thay vì gọi GET /api/products/{id} cho từng dòng hàng.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ProductDisplayCache {
+
+    private static final int MAX_IDS_PER_CALL = 200;
+
+    private final RestTemplate restTemplate;
+
+    @Value("${product.service.url:http://productservice:9004}")
+    private String productServiceUrl;
+
+    @Value("${order.product-cache.max-entries:5000}")
+    private int maxEntries = 5000;
+
+    @Value("${order.product-cache.ttl-seconds:300}")
+    private long ttlSeconds = 300;
+
+    private final Map<String, ProductDisplay> cache = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ProductDisplay> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    /**
+     * Trả về thông tin hiển thị cho các productId. Sản phẩm không lấy được sẽ không có trong kết quả,
+     * khi đó người gọi dùng dữ liệu đã lưu trong OrderItem.
+     */
+    public Map<String, ProductDisplay> getAll(Collection<String> productIds) {
+        Map<String, ProductDisplay> result = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        long now = System.currentTimeMillis();
+
+        synchronized (cache) {
+            for (String productId : productIds) {
+                if (productId == null) {
+                    continue;
+                }
+                ProductDisplay display = cache.get(productId);
+                if (display != null && now - display.loadedAt() < ttlSeconds * 1000) {
+                    result.put(productId, display);
+                } else {
+                    missing.add(productId);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<String> ids = new ArrayList<>(missing);
+            for (int from = 0; from < ids.size(); from += MAX_IDS_PER_CALL) {
+                Map<String, ProductDisplay> fetched = fetch(ids.subList(from, Math.min(ids.size(), from + MAX_IDS_PER_CALL)), now);
+                result.putAll(fetched);
+                synchronized (cache) {
+                    cache.putAll(fetched);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Map<String, ProductDisplay> fetch(List<String> productIds, long now) {
+        Map<String, ProductDisplay> fetched = new HashMap<>();
+        try {
+            String url = productServiceUrl + "/api/products/batch?ids=" + String.join(",", productIds);
+            ResponseEntity<List<Map<String, Object>>> response = restTemplate.exchange(
+                    url,
+                    HttpMethod.GET,
+                    null,
+                    new ParameterizedTypeReference<List<Map<String, Object>>>() {}
+            );
+            if (response.getBody() != null) {
+                for (Map<String, Object> product : response.getBody()) {
+                    Object id = product.get("id");
+                    if (id != null) {
+                        fetched.put(id.toString(), new ProductDisplay(
+                                (String) product.get("name"),
+                                (String) product.get("thumbnailUrl"),
+                                now
+                        ));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to fetch product info for {} products: {}", productIds.size(), e.getMessage());
+        }
+        return fetched;
+    }
+
+    public record ProductDisplay(String name, String thumbnailUrl, long loadedAt) {
+    }
+}
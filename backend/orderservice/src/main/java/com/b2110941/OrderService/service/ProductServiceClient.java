@@ -0,0 +1,162 @@
+package com.b2110941.OrderService.service;
+
+import com.b2110941.OrderService.entity.OrderItem;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Client gọi ProductService để giữ / hoàn tồn kho cho đơn hàng.
+ * ProductService xử lý cả đơn hàng trong 1 batch all-or-nothing nên ở đây chỉ nhận
+ * 1 kết quả thành công hoặc thất bại duy nhất.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductServiceClient {
+
+    private final RestTemplate restTemplate;
+
+    @Value("${product.service.url:http://productservice:9004}")
+    private String productServiceUrl;
+
+    /**
+     * Trừ tồn kho cho toàn bộ sản phẩm trong đơn hàng.
+     * Ném IllegalStateException nếu có sản phẩm không đủ hàng (không sản phẩm nào bị trừ).
+     */
+    public void reserveStock(List<OrderItem> items) {
+        try {
+            ResponseEntity<Map> response = restTemplate.exchange(
+                    productServiceUrl + "/api/products/batch-update-stock",
+                    HttpMethod.PUT,
+                    toRequest(items),
+                    Map.class
+            );
+            Map<String, Object> result = response.getBody();
+            if (result == null || !Boolean.TRUE.equals(result.get("success"))) {
+                throw new IllegalStateException("Không thể cập nhật số lượng tồn kho: " + result);
+            }
+            log.info("✅ Đã trừ tồn kho cho {} sản phẩm", items.size());
+        } catch (HttpClientErrorException e) {
+            if (e.getStatusCode() == HttpStatus.CONFLICT) {
+                log.warn("⚠️ Sản phẩm không đủ hàng: {}", e.getResponseBodyAsString());
+                throw new IllegalStateException("Số lượng tồn kho không đủ");
+            }
+            throw new RuntimeException("Không thể cập nhật số lượng tồn kho: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Giữ hàng có thời hạn cho đơn thanh toán online: kho được trừ ngay nhưng sẽ tự hoàn lại
+     * nếu PaymentService không xác nhận thanh toán trước khi hold hết hạn.
+     * Ném IllegalStateException nếu có sản phẩm không đủ hàng.
+     */
+    public void holdStock(String orderNumber, List<OrderItem> items) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("orderNumber", orderNumber);
+        body.put("items", toRequest(items).getBody());
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        try {
+            restTemplate.postForEntity(
+                    productServiceUrl + "/api/products/reservations",
+                    new HttpEntity<>(body, headers),
+                    Map.class
+            );
+            log.info("✅ Đã giữ hàng cho đơn {}", orderNumber);
+        } catch (HttpClientErrorException e) {
+            if (e.getStatusCode() == HttpStatus.CONFLICT) {
+                log.warn("⚠️ Không đủ hàng để giữ cho đơn {}: {}", orderNumber, e.getResponseBodyAsString());
+                throw new IllegalStateException("Số lượng tồn kho không đủ");
+            }
+            throw new RuntimeException("Không thể giữ hàng: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Xác nhận giữ hàng của đơn đã thanh toán để sweeper của ProductService không hoàn kho.
+     * Gọi lại nhiều lần vẫn an toàn. Lỗi mạng / 5xx được ném ra để outbox thử lại;
+     * 409 (không có hold, hoặc hold đã hết hạn mà kho không còn đủ để trừ lại) thì thử lại cũng vô ích.
+     */
+    public void commitHold(String orderNumber) {
+        try {
+            restTemplate.exchange(
+                    productServiceUrl + "/api/products/reservations/" + orderNumber + "/commit",
+                    HttpMethod.PUT,
+                    null,
+                    Map.class
+            );
+            log.info("✅ Đã xác nhận giữ hàng cho đơn {}", orderNumber);
+        } catch (HttpClientErrorException e) {
+            if (e.getStatusCode() == HttpStatus.CONFLICT) {
+                log.error("❌ Không xác nhận được giữ hàng cho đơn {}: {}", orderNumber, e.getResponseBodyAsString());
+                return;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Hủy giữ hàng của đơn chưa thanh toán và hoàn kho.
+     */
+    public void releaseHold(String orderNumber) {
+        try {
+            restTemplate.exchange(
+                    productServiceUrl + "/api/products/reservations/" + orderNumber + "/release",
+                    HttpMethod.PUT,
+                    null,
+                    Map.class
+            );
+            log.info("✅ Đã hủy giữ hàng cho đơn {}", orderNumber);
+        } catch (Exception e) {
+            // Hold vẫn sẽ được sweeper của ProductService hoàn kho khi hết hạn
+            log.error("❌ Lỗi khi hủy giữ hàng cho đơn {}: {}", orderNumber, e.getMessage());
+        }
+    }
+
+    /**
+     * Hoàn lại tồn kho đã trừ (ví dụ khi lưu đơn hàng thất bại).
+     */
+    public void restoreStock(List<OrderItem> items) {
+        try {
+            restTemplate.exchange(
+                    productServiceUrl + "/api/products/batch-restore-stock",
+                    HttpMethod.PUT,
+                    toRequest(items),
+                    Map.class
+            );
+            log.info("✅ Đã hoàn tồn kho cho {} sản phẩm", items.size());
+        } catch (Exception e) {
+            log.error("❌ Lỗi khi hoàn tồn kho: {}", e.getMessage());
+        }
+    }
+
+    private HttpEntity<List<Map<String, Object>>> toRequest(List<OrderItem> items) {
+        List<Map<String, Object>> stockUpdates = items.stream()
+                .map(item -> {
+                    Map<String, Object> update = new HashMap<>();
+                    update.put("productId", item.getProductId());
+                    update.put("quantity", item.getQuantity());
+                    return update;
+                })
+                .collect(Collectors.toList());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new HttpEntity<>(stockUpdates, headers);
+    }
+}
@@ -0,0 +1,115 @@
+package com.b2110941.OrderService.repository;
+
+import com.b2110941.OrderService.entity.Order;
+import com.b2110941.OrderService.entity.OrderItem;
+import com.b2110941.OrderService.payload.request.OrderPageCriteria;
+import com.b2110941.OrderService.payload.response.OrderPageResponse;
+import com.b2110941.OrderService.payload.response.OrderSummaryResponse;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.net.InetSocketAddress;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderRepositoryImplTests {
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private OrderRepositoryImpl repository;
+
+    @BeforeEach
+    void setUp() {
+        server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+        client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        mongoTemplate = new MongoTemplate(client, "order_page_test");
+        repository = new OrderRepositoryImpl(mongoTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    void pagesWalkAllOrdersNewestFirstWithoutDuplicates() {
+        LocalDateTime base = LocalDateTime.of(2025, 1, 1, 8, 0);
+        for (int i = 0; i < 25; i++) {
+            // Nhiều đơn cùng createdAt để kiểm tra tie-breaker theo _id
+            saveOrder("M" + i, base.plusMinutes(i / 3), i % 2 == 0 ? "Chưa xử lý" : "Đã giao");
+        }
+
+        List<OrderSummaryResponse> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            OrderPageResponse page = repository.findPage(OrderPageCriteria.builder().cursor(cursor).size(7).build());
+            seen.addAll(page.getItems());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(25, seen.size());
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < seen.size(); i++) {
+            assertTrue(ids.add(seen.get(i).getId()));
+            assertEquals(2, seen.get(i).getItemCount());
+            if (i > 0) {
+                assertTrue(!seen.get(i).getCreatedAt().isAfter(seen.get(i - 1).getCreatedAt()));
+            }
+        }
+    }
+
+    @Test
+    void filtersByStatusAndCustomer() {
+        LocalDateTime base = LocalDateTime.of(2025, 1, 1, 8, 0);
+        for (int i = 0; i < 10; i++) {
+            saveOrder("M" + i, base.plusHours(i), i < 4 ? "Đã hủy" : "Chưa xử lý");
+        }
+
+        OrderPageResponse cancelled = repository.findPage(
+                OrderPageCriteria.builder().orderStatus("Đã hủy").size(10).build());
+        assertEquals(4, cancelled.getItems().size());
+        assertNull(cancelled.getNextCursor());
+
+        OrderPageResponse byCustomer = repository.findPage(
+                OrderPageCriteria.builder().customer("khách 7").size(10).build());
+        assertEquals(1, byCustomer.getItems().size());
+        assertEquals("M7", byCustomer.getItems().get(0).getOrderNumber());
+        // Tên chỉ khớp theo tiền tố
+        assertTrue(repository.findPage(OrderPageCriteria.builder().customer("7").size(10).build()).getItems().isEmpty());
+
+        OrderPageResponse byDate = repository.findPage(OrderPageCriteria.builder()
+                .from(base.plusHours(2)).to(base.plusHours(5)).size(10).build());
+        assertEquals(3, byDate.getItems().size());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> repository.findPage(OrderPageCriteria.builder().cursor("not-a-cursor").size(10).build()));
+    }
+
+    private void saveOrder(String orderNumber, LocalDateTime createdAt, String orderStatus) {
+        Order order = new Order();
+        order.setOrderNumber(orderNumber);
+        order.setCustomerName("Khách " + orderNumber.substring(1));
+        order.setOrderStatus(orderStatus);
+        order.setTotal(1_000_000d);
+        order.setItems(List.of(new OrderItem(), new OrderItem()));
+        order.setCreatedAt(createdAt);
+        mongoTemplate.insert(order);
+    }
+}
@@ -0,0 +1,77 @@
+package com.b2110941.OrderService.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NotificationClientServiceTests {
+
+    @Test
+    void healthiestEndpointIsPreferredAfterFailure() {
+        RestTemplate restTemplate = mock(RestTemplate.class);
+        when(restTemplate.postForEntity(startsWith("http://down:9002"), any(HttpEntity.class), eq(String.class)))
+                .thenThrow(new ResourceAccessException("connect timed out"));
+        when(restTemplate.postForEntity(startsWith("http://up:9006"), any(HttpEntity.class), eq(String.class)))
+                .thenReturn(ResponseEntity.ok("ok"));
+        NotificationClientService client = newClient(restTemplate, "http://down:9002,http://up:9006");
+
+        for (int i = 0; i < 10; i++) {
+            client.sendOrderStatusNotification("u1", "o1", "M1", "A", "a@x.vn", "090", "Chưa xử lý", "Đã xác nhận");
+        }
+
+        // Chỉ lần đầu thử endpoint lỗi; sau đó endpoint khỏe luôn được chọn trước
+        verify(restTemplate, times(1)).postForEntity(startsWith("http://down:9002"), any(HttpEntity.class), eq(String.class));
+        verify(restTemplate, times(10)).postForEntity(startsWith("http://up:9006"), any(HttpEntity.class), eq(String.class));
+    }
+
+    @Test
+    void openCircuitFailsFastWithoutCallingDeadHost() {
+        RestTemplate restTemplate = mock(RestTemplate.class);
+        when(restTemplate.postForEntity(any(String.class), any(HttpEntity.class), eq(String.class)))
+                .thenThrow(new ResourceAccessException("connect timed out"));
+        NotificationClientService client = newClient(restTemplate, "http://down:9002");
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(RuntimeException.class, () -> client.sendShippingStatusNotification(
+                    "u1", "o1", "M1", "A", "a@x.vn", "090", "Chưa giao hàng", "Đang giao"));
+        }
+        verify(restTemplate, times(3)).postForEntity(any(String.class), any(HttpEntity.class), eq(String.class));
+
+        // Mạch đã mở: lỗi ngay, không gọi host
+        assertThrows(IllegalStateException.class, () -> client.sendShippingStatusNotification(
+                "u1", "o1", "M1", "A", "a@x.vn", "090", "Chưa giao hàng", "Đang giao"));
+        verify(restTemplate, times(3)).postForEntity(any(String.class), any(HttpEntity.class), eq(String.class));
+    }
+
+    @Test
+    void unreachableEndpointIsSkipped() {
+        RestTemplate restTemplate = mock(RestTemplate.class);
+        NotificationClientService client = newClient(restTemplate, "http://127.0.0.1:1");
+
+        client.checkEndpoints();
+
+        assertThrows(IllegalStateException.class, () -> client.sendOrderStatusNotification(
+                "u1", "o1", "M1", "A", "a@x.vn", "090", "Chưa xử lý", "Đã xác nhận"));
+        verify(restTemplate, never()).postForEntity(any(String.class), any(HttpEntity.class), eq(String.class));
+    }
+
+    private NotificationClientService newClient(RestTemplate restTemplate, String urls) {
+        NotificationClientService client = new NotificationClientService(restTemplate);
+        ReflectionTestUtils.setField(client, "notificationServiceUrls", urls);
+        client.initEndpoints();
+        return client;
+    }
+}
@@ -0,0 +1,91 @@
+package com.b2110941.OrderService.service;
+
+import com.b2110941.OrderService.entity.Order;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.domain.Sort;
+
+import java.net.InetSocketAddress;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderNumberDeduplicatorTests {
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private OrderNumberDeduplicator deduplicator;
+
+    @BeforeEach
+    void setUp() {
+        server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+        client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        mongoTemplate = new MongoTemplate(client, "order_number_test");
+        deduplicator = new OrderNumberDeduplicator(mongoTemplate,
+                new OrderNumberGenerator(1, System::currentTimeMillis));
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    void renumbersDuplicatesSoTheUniqueIndexCanBeCreated() {
+        LocalDateTime now = LocalDateTime.now();
+        Order first = saveOrder("M20250101", now.minusMinutes(3));
+        Order second = saveOrder("M20250101", now.minusMinutes(2));
+        saveOrder("M20250101-2", now.minusMinutes(5));
+        Order third = saveOrder("M20250101", now.minusMinutes(1));
+        Order missing = saveOrder(null, now);
+
+        assertEquals(3, deduplicator.deduplicate());
+
+        assertEquals("M20250101", numberOf(first));
+        assertEquals("M20250101-3", numberOf(second));
+        assertEquals("M20250101-4", numberOf(third));
+        assertNotNull(numberOf(missing));
+        Set<String> numbers = mongoTemplate.findAll(Order.class).stream()
+                .map(Order::getOrderNumber).collect(Collectors.toSet());
+        assertEquals(5, numbers.size());
+
+        mongoTemplate.indexOps(Order.class).createIndex(new Index("orderNumber", Sort.Direction.ASC).unique());
+        assertEquals(0, deduplicator.deduplicate());
+    }
+
+    @Test
+    void leavesUniqueNumbersAlone() {
+        saveOrder("M1", LocalDateTime.now());
+        saveOrder("M2", LocalDateTime.now());
+
+        assertEquals(0, deduplicator.deduplicate());
+        assertTrue(List.of("M1", "M2").containsAll(
+                mongoTemplate.findAll(Order.class).stream().map(Order::getOrderNumber).toList()));
+    }
+
+    private String numberOf(Order order) {
+        return mongoTemplate.findById(order.getId(), Order.class).getOrderNumber();
+    }
+
+    private Order saveOrder(String orderNumber, LocalDateTime createdAt) {
+        Order order = new Order();
+        order.setOrderNumber(orderNumber);
+        order.setCreatedAt(createdAt);
+        return mongoTemplate.insert(order);
+    }
+}
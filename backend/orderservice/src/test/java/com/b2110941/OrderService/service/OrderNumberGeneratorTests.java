@@ -0,0 +1,80 @@
+package com.b2110941.OrderService.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderNumberGeneratorTests {
+
+    @Test
+    void noDuplicatesAcrossInstancesAndMonotonicPerThread() throws Exception {
+        int instances = 4;
+        int threadsPerInstance = 4;
+        int perThread = 25_000;
+        Set<Long> issued = ConcurrentHashMap.newKeySet();
+
+        ExecutorService pool = Executors.newFixedThreadPool(instances * threadsPerInstance);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int node = 0; node < instances; node++) {
+            // Mỗi generator mô phỏng 1 instance orderservice với node id riêng
+            OrderNumberGenerator generator = new OrderNumberGenerator(node, System::currentTimeMillis);
+            for (int t = 0; t < threadsPerInstance; t++) {
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    long previous = -1;
+                    for (int i = 0; i < perThread; i++) {
+                        long id = generator.nextId();
+                        assertTrue(id > previous, "id went backwards: " + id + " after " + previous);
+                        previous = id;
+                        issued.add(id);
+                    }
+                    return null;
+                }));
+            }
+        }
+
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(instances * threadsPerInstance * perThread, issued.size());
+    }
+
+    @Test
+    void staysMonotonicWhenClockMovesBackwards() {
+        AtomicLong now = new AtomicLong(OrderNumberGenerator.EPOCH + 10_000);
+        OrderNumberGenerator generator = new OrderNumberGenerator(7, now::get);
+
+        long previous = generator.nextId();
+        for (int i = 0; i < 10_000; i++) {
+            if (i == 5_000) {
+                now.addAndGet(-2_000);
+            }
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            previous = id;
+        }
+    }
+
+    @Test
+    void rejectsNodeIdOutOfRange() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new OrderNumberGenerator(OrderNumberGenerator.MAX_NODE_ID + 1, System::currentTimeMillis));
+    }
+}
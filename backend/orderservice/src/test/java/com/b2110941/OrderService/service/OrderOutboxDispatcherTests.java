@@ -0,0 +1,162 @@
+package com.b2110941.OrderService.service;
+
+import com.b2110941.OrderService.entity.Order;
+import com.b2110941.OrderService.entity.OutboxEvent;
+import com.b2110941.OrderService.repository.OrderRepositoryImpl;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class OrderOutboxDispatcherTests {
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private NotificationClientService notifications;
+    private ProductServiceClient products;
+    private OrderOutboxDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+        client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        mongoTemplate = new MongoTemplate(client, "outbox_test");
+        notifications = mock(NotificationClientService.class);
+        products = mock(ProductServiceClient.class);
+
+        dispatcher = new OrderOutboxDispatcher(mongoTemplate, new RestTemplate(), notifications, products);
+        ReflectionTestUtils.setField(dispatcher, "workers", 2);
+        ReflectionTestUtils.setField(dispatcher, "queueCapacity", 10);
+        ReflectionTestUtils.setField(dispatcher, "maxAttempts", 2);
+        ReflectionTestUtils.setField(dispatcher, "leaseSeconds", 60L);
+        ReflectionTestUtils.setField(dispatcher, "maxBackoffSeconds", 1L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.shutdown();
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    void deliveredEventIsRemovedFromOutbox() throws Exception {
+        Order order = saveOrderWithNotification();
+
+        dispatcher.dispatch(order);
+
+        Order reloaded = await(order.getId(), o -> o.getOutbox().isEmpty());
+        assertTrue(reloaded.getOutbox().isEmpty());
+        verify(notifications, times(1)).sendOrderStatusNotification(
+                any(), any(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void failingEventIsRetriedThenParked() throws Exception {
+        doThrow(new RuntimeException("notification down")).when(notifications)
+                .sendOrderStatusNotification(any(), any(), any(), any(), any(), any(), any(), any());
+        Order order = saveOrderWithNotification();
+
+        dispatcher.dispatch(order);
+        Order retried = await(order.getId(), o -> !o.getOutbox().isEmpty() && o.getOutbox().get(0).getAttempts() == 1);
+        assertTrue(retried.getOutbox().get(0).getNextAttemptAt().isAfter(LocalDateTime.now().minusSeconds(1)));
+
+        // Lần thử thứ 2 (maxAttempts) thất bại: chuyển sang failedOutbox; quét lại tới khi hết backoff
+        Order parked = await(order.getId(), o -> {
+            if (!o.getOutbox().isEmpty()) {
+                dispatcher.pollDueEvents();
+            }
+            return o.getOutbox().isEmpty();
+        });
+        assertEquals(1, parked.getFailedOutbox().size());
+        assertEquals("notification down", parked.getFailedOutbox().get(0).getLastError());
+    }
+
+    @Test
+    void statusUpdateAfterDeliveryDoesNotResurrectPulledEvent() throws Exception {
+        Order stale = saveOrderWithNotification();
+        dispatcher.dispatch(stale);
+        await(stale.getId(), o -> o.getOutbox().isEmpty());
+
+        // Caller vẫn giữ bản đơn hàng cũ (outbox còn tác vụ đã gửi) nhưng chỉ $push tác vụ mới
+        OutboxEvent next = OutboxEvent.statusNotification(
+                OutboxEvent.ORDER_STATUS_NOTIFICATION, stale, "Đã xác nhận", "Đã giao");
+        Order updated = new OrderRepositoryImpl(mongoTemplate).updateFields(stale.getId(), new Update()
+                        .set("orderStatus", "Đã giao")
+                        .push("outbox", next))
+                .orElseThrow();
+        assertEquals(List.of(next.getEventId()), updated.getOutbox().stream().map(OutboxEvent::getEventId).toList());
+
+        dispatcher.dispatch(updated.getId(), next);
+        await(stale.getId(), o -> o.getOutbox().isEmpty());
+        verify(notifications, times(2)).sendOrderStatusNotification(
+                any(), any(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void stockHoldCommitIsRetriedUntilProductServiceAccepts() throws Exception {
+        doThrow(new RuntimeException("productservice down")).doNothing().when(products).commitHold("M1");
+        Order order = new Order();
+        order.setOrderNumber("M1");
+        order.setOutbox(new ArrayList<>(List.of(
+                OutboxEvent.of(OutboxEvent.COMMIT_STOCK_HOLD, Map.of("orderNumber", "M1")))));
+        order = mongoTemplate.insert(order);
+
+        dispatcher.dispatch(order);
+        Order delivered = await(order.getId(), o -> {
+            if (!o.getOutbox().isEmpty()) {
+                dispatcher.pollDueEvents();
+            }
+            return o.getOutbox().isEmpty();
+        });
+
+        assertTrue(delivered.getFailedOutbox() == null || delivered.getFailedOutbox().isEmpty());
+        verify(products, times(2)).commitHold("M1");
+    }
+
+    private Order saveOrderWithNotification() {
+        Order order = new Order();
+        order.setOrderNumber("M1");
+        order.setOrderStatus("Đã xác nhận");
+        order.setOutbox(new ArrayList<>(List.of(OutboxEvent.of(OutboxEvent.ORDER_STATUS_NOTIFICATION, Map.of(
+                "orderNumber", "M1",
+                "previousStatus", "Chưa xử lý",
+                "newStatus", "Đã xác nhận")))));
+        return mongoTemplate.insert(order);
+    }
+
+    private Order await(String orderId, Predicate<Order> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        Order order = mongoTemplate.findById(orderId, Order.class);
+        while (!condition.test(order) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            order = mongoTemplate.findById(orderId, Order.class);
+        }
+        assertTrue(condition.test(order), "condition not reached for order " + orderId);
+        return order;
+    }
+}
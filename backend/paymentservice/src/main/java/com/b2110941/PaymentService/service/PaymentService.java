@@ -40,6 +40,7 @@ package com.b2110941.PaymentService.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.http.ResponseEntity;
@@ -58,10 +59,17 @@ public class PaymentService {
 
     private final RestTemplate restTemplate;
 
+    @Value("${product.service.url:http://productservice:9004}")
+    private String productServiceUrl;
+
     public void notifyOrderService(String orderNumber, String transactionId, String paymentStatus) {
         log.info("👉 Callback gửi tới OrderService với orderNumber={}, transactionId={}, status={}",
          orderNumber, transactionId, paymentStatus);
 
+        // Xác nhận giữ hàng trước và độc lập với callback: callback lỗi cũng không làm hold hết hạn.
+        // OrderService còn xác nhận lại qua outbox (có thử lại) khi ghi nhận đơn đã thanh toán.
+        commitStockReservation(orderNumber);
+
         try {
             // ✅ Sửa tên parameter từ 'status' thành 'paymentStatus'
             // ✅ Sửa HTTP method từ POST thành PUT
@@ -87,4 +95,14 @@ public class PaymentService {
             // In thêm stack trace để debug dễ hơn
         }
     }
+
+    private void commitStockReservation(String orderNumber) {
+        try {
+            String url = productServiceUrl + "/api/products/reservations/" + orderNumber + "/commit";
+            ResponseEntity<Void> response = restTemplate.exchange(url, HttpMethod.PUT, null, Void.class);
+            log.info("✅ Đã xác nhận giữ hàng cho đơn {}: {}", orderNumber, response.getStatusCode());
+        } catch (Exception e) {
+            log.error("❌ Lỗi khi xác nhận giữ hàng cho đơn {}: {}", orderNumber, e.getMessage());
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+package com.b2110941.ProductService.configuration;
+
+import com.b2110941.ProductService.entity.Product;
+import com.b2110941.ProductService.entity.StockReservation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.List;
+
+/**
+ * Tạo các index khai báo trên entity (@CompoundIndex, @Indexed).
+ * Chạy nền sau khi ứng dụng khởi động để service không bị chặn/lỗi khi MongoDB chưa sẵn sàng.
+ */
+@Configuration
+public class MongoIndexConfig {
+
+    private static final List<Class<?>> INDEXED_ENTITIES = List.of(Product.class, StockReservation.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MongoMappingContext mappingContext;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        Thread worker = new Thread(() -> {
+            MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+            for (Class<?> entity : INDEXED_ENTITIES) {
+                try {
+                    IndexOperations indexOps = mongoTemplate.indexOps(entity);
+                    resolver.resolveIndexFor(entity).forEach(indexOps::createIndex);
+                    System.out.println("[INDEX] Đã đảm bảo index cho " + entity.getSimpleName());
+                } catch (Exception e) {
+                    System.out.println("[INDEX] Lỗi khi tạo index cho " + entity.getSimpleName() + ": " + e.getMessage());
+                }
+            }
+        }, "mongo-index-init");
+        worker.setDaemon(true);
+        worker.start();
+    }
+}
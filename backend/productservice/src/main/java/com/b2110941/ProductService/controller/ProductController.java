@@ -2,14 +2,25 @@ package com.b2110941.ProductService.controller;
 
 import com.b2110941.ProductService.entity.Product;
 import com.b2110941.ProductService.entity.ProductDetail;
+import com.b2110941.ProductService.payload.ProductSearchCriteria;
 import com.b2110941.ProductService.repository.ProductRepository;
 import com.b2110941.ProductService.repository.ProductDetailRepository;
+import com.b2110941.ProductService.service.CatalogSnapshotService;
+import com.b2110941.ProductService.service.CatalogSnapshotService.CatalogSnapshot;
+import com.b2110941.ProductService.service.ProductStockService;
+import com.b2110941.ProductService.service.ProductStockService.BatchStockResult;
+import com.b2110941.ProductService.service.ProductTextIndex;
+import com.b2110941.ProductService.service.StockReservationService;
+import com.b2110941.ProductService.service.ReviewServiceClient;
+import com.b2110941.CommonStorage.BlobStore;
+import com.b2110941.CommonStorage.FileResponder;
+import com.b2110941.CommonStorage.ImageDerivativeService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
 import java.nio.file.*;
@@ -18,7 +29,10 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 import org.springframework.http.MediaType;
 import java.util.Arrays;
 
@@ -33,85 +47,46 @@ public class ProductController {
     private ProductDetailRepository productDetailRepository;
     
     @Autowired
-    private RestTemplate restTemplate;
+    private ReviewServiceClient reviewServiceClient;
 
-    /**
-     * Lấy rating và review count từ ReviewService
-     */
-    private Map<String, Object> getProductRating(String productId) {
-        Map<String, Object> ratingInfo = new HashMap<>();
-        try {
-            // Lấy average rating
-            String avgRatingUrl = "http://reviewservice:9008/api/reviews/product/" + productId + "/average-rating";
-            Double avgRating = restTemplate.getForObject(avgRatingUrl, Double.class);
-            
-            // Lấy review count
-            String countUrl = "http://reviewservice:9008/api/reviews/product/" + productId + "/count";
-            Long reviewCount = restTemplate.getForObject(countUrl, Long.class);
-            
-            // Lấy rating distribution
-            String distributionUrl = "http://reviewservice:9008/api/reviews/product/" + productId + "/rating-distribution";
-            List<Integer> ratingDistribution = restTemplate.getForObject(distributionUrl, List.class);
-            
-            ratingInfo.put("rating", avgRating != null ? avgRating : 0.0);
-            ratingInfo.put("reviews", reviewCount != null ? reviewCount : 0L);
-            ratingInfo.put("ratings", ratingDistribution != null ? ratingDistribution : new ArrayList<>());
-            
-        } catch (Exception e) {
-            System.out.println("Error fetching rating for product " + productId + ": " + e.getMessage());
-            ratingInfo.put("rating", 0.0);
-            ratingInfo.put("reviews", 0L);
-            ratingInfo.put("ratings", new ArrayList<>());
-        }
-        return ratingInfo;
-    }
+    @Autowired
+    private CatalogSnapshotService catalogSnapshotService;
+
+    @Autowired
+    private ProductTextIndex productTextIndex;
+
+    @Autowired
+    private ProductStockService productStockService;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private FileResponder fileResponder;
+
+    @Autowired
+    private ImageDerivativeService imageDerivativeService;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    // Chiều rộng ảnh thu nhỏ dùng cho thumbnailUrl (trang danh sách sản phẩm)
+    private static final int LISTING_IMAGE_WIDTH = 400;
 
     /**
-     * Lấy tất cả sản phẩm với rating từ ReviewService
+     * Lấy tất cả sản phẩm với rating từ ReviewService (phục vụ từ snapshot, hỗ trợ ETag/304)
      */
     @GetMapping("/all")
-    public ResponseEntity<List<Map<String, Object>>> getAllProductsAll() {
-        List<Product> products = productRepository.findAll();
-        List<Map<String, Object>> productsWithRating = new ArrayList<>();
-        
-        for (Product product : products) {
-            Map<String, Object> productWithRating = new HashMap<>();
-            
-            // Copy tất cả thuộc tính của product
-            productWithRating.put("id", product.getId());
-            productWithRating.put("name", product.getName());
-            productWithRating.put("description", product.getDescription());
-            // productWithRating.put("price", product.getPrice());
-            productWithRating.put("category", product.getCategory());
-            productWithRating.put("goldAge", product.getGoldAge());
-            productWithRating.put("karat", product.getKarat());
-            productWithRating.put("weight", product.getWeight());
-            productWithRating.put("wage", product.getWage());
-            productWithRating.put("stockQuantity", product.getStockQuantity());
-            productWithRating.put("isNew", product.getCreatedAt() != null && 
-                product.getCreatedAt().isAfter(java.time.LocalDateTime.now().minusDays(30)));
-            
-            // Thêm thông tin ảnh từ Cloudinary
-            productWithRating.put("thumbnailUrl", product.getThumbnailUrl());
-            productWithRating.put("images", product.getImages());
-            
-            // Thêm các trường khác cần thiết
-            productWithRating.put("gender", product.getGender());
-            productWithRating.put("tags", product.getTags());
-            
-            // Thêm trường image để tương thích với frontend
-            productWithRating.put("image", product.getThumbnailUrl());
-            
-            // Lấy rating từ ReviewService
-            Map<String, Object> ratingInfo = getProductRating(product.getId());
-            productWithRating.put("rating", ratingInfo.get("rating"));
-            productWithRating.put("reviews", ratingInfo.get("reviews"));
-            productWithRating.put("ratings", ratingInfo.get("ratings"));
-            
-            productsWithRating.add(productWithRating);
+    public ResponseEntity<byte[]> getAllProductsAll(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        CatalogSnapshot snapshot = catalogSnapshotService.getSnapshot();
+        if (snapshot.etag().equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.etag()).build();
         }
-        
-        return ResponseEntity.ok(productsWithRating);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(snapshot.etag())
+                .body(snapshot.json());
     }
 
     /**
@@ -162,10 +137,11 @@ public class ProductController {
             result.put("description", product.getDescription());
             
             // Lấy rating từ ReviewService
-            Map<String, Object> ratingInfo = getProductRating(productId);
+            Map<String, Object> ratingInfo = reviewServiceClient.getRatingSummary(productId);
             result.put("rating", ratingInfo.get("rating"));
             result.put("reviews", ratingInfo.get("reviews"));
             result.put("ratings", ratingInfo.get("ratings"));
+            result.put("ratingHistogram", ratingInfo.get("ratingHistogram"));
             
             // Lấy thêm thông tin chi tiết nếu có
             List<ProductDetail> details = productDetailRepository.findByProductId(productId);
@@ -275,6 +251,7 @@ public class ProductController {
             product.setProductCode(newCode);
 
             // Xử lý ảnh - ưu tiên Cloudinary URLs từ frontend, fallback về local upload nếu cần
+            BlobStore.StoredBlob blob = null;
             if (product.getImages() != null && !product.getImages().isEmpty()) {
                 // Frontend đã upload nhiều ảnh lên Cloudinary
                 System.out.println("[UPLOAD] Sử dụng Cloudinary images: " + product.getImages().size() + " ảnh");
@@ -294,20 +271,15 @@ public class ProductController {
                 product.setImages(images);
                 System.out.println("[UPLOAD] Tạo list images từ thumbnailUrl");
             } else if (image != null && !image.isEmpty()) {
-                // Fallback: upload local nếu không có Cloudinary URL
-                String filename = System.currentTimeMillis() + "_"
-                        + Paths.get(image.getOriginalFilename()).getFileName().toString();
-                Path uploadPath = Paths.get("./uploads/products");
-                System.out.println("[UPLOAD] Tạo thư mục: " + uploadPath.toAbsolutePath());
-                Files.createDirectories(uploadPath);
-                Path filePath = uploadPath.resolve(filename);
-                System.out.println("[UPLOAD] Đường dẫn file sẽ lưu: " + filePath.toAbsolutePath());
-                Files.copy(image.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-                System.out.println("[UPLOAD] Đã lưu file ảnh local: " + filePath.toAbsolutePath());
-
-                // Lưu đường dẫn local vào DB
-                String localImagePath = "/uploads/products/" + filename;
-                product.setThumbnailUrl(localImagePath);
+                // Fallback: upload local nếu không có Cloudinary URL (kho file định danh theo nội dung)
+                blob = blobStore.store(image.getInputStream(), image.getOriginalFilename());
+                System.out.println("[UPLOAD] Đã lưu file ảnh local: " + blob.path()
+                        + (blob.deduplicated() ? " (trùng nội dung, dùng lại file có sẵn)" : ""));
+
+                // Lưu đường dẫn local vào DB; thumbnailUrl trỏ tới ảnh thu nhỏ cho trang danh sách
+                String localImagePath = blob.url();
+                product.setThumbnailUrl(blobStore.urlOf(
+                        imageDerivativeService.createVariants(blob.path(), LISTING_IMAGE_WIDTH).orElse(blob.name())));
                 
                 // Tạo list images từ local file
                 List<String> images = new ArrayList<>();
@@ -326,8 +298,17 @@ public class ProductController {
                 product.setStockQuantity(product.getQuantity());
             }
 
-            // Lưu vào DB
-            Product saved = productRepository.save(product);
+            // Lưu vào DB (insert: id gửi kèm trong JSON không được ghi đè sản phẩm đã có)
+            Product saved;
+            try {
+                saved = productRepository.insert(product);
+            } catch (RuntimeException e) {
+                // Không thêm được sản phẩm: ảnh vừa lưu không có ai dùng
+                if (blob != null) {
+                    blobStore.release(blob.name());
+                }
+                throw e;
+            }
             System.out.println("==> [POST /add] Lưu product thành công, id: " + saved.getId());
 
             // Tạo bản ghi chi tiết
@@ -345,6 +326,8 @@ public class ProductController {
             detail.setDescription(saved.getDescription());
             productDetailRepository.save(detail);
             System.out.println("==> [POST /add] Lưu ProductDetail thành công");
+            catalogSnapshotService.invalidate();
+            productTextIndex.index(saved);
 
             return ResponseEntity.status(HttpStatus.CREATED).body(saved);
         } catch (Exception e) {
@@ -356,106 +339,95 @@ public class ProductController {
 
     /**
      * Cập nhật sản phẩm theo ID
+     * Chỉ $set các trường được gửi lên; stockQuantity không bao giờ bị ghi đè vì đơn hàng trừ kho đồng thời.
+     * Thay đổi tồn kho là $inc chênh lệch giữa stockQuantity gửi lên và previousStockQuantity
+     * (số tồn kho admin thấy khi mở form; không có thì lấy số hiện tại), ghi cùng lệnh với các trường $set.
      */
     @PutMapping("/{id}")
-    public ResponseEntity<?> updateProduct(@PathVariable String id, @RequestBody Product product) {
+    public ResponseEntity<?> updateProduct(
+            @PathVariable String id,
+            @RequestBody Product product,
+            @RequestParam(value = "previousStockQuantity", required = false) Integer previousStockQuantity) {
         System.out.println("Product nhận được từ frontend: " + product);
         Optional<Product> productOpt = productRepository.findById(id);
         if (!productOpt.isPresent()) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Không tìm thấy sản phẩm.");
         }
-        Product existing = productOpt.get();
 
-        // Lưu lại số lượng tồn kho cũ để kiểm tra
-        Integer oldStockQuantity = existing.getStockQuantity();
-        if (oldStockQuantity == null)
-            oldStockQuantity = 0;
-        Integer oldQuantity = existing.getQuantity();
-        if (oldQuantity == null)
-            oldQuantity = 0;
+        int stockDelta = 0;
+        if (product.getStockQuantity() != null) {
+            Integer seenStock = previousStockQuantity != null ? previousStockQuantity : productOpt.get().getStockQuantity();
+            stockDelta = product.getStockQuantity() - (seenStock == null ? 0 : seenStock);
+        }
 
         // Cập nhật các trường nếu có gửi lên (chỉ cập nhật nếu khác null)
-        if (product.getName() != null)
-            existing.setName(product.getName());
-        if (product.getBrand() != null)
-            existing.setBrand(product.getBrand());
-        if (product.getOrigin() != null)
-            existing.setOrigin(product.getOrigin());
-        if (product.getGoldAge() != null)
-            existing.setGoldAge(product.getGoldAge());
-        if (product.getCategory() != null)
-            existing.setCategory(product.getCategory());
-        if (product.getSku() != null)
-            existing.setSku(product.getSku());
-        if (product.getProductCode() != null)
-            existing.setProductCode(product.getProductCode());
-        if (product.getTags() != null)
-            existing.setTags(product.getTags());
-        if (product.getWeight() != null)
-            existing.setWeight(product.getWeight());
-        if (product.getQuantity() != null)
-            existing.setQuantity(product.getQuantity());
-        // if (product.getPrice() != null)
-        //     existing.setPrice(product.getPrice());
-        if (product.getStockQuantity() != null) {
-            // Nếu stockQuantity mới > stockQuantity cũ thì quantity += phần tăng thêm
-            if (product.getStockQuantity() > oldStockQuantity) {
-                int diff = product.getStockQuantity() - oldStockQuantity;
-                existing.setQuantity(oldQuantity + diff);
-            }
-            existing.setStockQuantity(product.getStockQuantity());
-        }
-        if (product.getKarat() != null)
-            existing.setKarat(product.getKarat());
-        if (product.getMaterial() != null)
-            existing.setMaterial(product.getMaterial());
-        if (product.getStatus() != null)
-            existing.setStatus(product.getStatus());
-        if (product.getNote() != null)
-            existing.setNote(product.getNote());
-        if (product.getCertificationNumber() != null)
-            existing.setCertificationNumber(product.getCertificationNumber());
-        if (product.getDesign() != null)
-            existing.setDesign(product.getDesign());
-        if (product.getWage() != null)
-            existing.setWage(product.getWage());
-        if (product.getDescription() != null)
-            existing.setDescription(product.getDescription());
+        Update update = new Update();
+        setIfPresent(update, "name", product.getName());
+        setIfPresent(update, "brand", product.getBrand());
+        setIfPresent(update, "origin", product.getOrigin());
+        setIfPresent(update, "goldAge", product.getGoldAge());
+        setIfPresent(update, "category", product.getCategory());
+        setIfPresent(update, "sku", product.getSku());
+        setIfPresent(update, "productCode", product.getProductCode());
+        setIfPresent(update, "tags", product.getTags());
+        setIfPresent(update, "weight", product.getWeight());
+        // Nhập thêm hàng đã tăng quantity cùng với stockQuantity ($inc), không ghi đè bằng số cũ
+        if (stockDelta <= 0) {
+            setIfPresent(update, "quantity", product.getQuantity());
+        }
+        // setIfPresent(update, "price", product.getPrice());
+        setIfPresent(update, "karat", product.getKarat());
+        setIfPresent(update, "material", product.getMaterial());
+        setIfPresent(update, "status", product.getStatus());
+        setIfPresent(update, "note", product.getNote());
+        setIfPresent(update, "certificationNumber", product.getCertificationNumber());
+        setIfPresent(update, "design", product.getDesign());
+        setIfPresent(update, "wage", product.getWage());
+        setIfPresent(update, "description", product.getDescription());
         // Không cập nhật thumbnailUrl ở đây (ảnh dùng endpoint riêng)
-        existing.setUpdatedAt(LocalDateTime.now());
-
-        Product updated = productRepository.save(existing);
-
-        // --- Đồng bộ ProductDetail ---
-        List<ProductDetail> details = productDetailRepository.findByProductId(id);
-        if (details != null && !details.isEmpty()) {
-            for (ProductDetail detail : details) {
-                // Đồng bộ các trường chính
-                if (product.getWeight() != null)
-                    detail.setWeight(product.getWeight());
-                if (product.getOrigin() != null)
-                    detail.setOrigin(product.getOrigin());
-                if (product.getStockQuantity() != null)
-                    detail.setStockQuantity(product.getStockQuantity());
-                if (product.getDesign() != null)
-                    detail.setDesign(product.getDesign());
-                if (product.getCertificationNumber() != null)
-                    detail.setCertificationNumber(product.getCertificationNumber());
-                if (product.getNote() != null)
-                    detail.setNote(product.getNote());
-                if (product.getStatus() != null)
-                    detail.setStatus(product.getStatus());
-                if (product.getDescription() != null)
-                    detail.setDescription(product.getDescription());
-                // Nếu cần đồng bộ thêm trường nào, thêm ở đây
-                productDetailRepository.save(detail);
+        update.set("updatedAt", LocalDateTime.now());
+
+        Product updated;
+        if (stockDelta != 0) {
+            // Tồn kho và các trường trong 1 lệnh: không đủ hàng thì không đổi gì cả
+            updated = productStockService.adjustStock(id, stockDelta, update);
+            if (updated == null) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body("Số lượng tồn kho hiện tại không đủ để giảm " + (-stockDelta));
+            }
+        } else {
+            Optional<Product> updatedOpt = productRepository.updateFields(id, update);
+            if (updatedOpt.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Không tìm thấy sản phẩm.");
             }
+            updated = updatedOpt.get();
+        }
+
+        // --- Đồng bộ ProductDetail (stockQuantity đã được $inc trong adjustStock) ---
+        Update detailUpdate = new Update();
+        setIfPresent(detailUpdate, "weight", product.getWeight());
+        setIfPresent(detailUpdate, "origin", product.getOrigin());
+        setIfPresent(detailUpdate, "design", product.getDesign());
+        setIfPresent(detailUpdate, "certificationNumber", product.getCertificationNumber());
+        setIfPresent(detailUpdate, "note", product.getNote());
+        setIfPresent(detailUpdate, "status", product.getStatus());
+        setIfPresent(detailUpdate, "description", product.getDescription());
+        // Nếu cần đồng bộ thêm trường nào, thêm ở đây
+        if (!detailUpdate.getUpdateObject().isEmpty()) {
+            productDetailRepository.updateByProductId(id, detailUpdate);
         }
         // --- End đồng bộ ProductDetail ---
+        catalogSnapshotService.invalidate();
+        productTextIndex.index(updated);
 
         return ResponseEntity.ok(updated);
     }
 
+    private static void setIfPresent(Update update, String field, Object value) {
+        if (value != null) {
+            update.set(field, value);
+        }
+    }
+
     /**
      * Cập nhật ảnh sản phẩm
      */
@@ -464,59 +436,46 @@ public class ProductController {
             @PathVariable String id,
             @RequestPart("image") MultipartFile image) {
         try {
-        Optional<Product> productOpt = productRepository.findById(id);
-        if (!productOpt.isPresent()) {
+            if (!productRepository.existsById(id)) {
                 return ResponseEntity.notFound().build();
-        }
-
-        Product product = productOpt.get();
-
-            // Xóa ảnh cũ nếu có
-            if (product.getThumbnailUrl() != null && product.getThumbnailUrl().startsWith("/uploads/")) {
-                try {
-                    String fileName = product.getThumbnailUrl().substring(product.getThumbnailUrl().lastIndexOf("/") + 1);
-                    Path imagePath = Paths.get("./uploads/products/" + fileName);
-                    if (Files.exists(imagePath)) {
-                        Files.delete(imagePath);
-                        System.out.println("[UPDATE] Đã xóa ảnh cũ: " + imagePath);
-                    }
-                } catch (Exception e) {
-                    System.out.println("[UPDATE] Lỗi khi xóa ảnh cũ: " + e.getMessage());
-                }
             }
 
-            // Xử lý upload ảnh mới
-            String uploadsDir = "./uploads/products"; // Changed to ./uploads/products
-            Path uploadsPath = Paths.get(uploadsDir);
-            if (!Files.exists(uploadsPath)) {
-                Files.createDirectories(uploadsPath);
-            }
+            // Xử lý upload ảnh mới (kho file định danh theo nội dung)
+            BlobStore.StoredBlob blob = blobStore.store(image.getInputStream(), image.getOriginalFilename());
 
-            String filename = System.currentTimeMillis() + "_" + Paths.get(image.getOriginalFilename()).getFileName().toString();
-            Path filePath = uploadsPath.resolve(filename);
-            Files.copy(image.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-
-            // Cập nhật thumbnailUrl
-            String newImagePath = "/uploads/products/" + filename;
-            product.setThumbnailUrl(newImagePath);
+            // Cập nhật thumbnailUrl (ảnh thu nhỏ cho trang danh sách, ảnh gốc nếu không tạo được)
+            String newImagePath = blob.url();
+            String thumbnailUrl = blobStore.urlOf(
+                    imageDerivativeService.createVariants(blob.path(), LISTING_IMAGE_WIDTH).orElse(blob.name()));
             
             // Cập nhật list images
             List<String> images = new ArrayList<>();
             images.add(newImagePath);
-            product.setImages(images);
 
-            product.setUpdatedAt(java.time.LocalDateTime.now());
-            Product saved = productRepository.save(product);
+            // Chỉ $set các trường ảnh: không ghi lại stockQuantity đã đọc.
+            // Ảnh cũ lấy từ bản trước khi đổi nên 2 lần cập nhật đồng thời không giải phóng cùng 1 ảnh 2 lần
+            LocalDateTime now = LocalDateTime.now();
+            Optional<Product> previous = productRepository.replaceFields(id, new Update()
+                    .set("thumbnailUrl", thumbnailUrl)
+                    .set("images", images)
+                    .set("updatedAt", now));
+            if (previous.isEmpty()) {
+                // Sản phẩm vừa bị xóa: ảnh mới không còn ai dùng
+                deleteLocalImage(newImagePath);
+                return ResponseEntity.notFound().build();
+            }
+            // Ảnh cũ không còn dùng (cả ảnh gốc và ảnh thu nhỏ)
+            Product product = previous.get();
+            deleteProductImages(product, Set.of());
 
             // Cập nhật ProductDetail
-            List<ProductDetail> details = productDetailRepository.findByProductId(id);
-            if (!details.isEmpty()) {
-                ProductDetail detail = details.get(0);
-                detail.setImageUrl(newImagePath);
-                productDetailRepository.save(detail);
-            }
+            productDetailRepository.updateByProductId(id, new Update().set("imageUrl", newImagePath));
+            catalogSnapshotService.invalidate();
 
-            return ResponseEntity.ok(saved);
+            product.setThumbnailUrl(thumbnailUrl);
+            product.setImages(images);
+            product.setUpdatedAt(now);
+            return ResponseEntity.ok(product);
         } catch (Exception e) {
             System.out.println("Lỗi khi cập nhật ảnh sản phẩm: " + e.getMessage());
             e.printStackTrace();
@@ -532,42 +491,44 @@ public class ProductController {
             @PathVariable String id,
             @RequestBody Map<String, Object> request) {
         try {
-            Optional<Product> productOpt = productRepository.findById(id);
-            if (!productOpt.isPresent()) {
-                return ResponseEntity.notFound().build();
-            }
-
-            Product product = productOpt.get();
-            
             @SuppressWarnings("unchecked")
             List<String> newImages = (List<String>) request.get("images");
             String newThumbnailUrl = (String) request.get("thumbnailUrl");
             
-            if (newImages != null && !newImages.isEmpty()) {
-                product.setImages(newImages);
+            LocalDateTime now = LocalDateTime.now();
+            Update update = new Update().set("updatedAt", now);
+            boolean replacesImages = newImages != null && !newImages.isEmpty();
+            String thumbnailUrl = null;
+            if (replacesImages) {
+                update.set("images", newImages);
                 
                 // Set thumbnailUrl từ ảnh đầu tiên nếu không được chỉ định
-                if (newThumbnailUrl == null || newThumbnailUrl.isEmpty()) {
-                    product.setThumbnailUrl(newImages.get(0));
-                } else {
-                    product.setThumbnailUrl(newThumbnailUrl);
-                }
+                thumbnailUrl = (newThumbnailUrl == null || newThumbnailUrl.isEmpty()) ? newImages.get(0) : newThumbnailUrl;
+                update.set("thumbnailUrl", thumbnailUrl);
                 
                 System.out.println("[UPDATE] Cập nhật " + newImages.size() + " ảnh cho sản phẩm: " + id);
             }
             
-            product.setUpdatedAt(java.time.LocalDateTime.now());
-            Product saved = productRepository.save(product);
+            Optional<Product> previous = productRepository.replaceFields(id, update);
+            if (previous.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            Product product = previous.get();
+            if (replacesImages) {
+                // Ảnh local của bản cũ không còn trong danh sách mới thì giải phóng
+                Set<String> kept = new HashSet<>(newImages);
+                kept.add(thumbnailUrl);
+                deleteProductImages(product, kept);
+                product.setImages(newImages);
+                product.setThumbnailUrl(thumbnailUrl);
+            }
+            product.setUpdatedAt(now);
 
             // Cập nhật ProductDetail
-            List<ProductDetail> details = productDetailRepository.findByProductId(id);
-            if (!details.isEmpty()) {
-                ProductDetail detail = details.get(0);
-                detail.setImageUrl(saved.getThumbnailUrl());
-                productDetailRepository.save(detail);
-            }
+            productDetailRepository.updateByProductId(id, new Update().set("imageUrl", product.getThumbnailUrl()));
+            catalogSnapshotService.invalidate();
 
-            return ResponseEntity.ok(saved);
+            return ResponseEntity.ok(product);
         } catch (Exception e) {
             System.out.println("Lỗi khi cập nhật ảnh sản phẩm: " + e.getMessage());
             e.printStackTrace();
@@ -580,10 +541,15 @@ public class ProductController {
      */
     @DeleteMapping("/{id}")
     public ResponseEntity<?> deleteProduct(@PathVariable String id) {
-        if (!productRepository.existsById(id)) {
+        // Xóa và lấy lại document trong 1 lệnh: ảnh cần giải phóng là ảnh của đúng bản bị xóa
+        Optional<Product> productOpt = productRepository.removeById(id);
+        if (productOpt.isEmpty()) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Không tìm thấy sản phẩm.");
         }
-        productRepository.deleteById(id);
+        // Sản phẩm đã xóa không còn dùng ảnh: trả tham chiếu để bộ dọn nền xóa file
+        deleteProductImages(productOpt.get(), Set.of());
+        catalogSnapshotService.invalidate();
+        productTextIndex.remove(id);
         return ResponseEntity.noContent().build();
     }
 
@@ -592,7 +558,10 @@ public class ProductController {
      */
     @DeleteMapping("/{id}/image")
     public ResponseEntity<?> deleteProductImage(@PathVariable String id) {
-        Optional<Product> productOpt = productRepository.findById(id);
+        // Cập nhật sản phẩm - xóa URL hình ảnh; ảnh cần giải phóng lấy từ bản trước khi xóa
+        Optional<Product> productOpt = productRepository.replaceFields(id, new Update()
+                .unset("thumbnailUrl")
+                .set("updatedAt", LocalDateTime.now()));
         if (!productOpt.isPresent()) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Không tìm thấy sản phẩm.");
         }
@@ -601,26 +570,12 @@ public class ProductController {
         String thumbnailUrl = product.getThumbnailUrl();
 
         if (thumbnailUrl != null && !thumbnailUrl.isEmpty()) {
-            try {
-                // Xóa file hình ảnh từ hệ thống
-                if (thumbnailUrl.startsWith("/")) {
-                    thumbnailUrl = thumbnailUrl.substring(1);
-                }
-                Path imagePath = Paths.get(thumbnailUrl);
-                if (Files.exists(imagePath)) {
-                    Files.delete(imagePath);
-                }
-
-                // Cập nhật sản phẩm - xóa URL hình ảnh
-                product.setThumbnailUrl(null);
-                product.setUpdatedAt(LocalDateTime.now());
-                productRepository.save(product);
-
-                return ResponseEntity.ok("Đã xóa hình ảnh sản phẩm thành công");
-            } catch (IOException e) {
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                        .body("Lỗi khi xóa file hình ảnh: " + e.getMessage());
-            }
+            catalogSnapshotService.invalidate();
+            // Xóa file hình ảnh từ hệ thống (cả ảnh gốc và ảnh thu nhỏ), trừ khi ảnh gốc vẫn nằm trong images
+            Product removed = new Product();
+            removed.setThumbnailUrl(thumbnailUrl);
+            deleteProductImages(removed, product.getImages() == null ? Set.of() : new HashSet<>(product.getImages()));
+            return ResponseEntity.ok("Đã xóa hình ảnh sản phẩm thành công");
         } else {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Sản phẩm không có hình ảnh để xóa");
         }
@@ -634,6 +589,72 @@ public class ProductController {
         return ResponseEntity.ok(productRepository.findByNameContainingIgnoreCase(name));
     }
 
+    /**
+     * Tìm kiếm sản phẩm có lọc, sắp xếp và phân trang (cursor)
+     * sort: newest | oldest | weight_asc | weight_desc | name_asc
+     */
+    @GetMapping("/search")
+    public ResponseEntity<?> searchProducts(
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) String gender,
+            @RequestParam(required = false) String karat,
+            @RequestParam(required = false) String goldAge,
+            @RequestParam(required = false) String brand,
+            @RequestParam(required = false) Double minWeight,
+            @RequestParam(required = false) Double maxWeight,
+            @RequestParam(defaultValue = "false") boolean inStockOnly,
+            @RequestParam(defaultValue = "newest") String sort,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        ProductSearchCriteria criteria = ProductSearchCriteria.builder()
+                .category(category)
+                .gender(gender)
+                .karat(karat)
+                .goldAge(goldAge)
+                .brand(brand)
+                .minWeight(minWeight)
+                .maxWeight(maxWeight)
+                .inStockOnly(inStockOnly)
+                .sort(sort)
+                .cursor(cursor)
+                .size(Math.max(1, Math.min(size, 100)))
+                .build();
+        try {
+            return ResponseEntity.ok(productRepository.searchPage(criteria));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * Tìm kiếm full-text (name, tags, description, design, brand, category)
+     * Không phân biệt dấu tiếng Việt, hỗ trợ tiền tố, xếp hạng theo mức độ liên quan
+     */
+    @GetMapping("/search/text")
+    public ResponseEntity<List<Product>> searchByText(
+            @RequestParam("q") String query,
+            @RequestParam(defaultValue = "20") int limit) {
+        int boundedLimit = Math.max(1, Math.min(limit, 100));
+        if (!productTextIndex.isReady()) {
+            // Chỉ mục chưa build xong -> dùng tạm truy vấn regex theo tên
+            List<Product> fallback = productRepository.findByNameContainingIgnoreCase(query);
+            return ResponseEntity.ok(fallback.subList(0, Math.min(boundedLimit, fallback.size())));
+        }
+        List<String> rankedIds = productTextIndex.search(query, boundedLimit);
+        Map<String, Product> byId = new HashMap<>();
+        for (Product product : productRepository.findAllById(rankedIds)) {
+            byId.put(product.getId(), product);
+        }
+        List<Product> result = new ArrayList<>();
+        for (String id : rankedIds) {
+            Product product = byId.get(id);
+            if (product != null) {
+                result.add(product);
+            }
+        }
+        return ResponseEntity.ok(result);
+    }
+
     /**
      * Tìm sản phẩm theo category
      */
@@ -700,25 +721,10 @@ public class ProductController {
             Product product = productOpt.get();
             String thumbnailUrl = product.getThumbnailUrl();
             if (thumbnailUrl != null && !thumbnailUrl.isEmpty()) {
-                try {
-                    // Lấy tên file từ thumbnailUrl
-                    String fileName = thumbnailUrl.substring(thumbnailUrl.lastIndexOf("/") + 1);
-                    Path imagePath = Paths.get("./uploads/products/" + fileName); // Changed to ./uploads/products
-                    if (Files.exists(imagePath)) {
-                        byte[] imageBytes = Files.readAllBytes(imagePath);
-                        String contentType = Files.probeContentType(imagePath);
-                        if (contentType == null)
-                            contentType = "image/jpeg";
-                        HttpHeaders headers = new HttpHeaders();
-                        headers.setContentType(MediaType.parseMediaType(contentType));
-                        headers.setContentLength(imageBytes.length);
-                        return new ResponseEntity<>(imageBytes, headers, HttpStatus.OK);
-                    } else {
-                        return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Image file not found");
-                    }
-                } catch (IOException e) {
-                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error reading image file");
-                }
+                // Lấy đường dẫn file từ thumbnailUrl; stream file + ETag/Range.
+                // URL theo productId không đổi khi đổi ảnh nên không cache immutable: luôn hỏi lại, 304 nếu ETag khớp
+                return fileResponder.serve(blobStore.getDirectory(), blobStore.relativePath(thumbnailUrl),
+                        CacheControl.noCache());
             } else {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Product has no image");
             }
@@ -727,6 +733,59 @@ public class ProductController {
         }
     }
 
+    // Xóa mọi ảnh local của sản phẩm, trừ ảnh (gốc) vẫn được dùng trong keptUrls. Ảnh gốc và ảnh thu nhỏ
+    // của 1 lần upload dùng chung 1 tham chiếu nên mỗi ảnh gốc chỉ được xóa/release 1 lần
+    private void deleteProductImages(Product product, Set<String> keptUrls) {
+        List<String> urls = new ArrayList<>();
+        urls.add(product.getThumbnailUrl());
+        if (product.getImages() != null) {
+            urls.addAll(product.getImages());
+        }
+        Set<String> originals = new HashSet<>();
+        for (String kept : keptUrls) {
+            if (kept != null && kept.startsWith("/uploads/")) {
+                originals.add(originalNameOfUrl(kept));
+            }
+        }
+        for (String url : urls) {
+            if (url == null || !url.startsWith("/uploads/")) {
+                continue;
+            }
+            if (!originals.add(originalNameOfUrl(url))) {
+                continue;
+            }
+            try {
+                deleteLocalImage(url);
+            } catch (IOException e) {
+                System.out.println("[DELETE] Lỗi khi xóa ảnh " + url + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static String originalNameOfUrl(String url) {
+        String fileName = url.substring(url.lastIndexOf("/") + 1);
+        return ImageDerivativeService.originalNameOf(fileName).orElse(fileName);
+    }
+
+    // Xóa ảnh local theo URL (ảnh gốc hoặc ảnh thu nhỏ): ảnh trong kho chỉ giảm tham chiếu,
+    // file được bộ dọn nền xóa khi không còn sản phẩm nào dùng; ảnh cũ đặt tên theo timestamp thì xóa ngay
+    private void deleteLocalImage(String imageUrl) throws IOException {
+        if (blobStore.release(imageUrl)) {
+            return;
+        }
+        String fileName = imageUrl.substring(imageUrl.lastIndexOf("/") + 1);
+        String originalName = ImageDerivativeService.originalNameOf(fileName).orElse(fileName);
+        Path imagePath = Paths.get("./uploads/products").resolve(originalName).normalize();
+        if (!imagePath.startsWith(Paths.get("./uploads/products").normalize())) {
+            return;
+        }
+        imageDerivativeService.deleteVariants(imagePath);
+        if (Files.exists(imagePath)) {
+            Files.delete(imagePath);
+            System.out.println("[DELETE] Đã xóa ảnh: " + imagePath);
+        }
+    }
+
     /**
      * Lấy danh sách tất cả sản phẩm với thông tin hình ảnh
      */
@@ -813,46 +872,8 @@ public class ProductController {
     @GetMapping("/best-seller")
     public ResponseEntity<List<Map<String, Object>>> getBestSellerProducts() {
         try {
-            // Lấy tất cả sản phẩm và sắp xếp theo rating và số lượng bán
-            List<Product> allProducts = productRepository.findAll();
-            List<Map<String, Object>> productsWithRating = new ArrayList<>();
-            
-            for (Product product : allProducts) {
-                Map<String, Object> productWithRating = new HashMap<>();
-                
-                // Copy tất cả thuộc tính của product
-                productWithRating.put("id", product.getId());
-                productWithRating.put("name", product.getName());
-                productWithRating.put("description", product.getDescription());
-                // productWithRating.put("price", product.getPrice());
-                productWithRating.put("category", product.getCategory());
-                productWithRating.put("goldAge", product.getGoldAge());
-                productWithRating.put("karat", product.getKarat());
-                productWithRating.put("weight", product.getWeight());
-                productWithRating.put("wage", product.getWage());
-                productWithRating.put("stockQuantity", product.getStockQuantity());
-                productWithRating.put("isNew", product.getCreatedAt() != null && 
-                    product.getCreatedAt().isAfter(java.time.LocalDateTime.now().minusDays(30)));
-                
-                // Thêm thông tin ảnh từ Cloudinary
-                productWithRating.put("thumbnailUrl", product.getThumbnailUrl());
-                productWithRating.put("images", product.getImages());
-                
-                // Thêm các trường khác cần thiết
-                productWithRating.put("gender", product.getGender());
-                productWithRating.put("tags", product.getTags());
-                
-                // Thêm trường image để tương thích với frontend
-                productWithRating.put("image", product.getThumbnailUrl());
-                
-                // Lấy rating từ ReviewService
-                Map<String, Object> ratingInfo = getProductRating(product.getId());
-                productWithRating.put("rating", ratingInfo.get("rating"));
-                productWithRating.put("reviews", ratingInfo.get("reviews"));
-                productWithRating.put("ratings", ratingInfo.get("ratings"));
-                
-                productsWithRating.add(productWithRating);
-            }
+            // Lấy danh sách sản phẩm (kèm rating) từ snapshot và sắp xếp theo rating
+            List<Map<String, Object>> productsWithRating = new ArrayList<>(catalogSnapshotService.getSnapshot().rows());
             
             // Sắp xếp theo rating (cao nhất trước) và số lượng review
             productsWithRating.sort((a, b) -> {
@@ -895,42 +916,27 @@ public class ProductController {
             @PathVariable String id,
             @RequestBody Map<String, Object> request) {
         try {
-            Optional<Product> productOpt = productRepository.findById(id);
-            if (!productOpt.isPresent()) {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Không tìm thấy sản phẩm.");
-            }
-
-            Product product = productOpt.get();
             Integer quantityToReduce = (Integer) request.get("quantity");
             
             if (quantityToReduce == null || quantityToReduce <= 0) {
                 return ResponseEntity.badRequest().body("Số lượng phải lớn hơn 0");
             }
 
-            // Kiểm tra số lượng tồn kho hiện tại
-            Integer currentStock = product.getStockQuantity();
-            if (currentStock == null) currentStock = 0;
-            
-            if (currentStock < quantityToReduce) {
+            // Kiểm tra và trừ tồn kho trong cùng 1 lệnh (findAndModify có điều kiện)
+            Product saved = productStockService.decrementStock(id, quantityToReduce);
+            if (saved == null) {
+                Optional<Product> productOpt = productRepository.findById(id);
+                if (!productOpt.isPresent()) {
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Không tìm thấy sản phẩm.");
+                }
+                Integer currentStock = productOpt.get().getStockQuantity();
+                if (currentStock == null) currentStock = 0;
                 return ResponseEntity.badRequest().body("Số lượng tồn kho không đủ. Hiện tại: " + currentStock + ", Yêu cầu: " + quantityToReduce);
             }
 
-            // Trừ số lượng hàng trong kho
-            Integer newStock = currentStock - quantityToReduce;
-            product.setStockQuantity(newStock);
-            product.setUpdatedAt(java.time.LocalDateTime.now());
-
-            // Lưu sản phẩm
-            Product saved = productRepository.save(product);
-
-            // Cập nhật ProductDetail
-            List<ProductDetail> details = productDetailRepository.findByProductId(id);
-            if (!details.isEmpty()) {
-                for (ProductDetail detail : details) {
-                    detail.setStockQuantity(newStock);
-                    productDetailRepository.save(detail);
-                }
-            }
+            Integer newStock = saved.getStockQuantity();
+            Integer currentStock = newStock + quantityToReduce;
+            catalogSnapshotService.invalidate();
 
             System.out.println("[STOCK UPDATE] Sản phẩm " + id + ": " + currentStock + " -> " + newStock + " (-" + quantityToReduce + ")");
             
@@ -951,49 +957,40 @@ public class ProductController {
 
     /**
      * Cập nhật số lượng tồn kho cho nhiều sản phẩm (batch update)
-     * API này được gọi từ OrderService để trừ số lượng hàng cho toàn bộ đơn hàng
+     * API này được gọi từ OrderService để trừ số lượng hàng cho toàn bộ đơn hàng.
+     * All-or-nothing: nếu 1 sản phẩm không đủ hàng thì không sản phẩm nào bị trừ (409).
      */
     @PutMapping("/batch-update-stock")
     public ResponseEntity<?> batchUpdateProductStock(@RequestBody List<Map<String, Object>> stockUpdates) {
         try {
-            List<Map<String, Object>> results = new ArrayList<>();
-            
-            for (Map<String, Object> update : stockUpdates) {
-                String productId = (String) update.get("productId");
-                Integer quantity = (Integer) update.get("quantity");
-                
-                if (productId == null || quantity == null || quantity <= 0) {
-                    results.add(Map.of(
-                        "productId", productId,
-                        "success", false,
-                        "error", "Dữ liệu không hợp lệ"
-                    ));
-                    continue;
-                }
+            Map<String, Integer> quantities = parseStockLines(stockUpdates);
+            if (quantities == null) {
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "error", "Dữ liệu không hợp lệ"
+                ));
+            }
 
-                try {
-                    ResponseEntity<?> result = updateProductStock(productId, Map.of("quantity", quantity));
-                    if (result.getStatusCode().is2xxSuccessful()) {
-                        results.add(Map.of(
-                            "productId", productId,
-                            "success", true,
-                            "quantity", quantity
-                        ));
-                    } else {
-                        results.add(Map.of(
-                            "productId", productId,
-                            "success", false,
-                            "error", "Lỗi cập nhật"
-                        ));
-                    }
-                } catch (Exception e) {
-                    results.add(Map.of(
-                        "productId", productId,
-                        "success", false,
-                        "error", e.getMessage()
-                    ));
-                }
+            BatchStockResult batchResult = productStockService.decrementStockBatch(quantities);
+            if (!batchResult.success()) {
+                System.out.println("[STOCK UPDATE] Batch thất bại tại sản phẩm " + batchResult.failedProductId() + ": " + batchResult.error());
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of(
+                    "success", false,
+                    "productId", String.valueOf(batchResult.failedProductId()),
+                    "error", batchResult.error()
+                ));
+            }
+            catalogSnapshotService.invalidate();
+
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (Map.Entry<String, Integer> line : quantities.entrySet()) {
+                results.add(Map.of(
+                    "productId", line.getKey(),
+                    "success", true,
+                    "quantity", line.getValue()
+                ));
             }
+            System.out.println("[STOCK UPDATE] Đã trừ kho cho " + quantities.size() + " sản phẩm trong 1 batch");
 
             return ResponseEntity.ok(Map.of(
                 "success", true,
@@ -1006,4 +1003,125 @@ public class ProductController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Lỗi: " + e.getMessage());
         }
     }
+
+    /**
+     * Hoàn lại số lượng tồn kho cho nhiều sản phẩm
+     * API này được gọi từ OrderService khi đơn hàng không tạo được sau khi đã trừ kho
+     */
+    @PutMapping("/batch-restore-stock")
+    public ResponseEntity<?> batchRestoreProductStock(@RequestBody List<Map<String, Object>> stockUpdates) {
+        try {
+            Map<String, Integer> quantities = parseStockLines(stockUpdates);
+            if (quantities == null) {
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "error", "Dữ liệu không hợp lệ"
+                ));
+            }
+            productStockService.incrementStockBatch(quantities);
+            catalogSnapshotService.invalidate();
+            System.out.println("[STOCK RESTORE] Đã hoàn kho cho " + quantities.size() + " sản phẩm");
+            return ResponseEntity.ok(Map.of("success", true));
+        } catch (Exception e) {
+            System.out.println("Lỗi khi hoàn số lượng tồn kho: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Lỗi: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Giữ hàng có thời hạn cho đơn thanh toán online (VNPay)
+     * Body: { "orderNumber": "...", "items": [{ "productId": "...", "quantity": 1 }] }
+     * Hold chưa được commit sẽ tự hoàn kho khi hết hạn.
+     */
+    @PostMapping("/reservations")
+    public ResponseEntity<?> reserveStock(@RequestBody Map<String, Object> request) {
+        try {
+            Object orderNumber = request.get("orderNumber");
+            Object items = request.get("items");
+            Map<String, Integer> quantities = items instanceof List<?> lines ? parseStockLines(lines) : null;
+            if (!(orderNumber instanceof String) || quantities == null || quantities.isEmpty()) {
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "error", "Dữ liệu không hợp lệ"
+                ));
+            }
+
+            BatchStockResult result = stockReservationService.reserve((String) orderNumber, quantities);
+            if (!result.success()) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of(
+                    "success", false,
+                    "productId", String.valueOf(result.failedProductId()),
+                    "error", result.error()
+                ));
+            }
+            catalogSnapshotService.invalidate();
+            System.out.println("[STOCK HOLD] Đã giữ hàng cho đơn " + orderNumber);
+            return ResponseEntity.status(HttpStatus.CREATED).body(Map.of(
+                "success", true,
+                "orderNumber", orderNumber
+            ));
+        } catch (Exception e) {
+            System.out.println("Lỗi khi giữ hàng: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Lỗi: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Xác nhận giữ hàng khi đơn đã thanh toán (gọi từ PaymentService)
+     */
+    @PutMapping("/reservations/{orderNumber}/commit")
+    public ResponseEntity<?> commitReservation(@PathVariable String orderNumber) {
+        try {
+            BatchStockResult result = stockReservationService.commit(orderNumber);
+            if (!result.success()) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of(
+                    "success", false,
+                    "error", result.error()
+                ));
+            }
+            return ResponseEntity.ok(Map.of("success", true));
+        } catch (Exception e) {
+            System.out.println("Lỗi khi xác nhận giữ hàng: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Lỗi: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hủy giữ hàng và hoàn kho (ví dụ khi đơn bị hủy trước khi thanh toán)
+     */
+    @PutMapping("/reservations/{orderNumber}/release")
+    public ResponseEntity<?> releaseReservation(@PathVariable String orderNumber) {
+        try {
+            boolean released = stockReservationService.release(orderNumber);
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "released", released
+            ));
+        } catch (Exception e) {
+            System.out.println("Lỗi khi hủy giữ hàng: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Lỗi: " + e.getMessage());
+        }
+    }
+
+    // Gộp các dòng trùng productId; trả về null nếu có dòng không hợp lệ
+    private Map<String, Integer> parseStockLines(List<?> stockUpdates) {
+        if (stockUpdates == null) {
+            return null;
+        }
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        for (Object line : stockUpdates) {
+            if (!(line instanceof Map<?, ?> update)) {
+                return null;
+            }
+            Object productId = update.get("productId");
+            Object quantity = update.get("quantity");
+            if (!(productId instanceof String) || !(quantity instanceof Integer) || (Integer) quantity <= 0) {
+                return null;
+            }
+            quantities.merge((String) productId, (Integer) quantity, Integer::sum);
+        }
+        return quantities;
+    }
 }
@@ -0,0 +1,20 @@
+package com.b2110941.ProductService.entity;
+
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Dấu batch trừ kho đang xử lý, nằm trong Product.pendingStockBatches.
+ * Batch xong (thành công hoặc đã hoàn kho) thì dấu bị gỡ; dấu còn lại quá lâu nghĩa là instance chết giữa chừng
+ * và ProductStockService.recoverStalePendingBatches sẽ cộng lại quantity cho sản phẩm.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PendingStockBatch {
+
+    private String batchId;
+    private Integer quantity;            // số lượng đã trừ của sản phẩm này trong batch
+    private LocalDateTime createdAt;
+}
@@ -3,12 +3,26 @@ package com.b2110941.ProductService.entity;
 import lombok.*;
 
 import java.time.LocalDateTime;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.annotation.Id;
 import java.util.List;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 @Document(collection = "products")
+// Index cho GET /api/products/search: các trường lọc bằng (equality) trước, trường sắp xếp/khoảng sau
+@CompoundIndexes({
+    @CompoundIndex(name = "category_gender_id", def = "{'category': 1, 'gender': 1, '_id': -1}"),
+    @CompoundIndex(name = "category_karat_weight_id", def = "{'category': 1, 'karat': 1, 'weight': 1, '_id': 1}"),
+    @CompoundIndex(name = "category_weight_id", def = "{'category': 1, 'weight': 1, '_id': 1}"),
+    @CompoundIndex(name = "category_name_id", def = "{'category': 1, 'name': 1, '_id': 1}"),
+    @CompoundIndex(name = "brand_id", def = "{'brand': 1, '_id': -1}"),
+    @CompoundIndex(name = "goldAge_id", def = "{'goldAge': 1, '_id': -1}"),
+    // Sweeper tìm dấu batch trừ kho bị bỏ dở (sparse: hầu hết sản phẩm không có dấu nào)
+    @CompoundIndex(name = "pending_batches_created", def = "{'pendingStockBatches.createdAt': 1}", sparse = true)
+})
 public class Product {
     @Id
     private String id;
@@ -38,6 +52,10 @@ public class Product {
     private String description;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
+    // Đánh dấu các batch trừ kho đang xử lý (ProductStockService), dùng để hoàn kho khi batch thất bại.
+    // Chỉ ProductStockService đổi field này bằng $push/$pull; sản phẩm có sẵn chỉ được cập nhật qua updateFields, không save đè cả document
+    @JsonIgnore
+    private List<PendingStockBatch> pendingStockBatches;
 
     public String getId() { return id; }
     public void setId(String id) { this.id = id; }
@@ -91,5 +109,7 @@ public class Product {
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
     public LocalDateTime getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+    public List<PendingStockBatch> getPendingStockBatches() { return pendingStockBatches; }
+    public void setPendingStockBatches(List<PendingStockBatch> pendingStockBatches) { this.pendingStockBatches = pendingStockBatches; }
 }
 
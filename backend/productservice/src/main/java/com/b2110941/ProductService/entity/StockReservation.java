@@ -0,0 +1,44 @@
+package com.b2110941.ProductService.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Giữ hàng (hold) cho đơn hàng chưa thanh toán, khóa theo orderNumber.
+ * Tồn kho đã được trừ khi tạo hold; hold hết hạn mà chưa commit sẽ được sweeper hoàn kho.
+ */
+@Document(collection = "stock_reservations")
+@CompoundIndex(name = "status_expires_idx", def = "{'status': 1, 'expiresAt': 1}")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StockReservation {
+
+    public static final String HELD = "HELD";
+    public static final String COMMITTED = "COMMITTED";
+    public static final String RELEASED = "RELEASED";
+
+    @Id
+    private String orderNumber;
+
+    private Map<String, Integer> items;  // productId -> số lượng
+    private String status;               // HELD, COMMITTED, RELEASED
+    // true khi kho đã thực sự bị trừ; hold tạo xong nhưng chưa trừ kho (instance chết giữa chừng) thì không được hoàn kho.
+    // null: hold tạo trước khi có field này, coi như đã trừ
+    private Boolean applied;
+    private LocalDateTime createdAt;
+    private LocalDateTime expiresAt;     // hạn giữ hàng
+    private LocalDateTime updatedAt;
+
+    // Hold đã commit/release được MongoDB tự xóa (TTL index) sau thời gian lưu vết
+    @Indexed(name = "purge_ttl_idx", expireAfterSeconds = 0)
+    private Date purgeAt;
+}
@@ -0,0 +1,17 @@
+package com.b2110941.ProductService.payload;
+
+import com.b2110941.ProductService.entity.Product;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductPageResponse {
+    private List<Product> items;
+    private String nextCursor; // null khi đã hết dữ liệu
+    private int size;
+}
@@ -0,0 +1,24 @@
+package com.b2110941.ProductService.payload;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductSearchCriteria {
+    private String category;
+    private String gender;
+    private String karat;
+    private String goldAge;
+    private String brand;
+    private Double minWeight;
+    private Double maxWeight;
+    private boolean inStockOnly;
+    private String sort;      // newest | oldest | weight_asc | weight_desc | name_asc
+    private String cursor;    // nextCursor của trang trước, null = trang đầu
+    private int size;
+}
@@ -6,7 +6,7 @@ import com.b2110941.ProductService.entity.ProductDetail;
 
 import java.util.List;
 
-public interface ProductDetailRepository extends MongoRepository<ProductDetail, String> {
+public interface ProductDetailRepository extends MongoRepository<ProductDetail, String>, ProductDetailRepositoryCustom {
     List<ProductDetail> findByProductId(String productId);
     List<ProductDetail> findByCertificationNumber(String certificationNumber);
     List<ProductDetail> findByStatus(String status);
@@ -0,0 +1,12 @@
+package com.b2110941.ProductService.repository;
+
+import org.springframework.data.mongodb.core.query.Update;
+
+public interface ProductDetailRepositoryCustom {
+
+    /**
+     * Cập nhật 1 phần các ProductDetail của sản phẩm (thay cho save toàn bộ document).
+     * stockQuantity chỉ được đổi bằng $inc trong ProductStockService.
+     */
+    long updateByProductId(String productId, Update update);
+}
@@ -0,0 +1,24 @@
+package com.b2110941.ProductService.repository;
+
+import com.b2110941.ProductService.entity.ProductDetail;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class ProductDetailRepositoryImpl implements ProductDetailRepositoryCustom {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public long updateByProductId(String productId, Update update) {
+        return mongoTemplate.updateMulti(
+                Query.query(Criteria.where("productId").is(productId)),
+                update,
+                ProductDetail.class).getModifiedCount();
+    }
+}
@@ -5,7 +5,7 @@ import com.b2110941.ProductService.entity.Product;
 
 import java.util.List;
 
-public interface ProductRepository extends MongoRepository<Product, String> {
+public interface ProductRepository extends MongoRepository<Product, String>, ProductRepositoryCustom {
     List<Product> findByNameContainingIgnoreCase(String name);
     List<Product> findByCategory(String category);
     List<Product> findBySku(String sku);
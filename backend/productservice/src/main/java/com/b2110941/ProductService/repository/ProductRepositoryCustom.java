@@ -0,0 +1,28 @@
+package com.b2110941.ProductService.repository;
+
+import com.b2110941.ProductService.entity.Product;
+import com.b2110941.ProductService.payload.ProductPageResponse;
+import com.b2110941.ProductService.payload.ProductSearchCriteria;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Optional;
+
+public interface ProductRepositoryCustom {
+    ProductPageResponse searchPage(ProductSearchCriteria criteria);
+
+    /**
+     * Cập nhật 1 phần sản phẩm đã có (thay cho save toàn bộ document), trả về sản phẩm sau khi cập nhật.
+     * Không dùng cho stockQuantity/pendingStockBatches: các trường đó chỉ được đổi qua ProductStockService.
+     */
+    Optional<Product> updateFields(String productId, Update update);
+
+    /**
+     * Như updateFields nhưng trả về sản phẩm trước khi cập nhật (để giải phóng đúng ảnh cũ khi đổi ảnh).
+     */
+    Optional<Product> replaceFields(String productId, Update update);
+
+    /**
+     * Xóa sản phẩm và trả về document đã xóa (rỗng nếu không còn), để chỉ 1 request giải phóng ảnh của nó.
+     */
+    Optional<Product> removeById(String productId);
+}
@@ -0,0 +1,192 @@
+package com.b2110941.ProductService.repository;
+
+import com.b2110941.ProductService.entity.Product;
+import com.b2110941.ProductService.payload.ProductPageResponse;
+import com.b2110941.ProductService.payload.ProductSearchCriteria;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+@Repository
+public class ProductRepositoryImpl implements ProductRepositoryCustom {
+
+    // Các trường cần cho thẻ sản phẩm ở trang danh sách
+    private static final String[] LISTING_FIELDS = {
+            "name", "brand", "category", "gender", "karat", "goldAge", "weight", "wage",
+            "stockQuantity", "thumbnailUrl", "tags", "createdAt"
+    };
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Tìm kiếm có lọc + phân trang keyset theo (sortField, _id).
+     * Trang tiếp theo bắt đầu ngay sau bản ghi cuối của trang trước nên không cần skip.
+     */
+    @Override
+    public ProductPageResponse searchPage(ProductSearchCriteria criteria) {
+        SortKey sortKey = SortKey.from(criteria.getSort());
+        List<Criteria> filters = new ArrayList<>();
+
+        if (hasText(criteria.getCategory())) filters.add(Criteria.where("category").is(criteria.getCategory()));
+        if (hasText(criteria.getGender())) filters.add(Criteria.where("gender").is(criteria.getGender()));
+        if (hasText(criteria.getKarat())) filters.add(Criteria.where("karat").is(criteria.getKarat()));
+        if (hasText(criteria.getGoldAge())) filters.add(Criteria.where("goldAge").is(criteria.getGoldAge()));
+        if (hasText(criteria.getBrand())) filters.add(Criteria.where("brand").is(criteria.getBrand()));
+        if (criteria.getMinWeight() != null || criteria.getMaxWeight() != null) {
+            Criteria weight = Criteria.where("weight");
+            if (criteria.getMinWeight() != null) weight = weight.gte(criteria.getMinWeight());
+            if (criteria.getMaxWeight() != null) weight = weight.lte(criteria.getMaxWeight());
+            filters.add(weight);
+        }
+        if (criteria.isInStockOnly()) filters.add(Criteria.where("stockQuantity").gt(0));
+        if (hasText(criteria.getCursor())) filters.add(afterCursor(sortKey, decodeCursor(criteria.getCursor())));
+
+        Query query = new Query();
+        if (!filters.isEmpty()) {
+            query.addCriteria(new Criteria().andOperator(filters.toArray(new Criteria[0])));
+        }
+        query.fields().include(LISTING_FIELDS);
+        query.with(sortKey.sort());
+        // Lấy dư 1 bản ghi để biết còn trang sau hay không
+        query.limit(criteria.getSize() + 1);
+
+        List<Product> items = mongoTemplate.find(query, Product.class);
+        String nextCursor = null;
+        if (items.size() > criteria.getSize()) {
+            items = new ArrayList<>(items.subList(0, criteria.getSize()));
+            nextCursor = encodeCursor(sortKey, items.get(items.size() - 1));
+        }
+        return new ProductPageResponse(items, nextCursor, items.size());
+    }
+
+    // Điều kiện "đứng sau bản ghi cursor" theo thứ tự sắp xếp, kể cả khi giá trị sort là null
+    private Criteria afterCursor(SortKey sortKey, Map<String, Object> cursor) {
+        String id = (String) cursor.get("id");
+        if (sortKey.field() == null) {
+            return sortKey.ascending() ? Criteria.where("id").gt(id) : Criteria.where("id").lt(id);
+        }
+        String field = sortKey.field();
+        Object value = cursor.get("v");
+        if (sortKey.ascending()) {
+            // null đứng đầu khi sắp xếp tăng dần
+            if (value == null) {
+                return new Criteria().orOperator(
+                        new Criteria().andOperator(Criteria.where(field).is(null), Criteria.where("id").gt(id)),
+                        Criteria.where(field).ne(null));
+            }
+            return new Criteria().orOperator(
+                    Criteria.where(field).gt(value),
+                    new Criteria().andOperator(Criteria.where(field).is(value), Criteria.where("id").gt(id)));
+        }
+        // null đứng cuối khi sắp xếp giảm dần
+        if (value == null) {
+            return new Criteria().andOperator(Criteria.where(field).is(null), Criteria.where("id").lt(id));
+        }
+        return new Criteria().orOperator(
+                Criteria.where(field).lt(value),
+                new Criteria().andOperator(Criteria.where(field).is(value), Criteria.where("id").lt(id)),
+                Criteria.where(field).is(null));
+    }
+
+    private String encodeCursor(SortKey sortKey, Product last) {
+        Map<String, Object> cursor = new HashMap<>();
+        cursor.put("id", last.getId());
+        if (sortKey.field() != null) {
+            cursor.put("v", "weight".equals(sortKey.field()) ? last.getWeight() : last.getName());
+        }
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(cursor));
+        } catch (Exception e) {
+            throw new IllegalStateException("Không thể tạo cursor", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> decodeCursor(String cursor) {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            Map<String, Object> decoded = objectMapper.readValue(json, Map.class);
+            if (!(decoded.get("id") instanceof String)) {
+                throw new IllegalArgumentException("Cursor không hợp lệ");
+            }
+            return decoded;
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cursor không hợp lệ", e);
+        }
+    }
+
+    private boolean hasText(String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+
+    private record SortKey(String field, boolean ascending) {
+        static SortKey from(String sort) {
+            if (sort == null) return new SortKey(null, false);
+            switch (sort) {
+                case "oldest":
+                    return new SortKey(null, true);
+                case "weight_asc":
+                    return new SortKey("weight", true);
+                case "weight_desc":
+                    return new SortKey("weight", false);
+                case "name_asc":
+                    return new SortKey("name", true);
+                case "newest":
+                    return new SortKey(null, false);
+                default:
+                    throw new IllegalArgumentException("Sort không hợp lệ: " + sort);
+            }
+        }
+
+        // _id (ObjectId) tăng theo thời gian tạo nên dùng luôn cho newest/oldest và làm tie-breaker
+        Sort sort() {
+            Sort.Direction direction = ascending ? Sort.Direction.ASC : Sort.Direction.DESC;
+            return field == null ? Sort.by(direction, "id") : Sort.by(direction, field).and(Sort.by(direction, "id"));
+        }
+    }
+
+    @Override
+    public Optional<Product> updateFields(String productId, Update update) {
+        return Optional.ofNullable(mongoTemplate.findAndModify(
+                Query.query(Criteria.where("id").is(productId)),
+                update,
+                FindAndModifyOptions.options().returnNew(true),
+                Product.class));
+    }
+
+    @Override
+    public Optional<Product> replaceFields(String productId, Update update) {
+        return Optional.ofNullable(mongoTemplate.findAndModify(
+                Query.query(Criteria.where("id").is(productId)),
+                update,
+                FindAndModifyOptions.options().returnNew(false),
+                Product.class));
+    }
+
+    @Override
+    public Optional<Product> removeById(String productId) {
+        return Optional.ofNullable(mongoTemplate.findAndRemove(
+                Query.query(Criteria.where("id").is(productId)),
+                Product.class));
+    }
+}
@@ -0,0 +1,161 @@
+package com.b2110941.ProductService.service;
+
+import com.b2110941.ProductService.entity.Product;
+import com.b2110941.ProductService.repository.ProductRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Snapshot danh sách sản phẩm (kèm rating) dùng cho /api/products/all và /best-seller.
+ * Snapshot giữ sẵn JSON đã serialize + ETag, bị đánh dấu cũ khi có thao tác ghi sản phẩm
+ * và tự hết hạn sau catalog.snapshot.ttl-seconds (rating thay đổi bên ReviewService).
+ * Snapshot cũ vẫn được trả về trong lúc 1 luồng nền build lại; request chỉ phải chờ build khi chưa có snapshot nào.
+ */
+@Service
+public class CatalogSnapshotService {
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ReviewServiceClient reviewServiceClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${catalog.snapshot.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    private final AtomicReference<Cached> snapshot = new AtomicReference<>();
+    // Tăng mỗi lần invalidate; snapshot build trước lần tăng cuối là snapshot cũ
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    public CatalogSnapshot getSnapshot() {
+        Cached current = snapshot.get();
+        if (current == null) {
+            return buildFirst();
+        }
+        if (!isFresh(current)) {
+            refreshInBackground();
+        }
+        return current.snapshot();
+    }
+
+    public void invalidate() {
+        version.incrementAndGet();
+    }
+
+    private boolean isFresh(Cached cached) {
+        return cached.version() == version.get() && !cached.snapshot().isExpired(ttlSeconds);
+    }
+
+    // Chưa có snapshot nào để trả: các request cùng chờ 1 lần build
+    private synchronized CatalogSnapshot buildFirst() {
+        Cached current = snapshot.get();
+        if (current != null) {
+            return current.snapshot();
+        }
+        return rebuild().snapshot();
+    }
+
+    private void refreshInBackground() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        Thread worker = new Thread(() -> {
+            try {
+                // Có thao tác ghi trong lúc build thì build tiếp, snapshot vừa build vẫn được dùng tạm
+                long built;
+                do {
+                    built = rebuild().version();
+                } while (built != version.get());
+            } catch (Exception e) {
+                System.out.println("[CATALOG] Lỗi khi build lại snapshot: " + e.getMessage());
+            } finally {
+                refreshing.set(false);
+            }
+        }, "catalog-snapshot-refresh");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private Cached rebuild() {
+        long buildVersion = version.get();
+        Cached rebuilt = new Cached(build(), buildVersion);
+        snapshot.set(rebuilt);
+        return rebuilt;
+    }
+
+    private CatalogSnapshot build() {
+        List<Product> products = productRepository.findAll();
+
+        // Lấy rating của cả danh sách bằng 1 request tới ReviewService
+        Map<String, Map<String, Object>> ratings = reviewServiceClient.getRatingSummaries(
+                products.stream().map(Product::getId).toList());
+
+        LocalDateTime newSince = LocalDateTime.now().minusDays(30);
+        List<Map<String, Object>> rows = new ArrayList<>(products.size());
+        for (Product product : products) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", product.getId());
+            row.put("name", product.getName());
+            row.put("description", product.getDescription());
+            row.put("category", product.getCategory());
+            row.put("goldAge", product.getGoldAge());
+            row.put("karat", product.getKarat());
+            row.put("weight", product.getWeight());
+            row.put("wage", product.getWage());
+            row.put("stockQuantity", product.getStockQuantity());
+            row.put("isNew", product.getCreatedAt() != null && product.getCreatedAt().isAfter(newSince));
+
+            // Thông tin ảnh
+            row.put("thumbnailUrl", product.getThumbnailUrl());
+            row.put("images", product.getImages());
+
+            row.put("gender", product.getGender());
+            row.put("tags", product.getTags());
+
+            // Trường image để tương thích với frontend
+            row.put("image", product.getThumbnailUrl());
+
+            Map<String, Object> ratingInfo = ratings.get(product.getId());
+            row.put("rating", ratingInfo.get("rating"));
+            row.put("reviews", ratingInfo.get("reviews"));
+            row.put("ratings", ratingInfo.get("ratings"));
+            row.put("ratingHistogram", ratingInfo.get("ratingHistogram"));
+
+            rows.add(Collections.unmodifiableMap(row));
+        }
+
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(rows);
+            String etag = "\"" + DigestUtils.md5DigestAsHex(json) + "\"";
+            System.out.println("[CATALOG] Đã build snapshot: " + rows.size() + " sản phẩm, " + json.length + " bytes");
+            return new CatalogSnapshot(Collections.unmodifiableList(rows), json, etag, System.currentTimeMillis());
+        } catch (Exception e) {
+            throw new IllegalStateException("Không thể serialize danh sách sản phẩm", e);
+        }
+    }
+
+    private record Cached(CatalogSnapshot snapshot, long version) {}
+
+    public record CatalogSnapshot(List<Map<String, Object>> rows, byte[] json, String etag, long builtAt) {
+        boolean isExpired(long ttlSeconds) {
+            return System.currentTimeMillis() - builtAt > ttlSeconds * 1000;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.b2110941.ProductService.service;
+
+import com.b2110941.ProductService.entity.PendingStockBatch;
+import com.b2110941.ProductService.entity.Product;
+import com.b2110941.ProductService.entity.ProductDetail;
+import com.mongodb.bulk.BulkWriteResult;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+@Service
+public class ProductStockService {
+
+    private static final String PENDING_BATCHES = "pendingStockBatches";
+    private static final int SWEEP_BATCH_SIZE = 200;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // Batch bình thường xong trong vài mili giây; dấu còn lại lâu hơn mức này là do instance chết giữa chừng
+    @Value("${stock.pending-batch.stale-minutes:10}")
+    private long staleMinutes = 10;
+
+    /**
+     * Trừ tồn kho nguyên tử bằng 1 lệnh findAndModify: chỉ trừ khi stockQuantity >= quantity.
+     * Hai đơn hàng đồng thời không thể cùng vượt qua bước kiểm tra (không bán âm kho).
+     * Trả về sản phẩm sau khi trừ, hoặc null nếu không tồn tại / không đủ hàng.
+     */
+    public Product decrementStock(String productId, int quantity) {
+        Query query = Query.query(Criteria.where("id").is(productId).and("stockQuantity").gte(quantity));
+        Update update = new Update()
+                .inc("stockQuantity", -quantity)
+                .set("updatedAt", LocalDateTime.now());
+        Product updated = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), Product.class);
+        if (updated != null) {
+            adjustDetailStock(productId, -quantity);
+        }
+        return updated;
+    }
+
+    /**
+     * Thay đổi tồn kho do admin nhập (nhập thêm / giảm bớt) bằng $inc nên không ghi đè các lệnh trừ kho
+     * đồng thời. Chỉ giảm khi còn đủ hàng; nhập thêm thì quantity (tổng số lượng) cũng tăng tương ứng.
+     * Trả về sản phẩm sau khi cập nhật, hoặc null nếu không tồn tại / không đủ hàng để giảm.
+     */
+    public Product adjustStock(String productId, int delta) {
+        return adjustStock(productId, delta, new Update());
+    }
+
+    /**
+     * Như adjustStock(productId, delta) nhưng áp {@code fields} ($set các trường khác) trong cùng lệnh findAndModify:
+     * tồn kho và các trường cùng được ghi hoặc cùng không, nên gửi lại request không cộng kho 2 lần.
+     */
+    public Product adjustStock(String productId, int delta, Update fields) {
+        Criteria criteria = Criteria.where("id").is(productId);
+        Update update = fields
+                .inc("stockQuantity", delta)
+                .set("updatedAt", LocalDateTime.now());
+        if (delta < 0) {
+            criteria = criteria.and("stockQuantity").gte(-delta);
+        } else {
+            update.inc("quantity", delta);
+        }
+        Product updated = mongoTemplate.findAndModify(Query.query(criteria), update,
+                FindAndModifyOptions.options().returnNew(true), Product.class);
+        if (updated != null && delta != 0) {
+            adjustDetailStock(productId, delta);
+        }
+        return updated;
+    }
+
+    /**
+     * Trừ tồn kho cho nhiều sản phẩm theo kiểu all-or-nothing.
+     * Toàn bộ lệnh trừ có điều kiện được gửi trong 1 BulkOperations (ordered); mỗi sản phẩm bị trừ
+     * được gắn dấu batch (mã batch + số lượng đã trừ). Nếu có sản phẩm không đủ hàng, các sản phẩm đã trừ
+     * (còn mang dấu batch) được hoàn kho bằng 1 bulk khác. Instance chết trước khi gỡ dấu thì
+     * recoverStalePendingBatches hoàn kho theo dấu còn sót. MongoDB standalone không hỗ trợ transaction nhiều document
+     * nên dùng cách bù trừ (compensation) thay cho transaction.
+     * Số round trip không phụ thuộc số dòng trong đơn hàng.
+     */
+    public BatchStockResult decrementStockBatch(Map<String, Integer> quantities) {
+        // Sắp xếp theo productId để các batch đồng thời luôn trừ theo cùng thứ tự
+        Map<String, Integer> lines = new TreeMap<>(quantities);
+        if (lines.isEmpty()) {
+            return BatchStockResult.succeeded();
+        }
+        String batchId = UUID.randomUUID().toString();
+        LocalDateTime now = LocalDateTime.now();
+
+        BulkOperations decrements = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Product.class);
+        for (Map.Entry<String, Integer> line : lines.entrySet()) {
+            decrements.updateOne(
+                    Query.query(Criteria.where("id").is(line.getKey()).and("stockQuantity").gte(line.getValue())),
+                    new Update()
+                            .inc("stockQuantity", -line.getValue())
+                            .set("updatedAt", now)
+                            .push(PENDING_BATCHES, new PendingStockBatch(batchId, line.getValue(), now)));
+        }
+        BulkWriteResult result = decrements.execute();
+        List<String> productIds = new ArrayList<>(lines.keySet());
+
+        if (result.getMatchedCount() == lines.size()) {
+            mongoTemplate.updateMulti(
+                    Query.query(Criteria.where("id").in(productIds)),
+                    new Update().pull(PENDING_BATCHES, batchMarker(batchId)),
+                    Product.class);
+            adjustDetailStock(lines, -1);
+            return BatchStockResult.succeeded();
+        }
+
+        // Có sản phẩm không đủ hàng / không tồn tại: xác định sản phẩm lỗi rồi hoàn kho cho các sản phẩm đã trừ
+        Query applied = Query.query(Criteria.where("id").in(productIds));
+        applied.fields().include(PENDING_BATCHES);
+        List<String> notApplied = new ArrayList<>(productIds);
+        for (Product product : mongoTemplate.find(applied, Product.class)) {
+            List<PendingStockBatch> pending = product.getPendingStockBatches();
+            if (pending != null && pending.stream().anyMatch(marker -> batchId.equals(marker.getBatchId()))) {
+                notApplied.remove(product.getId());
+            }
+        }
+
+        BulkOperations compensation = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+        for (Map.Entry<String, Integer> line : lines.entrySet()) {
+            compensation.updateOne(
+                    Query.query(Criteria.where("id").is(line.getKey()).and(PENDING_BATCHES + ".batchId").is(batchId)),
+                    new Update().inc("stockQuantity", line.getValue()).pull(PENDING_BATCHES, batchMarker(batchId)));
+        }
+        compensation.execute();
+
+        String failedProductId = notApplied.isEmpty() ? null : notApplied.get(0);
+        return BatchStockResult.failed(failedProductId, "Số lượng tồn kho không đủ hoặc sản phẩm không tồn tại");
+    }
+
+    @Scheduled(fixedDelayString = "${stock.pending-batch.sweep-interval-ms:60000}")
+    public void sweepStalePendingBatches() {
+        try {
+            int recovered = recoverStalePendingBatches(LocalDateTime.now().minusMinutes(staleMinutes));
+            if (recovered > 0) {
+                System.out.println("[STOCK UPDATE] Đã hoàn kho cho " + recovered + " dấu batch trừ kho bị bỏ dở");
+            }
+        } catch (Exception e) {
+            System.out.println("[STOCK UPDATE] Lỗi khi quét dấu batch trừ kho: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hoàn kho cho các dấu batch tạo trước cutoff mà chưa được gỡ: batch đó chưa từng trả kết quả thành công
+     * (dấu được gỡ trước khi trả về), nên hàng đã trừ phải được cộng lại.
+     * Mỗi dấu được gỡ cùng lệnh $inc có điều kiện nên nhiều instance cùng quét cũng chỉ hoàn 1 lần.
+     * ProductDetail chỉ được trừ sau khi batch thành công nên ở đây không cần hoàn.
+     */
+    public int recoverStalePendingBatches(LocalDateTime cutoff) {
+        int recovered = 0;
+        while (true) {
+            Query stale = Query.query(Criteria.where(PENDING_BATCHES + ".createdAt").lt(cutoff)).limit(SWEEP_BATCH_SIZE);
+            stale.fields().include(PENDING_BATCHES);
+            List<Product> batch = mongoTemplate.find(stale, Product.class);
+            for (Product product : batch) {
+                for (PendingStockBatch marker : product.getPendingStockBatches()) {
+                    if (marker.getCreatedAt() == null || !marker.getCreatedAt().isBefore(cutoff)) {
+                        continue;
+                    }
+                    Update restore = new Update().pull(PENDING_BATCHES, batchMarker(marker.getBatchId()));
+                    if (marker.getQuantity() != null) {
+                        restore.inc("stockQuantity", marker.getQuantity()).set("updatedAt", LocalDateTime.now());
+                    }
+                    long modified = mongoTemplate.updateFirst(
+                            Query.query(Criteria.where("id").is(product.getId())
+                                    .and(PENDING_BATCHES + ".batchId").is(marker.getBatchId())),
+                            restore, Product.class).getModifiedCount();
+                    if (modified > 0) {
+                        recovered++;
+                    }
+                }
+            }
+            if (batch.size() < SWEEP_BATCH_SIZE) {
+                return recovered;
+            }
+        }
+    }
+
+    /**
+     * Hoàn lại tồn kho cho nhiều sản phẩm (ví dụ đơn hàng không lưu được sau khi đã trừ kho).
+     */
+    public void incrementStockBatch(Map<String, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        BulkOperations increments = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+        for (Map.Entry<String, Integer> line : quantities.entrySet()) {
+            increments.updateOne(
+                    Query.query(Criteria.where("id").is(line.getKey())),
+                    new Update().inc("stockQuantity", line.getValue()).set("updatedAt", now));
+        }
+        increments.execute();
+        adjustDetailStock(quantities, 1);
+    }
+
+    // Đồng bộ ProductDetail của nhiều sản phẩm trong 1 bulk
+    private void adjustDetailStock(Map<String, Integer> quantities, int sign) {
+        BulkOperations details = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ProductDetail.class);
+        for (Map.Entry<String, Integer> line : quantities.entrySet()) {
+            details.updateMulti(
+                    Query.query(Criteria.where("productId").is(line.getKey())),
+                    new Update().inc("stockQuantity", sign * line.getValue()));
+        }
+        details.execute();
+    }
+
+    // Đồng bộ ProductDetail bằng 1 lệnh updateMulti thay vì save từng bản ghi
+    private void adjustDetailStock(String productId, int delta) {
+        mongoTemplate.updateMulti(
+                Query.query(Criteria.where("productId").is(productId)),
+                new Update().inc("stockQuantity", delta),
+                ProductDetail.class);
+    }
+
+    // Điều kiện $pull gỡ đúng dấu của 1 batch
+    private static Document batchMarker(String batchId) {
+        return new Document("batchId", batchId);
+    }
+
+    public record BatchStockResult(boolean success, String failedProductId, String error) {
+        static BatchStockResult succeeded() {
+            return new BatchStockResult(true, null, null);
+        }
+
+        static BatchStockResult failed(String productId, String error) {
+            return new BatchStockResult(false, productId, error);
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.b2110941.ProductService.service;
+
+import com.b2110941.ProductService.entity.Product;
+import com.b2110941.ProductService.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Chỉ mục đảo (inverted index) trong bộ nhớ cho tìm kiếm full-text sản phẩm.
+ * Bao gồm name, tags, description, design, brand, category; bỏ dấu tiếng Việt,
+ * hỗ trợ tìm theo tiền tố và xếp hạng theo BM25 (tf có trọng số theo trường).
+ */
+@Service
+public class ProductTextIndex {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    // Điểm của từ khớp theo tiền tố so với khớp nguyên từ
+    private static final float PREFIX_MATCH_WEIGHT = 0.7f;
+    // Giới hạn số term mở rộng cho mỗi tiền tố (tránh query 1 ký tự quét cả từ điển)
+    private static final int MAX_PREFIX_EXPANSIONS = 64;
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^a-z0-9]+");
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    // term -> danh sách (doc ordinal, tf có trọng số)
+    private final NavigableMap<String, PostingList> postings = new TreeMap<>();
+    // ordinal -> productId (null nếu đã xóa), productId -> ordinal
+    private final List<String> docIds = new ArrayList<>();
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    // Ordinal đã xóa, được dùng lại cho doc thêm sau (cập nhật 1 sản phẩm giữ nguyên ordinal của nó)
+    private final ArrayDeque<Integer> freeOrdinals = new ArrayDeque<>();
+    // ordinal -> các term của sản phẩm (để xóa khỏi postings khi cập nhật)
+    private final List<Set<String>> docTerms = new ArrayList<>();
+    private float[] docLengths = new float[16];
+    private double totalDocLength = 0;
+    private int liveDocs = 0;
+    private volatile boolean ready = false;
+    // Trong lúc đang đọc snapshot để build: thay đổi mới nhất của từng sản phẩm (null = đã xóa),
+    // áp lại sau khi build để không mất thay đổi xảy ra sau khi snapshot được đọc
+    private Map<String, Product> changesDuringBuild = null;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        Thread worker = new Thread(() -> {
+            try {
+                rebuild(productRepository::findAll);
+            } catch (Exception e) {
+                System.out.println("[TEXT INDEX] Lỗi khi build chỉ mục: " + e.getMessage());
+            }
+        }, "product-text-index-init");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Build lại chỉ mục từ snapshot do loader đọc. index()/remove() gọi trong lúc loader đang đọc
+     * được ghi lại và áp lên chỉ mục mới sau khi build.
+     */
+    public void rebuild(Supplier<? extends Collection<Product>> loader) {
+        lock.writeLock().lock();
+        try {
+            changesDuringBuild = new LinkedHashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Collection<Product> products;
+        try {
+            products = loader.get();
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                changesDuringBuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        rebuild(products);
+    }
+
+    public void rebuild(Collection<Product> products) {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            docIds.clear();
+            ordinals.clear();
+            freeOrdinals.clear();
+            docTerms.clear();
+            docLengths = new float[Math.max(16, products.size())];
+            totalDocLength = 0;
+            liveDocs = 0;
+            for (Product product : products) {
+                addUnlocked(product);
+            }
+            if (changesDuringBuild != null) {
+                for (Map.Entry<String, Product> change : changesDuringBuild.entrySet()) {
+                    removeUnlocked(change.getKey());
+                    if (change.getValue() != null) {
+                        addUnlocked(change.getValue());
+                    }
+                }
+                changesDuringBuild = null;
+            }
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("[TEXT INDEX] Đã build chỉ mục cho " + products.size() + " sản phẩm");
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // Thêm mới hoặc cập nhật 1 sản phẩm
+    public void index(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            recordChangeDuringBuild(product.getId(), product);
+            removeUnlocked(product.getId());
+            addUnlocked(product);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String productId) {
+        lock.writeLock().lock();
+        try {
+            recordChangeDuringBuild(productId, null);
+            removeUnlocked(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void recordChangeDuringBuild(String productId, Product product) {
+        if (changesDuringBuild != null) {
+            // Xóa rồi thêm lại để thay đổi mới nhất được áp sau cùng
+            changesDuringBuild.remove(productId);
+            changesDuringBuild.put(productId, product);
+        }
+    }
+
+    /**
+     * Tìm kiếm: mọi từ trong query phải khớp (nguyên từ hoặc tiền tố), kết quả sắp xếp theo điểm BM25.
+     * Trả về danh sách productId.
+     */
+    public List<String> search(String query, int limit) {
+        List<String> queryTerms = tokenize(query);
+        if (queryTerms.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        lock.readLock().lock();
+        try {
+            if (liveDocs == 0) {
+                return new ArrayList<>();
+            }
+            int docSpace = docIds.size();
+            double avgDocLength = totalDocLength / liveDocs;
+            double[] totals = new double[docSpace];
+            // Số từ của query đã khớp với mỗi doc (AND)
+            int[] matchedTerms = new int[docSpace];
+            double[] termBest = new double[docSpace];
+
+            for (int q = 0; q < queryTerms.size(); q++) {
+                String queryTerm = queryTerms.get(q);
+                int expansions = 0;
+                for (Map.Entry<String, PostingList> entry
+                        : postings.subMap(queryTerm, true, queryTerm + Character.MAX_VALUE, false).entrySet()) {
+                    boolean exact = entry.getKey().equals(queryTerm);
+                    if (!exact && ++expansions > MAX_PREFIX_EXPANSIONS) {
+                        continue;
+                    }
+                    float matchWeight = exact ? 1.0f : PREFIX_MATCH_WEIGHT;
+                    PostingList list = entry.getValue();
+                    double idf = Math.log(1 + (liveDocs - list.size + 0.5) / (list.size + 0.5));
+                    for (int i = 0; i < list.size; i++) {
+                        int doc = list.docs[i];
+                        // Chỉ xét doc đã khớp tất cả các từ trước đó
+                        if (matchedTerms[doc] != q) {
+                            continue;
+                        }
+                        float tf = list.tfs[i];
+                        double norm = K1 * (1 - B + B * docLengths[doc] / avgDocLength);
+                        double score = matchWeight * idf * (tf * (K1 + 1)) / (tf + norm);
+                        if (score > termBest[doc]) {
+                            termBest[doc] = score;
+                        }
+                    }
+                }
+                boolean anyMatch = false;
+                for (int doc = 0; doc < docSpace; doc++) {
+                    if (termBest[doc] > 0) {
+                        totals[doc] += termBest[doc];
+                        matchedTerms[doc]++;
+                        termBest[doc] = 0;
+                        anyMatch = true;
+                    }
+                }
+                if (!anyMatch) {
+                    return new ArrayList<>();
+                }
+            }
+
+            // Top-k bằng min-heap thay vì sắp xếp toàn bộ kết quả
+            int required = queryTerms.size();
+            PriorityQueue<Integer> heap = new PriorityQueue<>(limit + 1,
+                    (a, b) -> totals[a] != totals[b] ? Double.compare(totals[a], totals[b]) : Integer.compare(b, a));
+            for (int doc = 0; doc < docSpace; doc++) {
+                if (matchedTerms[doc] == required) {
+                    heap.offer(doc);
+                    if (heap.size() > limit) {
+                        heap.poll();
+                    }
+                }
+            }
+            String[] ranked = new String[heap.size()];
+            for (int i = ranked.length - 1; i >= 0; i--) {
+                ranked[i] = docIds.get(heap.poll());
+            }
+            return List.of(ranked);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Bỏ dấu tiếng Việt, chuyển chữ thường và tách từ
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return tokens;
+        }
+        String folded = Normalizer.normalize(text.toLowerCase(), Normalizer.Form.NFD);
+        folded = COMBINING_MARKS.matcher(folded).replaceAll("").replace('đ', 'd');
+        for (String token : NON_ALPHANUMERIC.split(folded)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private void addUnlocked(Product product) {
+        Map<String, Float> termFrequencies = new HashMap<>();
+        addField(termFrequencies, product.getName(), 3.0f);
+        if (product.getTags() != null) {
+            for (String tag : product.getTags()) {
+                addField(termFrequencies, tag, 2.0f);
+            }
+        }
+        addField(termFrequencies, product.getBrand(), 1.5f);
+        addField(termFrequencies, product.getCategory(), 1.5f);
+        addField(termFrequencies, product.getDesign(), 1.2f);
+        addField(termFrequencies, product.getDescription(), 1.0f);
+
+        Integer free = freeOrdinals.pollLast();
+        int doc;
+        if (free != null) {
+            doc = free;
+            docIds.set(doc, product.getId());
+            docTerms.set(doc, new HashSet<>(termFrequencies.keySet()));
+        } else {
+            doc = docIds.size();
+            docIds.add(product.getId());
+            docTerms.add(new HashSet<>(termFrequencies.keySet()));
+            if (doc >= docLengths.length) {
+                docLengths = Arrays.copyOf(docLengths, docLengths.length * 2);
+            }
+        }
+        ordinals.put(product.getId(), doc);
+
+        float length = 0;
+        for (Map.Entry<String, Float> entry : termFrequencies.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), term -> new PostingList()).add(doc, entry.getValue());
+            length += entry.getValue();
+        }
+        docLengths[doc] = length;
+        totalDocLength += length;
+        liveDocs++;
+    }
+
+    // Ordinal của doc bị xóa được trả về freeOrdinals, nên docIds.size() (kích thước mảng tạm mỗi lần search)
+    // chỉ bằng số sản phẩm lớn nhất từng có cùng lúc chứ không tăng theo số lần cập nhật
+    private void removeUnlocked(String productId) {
+        Integer doc = ordinals.remove(productId);
+        if (doc == null) {
+            return;
+        }
+        for (String term : docTerms.get(doc)) {
+            PostingList list = postings.get(term);
+            if (list != null) {
+                list.remove(doc);
+                if (list.size == 0) {
+                    postings.remove(term);
+                }
+            }
+        }
+        docIds.set(doc, null);
+        docTerms.set(doc, Set.of());
+        totalDocLength -= docLengths[doc];
+        docLengths[doc] = 0;
+        liveDocs--;
+        freeOrdinals.addLast(doc);
+    }
+
+    private void addField(Map<String, Float> termFrequencies, String text, float weight) {
+        for (String token : tokenize(text)) {
+            termFrequencies.merge(token, weight, Float::sum);
+        }
+    }
+
+    private static final class PostingList {
+        private int[] docs = new int[4];
+        private float[] tfs = new float[4];
+        private int size = 0;
+
+        void add(int doc, float tf) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                tfs = Arrays.copyOf(tfs, size * 2);
+            }
+            docs[size] = doc;
+            tfs[size] = tf;
+            size++;
+        }
+
+        void remove(int doc) {
+            for (int i = 0; i < size; i++) {
+                if (docs[i] == doc) {
+                    System.arraycopy(docs, i + 1, docs, i, size - i - 1);
+                    System.arraycopy(tfs, i + 1, tfs, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+    }
+}
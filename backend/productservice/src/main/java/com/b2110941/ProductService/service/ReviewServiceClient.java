@@ -0,0 +1,94 @@
+package com.b2110941.ProductService.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+public class ReviewServiceClient {
+
+    private static final String RATING_SUMMARY_URL = "http://reviewservice:9008/api/reviews/ratings/summary";
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    /**
+     * Lấy rating của nhiều sản phẩm bằng 1 request tới ReviewService.
+     * Kết quả: productId -> { rating, reviews, ratings, ratingHistogram }.
+     * Sản phẩm không có review (hoặc ReviewService lỗi) nhận giá trị mặc định.
+     */
+    public Map<String, Map<String, Object>> getRatingSummaries(List<String> productIds) {
+        Map<String, Map<String, Object>> result = new HashMap<>();
+        if (productIds == null || productIds.isEmpty()) {
+            return result;
+        }
+        try {
+            ResponseEntity<List<Map<String, Object>>> response = restTemplate.exchange(
+                    RATING_SUMMARY_URL,
+                    HttpMethod.POST,
+                    new HttpEntity<>(Map.of("productIds", productIds)),
+                    new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+            List<Map<String, Object>> summaries = response.getBody();
+            if (summaries != null) {
+                for (Map<String, Object> summary : summaries) {
+                    result.put((String) summary.get("productId"), toRatingInfo(summary));
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Error fetching rating summaries for " + productIds.size() + " products: " + e.getMessage());
+        }
+        for (String productId : productIds) {
+            result.computeIfAbsent(productId, id -> emptyRatingInfo());
+        }
+        return result;
+    }
+
+    public Map<String, Object> getRatingSummary(String productId) {
+        return getRatingSummaries(List.of(productId)).get(productId);
+    }
+
+    private Map<String, Object> toRatingInfo(Map<String, Object> summary) {
+        Number avg = (Number) summary.get("averageRating");
+        Number count = (Number) summary.get("reviewCount");
+        @SuppressWarnings("unchecked")
+        List<Number> histogram = (List<Number>) summary.get("histogram");
+
+        List<Long> ratingHistogram = new ArrayList<>();
+        // Giữ trường "ratings" (danh sách điểm từng review) để tương thích với frontend
+        List<Integer> ratings = new ArrayList<>();
+        if (histogram != null) {
+            for (int i = 0; i < histogram.size(); i++) {
+                long bucket = histogram.get(i).longValue();
+                ratingHistogram.add(bucket);
+                for (long j = 0; j < bucket; j++) {
+                    ratings.add(i + 1);
+                }
+            }
+        }
+
+        Map<String, Object> ratingInfo = new HashMap<>();
+        ratingInfo.put("rating", avg != null ? avg.doubleValue() : 0.0);
+        ratingInfo.put("reviews", count != null ? count.longValue() : 0L);
+        ratingInfo.put("ratings", ratings);
+        ratingInfo.put("ratingHistogram", ratingHistogram);
+        return ratingInfo;
+    }
+
+    private Map<String, Object> emptyRatingInfo() {
+        Map<String, Object> ratingInfo = new HashMap<>();
+        ratingInfo.put("rating", 0.0);
+        ratingInfo.put("reviews", 0L);
+        ratingInfo.put("ratings", new ArrayList<>());
+        ratingInfo.put("ratingHistogram", new ArrayList<>(List.of(0L, 0L, 0L, 0L, 0L)));
+        return ratingInfo;
+    }
+}
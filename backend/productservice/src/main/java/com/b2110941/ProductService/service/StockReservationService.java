@@ -0,0 +1,208 @@
+package com.b2110941.ProductService.service;
+
+import com.b2110941.ProductService.entity.StockReservation;
+import com.b2110941.ProductService.service.ProductStockService.BatchStockResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Giữ hàng có thời hạn cho đơn thanh toán online (VNPay).
+ * - reserve: tạo hold HELD (chưa applied), trừ kho rồi đánh dấu applied; hết hạn sau ttl phút.
+ * - commit: khi thanh toán thành công, hold chuyển COMMITTED (kho giữ nguyên).
+ * - release / sweeper: hold HELD bị hủy hoặc quá hạn được hoàn kho đúng 1 lần, chỉ khi đã applied.
+ * Mọi chuyển trạng thái là findAndModify có điều kiện trên status nên an toàn khi chạy nhiều instance.
+ */
+@Service
+public class StockReservationService {
+
+    private static final int SWEEP_BATCH_SIZE = 200;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ProductStockService productStockService;
+
+    @Autowired
+    private CatalogSnapshotService catalogSnapshotService;
+
+    @Value("${stock.reservation.ttl-minutes:15}")
+    private long ttlMinutes = 15;
+
+    @Value("${stock.reservation.retention-days:7}")
+    private long retentionDays = 7;
+
+    /**
+     * Trừ kho và tạo hold cho đơn hàng. Gọi lại với cùng orderNumber không trừ kho lần nữa.
+     * Hold được ghi trước (để lần gọi trùng không trừ kho 2 lần) nhưng chỉ được đánh dấu applied sau khi trừ kho:
+     * instance chết trước bước trừ kho thì hold không applied và sweeper không hoàn phần kho chưa từng bị trừ.
+     */
+    public BatchStockResult reserve(String orderNumber, Map<String, Integer> items) {
+        LocalDateTime now = LocalDateTime.now();
+        StockReservation hold = StockReservation.builder()
+                .orderNumber(orderNumber)
+                .items(items)
+                .status(StockReservation.HELD)
+                .applied(false)
+                .createdAt(now)
+                .updatedAt(now)
+                .expiresAt(now.plusMinutes(ttlMinutes))
+                .build();
+        try {
+            mongoTemplate.insert(hold);
+        } catch (DuplicateKeyException e) {
+            StockReservation existing = mongoTemplate.findById(orderNumber, StockReservation.class);
+            if (existing == null || StockReservation.RELEASED.equals(existing.getStatus())) {
+                return BatchStockResult.failed(null, "Đơn hàng đã bị hủy giữ hàng");
+            }
+            if (Boolean.FALSE.equals(existing.getApplied())) {
+                return BatchStockResult.failed(null, "Đơn hàng đang được giữ hàng, chưa trừ kho xong");
+            }
+            return BatchStockResult.succeeded();
+        }
+
+        BatchStockResult result = productStockService.decrementStockBatch(items);
+        if (!result.success()) {
+            // Không giữ được hàng: xóa hold chưa applied
+            mongoTemplate.remove(Query.query(Criteria.where("_id").is(orderNumber).and("applied").is(false)),
+                    StockReservation.class);
+            return result;
+        }
+        // Chỉ đánh dấu applied khi hold vẫn HELD. Hold đã bị release/sweeper (thấy chưa applied nên không hoàn kho)
+        // hoặc commit (thấy chưa applied nên tự trừ kho lại) trong lúc đang trừ kho: trả lại phần kho vừa trừ
+        boolean applied = mongoTemplate.updateFirst(holdQuery(orderNumber, StockReservation.HELD),
+                new Update().set("applied", true).set("updatedAt", LocalDateTime.now()),
+                StockReservation.class).getMatchedCount() > 0;
+        if (!applied) {
+            productStockService.incrementStockBatch(items);
+            catalogSnapshotService.invalidate();
+            StockReservation current = mongoTemplate.findById(orderNumber, StockReservation.class);
+            if (current == null || !StockReservation.COMMITTED.equals(current.getStatus())) {
+                return BatchStockResult.failed(null, "Đơn hàng đã bị hủy giữ hàng");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Xác nhận hold khi đơn đã thanh toán.
+     * Nếu hold đã bị sweeper hoàn kho (thanh toán về trễ) thì thử trừ kho lại.
+     */
+    public BatchStockResult commit(String orderNumber) {
+        StockReservation committed = transition(orderNumber, StockReservation.HELD, StockReservation.COMMITTED);
+        if (committed != null) {
+            // Hold chưa applied (instance chết trước khi trừ kho): trừ kho ngay lúc commit
+            return Boolean.FALSE.equals(committed.getApplied()) ? reacquire(committed) : BatchStockResult.succeeded();
+        }
+
+        StockReservation existing = mongoTemplate.findById(orderNumber, StockReservation.class);
+        if (existing == null) {
+            return BatchStockResult.failed(null, "Không tìm thấy giữ hàng cho đơn " + orderNumber);
+        }
+        if (StockReservation.COMMITTED.equals(existing.getStatus())) {
+            return BatchStockResult.succeeded();
+        }
+
+        // Hold đã RELEASED: giành quyền commit trước rồi mới trừ kho lại
+        StockReservation reclaimed = transition(orderNumber, StockReservation.RELEASED, StockReservation.COMMITTED);
+        if (reclaimed == null) {
+            return commit(orderNumber);
+        }
+        return reacquire(reclaimed);
+    }
+
+    // Trừ kho lại cho hold vừa chuyển COMMITTED mà kho chưa bị trừ; không đủ hàng thì trả hold về RELEASED
+    private BatchStockResult reacquire(StockReservation hold) {
+        BatchStockResult result = productStockService.decrementStockBatch(hold.getItems());
+        if (result.success()) {
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(hold.getOrderNumber())),
+                    new Update().set("applied", true), StockReservation.class);
+            catalogSnapshotService.invalidate();
+        } else {
+            transition(hold.getOrderNumber(), StockReservation.COMMITTED, StockReservation.RELEASED);
+        }
+        return result;
+    }
+
+    /**
+     * Hủy hold đang HELD và hoàn kho (nếu kho đã bị trừ). Trả về false nếu hold không còn ở trạng thái HELD.
+     */
+    public boolean release(String orderNumber) {
+        StockReservation released = transition(orderNumber, StockReservation.HELD, StockReservation.RELEASED);
+        if (released == null) {
+            return false;
+        }
+        if (Boolean.FALSE.equals(released.getApplied())) {
+            // Chưa từng trừ kho (dấu batch dở dang nếu có do ProductStockService tự hoàn)
+            return true;
+        }
+        productStockService.incrementStockBatch(released.getItems());
+        catalogSnapshotService.invalidate();
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${stock.reservation.sweep-interval-ms:60000}")
+    public void sweepExpiredHolds() {
+        try {
+            int released = releaseExpired(LocalDateTime.now());
+            if (released > 0) {
+                System.out.println("[STOCK HOLD] Đã hoàn kho cho " + released + " đơn hàng quá hạn thanh toán");
+            }
+        } catch (Exception e) {
+            System.out.println("[STOCK HOLD] Lỗi khi quét giữ hàng quá hạn: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hoàn kho cho các hold HELD đã quá hạn tại thời điểm now.
+     * Chỉ đọc theo index (status, expiresAt) nên không cần quét toàn bộ sản phẩm.
+     */
+    public int releaseExpired(LocalDateTime now) {
+        int released = 0;
+        while (true) {
+            Query expired = Query.query(Criteria.where("status").is(StockReservation.HELD).and("expiresAt").lt(now))
+                    .limit(SWEEP_BATCH_SIZE);
+            expired.fields().include("_id");
+            List<StockReservation> batch = mongoTemplate.find(expired, StockReservation.class);
+            for (StockReservation hold : batch) {
+                // Instance khác có thể đã release / đơn vừa được commit: release() tự bỏ qua
+                if (release(hold.getOrderNumber())) {
+                    released++;
+                }
+            }
+            if (batch.size() < SWEEP_BATCH_SIZE) {
+                return released;
+            }
+        }
+    }
+
+    // Chuyển trạng thái nguyên tử, trả về bản ghi trước khi đổi (null nếu trạng thái hiện tại khác from)
+    private StockReservation transition(String orderNumber, String from, String to) {
+        LocalDateTime now = LocalDateTime.now();
+        Date purgeAt = Date.from(now.plusDays(retentionDays).atZone(ZoneId.systemDefault()).toInstant());
+        Update update = new Update()
+                .set("status", to)
+                .set("updatedAt", now)
+                .set("purgeAt", purgeAt);
+        return mongoTemplate.findAndModify(holdQuery(orderNumber, from), update,
+                FindAndModifyOptions.options().returnNew(false), StockReservation.class);
+    }
+
+    private Query holdQuery(String orderNumber, String status) {
+        return Query.query(Criteria.where("_id").is(orderNumber).and("status").is(status));
+    }
+}
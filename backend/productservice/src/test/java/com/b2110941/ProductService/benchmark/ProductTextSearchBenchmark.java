@@ -0,0 +1,95 @@
+package com.b2110941.ProductService.benchmark;
+
+import com.b2110941.ProductService.entity.Product;
+import com.b2110941.ProductService.service.ProductTextIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * So sánh chỉ mục đảo trong bộ nhớ với cách tìm hiện tại (findByNameContainingIgnoreCase = $regex
+ * không dùng được index, MongoDB phải so khớp từng document). Phần regex ở đây chỉ đo chi phí CPU
+ * của việc quét toàn bộ tên sản phẩm, chưa tính I/O đọc collection.
+ *
+ * Chạy: mvn test-compile exec:java -Dexec.classpathScope=test
+ *       -Dexec.mainClass=com.b2110941.ProductService.benchmark.ProductTextSearchBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductTextSearchBenchmark {
+
+    private static final String[] CATEGORIES = {"necklace", "ring", "earring", "bracelet", "wristlet", "anklet", "pendant"};
+    private static final String[] MATERIALS = {"Vàng", "Vàng trắng", "Bạc", "Bạch kim", "Vàng hồng"};
+    private static final String[] STYLES = {"Nhẫn", "Dây chuyền", "Bông tai", "Lắc tay", "Lắc chân", "Mặt dây"};
+    private static final String[] STONES = {"đính đá", "kim cương", "ngọc trai", "trơn", "cẩm thạch", "ruby"};
+    private static final String[] BRANDS = {"PNJ", "DOJI", "SJC", "Bảo Tín", "Ngọc Thẩm"};
+
+    @Param({"2000", "20000"})
+    public int productCount;
+
+    @Param({"kim cuong", "nhẫn vàng", "ngoc"})
+    public String query;
+
+    private List<Product> products;
+    private ProductTextIndex index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        products = new ArrayList<>(productCount);
+        for (int i = 0; i < productCount; i++) {
+            Product product = new Product();
+            product.setId(String.format("%024x", i));
+            product.setName(pick(random, STYLES) + " " + pick(random, MATERIALS) + " " + pick(random, STONES) + " " + i);
+            product.setCategory(pick(random, CATEGORIES));
+            product.setBrand(pick(random, BRANDS));
+            product.setDesign(pick(random, STONES));
+            product.setTags(List.of(pick(random, MATERIALS), pick(random, STONES)));
+            product.setDescription("Sản phẩm " + pick(random, STYLES).toLowerCase() + " chế tác thủ công, "
+                    + pick(random, MATERIALS).toLowerCase() + " " + (10 + random.nextInt(15)) + "K");
+            products.add(product);
+        }
+        index = new ProductTextIndex();
+        index.rebuild(products);
+    }
+
+    // Tương đương $regex /query/i trên trường name: quét toàn bộ danh sách
+    @Benchmark
+    public List<Product> regexScan() {
+        Pattern pattern = Pattern.compile(Pattern.quote(query), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        List<Product> result = new ArrayList<>();
+        for (Product product : products) {
+            if (product.getName() != null && pattern.matcher(product.getName()).find()) {
+                result.add(product);
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<String> invertedIndex() {
+        return index.search(query, 20);
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(ProductTextSearchBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,126 @@
+package com.b2110941.ProductService.service;
+
+import com.b2110941.ProductService.entity.Product;
+import com.b2110941.ProductService.repository.ProductRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogSnapshotServiceTests {
+
+    private final List<Product> products = new CopyOnWriteArrayList<>();
+    private final AtomicInteger builds = new AtomicInteger();
+    // Khác null: các lần build sau chờ latch này (mô phỏng build chậm)
+    private volatile CountDownLatch buildGate;
+    private CatalogSnapshotService snapshotService;
+
+    @BeforeEach
+    void setUp() {
+        ProductRepository repository = (ProductRepository) Proxy.newProxyInstance(
+                ProductRepository.class.getClassLoader(),
+                new Class<?>[] {ProductRepository.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("findAll") || args != null) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    builds.incrementAndGet();
+                    List<Product> loaded = List.copyOf(products);
+                    CountDownLatch gate = buildGate;
+                    if (gate != null) {
+                        gate.await(5, TimeUnit.SECONDS);
+                    }
+                    return loaded;
+                });
+        ReviewServiceClient reviewServiceClient = new ReviewServiceClient() {
+            @Override
+            public Map<String, Map<String, Object>> getRatingSummaries(List<String> productIds) {
+                Map<String, Map<String, Object>> ratings = new HashMap<>();
+                productIds.forEach(id -> ratings.put(id, Map.of()));
+                return ratings;
+            }
+        };
+
+        snapshotService = new CatalogSnapshotService();
+        ReflectionTestUtils.setField(snapshotService, "productRepository", repository);
+        ReflectionTestUtils.setField(snapshotService, "reviewServiceClient", reviewServiceClient);
+        ReflectionTestUtils.setField(snapshotService, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(snapshotService, "ttlSeconds", 60L);
+        products.add(product("p1"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        CountDownLatch gate = buildGate;
+        if (gate != null) {
+            gate.countDown();
+        }
+    }
+
+    @Test
+    void servesThePreviousSnapshotWhileOneRefreshRuns() throws Exception {
+        assertEquals(1, snapshotService.getSnapshot().rows().size());
+
+        buildGate = new CountDownLatch(1);
+        products.add(product("p2"));
+        snapshotService.invalidate();
+        for (int i = 0; i < 20; i++) {
+            assertEquals(1, snapshotService.getSnapshot().rows().size());
+        }
+        waitFor(() -> builds.get() == 2);
+        assertEquals(2, builds.get());
+
+        buildGate.countDown();
+        waitFor(() -> snapshotService.getSnapshot().rows().size() == 2);
+    }
+
+    @Test
+    void writeDuringRefreshIsPickedUpByAnotherBuild() throws Exception {
+        snapshotService.getSnapshot();
+
+        CountDownLatch gate = new CountDownLatch(1);
+        buildGate = gate;
+        products.add(product("p2"));
+        snapshotService.invalidate();
+        snapshotService.getSnapshot();
+        waitFor(() -> builds.get() == 2);
+
+        // Ghi sau khi lần build nền đã đọc danh sách
+        products.add(product("p3"));
+        snapshotService.invalidate();
+        buildGate = null;
+        gate.countDown();
+
+        waitFor(() -> snapshotService.getSnapshot().rows().size() == 3);
+        assertEquals(3, builds.get());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    private static Product product(String id) {
+        Product product = new Product();
+        product.setId(id);
+        product.setName(id);
+        return product;
+    }
+}
@@ -0,0 +1,239 @@
+package com.b2110941.ProductService.service;
+
+import com.b2110941.ProductService.entity.PendingStockBatch;
+import com.b2110941.ProductService.entity.Product;
+import com.b2110941.ProductService.entity.ProductDetail;
+import com.b2110941.ProductService.repository.ProductRepositoryImpl;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProductStockServiceTests {
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private ProductStockService stockService;
+
+    @BeforeEach
+    void setUp() {
+        server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+        client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        mongoTemplate = new MongoTemplate(client, "stock_test");
+        stockService = new ProductStockService();
+        ReflectionTestUtils.setField(stockService, "mongoTemplate", mongoTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    void decrementStockRejectsWhenNotEnough() {
+        Product product = saveProduct(2);
+
+        assertNotNull(stockService.decrementStock(product.getId(), 2));
+        assertNull(stockService.decrementStock(product.getId(), 1));
+        assertEquals(0, mongoTemplate.findById(product.getId(), Product.class).getStockQuantity());
+    }
+
+    @Test
+    void parallelDecrementsNeverOversell() throws Exception {
+        int initialStock = 100;
+        int requests = 1000;
+        Product product = saveProduct(initialStock);
+
+        ExecutorService pool = Executors.newFixedThreadPool(32);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return stockService.decrementStock(product.getId(), 1) != null;
+            }));
+        }
+        start.countDown();
+
+        int succeeded = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get(30, TimeUnit.SECONDS)) {
+                succeeded++;
+            }
+        }
+        pool.shutdown();
+
+        assertEquals(initialStock, succeeded);
+        assertEquals(0, mongoTemplate.findById(product.getId(), Product.class).getStockQuantity());
+        for (ProductDetail detail : mongoTemplate.findAll(ProductDetail.class)) {
+            assertEquals(0, detail.getStockQuantity());
+        }
+    }
+
+    @Test
+    void batchDecrementIsAllOrNothing() {
+        Product first = saveProduct(5);
+        Product second = saveProduct(1);
+
+        Map<String, Integer> lines = new LinkedHashMap<>();
+        lines.put(first.getId(), 3);
+        lines.put(second.getId(), 2);
+        ProductStockService.BatchStockResult result = stockService.decrementStockBatch(lines);
+
+        assertFalse(result.success());
+        assertEquals(second.getId(), result.failedProductId());
+        Product reloaded = mongoTemplate.findById(first.getId(), Product.class);
+        assertEquals(5, reloaded.getStockQuantity());
+        assertTrue(reloaded.getPendingStockBatches() == null || reloaded.getPendingStockBatches().isEmpty());
+        assertEquals(1, mongoTemplate.findById(second.getId(), Product.class).getStockQuantity());
+        assertDetailStock(first.getId(), 5);
+    }
+
+    @Test
+    void batchDecrementAppliesEveryLine() {
+        Product first = saveProduct(5);
+        Product second = saveProduct(2);
+
+        ProductStockService.BatchStockResult result = stockService.decrementStockBatch(
+                Map.of(first.getId(), 3, second.getId(), 2));
+
+        assertTrue(result.success());
+        assertEquals(2, mongoTemplate.findById(first.getId(), Product.class).getStockQuantity());
+        assertEquals(0, mongoTemplate.findById(second.getId(), Product.class).getStockQuantity());
+        assertDetailStock(first.getId(), 2);
+        assertDetailStock(second.getId(), 0);
+
+        stockService.incrementStockBatch(Map.of(first.getId(), 3));
+        assertEquals(5, mongoTemplate.findById(first.getId(), Product.class).getStockQuantity());
+        assertDetailStock(first.getId(), 5);
+    }
+
+    @Test
+    void adjustStockKeepsConcurrentDecrements() {
+        Product product = saveProduct(5);
+
+        // Admin mở form lúc còn 5, trong lúc đó có đơn trừ 2, admin nhập 8 (tức +3)
+        assertNotNull(stockService.decrementStock(product.getId(), 2));
+        Product adjusted = stockService.adjustStock(product.getId(), 8 - 5);
+
+        assertEquals(6, adjusted.getStockQuantity());
+        assertEquals(6, mongoTemplate.findById(product.getId(), Product.class).getStockQuantity());
+        assertDetailStock(product.getId(), 6);
+    }
+
+    @Test
+    void adjustStockRejectsGoingNegative() {
+        Product product = saveProduct(2);
+
+        assertNull(stockService.adjustStock(product.getId(), -3));
+        assertEquals(2, mongoTemplate.findById(product.getId(), Product.class).getStockQuantity());
+        assertDetailStock(product.getId(), 2);
+
+        assertEquals(0, stockService.adjustStock(product.getId(), -2).getStockQuantity());
+        assertDetailStock(product.getId(), 0);
+    }
+
+    @Test
+    void adjustStockWritesFieldsInTheSameUpdate() {
+        Product product = saveProduct(2);
+
+        assertNull(stockService.adjustStock(product.getId(), -3, new Update().set("name", "Nhẫn vàng 24K")));
+        Product unchanged = mongoTemplate.findById(product.getId(), Product.class);
+        assertEquals("Nhẫn vàng 18K", unchanged.getName());
+        assertEquals(2, unchanged.getStockQuantity());
+
+        Product adjusted = stockService.adjustStock(product.getId(), 4, new Update().set("name", "Nhẫn vàng 24K"));
+        assertEquals("Nhẫn vàng 24K", adjusted.getName());
+        assertEquals(6, adjusted.getStockQuantity());
+        assertEquals(6, adjusted.getQuantity());
+        assertDetailStock(product.getId(), 6);
+    }
+
+    @Test
+    void staleBatchMarkersAreRestoredOnce() {
+        Product product = saveProduct(10);
+        LocalDateTime now = LocalDateTime.now();
+        // Instance chết sau bulk trừ kho: 1 batch cũ bị bỏ dở, 1 batch khác vẫn đang chạy
+        markPending(product.getId(), new PendingStockBatch("crashed", 3, now.minusMinutes(30)));
+        markPending(product.getId(), new PendingStockBatch("running", 2, now));
+
+        assertEquals(1, stockService.recoverStalePendingBatches(now.minusMinutes(10)));
+        assertEquals(0, stockService.recoverStalePendingBatches(now.minusMinutes(10)));
+
+        Product reloaded = mongoTemplate.findById(product.getId(), Product.class);
+        assertEquals(8, reloaded.getStockQuantity());
+        assertEquals(1, reloaded.getPendingStockBatches().size());
+        assertEquals("running", reloaded.getPendingStockBatches().get(0).getBatchId());
+    }
+
+    @Test
+    void updateFieldsKeepsConcurrentStockChanges() {
+        Product product = saveProduct(10);
+        markPending(product.getId(), new PendingStockBatch("running", 3, LocalDateTime.now()));
+        ProductRepositoryImpl repository = new ProductRepositoryImpl();
+        ReflectionTestUtils.setField(repository, "mongoTemplate", mongoTemplate);
+
+        Product renamed = repository.updateFields(product.getId(), new Update().set("name", "Nhẫn vàng 24K")).orElseThrow();
+        assertEquals("Nhẫn vàng 24K", renamed.getName());
+        assertEquals(7, renamed.getStockQuantity());
+        assertEquals(1, renamed.getPendingStockBatches().size());
+    }
+
+    private void markPending(String productId, PendingStockBatch marker) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(productId)),
+                new Update().inc("stockQuantity", -marker.getQuantity()).push("pendingStockBatches", marker),
+                Product.class);
+    }
+
+    private void assertDetailStock(String productId, int expected) {
+        List<ProductDetail> details = mongoTemplate.find(
+                Query.query(Criteria.where("productId").is(productId)), ProductDetail.class);
+        for (ProductDetail detail : details) {
+            assertEquals(expected, detail.getStockQuantity());
+        }
+    }
+
+    private Product saveProduct(int stock) {
+        Product product = new Product();
+        product.setName("Nhẫn vàng 18K");
+        product.setStockQuantity(stock);
+        product.setQuantity(stock);
+        Product saved = mongoTemplate.insert(product);
+        for (int i = 0; i < 2; i++) {
+            ProductDetail detail = new ProductDetail();
+            detail.setProductId(saved.getId());
+            detail.setStockQuantity(stock);
+            mongoTemplate.insert(detail);
+        }
+        return saved;
+    }
+}
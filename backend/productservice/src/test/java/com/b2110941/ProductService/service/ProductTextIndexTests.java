@@ -0,0 +1,96 @@
+package com.b2110941.ProductService.service;
+
+import com.b2110941.ProductService.entity.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProductTextIndexTests {
+
+    private ProductTextIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ProductTextIndex();
+        index.rebuild(List.of(
+                product("p1", "Nhẫn vàng đính đá", "ring"),
+                product("p2", "Dây chuyền bạc", "necklace"),
+                product("p3", "Nhẫn bạc trơn", "ring")));
+    }
+
+    @Test
+    void foldsVietnameseDiacritics() {
+        assertEquals(List.of("nhan", "vang", "dinh", "da"), ProductTextIndex.tokenize("Nhẫn VÀNG đính Đá"));
+        assertEquals(List.of("p1"), index.search("nhan vang", 10));
+        assertEquals(List.of("p1"), index.search("ĐÍNH ĐÁ", 10));
+    }
+
+    @Test
+    void matchesPrefixes() {
+        assertEquals(List.of("p2"), index.search("day chuy", 10));
+        assertEquals(List.of("p1"), index.search("nhẫn và", 10));
+    }
+
+    @Test
+    void everyQueryTermMustMatch() {
+        assertEquals(List.of("p3"), index.search("nhan bac", 10));
+        assertTrue(index.search("nhan kim cuong", 10).isEmpty());
+        List<String> rings = index.search("nhan", 10);
+        assertEquals(2, rings.size());
+        assertTrue(rings.containsAll(List.of("p1", "p3")));
+    }
+
+    @Test
+    void updateAndRemoveReplaceIndexedTerms() {
+        index.index(product("p2", "Lắc tay vàng", "bracelet"));
+        assertTrue(index.search("chuyen", 10).isEmpty());
+        assertEquals(List.of("p2"), index.search("lac tay", 10));
+
+        index.remove("p1");
+        assertTrue(index.search("dinh da", 10).isEmpty());
+        assertEquals(List.of("p2"), index.search("vang", 10));
+    }
+
+    @Test
+    void repeatedUpdatesReuseOrdinals() {
+        for (int i = 0; i < 100; i++) {
+            index.index(product("p1", "Nhẫn vàng " + i, "ring"));
+        }
+        assertEquals(3, ((List<?>) ReflectionTestUtils.getField(index, "docIds")).size());
+        assertEquals(List.of("p1"), index.search("nhan vang 99", 10));
+    }
+
+    @Test
+    void changesWhileLoadingSnapshotAreKept() {
+        ProductTextIndex fresh = new ProductTextIndex();
+        fresh.rebuild(() -> {
+            // Snapshot đã đọc xong, trong lúc đó sản phẩm được thêm / sửa / xóa
+            List<Product> snapshot = List.of(
+                    product("p1", "Nhẫn vàng", "ring"),
+                    product("p2", "Dây chuyền bạc", "necklace"));
+            fresh.index(product("p3", "Bông tai ngọc trai", "earring"));
+            fresh.index(product("p1", "Nhẫn kim cương", "ring"));
+            fresh.remove("p2");
+            return snapshot;
+        });
+
+        assertTrue(fresh.isReady());
+        assertEquals(List.of("p3"), fresh.search("ngoc trai", 10));
+        assertEquals(List.of("p1"), fresh.search("kim cuong", 10));
+        assertTrue(fresh.search("nhan vang", 10).isEmpty());
+        assertTrue(fresh.search("day chuyen", 10).isEmpty());
+    }
+
+    private Product product(String id, String name, String category) {
+        Product product = new Product();
+        product.setId(id);
+        product.setName(name);
+        product.setCategory(category);
+        return product;
+    }
+}
@@ -0,0 +1,182 @@
+package com.b2110941.ProductService.service;
+
+import com.b2110941.ProductService.entity.Product;
+import com.b2110941.ProductService.entity.StockReservation;
+import com.b2110941.ProductService.service.ProductStockService.BatchStockResult;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StockReservationServiceTests {
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private StockReservationService reservationService;
+    // Chạy 1 lần ngay sau lần trừ kho kế tiếp (giả lập request khác chen vào giữa trừ kho và đánh dấu applied)
+    private Runnable afterNextDecrement;
+
+    @BeforeEach
+    void setUp() {
+        server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+        client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        mongoTemplate = new MongoTemplate(client, "reservation_test");
+
+        ProductStockService stockService = new ProductStockService() {
+            @Override
+            public BatchStockResult decrementStockBatch(Map<String, Integer> quantities) {
+                BatchStockResult result = super.decrementStockBatch(quantities);
+                Runnable hook = afterNextDecrement;
+                afterNextDecrement = null;
+                if (hook != null) {
+                    hook.run();
+                }
+                return result;
+            }
+        };
+        ReflectionTestUtils.setField(stockService, "mongoTemplate", mongoTemplate);
+        reservationService = new StockReservationService();
+        ReflectionTestUtils.setField(reservationService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(reservationService, "productStockService", stockService);
+        ReflectionTestUtils.setField(reservationService, "catalogSnapshotService", new CatalogSnapshotService());
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    void expiredHoldIsReleasedExactlyOnce() {
+        Product product = saveProduct(10);
+
+        assertTrue(reservationService.reserve("M1", Map.of(product.getId(), 4)).success());
+        // Gọi lại cùng orderNumber không trừ kho lần nữa
+        assertTrue(reservationService.reserve("M1", Map.of(product.getId(), 4)).success());
+        assertEquals(6, stockOf(product));
+
+        LocalDateTime later = LocalDateTime.now().plusHours(1);
+        assertEquals(1, reservationService.releaseExpired(later));
+        assertEquals(0, reservationService.releaseExpired(later));
+        assertEquals(10, stockOf(product));
+        assertEquals(StockReservation.RELEASED,
+                mongoTemplate.findById("M1", StockReservation.class).getStatus());
+    }
+
+    @Test
+    void committedHoldIsNotSwept() {
+        Product product = saveProduct(10);
+
+        assertTrue(reservationService.reserve("M2", Map.of(product.getId(), 3)).success());
+        assertTrue(reservationService.commit("M2").success());
+        assertEquals(0, reservationService.releaseExpired(LocalDateTime.now().plusHours(1)));
+        assertFalse(reservationService.release("M2"));
+        assertEquals(7, stockOf(product));
+    }
+
+    @Test
+    void lateCommitReacquiresReleasedStock() {
+        Product product = saveProduct(5);
+
+        assertTrue(reservationService.reserve("M3", Map.of(product.getId(), 5)).success());
+        assertEquals(1, reservationService.releaseExpired(LocalDateTime.now().plusHours(1)));
+        assertTrue(reservationService.commit("M3").success());
+        assertEquals(0, stockOf(product));
+
+        // Không đủ hàng thì hold không được tạo
+        assertFalse(reservationService.reserve("M4", Map.of(product.getId(), 1)).success());
+        assertNull(mongoTemplate.findById("M4", StockReservation.class));
+    }
+
+    @Test
+    void holdNotAppliedIsNeverRestored() {
+        Product product = saveProduct(5);
+        LocalDateTime now = LocalDateTime.now();
+        // Instance chết sau khi ghi hold, trước khi trừ kho
+        mongoTemplate.insert(StockReservation.builder()
+                .orderNumber("M5")
+                .items(Map.of(product.getId(), 2))
+                .status(StockReservation.HELD)
+                .applied(false)
+                .createdAt(now)
+                .expiresAt(now.plusMinutes(15))
+                .build());
+
+        assertFalse(reservationService.reserve("M5", Map.of(product.getId(), 2)).success());
+        assertEquals(1, reservationService.releaseExpired(now.plusHours(1)));
+        assertEquals(5, stockOf(product));
+
+        // Thanh toán về sau đó: kho được trừ lúc commit
+        assertTrue(reservationService.commit("M5").success());
+        assertEquals(3, stockOf(product));
+    }
+
+    @Test
+    void commitOfUnappliedHoldTakesTheStock() {
+        Product product = saveProduct(5);
+        LocalDateTime now = LocalDateTime.now();
+        mongoTemplate.insert(StockReservation.builder()
+                .orderNumber("M6")
+                .items(Map.of(product.getId(), 2))
+                .status(StockReservation.HELD)
+                .applied(false)
+                .createdAt(now)
+                .expiresAt(now.plusMinutes(15))
+                .build());
+
+        assertTrue(reservationService.commit("M6").success());
+        assertEquals(3, stockOf(product));
+        assertTrue(mongoTemplate.findById("M6", StockReservation.class).getApplied());
+    }
+
+    @Test
+    void holdReleasedWhileDecrementingGetsItsStockBack() {
+        Product product = saveProduct(5);
+        afterNextDecrement = () -> assertTrue(reservationService.release("M7"));
+
+        assertFalse(reservationService.reserve("M7", Map.of(product.getId(), 2)).success());
+        assertEquals(5, stockOf(product));
+        StockReservation hold = mongoTemplate.findById("M7", StockReservation.class);
+        assertEquals(StockReservation.RELEASED, hold.getStatus());
+        assertFalse(hold.getApplied());
+    }
+
+    @Test
+    void holdCommittedWhileDecrementingIsDecrementedOnce() {
+        Product product = saveProduct(5);
+        afterNextDecrement = () -> assertTrue(reservationService.commit("M8").success());
+
+        assertTrue(reservationService.reserve("M8", Map.of(product.getId(), 2)).success());
+        assertEquals(3, stockOf(product));
+        assertEquals(StockReservation.COMMITTED, mongoTemplate.findById("M8", StockReservation.class).getStatus());
+    }
+
+    private int stockOf(Product product) {
+        return mongoTemplate.findById(product.getId(), Product.class).getStockQuantity();
+    }
+
+    private Product saveProduct(int stock) {
+        Product product = new Product();
+        product.setName("Dây chuyền bạc");
+        product.setStockQuantity(stock);
+        product.setQuantity(stock);
+        return mongoTemplate.insert(product);
+    }
+}
@@ -1,8 +1,15 @@
 package com.b2110941.ReviewService.controller;
 
+import com.b2110941.CommonStorage.BlobStore;
+import com.b2110941.CommonStorage.FileResponder;
+import com.b2110941.CommonStorage.ImageDerivativeService;
 import com.b2110941.ReviewService.payload.ReviewRequest;
 import com.b2110941.ReviewService.payload.ReviewResponse;
 import com.b2110941.ReviewService.payload.AdminReplyRequest;
+import com.b2110941.ReviewService.payload.RatingSummaryRequest;
+import com.b2110941.ReviewService.payload.RatingSummaryResponse;
+import com.b2110941.ReviewService.service.ProductRatingStatsService;
+import com.b2110941.ReviewService.service.ReviewEventBroadcaster;
 import com.b2110941.ReviewService.service.ReviewService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -12,15 +19,9 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.List;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 @RestController
 @RequestMapping("/api/reviews")
@@ -30,8 +31,23 @@ public class ReviewController {
     @Autowired
     private ReviewService reviewService;
 
-    // Store SSE emitters for real-time updates
-    private final Map<String, SseEmitter> emitters = new ConcurrentHashMap<>();
+    @Autowired
+    private ProductRatingStatsService ratingStatsService;
+
+    @Autowired
+    private FileResponder fileResponder;
+
+    @Autowired
+    private ImageDerivativeService imageDerivativeService;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    private static final int REVIEW_THUMBNAIL_WIDTH = 400;
+
+    // SSE subscribers by product / admin, sent asynchronously
+    @Autowired
+    private ReviewEventBroadcaster reviewEventBroadcaster;
 
     @PostMapping
     public ResponseEntity<ReviewResponse> createReview(@RequestBody ReviewRequest request) {
@@ -164,89 +180,23 @@ public class ReviewController {
     // SSE endpoint for real-time updates
     @GetMapping(value = "/sse/{productId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public SseEmitter subscribeToUpdates(@PathVariable String productId) {
-        SseEmitter emitter = new SseEmitter(Long.MAX_VALUE);
-        String emitterId = productId + "_" + System.currentTimeMillis();
-        emitters.put(emitterId, emitter);
-        
-        emitter.onCompletion(() -> emitters.remove(emitterId));
-        emitter.onTimeout(() -> emitters.remove(emitterId));
-        emitter.onError((ex) -> emitters.remove(emitterId));
-        
-        try {
-            emitter.send(SseEmitter.event()
-                .name("connect")
-                .data("Connected to review updates for product: " + productId));
-        } catch (IOException e) {
-            emitters.remove(emitterId);
-        }
-        
-        return emitter;
+        return reviewEventBroadcaster.subscribeToProduct(productId);
     }
 
     // SSE endpoint for admin page real-time updates
     @GetMapping(value = "/sse/admin", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public SseEmitter subscribeToAdminUpdates() {
-        SseEmitter emitter = new SseEmitter(Long.MAX_VALUE);
-        String emitterId = "admin_" + System.currentTimeMillis();
-        emitters.put(emitterId, emitter);
-        
-        emitter.onCompletion(() -> emitters.remove(emitterId));
-        emitter.onTimeout(() -> emitters.remove(emitterId));
-        emitter.onError((ex) -> emitters.remove(emitterId));
-        
-        try {
-            emitter.send(SseEmitter.event()
-                .name("connect")
-                .data("Connected to admin updates"));
-        } catch (IOException e) {
-            emitters.remove(emitterId);
-        }
-        
-        return emitter;
+        return reviewEventBroadcaster.subscribeToAdmin();
     }
 
-    // Helper method to send updates to all clients
+    // Helper method to send updates to the product's viewers and admin pages
     private void sendAdminReplyUpdate(String reviewId, ReviewResponse review) {
-        List<String> toRemove = new ArrayList<>();
-        
-        for (Map.Entry<String, SseEmitter> entry : emitters.entrySet()) {
-            try {
-                SseEmitter emitter = entry.getValue();
-                emitter.send(SseEmitter.event()
-                    .name("adminReplyUpdate")
-                    .data(review));
-            } catch (IOException e) {
-                toRemove.add(entry.getKey());
-            }
-        }
-        
-        // Remove dead emitters
-        for (String key : toRemove) {
-            emitters.remove(key);
-        }
+        reviewEventBroadcaster.publishAdminReply(review);
     }
 
     // Helper method to send new review updates to admin
     private void sendNewReviewUpdate(ReviewResponse review) {
-        List<String> toRemove = new ArrayList<>();
-        
-        for (Map.Entry<String, SseEmitter> entry : emitters.entrySet()) {
-            try {
-                SseEmitter emitter = entry.getValue();
-                if (entry.getKey().startsWith("admin_")) {
-                    emitter.send(SseEmitter.event()
-                        .name("newReview")
-                        .data(review));
-                }
-            } catch (IOException e) {
-                toRemove.add(entry.getKey());
-            }
-        }
-        
-        // Remove dead emitters
-        for (String key : toRemove) {
-            emitters.remove(key);
-        }
+        reviewEventBroadcaster.publishNewReview(review);
     }
 
     @PostMapping("/migrate")
@@ -274,11 +224,30 @@ public class ReviewController {
     }
 
     @GetMapping("/product/{productId}/rating-distribution")
-    public ResponseEntity<List<Integer>> getRatingDistributionByProduct(@PathVariable String productId) {
-        List<Integer> distribution = reviewService.getRatingDistributionByProduct(productId);
+    public ResponseEntity<List<Long>> getRatingDistributionByProduct(@PathVariable String productId) {
+        List<Long> distribution = reviewService.getRatingDistributionByProduct(productId);
         return ResponseEntity.ok(distribution);
     }
 
+    // Bulk rating summary so listing pages need one call instead of three per product
+    @PostMapping("/ratings/summary")
+    public ResponseEntity<List<RatingSummaryResponse>> getRatingSummaries(@RequestBody RatingSummaryRequest request) {
+        List<RatingSummaryResponse> summaries = reviewService.getRatingSummaries(request.getProductIds());
+        return ResponseEntity.ok(summaries);
+    }
+
+    @PostMapping("/ratings/rebuild")
+    public ResponseEntity<String> rebuildRatingStats() {
+        try {
+            int products = ratingStatsService.rebuildAll();
+            return ResponseEntity.ok("Rebuilt rating stats for " + products + " products");
+        } catch (Exception e) {
+            System.out.println("Error rebuilding rating stats: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(500).body("Rebuild failed: " + e.getMessage());
+        }
+    }
+
     @GetMapping
     public ResponseEntity<List<ReviewResponse>> getAllReviews() {
         List<ReviewResponse> reviews = reviewService.getAllReviews();
@@ -295,35 +264,21 @@ public class ReviewController {
             System.out.println("==> [ReviewController] Original filename: " + image.getOriginalFilename());
             System.out.println("==> [ReviewController] File size: " + image.getSize() + " bytes");
             
-            // Tạo thư mục uploads nếu chưa có
-            String uploadsDir = "uploads/reviews";
-            Path uploadsPath = Paths.get(uploadsDir);
-            System.out.println("==> [ReviewController] Upload directory: " + uploadsPath.toAbsolutePath());
-            
-            if (!Files.exists(uploadsPath)) {
-                Files.createDirectories(uploadsPath);
-                System.out.println("==> [ReviewController] Created upload directory");
-            } else {
-                System.out.println("==> [ReviewController] Upload directory already exists");
-            }
-
-            // Tạo tên file unique
-            String originalFilename = image.getOriginalFilename();
-            String fileName = System.currentTimeMillis() + "_" + originalFilename;
-            Path filePath = uploadsPath.resolve(fileName);
-            System.out.println("==> [ReviewController] File will be saved as: " + fileName);
-            System.out.println("==> [ReviewController] Full file path: " + filePath.toAbsolutePath());
-
-            // Lưu file
-            Files.copy(image.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-            System.out.println("==> [ReviewController] File saved successfully");
-
-            // Trả về URL
-            String imageUrl = "/uploads/reviews/" + fileName;
-            System.out.println("==> [ReviewController] Returning URL: " + imageUrl);
-            
+            // Content-addressed store: identical images are stored once, names never collide.
+            // Review images are permanent: reviews are only soft-deleted (active=false) and keep their
+            // image URLs, so the reference taken here is never released and the sweeper never removes them
+            BlobStore.StoredBlob blob = blobStore.store(image.getInputStream(), image.getOriginalFilename());
+            String fileName = blob.name();
+            String imageUrl = blob.url();
+            System.out.println("==> [ReviewController] Stored as: " + blob.path()
+                    + (blob.deduplicated() ? " (duplicate content, reused existing file)" : ""));
+
+            // Smaller JPEG variant for review lists; falls back to the original when it cannot be created
+            String thumbnailName = imageDerivativeService.createVariants(blob.path(), REVIEW_THUMBNAIL_WIDTH).orElse(fileName);
+
             Map<String, Object> response = new HashMap<>();
             response.put("url", imageUrl);
+            response.put("thumbnailUrl", blobStore.urlOf(thumbnailName));
             response.put("filename", fileName);
 
             return ResponseEntity.ok(response);
@@ -339,47 +294,7 @@ public class ReviewController {
      */
     @GetMapping("/image/{filename}")
     public ResponseEntity<?> getReviewImage(@PathVariable String filename) {
-        try {
-            System.out.println("==> [ReviewController] Requesting image: " + filename);
-            
-            Path imagePath = Paths.get("uploads/reviews/" + filename);
-            System.out.println("==> [ReviewController] Full image path: " + imagePath.toAbsolutePath());
-            
-            if (Files.exists(imagePath)) {
-                System.out.println("==> [ReviewController] Image exists, reading bytes...");
-                byte[] imageBytes = Files.readAllBytes(imagePath);
-                String contentType = Files.probeContentType(imagePath);
-                if (contentType == null) {
-                    contentType = "image/jpeg";
-                }
-                System.out.println("==> [ReviewController] Content type: " + contentType + ", Size: " + imageBytes.length + " bytes");
-                
-                return ResponseEntity.ok()
-                    .contentType(org.springframework.http.MediaType.parseMediaType(contentType))
-                    .body(imageBytes);
-            } else {
-                System.out.println("==> [ReviewController] Image NOT found at: " + imagePath.toAbsolutePath());
-                
-                // List files in directory for debugging
-                Path uploadsDir = Paths.get("uploads/reviews");
-                // String uploadsDir = "D:\\.Mon_hoc\\LV_TotNghiep\\LuanVan_B2110941\\B2110941\\BackEnd\\reviewservice\\uploads\\reviews";
-                Path uploadsPath = Paths.get(uploadsDir.toString());
-
-                if (Files.exists(uploadsPath)) {
-                    System.out.println("==> [ReviewController] Files in uploads/reviews directory:");
-                    Files.list(uploadsPath).forEach(file -> {
-                        System.out.println("  - " + file.getFileName());
-                    });
-                } else {
-                    System.out.println("==> [ReviewController] uploads/reviews directory does not exist");
-                }
-                
-                return ResponseEntity.status(404).body("Image not found: " + filename);
-            }
-        } catch (IOException e) {
-            System.out.println("==> [ReviewController] Error reading image: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(500).body("Error reading image: " + e.getMessage());
-        }
+        // Streams the file with ETag/Last-Modified (304) and Range support instead of reading it into memory
+        return fileResponder.serve(blobStore.getDirectory(), blobStore.relativePath(filename));
     }
 } 
\ No newline at end of file
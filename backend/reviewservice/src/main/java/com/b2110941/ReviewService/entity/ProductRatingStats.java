@@ -0,0 +1,37 @@
+package com.b2110941.ReviewService.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.List;
+
+// Materialized rating aggregates per product, counting only active and not hidden reviews.
+// Maintained with $inc by ProductRatingStatsService, rebuilt from `reviews` on demand.
+// Every $inc also bumps `revision`, so a rebuild only overwrites a document nobody changed while it was computed.
+@Document(collection = "product_rating_stats")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductRatingStats {
+    @Id
+    private String productId;
+    private long ratingSum;
+    private long reviewCount;
+    private long star1;
+    private long star2;
+    private long star3;
+    private long star4;
+    private long star5;
+    private long revision;
+
+    public double getAverageRating() {
+        return reviewCount > 0 ? (double) ratingSum / reviewCount : 0.0;
+    }
+
+    public List<Long> getHistogram() {
+        return List.of(star1, star2, star3, star4, star5);
+    }
+}
@@ -0,0 +1,14 @@
+package com.b2110941.ReviewService.payload;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RatingSummaryRequest {
+    private List<String> productIds;
+}
@@ -0,0 +1,22 @@
+package com.b2110941.ReviewService.payload;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RatingSummaryResponse {
+    private String productId;
+    private double averageRating;
+    private long reviewCount;
+    // histogram.get(0) = number of 1-star reviews, ..., histogram.get(4) = number of 5-star reviews
+    private List<Long> histogram;
+
+    public static RatingSummaryResponse empty(String productId) {
+        return new RatingSummaryResponse(productId, 0.0, 0L, List.of(0L, 0L, 0L, 0L, 0L));
+    }
+}
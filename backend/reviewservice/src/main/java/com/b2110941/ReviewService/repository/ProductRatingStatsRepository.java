@@ -0,0 +1,9 @@
+package com.b2110941.ReviewService.repository;
+
+import com.b2110941.ReviewService.entity.ProductRatingStats;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ProductRatingStatsRepository extends MongoRepository<ProductRatingStats, String> {
+}
@@ -7,7 +7,7 @@ import org.springframework.stereotype.Repository;
 import java.util.List;
 
 @Repository
-public interface ReviewRepository extends MongoRepository<Review, String> {
+public interface ReviewRepository extends MongoRepository<Review, String>, ReviewRepositoryCustom {
     List<Review> findByProductIdAndIsActiveTrue(String productId);
     List<Review> findByUserIdAndIsActiveTrue(String userId);
     List<Review> findByProductIdAndUserIdAndIsActiveTrue(String productId, String userId);
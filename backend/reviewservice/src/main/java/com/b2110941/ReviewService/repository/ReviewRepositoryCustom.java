@@ -0,0 +1,19 @@
+package com.b2110941.ReviewService.repository;
+
+import com.b2110941.ReviewService.entity.ProductRatingStats;
+import com.b2110941.ReviewService.entity.Review;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+
+public interface ReviewRepositoryCustom {
+    // productIds == null means every product that has reviews
+    List<ProductRatingStats> aggregateRatingStats(List<String> productIds);
+
+    // Atomic conditional update: the updated review, or null when no review matched the criteria
+    Review updateIfMatches(Criteria criteria, Update update);
+
+    // Atomic update of one review: the review as it was before the update, or null when it does not exist
+    Review updateReturningPrevious(String reviewId, Update update);
+}
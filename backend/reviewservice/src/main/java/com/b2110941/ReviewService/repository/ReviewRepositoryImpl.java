@@ -0,0 +1,78 @@
+package com.b2110941.ReviewService.repository;
+
+import com.b2110941.ReviewService.entity.ProductRatingStats;
+import com.b2110941.ReviewService.entity.Review;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.*;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+@Repository
+public class ReviewRepositoryImpl implements ReviewRepositoryCustom {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // Sum, count and 1..5 star buckets of visible reviews, grouped by product in one aggregation
+    @Override
+    public List<ProductRatingStats> aggregateRatingStats(List<String> productIds) {
+        Criteria criteria = Criteria.where("isActive").is(true).and("isHidden").is(false);
+        if (productIds != null) {
+            criteria = criteria.and("productId").in(productIds);
+        }
+        MatchOperation match = match(criteria);
+
+        GroupOperation group = group("productId")
+                .sum("rating").as("ratingSum")
+                .count().as("reviewCount");
+        for (int star = 1; star <= 5; star++) {
+            group = group.sum(ConditionalOperators.when(Criteria.where("rating").is(star)).then(1).otherwise(0))
+                    .as("star" + star);
+        }
+
+        Aggregation aggregation = newAggregation(match, group);
+        List<Document> rows = mongoTemplate.aggregate(aggregation, Review.class, Document.class).getMappedResults();
+
+        List<ProductRatingStats> stats = new ArrayList<>();
+        for (Document row : rows) {
+            stats.add(new ProductRatingStats(
+                    row.getString("_id"),
+                    longValue(row, "ratingSum"),
+                    longValue(row, "reviewCount"),
+                    longValue(row, "star1"),
+                    longValue(row, "star2"),
+                    longValue(row, "star3"),
+                    longValue(row, "star4"),
+                    longValue(row, "star5"),
+                    0L));
+        }
+        return stats;
+    }
+
+    @Override
+    public Review updateIfMatches(Criteria criteria, Update update) {
+        return mongoTemplate.findAndModify(Query.query(criteria), update,
+                FindAndModifyOptions.options().returnNew(true), Review.class);
+    }
+
+    @Override
+    public Review updateReturningPrevious(String reviewId, Update update) {
+        return mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(reviewId)), update,
+                FindAndModifyOptions.options().returnNew(false), Review.class);
+    }
+
+    private long longValue(Document row, String field) {
+        Object value = row.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+}
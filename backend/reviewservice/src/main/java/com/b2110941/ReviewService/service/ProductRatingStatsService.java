@@ -0,0 +1,248 @@
+package com.b2110941.ReviewService.service;
+
+import com.b2110941.ReviewService.entity.ProductRatingStats;
+import com.b2110941.ReviewService.entity.Review;
+import com.b2110941.ReviewService.repository.ProductRatingStatsRepository;
+import com.b2110941.ReviewService.repository.ReviewRepository;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Service
+public class ProductRatingStatsService implements SmartInitializingSingleton {
+
+    // A product whose stats keep changing under the rebuild is left to the $inc path after this many tries
+    private static final int MAX_REBUILD_ATTEMPTS = 5;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ProductRatingStatsRepository statsRepository;
+
+    @Autowired
+    private ReviewRepository reviewRepository;
+
+    // Off for environments without MongoDB at startup (context test)
+    @Value("${reviews.rating-stats.rebuild-on-startup:true}")
+    private boolean rebuildOnStartup = true;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (rebuildOnStartup && isStale()) {
+            rebuildAll();
+        }
+    }
+
+    /**
+     * The stats are missing or out of date when any product's count, sum or star buckets differ from its
+     * visible reviews (e.g. first deploy, or $inc calls lost while the service was down).
+     */
+    public boolean isStale() {
+        return !findDriftedProducts().isEmpty();
+    }
+
+    /**
+     * Products whose stored stats differ from an aggregation of their visible reviews. Besides lost $inc calls this
+     * catches a review counted twice: saved while a rebuild aggregated, then $inc'ed on top of the rebuilt stats.
+     */
+    public List<String> findDriftedProducts() {
+        Map<String, ProductRatingStats> expected = new HashMap<>();
+        for (ProductRatingStats stats : reviewRepository.aggregateRatingStats(null)) {
+            expected.put(stats.getProductId(), stats);
+        }
+        List<String> drifted = new ArrayList<>();
+        for (ProductRatingStats stored : mongoTemplate.findAll(ProductRatingStats.class)) {
+            ProductRatingStats actual = expected.remove(stored.getProductId());
+            if (!sameCounts(stored, actual != null ? actual : emptyStats(stored.getProductId()))) {
+                drifted.add(stored.getProductId());
+            }
+        }
+        // Products with visible reviews but no stats document
+        drifted.addAll(expected.keySet());
+        return drifted;
+    }
+
+    /**
+     * Nightly repair: re-aggregates only the products whose stats drifted from their reviews.
+     */
+    @Scheduled(cron = "0 30 3 * * ?")
+    public int repairDrift() {
+        List<String> drifted = findDriftedProducts();
+        for (String productId : drifted) {
+            rebuildProduct(productId);
+        }
+        if (!drifted.isEmpty()) {
+            System.out.println("==> [ProductRatingStatsService] Repaired rating stats of " + drifted.size() + " products");
+        }
+        return drifted.size();
+    }
+
+    private static boolean sameCounts(ProductRatingStats a, ProductRatingStats b) {
+        return a.getReviewCount() == b.getReviewCount()
+                && a.getRatingSum() == b.getRatingSum()
+                && a.getHistogram().equals(b.getHistogram());
+    }
+
+    // Only active and not hidden reviews are counted, same as the client view
+    public static boolean isVisible(Review review) {
+        return review.isActive() && !review.isHidden();
+    }
+
+    // A review became visible
+    public void addRating(String productId, int rating) {
+        applyDelta(productId, rating, 1);
+    }
+
+    // A review stopped being visible
+    public void removeRating(String productId, int rating) {
+        applyDelta(productId, rating, -1);
+    }
+
+    // A visible review changed its rating
+    public void changeRating(String productId, int oldRating, int newRating) {
+        if (oldRating == newRating) {
+            return;
+        }
+        Update update = new Update().inc("ratingSum", newRating - oldRating).inc("revision", 1);
+        if (isValidStar(oldRating)) {
+            update.inc("star" + oldRating, -1);
+        }
+        if (isValidStar(newRating)) {
+            update.inc("star" + newRating, 1);
+        }
+        mongoTemplate.upsert(byProduct(productId), update, ProductRatingStats.class);
+    }
+
+    public ProductRatingStats getStats(String productId) {
+        return statsRepository.findById(productId).orElseGet(() -> emptyStats(productId));
+    }
+
+    public List<ProductRatingStats> getStats(List<String> productIds) {
+        return statsRepository.findAllById(productIds).stream().collect(Collectors.toList());
+    }
+
+    /**
+     * Recompute product_rating_stats from the reviews collection (repair job).
+     * Runs at startup when stale and can be triggered via POST /api/reviews/ratings/rebuild; the nightly repairDrift
+     * fixes products it may leave drifted (a review saved while aggregating is also $inc'ed afterwards).
+     * Each document is replaced with $set guarded by the revision read before aggregating, so an $inc that lands
+     * while the rebuild runs is never overwritten: that product is re-aggregated and retried instead.
+     */
+    public int rebuildAll() {
+        System.out.println("==> [ProductRatingStatsService] Rebuilding product_rating_stats from reviews...");
+        Query current = new Query();
+        current.fields().include("_id", "revision");
+        Map<String, Long> revisions = new HashMap<>();
+        for (ProductRatingStats existing : mongoTemplate.find(current, ProductRatingStats.class)) {
+            revisions.put(existing.getProductId(), existing.getRevision());
+        }
+
+        Map<String, ProductRatingStats> rebuilt = new HashMap<>();
+        for (ProductRatingStats stats : reviewRepository.aggregateRatingStats(null)) {
+            rebuilt.put(stats.getProductId(), stats);
+        }
+
+        int retried = 0;
+        for (String productId : rebuilt.keySet()) {
+            if (!replaceIfUnchanged(productId, revisions.get(productId), rebuilt.get(productId))) {
+                rebuildProduct(productId);
+                retried++;
+            }
+        }
+        // Products whose reviews have all been hidden or deleted no longer appear in the aggregation
+        for (Map.Entry<String, Long> existing : revisions.entrySet()) {
+            if (!rebuilt.containsKey(existing.getKey())
+                    && !replaceIfUnchanged(existing.getKey(), existing.getValue(), null)) {
+                rebuildProduct(existing.getKey());
+                retried++;
+            }
+        }
+
+        System.out.println("==> [ProductRatingStatsService] Rebuild completed for " + rebuilt.size()
+                + " products (" + retried + " retried after concurrent updates).");
+        return rebuilt.size();
+    }
+
+    // Re-read the revision and aggregate this product alone until no $inc slips in between
+    private void rebuildProduct(String productId) {
+        for (int attempt = 0; attempt < MAX_REBUILD_ATTEMPTS; attempt++) {
+            Long revision = statsRepository.findById(productId).map(ProductRatingStats::getRevision).orElse(null);
+            List<ProductRatingStats> stats = reviewRepository.aggregateRatingStats(List.of(productId));
+            if (replaceIfUnchanged(productId, revision, stats.isEmpty() ? null : stats.get(0))) {
+                return;
+            }
+        }
+        System.out.println("==> [ProductRatingStatsService] Stats for product " + productId
+                + " kept changing during rebuild, left as maintained by $inc");
+    }
+
+    /**
+     * Writes the rebuilt stats (or removes the document when stats is null) only if its revision is still the one
+     * read before aggregating; revision null means the document did not exist.
+     */
+    private boolean replaceIfUnchanged(String productId, Long revision, ProductRatingStats stats) {
+        if (revision == null) {
+            if (stats == null) {
+                return true;
+            }
+            try {
+                mongoTemplate.insert(stats);
+                return true;
+            } catch (DuplicateKeyException e) {
+                // Created by an $inc upsert meanwhile
+                return false;
+            }
+        }
+        Query unchanged = Query.query(Criteria.where("_id").is(productId).and("revision").is(revision));
+        if (stats == null) {
+            return mongoTemplate.remove(unchanged, ProductRatingStats.class).getDeletedCount() > 0;
+        }
+        Update update = new Update()
+                .set("ratingSum", stats.getRatingSum())
+                .set("reviewCount", stats.getReviewCount())
+                .set("star1", stats.getStar1())
+                .set("star2", stats.getStar2())
+                .set("star3", stats.getStar3())
+                .set("star4", stats.getStar4())
+                .set("star5", stats.getStar5())
+                .inc("revision", 1);
+        return mongoTemplate.updateFirst(unchanged, update, ProductRatingStats.class).getMatchedCount() > 0;
+    }
+
+    private void applyDelta(String productId, int rating, int delta) {
+        Update update = new Update()
+                .inc("ratingSum", rating * delta)
+                .inc("reviewCount", delta)
+                .inc("revision", 1);
+        if (isValidStar(rating)) {
+            update.inc("star" + rating, delta);
+        }
+        mongoTemplate.upsert(byProduct(productId), update, ProductRatingStats.class);
+    }
+
+    private boolean isValidStar(int rating) {
+        return rating >= 1 && rating <= 5;
+    }
+
+    private Query byProduct(String productId) {
+        return Query.query(Criteria.where("_id").is(productId));
+    }
+
+    private ProductRatingStats emptyStats(String productId) {
+        return new ProductRatingStats(productId, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L);
+    }
+}
@@ -0,0 +1,299 @@
+package com.b2110941.ReviewService.service;
+
+import com.b2110941.ReviewService.payload.ReviewResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Real-time review updates over SSE.
+ * Subscribers are grouped by topic (one set per product, plus the admin set), so an event only
+ * touches its actual audience. Each subscriber has a small bounded queue drained by a shared sender
+ * pool: request threads never write to sockets, and a client that stops reading is dropped once its
+ * queue is full. Each socket write runs on a separate writer pool and the sender waits at most
+ * write-timeout-ms for it, so a stalled client is dropped instead of holding a sender thread.
+ * Periodic heartbeats keep proxies from closing idle streams and reap dead connections.
+ */
+@Service
+public class ReviewEventBroadcaster {
+
+    @Value("${reviews.sse.queue-capacity:32}")
+    private int queueCapacity = 32;
+
+    @Value("${reviews.sse.sender-threads:2}")
+    private int senderThreads = 2;
+
+    @Value("${reviews.sse.write-timeout-ms:5000}")
+    private long writeTimeoutMs = 5000;
+
+    // Writes stuck on a dead socket keep their thread until the container times the write out
+    @Value("${reviews.sse.writer-threads:64}")
+    private int writerThreads = 64;
+
+    @Value("${reviews.sse.heartbeat-seconds:20}")
+    private long heartbeatSeconds = 20;
+
+    private final Map<String, Set<Subscriber>> productSubscribers = new ConcurrentHashMap<>();
+    private final Set<Subscriber> adminSubscribers = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService sender;
+    private ExecutorService writer;
+    private ScheduledExecutorService heartbeat;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        sender = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "review-sse-sender-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger writerCount = new AtomicInteger();
+        writer = new ThreadPoolExecutor(0, writerThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "review-sse-writer-" + writerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "review-sse-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(this::sendHeartbeats, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        heartbeat.shutdownNow();
+        adminSubscribers.forEach(Subscriber::close);
+        productSubscribers.values().forEach(subscribers -> subscribers.forEach(Subscriber::close));
+        sender.shutdown();
+        writer.shutdown();
+    }
+
+    public SseEmitter subscribeToProduct(String productId) {
+        SseEmitter emitter = new SseEmitter(Long.MAX_VALUE);
+        register(productId, emitter, "Connected to review updates for product: " + productId);
+        return emitter;
+    }
+
+    public SseEmitter subscribeToAdmin() {
+        SseEmitter emitter = new SseEmitter(Long.MAX_VALUE);
+        register(null, emitter, "Connected to admin updates");
+        return emitter;
+    }
+
+    // A reply/visibility change: viewers of that product and admin pages
+    public void publishAdminReply(ReviewResponse review) {
+        Event event = new Event("adminReplyUpdate", review);
+        if (review.getProductId() != null) {
+            Set<Subscriber> viewers = productSubscribers.get(review.getProductId());
+            if (viewers != null) {
+                viewers.forEach(subscriber -> subscriber.enqueue(event));
+            }
+        }
+        adminSubscribers.forEach(subscriber -> subscriber.enqueue(event));
+    }
+
+    // A new review: admin pages only
+    public void publishNewReview(ReviewResponse review) {
+        Event event = new Event("newReview", review);
+        adminSubscribers.forEach(subscriber -> subscriber.enqueue(event));
+    }
+
+    public int getSubscriberCount() {
+        return adminSubscribers.size() + productSubscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    // productId == null means an admin subscriber
+    void register(String productId, SseEmitter emitter, String connectMessage) {
+        Subscriber subscriber = new Subscriber(productId, emitter);
+        if (productId == null) {
+            adminSubscribers.add(subscriber);
+        } else {
+            productSubscribers.compute(productId, (key, subscribers) -> {
+                Set<Subscriber> topic = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+                topic.add(subscriber);
+                return topic;
+            });
+        }
+
+        emitter.onCompletion(subscriber::detach);
+        emitter.onTimeout(subscriber::detach);
+        emitter.onError(ex -> subscriber.detach());
+        subscriber.enqueue(new Event("connect", connectMessage));
+    }
+
+    private void unregister(Subscriber subscriber) {
+        if (subscriber.productId == null) {
+            adminSubscribers.remove(subscriber);
+        } else {
+            // Drop the product's set together with its last subscriber
+            productSubscribers.computeIfPresent(subscriber.productId, (key, subscribers) -> {
+                subscribers.remove(subscriber);
+                return subscribers.isEmpty() ? null : subscribers;
+            });
+        }
+    }
+
+    void sendHeartbeats() {
+        adminSubscribers.forEach(subscriber -> subscriber.enqueue(Event.HEARTBEAT));
+        productSubscribers.values().forEach(subscribers -> subscribers.forEach(subscriber -> subscriber.enqueue(Event.HEARTBEAT)));
+    }
+
+    // name == null is a heartbeat comment line
+    private record Event(String name, Object data) {
+
+        static final Event HEARTBEAT = new Event(null, null);
+
+        // Builders are single use (build() appends to them), so each send gets a new one
+        SseEmitter.SseEventBuilder toSse() {
+            return name == null ? SseEmitter.event().comment("heartbeat") : SseEmitter.event().name(name).data(data);
+        }
+    }
+
+    private final class Subscriber {
+
+        private final String productId;
+        private final SseEmitter emitter;
+        private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(queueCapacity);
+        // At most one drain task per subscriber, so its events stay in order
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean closed;
+
+        Subscriber(String productId, SseEmitter emitter) {
+            this.productId = productId;
+            this.emitter = emitter;
+        }
+
+        void enqueue(Event event) {
+            if (closed) {
+                return;
+            }
+            if (!queue.offer(event)) {
+                System.out.println("==> [ReviewEventBroadcaster] Dropping SSE subscriber that stopped reading"
+                        + (productId != null ? " (product " + productId + ")" : " (admin)"));
+                // A full queue means a send is stuck holding the emitter's write lock: don't wait for it here
+                closeLater();
+                return;
+            }
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    sender.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    draining.set(false);
+                    closeLater();
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                Event event;
+                while (!closed && (event = queue.poll()) != null) {
+                    write(event);
+                }
+            } finally {
+                draining.set(false);
+            }
+            // An event may have arrived after the last poll but before draining was reset
+            if (!closed && !queue.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+
+        // Bounded write: the sender thread gives up on a client after writeTimeoutMs
+        private void write(Event event) {
+            Future<?> write;
+            try {
+                write = writer.submit(() -> {
+                    emitter.send(event.toSse());
+                    return null;
+                });
+            } catch (RejectedExecutionException e) {
+                // Every writer is stuck on a stalled client or the broadcaster is stopping
+                close();
+                return;
+            }
+            try {
+                write.get(writeTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                System.out.println("==> [ReviewEventBroadcaster] Dropping SSE subscriber whose write timed out"
+                        + (productId != null ? " (product " + productId + ")" : " (admin)"));
+                write.cancel(true);
+                closeLater();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+            } catch (ExecutionException e) {
+                // Client went away (IOException) or the emitter is already completed
+                close();
+            }
+        }
+
+        // complete() waits for the emitter's write lock, which a stuck send may still hold,
+        // so callers that must not block (publishers, heartbeat, senders) complete it on a writer thread
+        private void closeLater() {
+            if (closed) {
+                return;
+            }
+            detach();
+            completeLater();
+        }
+
+        private void completeLater() {
+            try {
+                writer.execute(this::completeEmitter);
+            } catch (RejectedExecutionException ignored) {
+                // The container closes the connection when its own write timeout fires
+            }
+        }
+
+        // Emitter already finished (completion/timeout/error callback)
+        void detach() {
+            closed = true;
+            queue.clear();
+            unregister(this);
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            detach();
+            completeEmitter();
+        }
+
+        private void completeEmitter() {
+            try {
+                emitter.complete();
+            } catch (Exception ignored) {
+                // Connection is already broken
+            }
+        }
+    }
+}
@@ -1,23 +1,37 @@
 package com.b2110941.ReviewService.service;
 
+import com.b2110941.ReviewService.entity.ProductRatingStats;
 import com.b2110941.ReviewService.entity.Review;
 import com.b2110941.ReviewService.payload.ReviewRequest;
 import com.b2110941.ReviewService.payload.ReviewResponse;
 import com.b2110941.ReviewService.payload.AdminReplyRequest;
+import com.b2110941.ReviewService.payload.RatingSummaryResponse;
 import com.b2110941.ReviewService.repository.ReviewRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
 public class ReviewService {
 
+    // Counted in the rating stats, same as ProductRatingStatsService.isVisible
+    private static final Criteria VISIBLE = Criteria.where("isActive").is(true).and("isHidden").is(false);
+
     @Autowired
     private ReviewRepository reviewRepository;
 
+    @Autowired
+    private ProductRatingStatsService ratingStatsService;
+
     public ReviewResponse createReview(ReviewRequest request) {
         System.out.println("==> [ReviewService] Creating new review for product: " + request.getProductId());
         
@@ -36,6 +50,7 @@ public class ReviewService {
         System.out.println("==> [ReviewService] Review before save - isActive: " + review.isActive() + ", isHidden: " + review.isHidden());
         
         Review savedReview = reviewRepository.save(review);
+        ratingStatsService.addRating(savedReview.getProductId(), savedReview.getRating());
         
         System.out.println("==> [ReviewService] Review after save - isActive: " + savedReview.isActive() + ", isHidden: " + savedReview.isHidden());
         
@@ -68,6 +83,9 @@ public class ReviewService {
         }
         
         System.out.println("==> [ReviewService] Migration completed. Updated " + migratedCount + " reviews.");
+
+        // Every review is visible again, so the materialized stats must be recomputed
+        ratingStatsService.rebuildAll();
     }
 
     public List<ReviewResponse> getReviewsByProduct(String productId) {
@@ -94,123 +112,145 @@ public class ReviewService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Sets only the edited fields with findAndModify, so a concurrent hide/unhide/delete is never overwritten.
+     * The old rating and the visibility come from the pre-image, i.e. the review as it was when the rating changed.
+     */
     public ReviewResponse updateReview(String reviewId, ReviewRequest request) {
-        Review review = reviewRepository.findById(reviewId)
-                .orElseThrow(() -> new RuntimeException("Review not found"));
-        
-        review.setComment(request.getComment());
-        review.setRating(request.getRating());
-        review.setImages(request.getImages());
-        review.setUpdatedAt(LocalDateTime.now());
-        
-        Review updatedReview = reviewRepository.save(review);
+        LocalDateTime now = LocalDateTime.now();
+        Review previous = reviewRepository.updateReturningPrevious(reviewId, new Update()
+                .set("comment", request.getComment())
+                .set("rating", request.getRating())
+                .set("images", request.getImages())
+                .set("updatedAt", now));
+        if (previous == null) {
+            throw new RuntimeException("Review not found");
+        }
+        if (ProductRatingStatsService.isVisible(previous)) {
+            ratingStatsService.changeRating(previous.getProductId(), previous.getRating(), request.getRating());
+        }
+
+        Review updatedReview = previous;
+        updatedReview.setComment(request.getComment());
+        updatedReview.setRating(request.getRating());
+        updatedReview.setImages(request.getImages());
+        updatedReview.setUpdatedAt(now);
         return convertToResponse(updatedReview);
     }
 
     // Add admin reply to review
     public ReviewResponse addAdminReply(String reviewId, AdminReplyRequest request) {
-        Review review = reviewRepository.findById(reviewId)
-                .orElseThrow(() -> new RuntimeException("Review not found"));
-        
-        review.setAdminReply(request.getAdminReply());
-        review.setAdminId(request.getAdminId());
-        review.setAdminName(request.getAdminName());
-        review.setAdminReplyDate(LocalDateTime.now());
-        review.setUpdatedAt(LocalDateTime.now());
-        
-        Review updatedReview = reviewRepository.save(review);
-        return convertToResponse(updatedReview);
+        return convertToResponse(setAdminReply(reviewId, request));
     }
 
     // Update admin reply
     public ReviewResponse updateAdminReply(String reviewId, AdminReplyRequest request) {
-        Review review = reviewRepository.findById(reviewId)
-                .orElseThrow(() -> new RuntimeException("Review not found"));
-        
-        review.setAdminReply(request.getAdminReply());
-        review.setAdminId(request.getAdminId());
-        review.setAdminName(request.getAdminName());
-        review.setAdminReplyDate(LocalDateTime.now());
-        review.setUpdatedAt(LocalDateTime.now());
-        
-        Review updatedReview = reviewRepository.save(review);
-        return convertToResponse(updatedReview);
+        return convertToResponse(setAdminReply(reviewId, request));
     }
 
     // Remove admin reply
     public ReviewResponse removeAdminReply(String reviewId) {
-        Review review = reviewRepository.findById(reviewId)
-                .orElseThrow(() -> new RuntimeException("Review not found"));
-        
-        review.setAdminReply(null);
-        review.setAdminId(null);
-        review.setAdminName(null);
-        review.setAdminReplyDate(null);
-        review.setUpdatedAt(LocalDateTime.now());
-        
-        Review updatedReview = reviewRepository.save(review);
-        return convertToResponse(updatedReview);
+        Update update = new Update()
+                .unset("adminReply")
+                .unset("adminId")
+                .unset("adminName")
+                .unset("adminReplyDate")
+                .set("updatedAt", LocalDateTime.now());
+        return convertToResponse(updateReply(reviewId, update));
+    }
+
+    private Review setAdminReply(String reviewId, AdminReplyRequest request) {
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update()
+                .set("adminReply", request.getAdminReply())
+                .set("adminId", request.getAdminId())
+                .set("adminName", request.getAdminName())
+                .set("adminReplyDate", now)
+                .set("updatedAt", now);
+        return updateReply(reviewId, update);
+    }
+
+    // Admin reply fields only: the flags set by changeFlags are left untouched
+    private Review updateReply(String reviewId, Update update) {
+        Review updatedReview = reviewRepository.updateIfMatches(Criteria.where("_id").is(reviewId), update);
+        if (updatedReview == null) {
+            throw new RuntimeException("Review not found");
+        }
+        return updatedReview;
     }
 
     // Hide review from clients (soft delete)
     public ReviewResponse hideReview(String reviewId) {
-        Review review = reviewRepository.findById(reviewId)
-                .orElseThrow(() -> new RuntimeException("Review not found"));
-        
-        review.setHidden(true);
-        review.setUpdatedAt(LocalDateTime.now());
-        
-        Review updatedReview = reviewRepository.save(review);
+        Review updatedReview = changeFlags(reviewId, VISIBLE, new Update().set("isHidden", true),
+                review -> ratingStatsService.removeRating(review.getProductId(), review.getRating()));
         return convertToResponse(updatedReview);
     }
 
     // Unhide review for clients
     public ReviewResponse unhideReview(String reviewId) {
-        Review review = reviewRepository.findById(reviewId)
-                .orElseThrow(() -> new RuntimeException("Review not found"));
-        
-        review.setHidden(false);
-        review.setUpdatedAt(LocalDateTime.now());
-        
-        Review updatedReview = reviewRepository.save(review);
+        Criteria hiddenButActive = Criteria.where("isActive").is(true).and("isHidden").is(true);
+        Review updatedReview = changeFlags(reviewId, hiddenButActive, new Update().set("isHidden", false),
+                review -> ratingStatsService.addRating(review.getProductId(), review.getRating()));
         return convertToResponse(updatedReview);
     }
 
-    // Permanently delete review from database
+    // Soft delete (active=false). The review keeps its image URLs, so its blobs are not released
     public void deleteReview(String reviewId) {
-        Review review = reviewRepository.findById(reviewId)
-                .orElseThrow(() -> new RuntimeException("Review not found"));
-        
-        review.setActive(false);
-        review.setUpdatedAt(LocalDateTime.now());
-        reviewRepository.save(review);
+        changeFlags(reviewId, VISIBLE, new Update().set("isActive", false),
+                review -> ratingStatsService.removeRating(review.getProductId(), review.getRating()));
+    }
+
+    /**
+     * Sets a hide/unhide/delete flag with conditional findAndModify instead of read-then-save.
+     * The rating stats move only when the update matched the review in the state whose visibility it changes;
+     * otherwise the flag is set on a review whose visibility it does not affect. If neither matched, another
+     * request flipped the review in between and the change is retried.
+     */
+    private Review changeFlags(String reviewId, Criteria changesVisibility, Update flags, Consumer<Review> onVisibilityChange) {
+        flags.set("updatedAt", LocalDateTime.now());
+        while (true) {
+            Review updatedReview = reviewRepository.updateIfMatches(
+                    Criteria.where("_id").is(reviewId).andOperator(changesVisibility), flags);
+            if (updatedReview != null) {
+                onVisibilityChange.accept(updatedReview);
+                return updatedReview;
+            }
+            updatedReview = reviewRepository.updateIfMatches(
+                    Criteria.where("_id").is(reviewId).norOperator(changesVisibility), flags);
+            if (updatedReview != null) {
+                return updatedReview;
+            }
+            if (!reviewRepository.existsById(reviewId)) {
+                throw new RuntimeException("Review not found");
+            }
+        }
     }
 
+    // Rating reads come from product_rating_stats (one document per product)
     public long getReviewCountByProduct(String productId) {
-        // For client view - only count active and not hidden reviews
-        return reviewRepository.countByProductIdAndIsActiveTrueAndIsHiddenFalse(productId);
+        return ratingStatsService.getStats(productId).getReviewCount();
     }
 
     public double getAverageRatingByProduct(String productId) {
-        // For client view - only calculate from active and not hidden reviews
-        List<Review> reviews = reviewRepository.findByProductIdAndIsActiveTrueAndIsHiddenFalse(productId);
-        if (reviews.isEmpty()) {
-            return 0.0;
-        }
-        double totalRating = reviews.stream()
-                .mapToDouble(Review::getRating)
-                .sum();
-        return totalRating / reviews.size();
+        return ratingStatsService.getStats(productId).getAverageRating();
     }
 
-    public List<Integer> getRatingDistributionByProduct(String productId) {
-        // For client view - only calculate from active and not hidden reviews
-        List<Review> reviews = reviewRepository.findByProductIdAndIsActiveTrueAndIsHiddenFalse(productId);
-        List<Integer> distribution = reviews.stream()
-                .map(Review::getRating)
+    // 5-bucket histogram: index 0 = 1 star, ..., index 4 = 5 stars
+    public List<Long> getRatingDistributionByProduct(String productId) {
+        return ratingStatsService.getStats(productId).getHistogram();
+    }
+
+    // Rating summaries for many products at once - one entry per requested id, in request order
+    public List<RatingSummaryResponse> getRatingSummaries(List<String> productIds) {
+        if (productIds == null || productIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<String> distinctIds = new ArrayList<>(new LinkedHashSet<>(productIds));
+        Map<String, RatingSummaryResponse> byProduct = ratingStatsService.getStats(distinctIds).stream()
+                .collect(Collectors.toMap(ProductRatingStats::getProductId, this::convertToSummary));
+        return distinctIds.stream()
+                .map(id -> byProduct.getOrDefault(id, RatingSummaryResponse.empty(id)))
                 .collect(Collectors.toList());
-        System.out.println("==> [ReviewService] Rating distribution: " + distribution);
-        return distribution;
     }
 
     public ReviewResponse getReviewById(String reviewId) {
@@ -226,6 +266,15 @@ public class ReviewService {
                 .collect(Collectors.toList());
     }
 
+    private RatingSummaryResponse convertToSummary(ProductRatingStats stats) {
+        return new RatingSummaryResponse(
+                stats.getProductId(),
+                stats.getAverageRating(),
+                stats.getReviewCount(),
+                stats.getHistogram()
+        );
+    }
+
     private ReviewResponse convertToResponse(Review review) {
         return new ReviewResponse(
                 review.getId(),
@@ -3,7 +3,7 @@ package com.b2110941.ReviewService;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = "reviews.rating-stats.rebuild-on-startup=false")
 class ReviewserviceApplicationTests {
 
 	@Test
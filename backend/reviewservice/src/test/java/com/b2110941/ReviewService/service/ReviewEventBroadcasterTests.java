@@ -0,0 +1,240 @@
+package com.b2110941.ReviewService.service;
+
+import com.b2110941.ReviewService.payload.ReviewResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReviewEventBroadcasterTests {
+
+    private ReviewEventBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() {
+        broadcaster = new ReviewEventBroadcaster();
+        ReflectionTestUtils.setField(broadcaster, "queueCapacity", 4);
+        ReflectionTestUtils.setField(broadcaster, "writeTimeoutMs", 200L);
+        // Heartbeats are triggered by hand in the tests
+        ReflectionTestUtils.setField(broadcaster, "heartbeatSeconds", 3600L);
+        broadcaster.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.stop();
+    }
+
+    @Test
+    void sendsEventsOnlyToTheirAudience() {
+        RecordingEmitter ringViewer = new RecordingEmitter();
+        RecordingEmitter necklaceViewer = new RecordingEmitter();
+        RecordingEmitter admin = new RecordingEmitter();
+        broadcaster.register("ring", ringViewer, "hello ring");
+        broadcaster.register("necklace", necklaceViewer, "hello necklace");
+        broadcaster.register(null, admin, "hello admin");
+
+        broadcaster.publishAdminReply(review("ring"));
+        broadcaster.publishNewReview(review("necklace"));
+
+        awaitTrue(() -> ringViewer.events.size() == 2 && admin.events.size() == 3);
+        assertEquals(List.of("connect", "adminReplyUpdate"), ringViewer.names());
+        assertEquals(List.of("connect"), necklaceViewer.names());
+        assertEquals(List.of("connect", "adminReplyUpdate", "newReview"), admin.names());
+    }
+
+    @Test
+    void reapsBrokenAndStalledSubscribers() throws Exception {
+        RecordingEmitter healthy = new RecordingEmitter();
+        RecordingEmitter broken = new RecordingEmitter();
+        broadcaster.register("ring", healthy, "hello");
+        broadcaster.register("ring", broken, "hello");
+        awaitTrue(() -> healthy.events.size() == 1 && broken.events.size() == 1);
+
+        broken.failing = true;
+        broadcaster.sendHeartbeats();
+        awaitTrue(() -> broadcaster.getSubscriberCount() == 1);
+        awaitTrue(() -> healthy.names().equals(List.of("connect", "heartbeat")));
+
+        // A client whose writes never finish fills its queue and is dropped without blocking the others
+        RecordingEmitter stalled = new RecordingEmitter();
+        stalled.blocked = new CountDownLatch(1);
+        broadcaster.register(null, stalled, "hello");
+        for (int i = 0; i < 10; i++) {
+            broadcaster.publishNewReview(review("ring"));
+        }
+        awaitTrue(() -> broadcaster.getSubscriberCount() == 1);
+        stalled.blocked.countDown();
+
+        broadcaster.publishAdminReply(review("ring"));
+        awaitTrue(() -> healthy.names().size() == 3);
+    }
+
+    @Test
+    void stalledSubscribersDoNotBlockTheSharedSenders() {
+        // As many stalled clients as sender threads (2): without a bounded write both senders would hang
+        RecordingEmitter firstStalled = new RecordingEmitter();
+        RecordingEmitter secondStalled = new RecordingEmitter();
+        firstStalled.blocked = new CountDownLatch(1);
+        secondStalled.blocked = new CountDownLatch(1);
+        RecordingEmitter healthy = new RecordingEmitter();
+        broadcaster.register("ring", firstStalled, "hello");
+        broadcaster.register("ring", secondStalled, "hello");
+        broadcaster.register("ring", healthy, "hello");
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            broadcaster.publishAdminReply(review("ring"));
+        }
+        awaitTrue(() -> healthy.names().size() == 4);
+        assertTrue(System.currentTimeMillis() - start < 2000, "healthy subscriber waited on stalled ones");
+        awaitTrue(() -> broadcaster.getSubscriberCount() == 1);
+        assertTrue(firstStalled.events.isEmpty() && secondStalled.events.isEmpty());
+
+        firstStalled.blocked.countDown();
+        secondStalled.blocked.countDown();
+        broadcaster.publishAdminReply(review("ring"));
+        awaitTrue(() -> healthy.names().size() == 5);
+    }
+
+    @Test
+    void fullQueueDoesNotBlockThePublisherOnAStuckSend() {
+        // Long enough that the queue fills while the first send is still in progress
+        ReflectionTestUtils.setField(broadcaster, "writeTimeoutMs", 5000L);
+        LockingEmitter stuck = new LockingEmitter();
+        broadcaster.register(null, stuck, "hello");
+        awaitTrue(() -> stuck.sending);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            broadcaster.publishNewReview(review("ring"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 500, "publish waited on the stuck send");
+        assertEquals(0, broadcaster.getSubscriberCount());
+
+        stuck.release.countDown();
+        awaitTrue(() -> stuck.completed);
+    }
+
+    @Test
+    void lastSubscriberLeavingDropsTheProductTopic() {
+        RecordingEmitter viewer = new RecordingEmitter();
+        broadcaster.register("ring", viewer, "hello");
+        assertEquals(1, broadcaster.getSubscriberCount());
+
+        viewer.complete();
+        viewer.fireCompletion();
+        assertEquals(0, broadcaster.getSubscriberCount());
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(broadcaster, "productSubscribers")).isEmpty());
+    }
+
+    private static ReviewResponse review(String productId) {
+        ReviewResponse review = new ReviewResponse();
+        review.setProductId(productId);
+        return review;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Condition not met within 5s");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    // Like the real emitter: send and complete share a write lock, and a stuck socket write ignores interrupts
+    private static class LockingEmitter extends SseEmitter {
+
+        final Object writeLock = new Object();
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile boolean sending;
+        volatile boolean completed;
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            synchronized (writeLock) {
+                sending = true;
+                // Gives up after 2s (the container's own write timeout) so a blocked publisher fails the test instead of hanging it
+                long deadline = System.currentTimeMillis() + 2000;
+                while (release.getCount() > 0 && System.currentTimeMillis() < deadline) {
+                    try {
+                        release.await(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException ignored) {
+                        // Blocked socket writes don't react to interrupts
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void complete() {
+            synchronized (writeLock) {
+                completed = true;
+                super.complete();
+            }
+        }
+    }
+
+    // Captures the raw SSE text of each event instead of writing to a response
+    private static class RecordingEmitter extends SseEmitter {
+
+        final List<String> events = new CopyOnWriteArrayList<>();
+        volatile boolean failing;
+        volatile CountDownLatch blocked;
+        private Runnable completionCallback = () -> {};
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (failing) {
+                throw new IOException("Broken pipe");
+            }
+            if (blocked != null) {
+                try {
+                    blocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Abandoned write, like a socket write that fails once the connection is closed
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Write interrupted");
+                }
+            }
+            StringBuilder text = new StringBuilder();
+            builder.build().forEach(part -> text.append(part.getData()));
+            events.add(text.toString());
+        }
+
+        @Override
+        public synchronized void onCompletion(Runnable callback) {
+            completionCallback = callback;
+            super.onCompletion(callback);
+        }
+
+        void fireCompletion() {
+            completionCallback.run();
+        }
+
+        List<String> names() {
+            return events.stream()
+                    .map(text -> text.startsWith(":") ? "heartbeat" : text.substring("event:".length(), text.indexOf('\n')))
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.b2110941.ReviewService.service;
+
+import com.b2110941.ReviewService.entity.ProductRatingStats;
+import com.b2110941.ReviewService.entity.Review;
+import com.b2110941.ReviewService.payload.AdminReplyRequest;
+import com.b2110941.ReviewService.payload.ReviewRequest;
+import com.b2110941.ReviewService.repository.ProductRatingStatsRepository;
+import com.b2110941.ReviewService.repository.ReviewRepository;
+import com.b2110941.ReviewService.repository.ReviewRepositoryImpl;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class ReviewServiceTests {
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private ReviewService reviewService;
+    private ProductRatingStatsService ratingStatsService;
+    private ReviewRepository realRepository;
+    private ReviewRepository reviewRepository;
+
+    @BeforeEach
+    void setUp() {
+        server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+        client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        mongoTemplate = new MongoTemplate(client, "review_test");
+
+        ReviewRepositoryImpl customRepository = new ReviewRepositoryImpl();
+        ReflectionTestUtils.setField(customRepository, "mongoTemplate", mongoTemplate);
+        MongoRepositoryFactory factory = new MongoRepositoryFactory(mongoTemplate);
+        realRepository = factory.getRepository(ReviewRepository.class, customRepository);
+        // Delegating mock so a test can run a concurrent write in the middle of a rebuild
+        reviewRepository = mock(ReviewRepository.class, AdditionalAnswers.delegatesTo(realRepository));
+
+        ratingStatsService = new ProductRatingStatsService();
+        ReflectionTestUtils.setField(ratingStatsService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(ratingStatsService, "statsRepository",
+                factory.getRepository(ProductRatingStatsRepository.class));
+        ReflectionTestUtils.setField(ratingStatsService, "reviewRepository", reviewRepository);
+
+        reviewService = new ReviewService();
+        ReflectionTestUtils.setField(reviewService, "reviewRepository", reviewRepository);
+        ReflectionTestUtils.setField(reviewService, "ratingStatsService", ratingStatsService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    void concurrentHidesRemoveTheRatingOnce() throws Exception {
+        String reviewId = createReview("ring", 5);
+        createReview("ring", 3);
+
+        runConcurrently(8, () -> reviewService.hideReview(reviewId));
+
+        assertTrue(reviewService.getReviewById(reviewId).isHidden());
+        assertStats("ring", 1, 3);
+
+        runConcurrently(8, () -> reviewService.unhideReview(reviewId));
+
+        assertFalse(reviewService.getReviewById(reviewId).isHidden());
+        assertStats("ring", 2, 8);
+    }
+
+    @Test
+    void flagsOnInvisibleReviewsLeaveStatsAlone() {
+        String reviewId = createReview("ring", 4);
+
+        reviewService.hideReview(reviewId);
+        reviewService.deleteReview(reviewId);
+        assertStats("ring", 0, 0);
+
+        // Deleted reviews stay out of the stats even when unhidden
+        reviewService.unhideReview(reviewId);
+        assertFalse(reviewService.getReviewById(reviewId).isActive());
+        assertStats("ring", 0, 0);
+
+        reviewService.deleteReview(reviewId);
+        assertStats("ring", 0, 0);
+    }
+
+    @Test
+    void missingReviewIsReported() {
+        assertThrows(RuntimeException.class, () -> reviewService.hideReview("missing"));
+        assertThrows(RuntimeException.class, () -> reviewService.deleteReview("missing"));
+        assertThrows(RuntimeException.class, () -> reviewService.updateReview("missing", new ReviewRequest()));
+        assertThrows(RuntimeException.class, () -> reviewService.removeAdminReply("missing"));
+    }
+
+    @Test
+    void editsUseThePreviousRatingAndKeepFlags() {
+        String reviewId = createReview("ring", 5);
+        createReview("ring", 3);
+
+        reviewService.updateReview(reviewId, editRequest(2));
+        assertStats("ring", 2, 5);
+
+        // Editing a hidden review leaves the stats alone and does not unhide it
+        reviewService.hideReview(reviewId);
+        assertEquals(4, reviewService.updateReview(reviewId, editRequest(4)).getRating());
+        assertTrue(reviewService.getReviewById(reviewId).isHidden());
+        assertStats("ring", 1, 3);
+
+        reviewService.unhideReview(reviewId);
+        assertStats("ring", 2, 7);
+    }
+
+    @Test
+    void adminReplyDoesNotOverwriteFlags() {
+        String reviewId = createReview("ring", 4);
+        reviewService.hideReview(reviewId);
+
+        AdminReplyRequest reply = new AdminReplyRequest();
+        reply.setAdminReply("Cảm ơn bạn");
+        reply.setAdminId("a1");
+        assertEquals("Cảm ơn bạn", reviewService.addAdminReply(reviewId, reply).getAdminReply());
+        assertTrue(reviewService.getReviewById(reviewId).isHidden());
+
+        assertNull(reviewService.removeAdminReply(reviewId).getAdminReply());
+        assertTrue(reviewService.getReviewById(reviewId).isHidden());
+        assertStats("ring", 0, 0);
+    }
+
+    @Test
+    void rebuildRepairsDriftedStats() {
+        createReview("ring", 5);
+        createReview("ring", 3);
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is("ring")),
+                new Update().set("reviewCount", 7).set("ratingSum", 30), ProductRatingStats.class);
+        mongoTemplate.insert(new ProductRatingStats("gone", 4, 1, 0, 0, 0, 1, 0, 0));
+        assertTrue(ratingStatsService.isStale());
+
+        assertEquals(1, ratingStatsService.rebuildAll());
+
+        assertFalse(ratingStatsService.isStale());
+        assertStats("ring", 2, 8);
+        assertNull(mongoTemplate.findById("gone", ProductRatingStats.class));
+    }
+
+    @Test
+    void rebuildKeepsIncrementsMadeWhileAggregating() {
+        createReview("ring", 5);
+        doAnswer(invocation -> {
+            List<ProductRatingStats> result = realRepository.aggregateRatingStats(null);
+            // A review lands after the aggregation read the reviews but before the rebuilt stats are written
+            createReview("ring", 1);
+            return result;
+        }).when(reviewRepository).aggregateRatingStats(null);
+
+        ratingStatsService.rebuildAll();
+
+        assertStats("ring", 2, 6);
+    }
+
+    @Test
+    void nightlyRepairFixesAReviewCountedTwiceByARebuild() {
+        createReview("ring", 5);
+        createReview("necklace", 4);
+        doAnswer(invocation -> {
+            // A review is saved while the rebuild aggregates; its $inc only runs after the rebuilt stats are written
+            realRepository.save(visibleReview("ring", 3));
+            return realRepository.aggregateRatingStats(null);
+        }).when(reviewRepository).aggregateRatingStats(null);
+        ratingStatsService.rebuildAll();
+        ratingStatsService.addRating("ring", 3);
+        assertStats("ring", 3, 11);
+
+        doAnswer(AdditionalAnswers.delegatesTo(realRepository)).when(reviewRepository).aggregateRatingStats(null);
+        assertEquals(List.of("ring"), ratingStatsService.findDriftedProducts());
+        assertEquals(1, ratingStatsService.repairDrift());
+        assertStats("ring", 2, 8);
+        assertFalse(ratingStatsService.isStale());
+    }
+
+    @Test
+    void driftInSumOrStarsIsStaleEvenWithTheRightCount() {
+        createReview("ring", 5);
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is("ring")),
+                new Update().set("ratingSum", 4).set("star5", 0).set("star4", 1), ProductRatingStats.class);
+
+        assertTrue(ratingStatsService.isStale());
+        assertEquals(1, ratingStatsService.repairDrift());
+        assertEquals(List.of(0L, 0L, 0L, 0L, 1L), mongoTemplate.findById("ring", ProductRatingStats.class).getHistogram());
+        assertEquals(0, ratingStatsService.repairDrift());
+    }
+
+    private static Review visibleReview(String productId, int rating) {
+        Review review = new Review();
+        review.setProductId(productId);
+        review.setUserId("u2");
+        review.setRating(rating);
+        review.setActive(true);
+        review.setHidden(false);
+        return review;
+    }
+
+    private ReviewRequest editRequest(int rating) {
+        ReviewRequest request = new ReviewRequest();
+        request.setComment("updated");
+        request.setRating(rating);
+        return request;
+    }
+
+    private String createReview(String productId, int rating) {
+        ReviewRequest request = new ReviewRequest();
+        request.setProductId(productId);
+        request.setUserId("u1");
+        request.setRating(rating);
+        return reviewService.createReview(request).getId();
+    }
+
+    private void assertStats(String productId, long reviewCount, long ratingSum) {
+        ProductRatingStats stats = mongoTemplate.findById(productId, ProductRatingStats.class);
+        assertEquals(reviewCount, stats.getReviewCount());
+        assertEquals(ratingSum, stats.getRatingSum());
+    }
+
+    private static void runConcurrently(int threads, Callable<?> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(pool.submit(task));
+            }
+            for (Future<?> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
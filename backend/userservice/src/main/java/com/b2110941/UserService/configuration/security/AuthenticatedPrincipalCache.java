@@ -0,0 +1,150 @@
+package com.b2110941.UserService.configuration.security;
+
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache ngắn hạn các token đã xác thực: SHA-256(token) -> claims + UserDetailsImpl.
+ * Request lặp lại với cùng token không phải kiểm tra chữ ký và đọc Mongo lại.
+ * - Giới hạn số phần tử (LRU) và thời gian sống (không vượt quá exp của token).
+ * - Xóa theo userId khi khóa/mở khóa hoặc đồng bộ role để thay đổi có hiệu lực ngay.
+ * - Metric: auth.principal.cache.requests{result=hit|miss}, auth.principal.cache.evictions, auth.principal.cache.size.
+ */
+@Component
+@Slf4j
+public class AuthenticatedPrincipalCache {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    private final Map<String, CachedPrincipal> cache;
+
+    // Tăng mỗi lần evictUser; put bỏ qua kết quả đã tải trước lần xóa gần nhất
+    private final AtomicLong evictionEpoch = new AtomicLong();
+
+    @Autowired
+    public AuthenticatedPrincipalCache(MeterRegistry meterRegistry,
+                                       @Value("${auth.principal-cache.max-entries:10000}") int maxEntries,
+                                       @Value("${auth.principal-cache.ttl-seconds:60}") long ttlSeconds) {
+        this(meterRegistry, maxEntries, ttlSeconds, System::currentTimeMillis);
+    }
+
+    AuthenticatedPrincipalCache(MeterRegistry meterRegistry, int maxEntries, long ttlSeconds, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.clock = clock;
+        this.cache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedPrincipal> eldest) {
+                return size() > AuthenticatedPrincipalCache.this.maxEntries;
+            }
+        };
+        this.hits = Counter.builder("auth.principal.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("auth.principal.cache.requests").tag("result", "miss").register(meterRegistry);
+        this.evictions = Counter.builder("auth.principal.cache.evictions").register(meterRegistry);
+        Gauge.builder("auth.principal.cache.size", this, AuthenticatedPrincipalCache::size).register(meterRegistry);
+    }
+
+    public CachedPrincipal get(String tokenHash) {
+        long now = clock.getAsLong();
+        synchronized (cache) {
+            CachedPrincipal cached = cache.get(tokenHash);
+            if (cached != null && cached.expiresAt() > now) {
+                hits.increment();
+                return cached;
+            }
+            if (cached != null) {
+                cache.remove(tokenHash);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Gọi trước khi đọc user từ DB, truyền lại cho put
+     */
+    public long epoch() {
+        return evictionEpoch.get();
+    }
+
+    public void put(String tokenHash, Claims claims, UserDetailsImpl userDetails, long loadedAtEpoch) {
+        long now = clock.getAsLong();
+        long expiresAt = now + ttlMillis;
+        if (claims.getExpiration() != null) {
+            expiresAt = Math.min(expiresAt, claims.getExpiration().getTime());
+        }
+        if (expiresAt <= now) {
+            return;
+        }
+        synchronized (cache) {
+            if (evictionEpoch.get() != loadedAtEpoch) {
+                // User vừa bị khóa/đổi role trong lúc đang tải: không cache dữ liệu có thể đã cũ
+                return;
+            }
+            cache.put(tokenHash, new CachedPrincipal(claims, userDetails, expiresAt));
+        }
+    }
+
+    /**
+     * Xóa mọi token đã cache của 1 user (khóa tài khoản, đổi role...)
+     */
+    public void evictUser(String userId) {
+        if (userId == null) {
+            return;
+        }
+        int removed = 0;
+        synchronized (cache) {
+            evictionEpoch.incrementAndGet();
+            var it = cache.values().iterator();
+            while (it.hasNext()) {
+                if (userId.equals(it.next().userDetails().getUserId())) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            evictions.increment(removed);
+            log.debug("Evicted {} cached tokens of user {}", removed, userId);
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public record CachedPrincipal(Claims claims, UserDetailsImpl userDetails, long expiresAt) {
+    }
+}
@@ -3,7 +3,6 @@ package com.b2110941.UserService.configuration.security;
 import com.b2110941.UserService.entity.UserEntity;
 import com.b2110941.UserService.repository.UserRepository;
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jwts;    
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -29,18 +28,18 @@ import java.util.Set;
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtTokenProvider tokenProvider;
-    private final UserDetailsServiceImpl userDetailsService;
+    private final AuthenticatedPrincipalCache principalCache;
     private final UserRepository userRepository;
     private final String headerName;
     private final String tokenPrefix;
 
     public JwtAuthenticationFilter(JwtTokenProvider tokenProvider,
-                                   UserDetailsServiceImpl userDetailsService,
+                                   AuthenticatedPrincipalCache principalCache,
                                    UserRepository userRepository,
                                    @Value("${clerk.token.header:Authorization}") String headerName,
                                    @Value("${clerk.token.prefix:Bearer }") String tokenPrefix) {
         this.tokenProvider     = tokenProvider;
-        this.userDetailsService = userDetailsService;
+        this.principalCache    = principalCache;
         this.userRepository    = userRepository;
         this.headerName        = headerName;
         this.tokenPrefix       = tokenPrefix;
@@ -58,54 +57,14 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         }
         try {
             String jwt = extractToken(request);
-            if (StringUtils.hasText(jwt) && tokenProvider.validateToken(jwt)) {
-                // Parse claims and extract user info
-                Claims claims = Jwts.parser()
-                                    .setSigningKey(tokenProvider.getClerkPublicKey())
-                                    .parseClaimsJws(jwt)
-                                    .getBody();
-
-                String clerkUserId = claims.getSubject();
-                String email       = claims.get("email", String.class);
-                String username    = claims.get("username", String.class);
-
-                // OAuth provider info
-                String provider = claims.get("oauth_provider", String.class);
-                String firstName = claims.containsKey("first_name")
-                                    ? claims.get("first_name", String.class)
-                                    : claims.get("given_name", String.class);
-                String lastName  = claims.containsKey("last_name")
-                                    ? claims.get("last_name", String.class)
-                                    : claims.get("family_name", String.class);
-                String imageUrl  = claims.containsKey("picture")
-                                    ? claims.get("picture", String.class)
-                                    : claims.get("image_url", String.class);
-
-                // Get role using the new extraction method
-                String role = tokenProvider.extractRole(claims);
-
-                // Persist or update UserEntity in DB
-                // Optional<UserEntity> opt = userRepository.findById(clerkUserId);
-                Optional<UserEntity> opt = userRepository.findByUserId(clerkUserId);
-
-            //     UserEntity currentUser = opt.orElse(null);
-            //     // Build Authentication and set in context nếu user đã tồn tại
-            //     if (currentUser != null) {
-            //         UserDetails userDetails = userDetailsService.loadUserByUsername(currentUser.getId());
-            //         UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(
-            //                 userDetails, null, userDetails.getAuthorities());
-            //         auth.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-            //         SecurityContextHolder.getContext().setAuthentication(auth);
-            //     }
-            // }
-UserEntity currentUser = opt.orElse(null);
-if (currentUser != null) {
-    UserDetails userDetails = userDetailsService.loadUserByUsername(currentUser.getUserId());
-    UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(
-            userDetails, null, userDetails.getAuthorities());
-    auth.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-    SecurityContextHolder.getContext().setAuthentication(auth);
-}
+            if (StringUtils.hasText(jwt)) {
+                String tokenHash = AuthenticatedPrincipalCache.hash(jwt);
+                AuthenticatedPrincipalCache.CachedPrincipal cached = principalCache.get(tokenHash);
+                if (cached != null) {
+                    authenticate(cached.userDetails(), request);
+                } else {
+                    authenticateAndCache(jwt, tokenHash, request);
+                }
             }
 
         } catch (Exception ex) {
@@ -114,6 +73,32 @@ if (currentUser != null) {
         filterChain.doFilter(request, response);
     }
 
+    private void authenticateAndCache(String jwt, String tokenHash, HttpServletRequest request) {
+        long epoch = principalCache.epoch();
+        // Validate và parse claims trong 1 lần (khóa lấy từ cache JWKS theo kid)
+        Claims claims = tokenProvider.validateAndGetClaims(jwt);
+        if (claims == null) {
+            return;
+        }
+
+        String clerkUserId = claims.getSubject();
+        // 1 lần đọc DB: UserDetails dựng luôn từ entity vừa tìm được
+        Optional<UserEntity> opt = userRepository.findByUserId(clerkUserId);
+        UserEntity currentUser = opt.orElse(null);
+        if (currentUser != null) {
+            UserDetailsImpl userDetails = UserDetailsImpl.build(currentUser);
+            principalCache.put(tokenHash, claims, userDetails, epoch);
+            authenticate(userDetails, request);
+        }
+    }
+
+    private void authenticate(UserDetails userDetails, HttpServletRequest request) {
+        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(
+                userDetails, null, userDetails.getAuthorities());
+        auth.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+        SecurityContextHolder.getContext().setAuthentication(auth);
+    }
+
     private String extractToken(HttpServletRequest request) {
         String header = request.getHeader(headerName);
         if (StringUtils.hasText(header) && header.startsWith(tokenPrefix)) {
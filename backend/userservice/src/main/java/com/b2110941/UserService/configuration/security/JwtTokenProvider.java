@@ -2,9 +2,11 @@ package com.b2110941.UserService.configuration.security;
 
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwsHeader;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.SignatureException;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
 import io.jsonwebtoken.UnsupportedJwtException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
@@ -12,40 +14,69 @@ import org.jose4j.jwk.JsonWebKey;
 import org.jose4j.jwk.JsonWebKeySet;
 import org.jose4j.lang.JoseException;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.security.Key;
 import java.security.PublicKey;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Xác thực JWT của Clerk.
+ * Public key được cache theo kid và làm mới định kỳ ở nền (clerk.jwks.refresh-interval-ms), nên mỗi request
+ * chỉ tra map trong bộ nhớ thay vì tải lại JWKS. Gặp kid lạ (Clerk xoay khóa) thì tải lại ngay, nhưng không quá
+ * 1 lần mỗi clerk.jwks.min-refresh-interval-ms. Tải JWKS lỗi thì giữ nguyên các khóa đang có.
+ */
 @Component
 @Slf4j
 public class JwtTokenProvider {
+    private static final String NO_KID = "";
+
     private final String jwksUrl;
     private final String issuer;
+    private final long minRefreshIntervalMs;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+
+    // Ảnh chụp bất biến kid -> key, thay cả map khi làm mới
+    private volatile Map<String, PublicKey> keysByKid = Map.of();
+    private final AtomicLong lastFetchAttempt = new AtomicLong();
+    private final Object refreshLock = new Object();
+
+    private final SigningKeyResolverAdapter signingKeyResolver = new SigningKeyResolverAdapter() {
+        @Override
+        public Key resolveSigningKey(JwsHeader header, Claims claims) {
+            return resolveKey(header.getKeyId());
+        }
+    };
 
     public JwtTokenProvider(
             @Value("${clerk.jwks-url}") String jwksUrl,
-            @Value("${clerk.issuer}") String issuer) {
+            @Value("${clerk.issuer}") String issuer,
+            @Value("${clerk.jwks.min-refresh-interval-ms:30000}") long minRefreshIntervalMs,
+            @Value("${clerk.jwks.connect-timeout-ms:2000}") int connectTimeoutMs,
+            @Value("${clerk.jwks.read-timeout-ms:3000}") int readTimeoutMs) {
         this.jwksUrl = jwksUrl;
         this.issuer = issuer;
+        this.minRefreshIntervalMs = minRefreshIntervalMs;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
     }
 
     /**
-     * Lấy PublicKey từ JWKS URL cấu hình
+     * Làm mới JWKS định kỳ (chạy ngay khi khởi động để nạp sẵn khóa)
      */
-    public PublicKey getClerkPublicKey() throws IOException {
-        try (InputStream is = new URL(jwksUrl).openStream()) {
-            String jwksJson = IOUtils.toString(is, StandardCharsets.UTF_8);
-            JsonWebKeySet jwkSet = new JsonWebKeySet(jwksJson);
-            JsonWebKey jwk = jwkSet.getJsonWebKeys().get(0); // có thể lọc theo kid nếu cần
-            return (PublicKey) jwk.getKey();
-        } catch (JoseException | IOException e) {
-            log.error("Error fetching Clerk public key from {}: {}", jwksUrl, e.getMessage());
-            throw new IOException("Failed to load Clerk JWKS", e);
+    @Scheduled(initialDelay = 0, fixedDelayString = "${clerk.jwks.refresh-interval-ms:300000}")
+    public void scheduledRefresh() {
+        synchronized (refreshLock) {
+            refreshKeys();
         }
     }
 
@@ -53,20 +84,24 @@ public class JwtTokenProvider {
      * Kiểm tra tính hợp lệ của JWT
      */
     public boolean validateToken(String token) {
+        return validateAndGetClaims(token) != null;
+    }
+
+    /**
+     * Parse + kiểm tra chữ ký, hạn và issuer trong 1 lần; trả về null nếu token không hợp lệ
+     */
+    public Claims validateAndGetClaims(String token) {
         try {
-            Claims claims = Jwts.parser()
-                .setSigningKey(getClerkPublicKey())
-                .parseClaimsJws(token)
-                .getBody();
+            Claims claims = parseClaims(token);
 
             // Validate issuer
             String tokenIssuer = claims.getIssuer();
             if (!issuer.equals(tokenIssuer)) {
                 log.error("Invalid JWT issuer: {}", tokenIssuer);
-                return false;
+                return null;
             }
 
-            return true;
+            return claims;
         } catch (SignatureException e) {
             log.error("Invalid JWT signature: {}", e.getMessage());
         } catch (MalformedJwtException e) {
@@ -77,18 +112,16 @@ public class JwtTokenProvider {
             log.error("JWT token is unsupported: {}", e.getMessage());
         } catch (IllegalArgumentException e) {
             log.error("JWT claims string is empty: {}", e.getMessage());
-        } catch (IOException e) {
-            log.error("Error reading public key: {}", e.getMessage());
         }
-        return false;
+        return null;
     }
 
     /**
-     * Trích Claims ra từ JWT sau khi đã validate
+     * Trích Claims ra từ JWT (kiểm tra chữ ký bằng khóa theo kid)
      */
-    public Claims parseClaims(String token) throws IOException {
+    public Claims parseClaims(String token) {
         return Jwts.parser()
-                   .setSigningKey(getClerkPublicKey())
+                   .setSigningKeyResolver(signingKeyResolver)
                    .parseClaimsJws(token)
                    .getBody();
     }
@@ -116,4 +149,83 @@ public class JwtTokenProvider {
 
         return "user"; // Default role
     }
+
+    PublicKey resolveKey(String kid) {
+        PublicKey key = lookup(keysByKid, kid);
+        if (key == null && refreshForUnknownKid()) {
+            key = lookup(keysByKid, kid);
+        }
+        if (key == null) {
+            throw new SignatureException("No JWKS key for kid " + kid);
+        }
+        return key;
+    }
+
+    private PublicKey lookup(Map<String, PublicKey> keys, String kid) {
+        if (kid == null) {
+            // Token không có kid: chỉ chấp nhận khi JWKS có đúng 1 khóa
+            return keys.size() == 1 ? keys.values().iterator().next() : null;
+        }
+        return keys.get(kid);
+    }
+
+    // Tải lại JWKS khi gặp kid lạ, giới hạn tần suất để token giả mạo không biến thành lưu lượng tới Clerk
+    private boolean refreshForUnknownKid() {
+        long lastAttempt = lastFetchAttempt.get();
+        if (lastAttempt != 0 && System.currentTimeMillis() - lastAttempt < minRefreshIntervalMs) {
+            return false;
+        }
+        synchronized (refreshLock) {
+            if (lastFetchAttempt.get() != lastAttempt) {
+                // Thread khác vừa tải xong trong lúc chờ lock
+                return true;
+            }
+            return refreshKeys();
+        }
+    }
+
+    // Gọi khi đang giữ refreshLock
+    private boolean refreshKeys() {
+        lastFetchAttempt.set(System.currentTimeMillis());
+        try {
+            Map<String, PublicKey> keys = fetchKeys();
+            if (keys.isEmpty()) {
+                log.warn("JWKS from {} has no usable signing keys, keeping {} cached keys", jwksUrl, keysByKid.size());
+                return false;
+            }
+            keysByKid = keys;
+            log.info("Loaded {} Clerk signing keys from JWKS", keys.size());
+            return true;
+        } catch (IOException | JoseException e) {
+            log.warn("Error fetching Clerk JWKS from {}, keeping {} cached keys: {}", jwksUrl, keysByKid.size(), e.getMessage());
+            return false;
+        }
+    }
+
+    private Map<String, PublicKey> fetchKeys() throws IOException, JoseException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(jwksUrl).openConnection();
+        connection.setConnectTimeout(connectTimeoutMs);
+        connection.setReadTimeout(readTimeoutMs);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("JWKS endpoint returned HTTP " + connection.getResponseCode());
+            }
+            String jwksJson;
+            try (InputStream is = connection.getInputStream()) {
+                jwksJson = IOUtils.toString(is, StandardCharsets.UTF_8);
+            }
+            Map<String, PublicKey> keys = new HashMap<>();
+            for (JsonWebKey jwk : new JsonWebKeySet(jwksJson).getJsonWebKeys()) {
+                if (jwk.getUse() != null && !"sig".equals(jwk.getUse())) {
+                    continue;
+                }
+                if (jwk.getKey() instanceof PublicKey publicKey) {
+                    keys.put(jwk.getKeyId() != null ? jwk.getKeyId() : NO_KID, publicKey);
+                }
+            }
+            return Map.copyOf(keys);
+        } finally {
+            connection.disconnect();
+        }
+    }
 }
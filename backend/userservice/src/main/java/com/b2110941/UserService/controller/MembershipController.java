@@ -1,8 +1,10 @@
 package com.b2110941.UserService.controller;
 
+import com.b2110941.UserService.entity.MembershipTier;
 import com.b2110941.UserService.entity.UserEntity;
 import com.b2110941.UserService.payload.MembershipInfo;
 import com.b2110941.UserService.service.MembershipService;
+import com.b2110941.UserService.service.MembershipStatsService;
 import com.b2110941.UserService.service.UserService;
 import com.b2110941.UserService.service.MonthlyResetService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,6 +34,9 @@ public class MembershipController {
     @Autowired
     private MonthlyResetService monthlyResetService;
 
+    @Autowired
+    private MembershipStatsService membershipStatsService;
+
     public MembershipController() {
         System.out.println("🚀 MembershipController: Đã khởi tạo");
     }
@@ -73,11 +78,6 @@ public class MembershipController {
             @PathVariable String userId,
             @RequestBody Map<String, Object> request) {
         try {
-            UserEntity user = userService.getUserById(userId);
-            if (user == null) {
-                return ResponseEntity.notFound().build();
-            }
-
             Double orderAmount = Double.valueOf(request.get("orderAmount").toString());
             Integer purchaseCount = request.get("purchaseCount") != null ? 
                 Integer.valueOf(request.get("purchaseCount").toString()) : 1;
@@ -87,23 +87,23 @@ public class MembershipController {
             } else if (request.get("orderNumber") != null) {
                 orderIdentifier = request.get("orderNumber").toString();
             }
-            
+
+            // Cập nhật thông tin mua hàng (idempotent theo mã đơn hàng, cộng dồn bằng $inc)
+            MembershipService.PurchaseResult result =
+                membershipService.recordPurchase(userId, orderIdentifier, orderAmount, purchaseCount);
+            if (result == null) {
+                return ResponseEntity.notFound().build();
+            }
+
             // Idempotent: nếu đã tính đơn này rồi thì bỏ qua
-            if (orderIdentifier != null && user.hasCountedOrder(orderIdentifier)) {
+            if (result.duplicate()) {
                 Map<String, Object> response = new HashMap<>();
                 response.put("message", "Đơn hàng đã được ghi nhận trước đó, bỏ qua để tránh đếm trùng");
-                response.put("membershipInfo", membershipService.getMembershipInfo(user));
+                response.put("membershipInfo", result.membershipInfo());
                 return ResponseEntity.ok(response);
             }
-
-            // Cập nhật thông tin mua hàng
-            MembershipInfo newMembershipInfo = membershipService.updatePurchaseInfo(user, orderAmount, purchaseCount);
-            if (orderIdentifier != null) {
-                user.addCountedOrder(orderIdentifier);
-            }
-            
-            // Lưu user đã cập nhật
-            userService.updateUser(user);
+            UserEntity user = result.user();
+            MembershipInfo newMembershipInfo = result.membershipInfo();
 
             Map<String, Object> response = new HashMap<>();
             response.put("message", "Cập nhật thông tin mua hàng thành công!");
@@ -188,13 +188,17 @@ public class MembershipController {
     @GetMapping("/membership/stats")
     public ResponseEntity<?> getMembershipStats() {
         try {
-            // Lấy thống kê từ service
+            // Thống kê theo hạng bằng aggregation (có cache ngắn hạn)
+            Map<MembershipTier, MembershipStatsService.TierStats> tierStats = membershipStatsService.getTierStats();
+            long totalUsers = tierStats.values().stream().mapToLong(MembershipStatsService.TierStats::users).sum();
+
             Map<String, Object> stats = new HashMap<>();
-            stats.put("totalUsers", userService.getAllUsers().size());
-            stats.put("bronzeUsers", 0); // TODO: Implement counting by tier
-            stats.put("silverUsers", 0);
-            stats.put("goldUsers", 0);
-            stats.put("diamondUsers", 0);
+            stats.put("totalUsers", totalUsers);
+            stats.put("bronzeUsers", tierStats.get(MembershipTier.BRONZE).users());
+            stats.put("silverUsers", tierStats.get(MembershipTier.SILVER).users());
+            stats.put("goldUsers", tierStats.get(MembershipTier.GOLD).users());
+            stats.put("diamondUsers", tierStats.get(MembershipTier.DIAMOND).users());
+            stats.put("tiers", tierStats);
 
             return ResponseEntity.ok(stats);
         } catch (Exception e) {
@@ -250,10 +254,11 @@ public class MembershipController {
     @PostMapping("/membership/reset-all")
     public ResponseEntity<?> resetAllUsersMembership() {
         try {
-            monthlyResetService.resetAllUsersMembershipMonthly();
+            int resetCount = monthlyResetService.resetAllUsersMembershipMonthly();
             
             Map<String, Object> response = new HashMap<>();
             response.put("message", "Đã reset hạng thành viên cho tất cả users thành công");
+            response.put("resetCount", resetCount);
             response.put("resetTime", java.time.LocalDate.now().format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
             
             return ResponseEntity.ok(response);
@@ -1,12 +1,20 @@
 package com.b2110941.UserService.controller;
 
+import com.b2110941.CommonStorage.BlobStore;
+import com.b2110941.CommonStorage.FileResponder;
+import com.b2110941.CommonStorage.ImageDerivativeService;
+import com.b2110941.UserService.configuration.security.AuthenticatedPrincipalCache;
+import com.b2110941.UserService.entity.MembershipTier;
 import com.b2110941.UserService.entity.UserEntity;
 import com.b2110941.UserService.payload.request.UserSyncRequest;
 import com.b2110941.UserService.payload.response.UserResponse;
+import com.b2110941.UserService.payload.response.UserSummaryResponse;
 import com.b2110941.UserService.repository.UserRepository;
+import com.b2110941.UserService.service.UserService;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -73,6 +81,25 @@ public class UserController {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private AuthenticatedPrincipalCache principalCache;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private FileResponder fileResponder;
+
+    @Autowired
+    private ImageDerivativeService imageDerivativeService;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    private static final int AVATAR_WIDTH = 200;
+
+    private static final int MAX_PAGE_SIZE = 200;
+
     // ✅ Lấy thông tin người dùng theo userId
     @GetMapping("/users/{userId}")
     public ResponseEntity<?> getUserProfile(@PathVariable String userId) {
@@ -105,19 +132,15 @@ public class UserController {
     @PostMapping("/update_user/{userId}")
     public ResponseEntity<?> updateUserProfile(@PathVariable String userId, @RequestBody Map<String, Object> payload) {
         try {
-            Optional<UserEntity> userOpt = userRepository.findByUserId(userId);
-            if (userOpt.isEmpty()) {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found");
-            }
-
-            UserEntity user = userOpt.get();
+            // Chỉ $set các field hồ sơ được gửi lên: không ghi đè purchaseCount/totalSpent/membershipTier
+            Update update = new Update();
 
             if (payload.containsKey("username")) {
-                user.setUsername((String) payload.get("username"));
+                update.set("username", (String) payload.get("username"));
             }
 
             if (payload.containsKey("phone")) {
-                user.setPhone((String) payload.get("phone"));
+                update.set("phone", (String) payload.get("phone"));
             }
 
             if (payload.containsKey("addresses")) {
@@ -137,12 +160,13 @@ public class UserController {
                     addresses.get(0).setDefault(true);
                 }
 
-                user.setAddresses(addresses);
+                update.set("addresses", addresses);
             }
 
-            user.setUpdatedAt(LocalDateTime.now());
-
-            UserEntity savedUser = userRepository.save(user);
+            UserEntity savedUser = userService.updateProfile(userId, update);
+            if (savedUser == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found");
+            }
             System.out.println("[UserController] ✅ Đã cập nhật user: " + savedUser.getUserId());
 
             return ResponseEntity.ok(savedUser);
@@ -160,6 +184,7 @@ public class UserController {
         Optional<UserEntity> userOpt = userRepository.findByUserId(userId);
         if (userOpt.isPresent()) {
             userRepository.delete(userOpt.get());
+            principalCache.evictUser(userId);
             return ResponseEntity.ok("User deleted from MongoDB.");
         } else {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
@@ -170,21 +195,29 @@ public class UserController {
     @PutMapping("/{userId}/avatar")
     public ResponseEntity<?> uploadAvatar(@PathVariable String userId, @RequestParam("file") MultipartFile file) {
         try {
-            String filename = System.currentTimeMillis() + "_" + StringUtils.cleanPath(file.getOriginalFilename());
-            Path uploadPath = Paths.get("uploads/avatars");
-            Files.createDirectories(uploadPath);
-            Path filePath = uploadPath.resolve(filename);
-            Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-
             Optional<UserEntity> userOpt = userRepository.findByUserId(userId);
             if (userOpt.isEmpty()) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found");
             }
 
-            UserEntity user = userOpt.get();
-            String avatarUrl = "/uploads/avatars/" + filename;
-            user.setAvatarUrl(avatarUrl);
-            userRepository.save(user);
+            // Lưu vào kho file định danh theo nội dung (ảnh trùng chỉ lưu 1 lần)
+            BlobStore.StoredBlob blob = blobStore.store(file.getInputStream(), StringUtils.cleanPath(file.getOriginalFilename()));
+            String filename = blob.name();
+            Path filePath = blob.path();
+
+            // Avatar hiển thị nhỏ: dùng ảnh thu nhỏ, ảnh gốc nếu không tạo được
+            String avatarUrl = blobStore.urlOf(
+                    imageDerivativeService.createVariants(filePath, AVATAR_WIDTH).orElse(filename));
+            // Chỉ $set avatarUrl; avatar cũ lấy từ bản trước khi đổi nên 2 lần upload đồng thời không giải phóng nhầm
+            UserEntity previous = userService.replaceAvatarUrl(userId, avatarUrl);
+            if (previous == null) {
+                blobStore.release(avatarUrl);
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found");
+            }
+            // Avatar cũ không còn dùng: giảm tham chiếu, bộ dọn nền sẽ xóa file
+            if (previous.getAvatarUrl() != null) {
+                blobStore.release(previous.getAvatarUrl());
+            }
 
             // --- Upload file lên Clerk để cập nhật profile image ---
             try {
@@ -249,34 +282,10 @@ public class UserController {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No avatar");
         }
 
-        Path filePath = Paths.get(avatarUrl.startsWith("/") ? avatarUrl.substring(1) : avatarUrl); // bỏ / đầu
-        if (!Files.exists(filePath)) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("File not found");
-        }
-
-        try {
-            byte[] fileContent = Files.readAllBytes(filePath);
-            String contentType = Files.probeContentType(filePath);
-            // Nếu không xác định được, kiểm tra phần mở rộng file
-            if (contentType == null) {
-                String lower = filePath.getFileName().toString().toLowerCase();
-                if (lower.endsWith(".png")) {
-                    contentType = "image/png";
-                } else if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
-                    contentType = "image/jpeg";
-                } else if (lower.endsWith(".webp")) {
-                    contentType = "image/webp";
-                } else {
-                    contentType = "application/octet-stream";
-                }
-            }
-            return ResponseEntity
-                    .ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .body(fileContent);
-        } catch (IOException e) {
-            return ResponseEntity.status(500).body("Error reading file: " + e.getMessage());
-        }
+        // avatarUrl dạng /uploads/avatars/[ab/cd/]<file>: stream file + ETag/Range.
+        // URL theo userId giữ nguyên khi đổi avatar nên dùng no-cache (revalidate qua ETag) thay vì immutable
+        return fileResponder.serve(blobStore.getDirectory(), blobStore.relativePath(avatarUrl),
+                CacheControl.noCache());
     }
 
     // ✅ Kiểm tra kết nối MongoDB và list user
@@ -317,43 +326,14 @@ public class UserController {
         }
 
         try {
-            Optional<UserEntity> userOpt = userRepository.findByEmail(request.getEmail());
-            UserEntity user = userOpt.orElseGet(UserEntity::new);
-
-            user.setUserId(request.getUserId());
-            user.setEmail(request.getEmail());
-            user.setUsername(request.getUsername());
-            user.setFirstName(request.getFirstName());
-            user.setLastName(request.getLastName());
-            user.setImageUrl(request.getImageUrl());
-            user.setProvider(request.getProvider());
-            user.setRole(request.getRole() != null ? request.getRole() : "user");
-            
-            // Thêm các trường bổ sung từ custom registration
-            if (request.getPhone() != null) {
-                user.setPhone(request.getPhone());
+            // Gọi mỗi lần client tải trang (use-user-sync): upsert $set các field hồ sơ, không save đè cả document
+            UserService.SyncResult result = userService.syncProfile(request);
+            // Chỉ khi role thực sự đổi mới bỏ các token đã cache để request sau dùng role mới;
+            // evictUser quét cả cache và làm mất principal đang được cache của mọi user
+            if (result.accessChanged()) {
+                principalCache.evictUser(request.getUserId());
             }
-            if (request.getDateOfBirth() != null) {
-                user.setDateOfBirth(request.getDateOfBirth());
-            }
-            if (request.getGender() != null) {
-                user.setGender(request.getGender());
-            }
-
-            // Set default values for new users
-            if (user.getPurchaseCount() == null) {
-                user.setPurchaseCount(0);
-            }
-            if (user.getActive() == null) {
-                user.setActive(true);
-            }
-            if (user.getCreatedAt() == null) {
-                user.setCreatedAt(java.time.LocalDateTime.now());
-            }
-            user.setUpdatedAt(java.time.LocalDateTime.now());
-
-            UserEntity saved = userRepository.save(user);
-            return ResponseEntity.ok(new UserResponse(saved.getUserId(), saved.getEmail()));
+            return ResponseEntity.ok(new UserResponse(request.getUserId(), request.getEmail()));
 
         } catch (DuplicateKeyException dupEx) {
             return ResponseEntity.status(HttpStatus.CONFLICT).body("Duplicate email");
@@ -377,6 +357,42 @@ public class UserController {
         }
     }
 
+    // ✅ Danh sách người dùng phân trang (keyset theo userId), chỉ gồm các field rút gọn
+    @GetMapping("/page")
+    public ResponseEntity<?> getUserPage(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String role,
+            @RequestParam(required = false) Boolean active,
+            @RequestParam(required = false) MembershipTier tier,
+            @RequestParam(required = false) String q) {
+        try {
+            int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+            // Lấy thêm 1 user để biết còn trang sau hay không
+            List<UserEntity> users = userService.getUserPage(
+                    StringUtils.hasText(after) ? after : null, pageSize + 1,
+                    StringUtils.hasText(role) ? role : null, active, tier,
+                    StringUtils.hasText(q) ? q.trim() : null);
+
+            boolean hasMore = users.size() > pageSize;
+            List<UserSummaryResponse> page = users.stream()
+                    .limit(pageSize)
+                    .map(UserSummaryResponse::new)
+                    .collect(Collectors.toList());
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("users", page);
+            response.put("limit", pageSize);
+            response.put("hasMore", hasMore);
+            response.put("nextCursor", hasMore ? page.get(page.size() - 1).getUserId() : null);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Không thể lấy danh sách người dùng: " + e.getMessage());
+        }
+    }
+
     // ✅ Thêm người dùng mới
     @PostMapping("/add")
     public ResponseEntity<?> addUser(@RequestBody Map<String, Object> payload) {
@@ -446,6 +462,7 @@ public class UserController {
             user.setUpdatedAt(java.time.LocalDateTime.now());
             
             UserEntity saved = userRepository.save(user);
+            principalCache.evictUser(saved.getUserId());
             
             Map<String, Object> response = new HashMap<>();
             response.put("userId", saved.getUserId());
@@ -0,0 +1,99 @@
+package com.b2110941.UserService.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Khóa idempotency cho việc cộng lượt mua vào membership: mỗi (userId, orderId) chỉ được tính 1 lần.
+ * Tách khỏi document user để user không phình theo lịch sử đơn hàng; tự xóa sau thời gian TTL.
+ * Khóa được ghi trước khi cộng (applied = false) và chỉ đánh dấu applied sau khi $inc thành công.
+ */
+@Document(collection = "membership_purchases")
+@CompoundIndex(name = "user_order_uniq", def = "{'userId': 1, 'orderId': 1}", unique = true)
+public class MembershipPurchaseRecord {
+
+    @Id
+    private String id;
+
+    private String userId;
+    private String orderId;
+    private double orderAmount;
+    private int purchaseCount;
+    // false: đã giữ khóa nhưng chưa cộng vào user (instance chết giữa chừng thì request lặp lại sau khi quá hạn được cộng lại).
+    // null: khóa tạo trước khi có field này (hoặc từ migrate countedOrders), coi như đã cộng
+    private Boolean applied;
+
+    // TTL: đủ dài để chặn callback/retry lặp lại của cùng 1 đơn hàng
+    @Indexed(name = "created_ttl", expireAfter = "90d")
+    private Date createdAt;
+
+    public MembershipPurchaseRecord() {}
+
+    public MembershipPurchaseRecord(String userId, String orderId, double orderAmount, int purchaseCount) {
+        this.userId = userId;
+        this.orderId = orderId;
+        this.orderAmount = orderAmount;
+        this.purchaseCount = purchaseCount;
+        this.createdAt = new Date();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(String orderId) {
+        this.orderId = orderId;
+    }
+
+    public double getOrderAmount() {
+        return orderAmount;
+    }
+
+    public void setOrderAmount(double orderAmount) {
+        this.orderAmount = orderAmount;
+    }
+
+    public int getPurchaseCount() {
+        return purchaseCount;
+    }
+
+    public void setPurchaseCount(int purchaseCount) {
+        this.purchaseCount = purchaseCount;
+    }
+
+    public Boolean getApplied() {
+        return applied;
+    }
+
+    public void setApplied(Boolean applied) {
+        this.applied = applied;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Date createdAt) {
+        this.createdAt = createdAt;
+    }
+}
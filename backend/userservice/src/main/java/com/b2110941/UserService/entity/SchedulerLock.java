@@ -0,0 +1,53 @@
+package com.b2110941.UserService.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Khóa (lease) cho các tác vụ định kỳ khi chạy nhiều instance userservice.
+ * Instance nào giữ khóa thì chạy; hết lockedUntil mà không gia hạn thì instance khác được nhận.
+ */
+@Document(collection = "scheduler_locks")
+public class SchedulerLock {
+
+    @Id
+    private String name;
+
+    private String owner;
+    private Date lockedAt;
+    private Date lockedUntil;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public Date getLockedAt() {
+        return lockedAt;
+    }
+
+    public void setLockedAt(Date lockedAt) {
+        this.lockedAt = lockedAt;
+    }
+
+    public Date getLockedUntil() {
+        return lockedUntil;
+    }
+
+    public void setLockedUntil(Date lockedUntil) {
+        this.lockedUntil = lockedUntil;
+    }
+}
@@ -1,6 +1,7 @@
 package com.b2110941.UserService.entity;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
@@ -11,6 +12,9 @@ import com.b2110941.UserService.entity.Address;
 import com.b2110941.UserService.entity.MembershipTier;
 
 @Document(collection = "users")
+// Phục vụ danh sách user phân trang (keyset theo _id) có lọc theo role/hạng
+@CompoundIndex(name = "role_id", def = "{'role': 1, '_id': 1}")
+@CompoundIndex(name = "tier_id", def = "{'membershipTier': 1, '_id': 1}")
 public class UserEntity {
 
     @Id
@@ -29,8 +33,8 @@ public class UserEntity {
     private LocalDateTime updatedAt;
     private String phone;
     private List<Address> addresses;
+    // Ảnh đại diện nằm trong kho file (storage.blobs), document user chỉ giữ URL
     private String avatarUrl;
-    private byte[] avatarImage;
     private Boolean active = true; // Mặc định tài khoản hoạt động
     private String dateOfBirth;
     private String gender;
@@ -39,8 +43,6 @@ public class UserEntity {
     private Double totalSpent = 0.0;
     // Lưu tháng cuối cùng được reset hạng thành viên (format: "yyyy-MM")
     private String lastResetMonth;
-    // Lưu các mã đơn hàng đã được tính vào membership để tránh đếm trùng
-    private Set<String> countedOrders = new HashSet<>();
 
 
     // Getters & Setters
@@ -164,13 +166,6 @@ public class UserEntity {
         this.avatarUrl = avatarUrl;
     }
 
-    public byte[] getAvatarImage() {
-        return avatarImage;
-    }
-    public void setAvatarImage(byte[] avatarImage) {
-        this.avatarImage = avatarImage;
-    }
-
     public Boolean getActive() {
         return active;
     }
@@ -242,27 +237,6 @@ public class UserEntity {
         }
     }
 
-    // Các helper cho idempotency của membership
-    public Set<String> getCountedOrders() {
-        return countedOrders;
-    }
-
-    public void setCountedOrders(Set<String> countedOrders) {
-        this.countedOrders = countedOrders;
-    }
-
-    public boolean hasCountedOrder(String identifier) {
-        if (identifier == null) return false;
-        if (this.countedOrders == null) this.countedOrders = new HashSet<>();
-        return this.countedOrders.contains(identifier);
-    }
-
-    public void addCountedOrder(String identifier) {
-        if (identifier == null) return;
-        if (this.countedOrders == null) this.countedOrders = new HashSet<>();
-        this.countedOrders.add(identifier);
-    }
-
     // Helper methods for monthly reset
     public String getLastResetMonth() {
         return lastResetMonth;
@@ -283,7 +257,6 @@ public class UserEntity {
         this.purchaseCount = 0;
         this.totalSpent = 0.0;
         this.membershipTier = MembershipTier.BRONZE;
-        this.countedOrders.clear();
         this.lastResetMonth = java.time.LocalDate.now().format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM"));
     }
 }
@@ -0,0 +1,53 @@
+package com.b2110941.UserService.payload.response;
+
+import com.b2110941.UserService.entity.MembershipTier;
+import com.b2110941.UserService.entity.UserEntity;
+
+import java.time.LocalDateTime;
+
+// Bản rút gọn của user cho danh sách admin: không có ảnh nhị phân, địa chỉ, mật khẩu
+public class UserSummaryResponse {
+    private String userId;
+    private String email;
+    private String username;
+    private String firstName;
+    private String lastName;
+    private String imageUrl;
+    private String avatarUrl;
+    private String role;
+    private Boolean active;
+    private MembershipTier membershipTier;
+    private Integer purchaseCount;
+    private Double totalSpent;
+    private LocalDateTime createdAt;
+
+    public UserSummaryResponse(UserEntity user) {
+        this.userId = user.getUserId();
+        this.email = user.getEmail();
+        this.username = user.getUsername();
+        this.firstName = user.getFirstName();
+        this.lastName = user.getLastName();
+        this.imageUrl = user.getImageUrl();
+        this.avatarUrl = user.getAvatarUrl();
+        this.role = user.getRole();
+        this.active = user.getActive();
+        this.membershipTier = user.getMembershipTier();
+        this.purchaseCount = user.getPurchaseCount();
+        this.totalSpent = user.getTotalSpent();
+        this.createdAt = user.getCreatedAt();
+    }
+
+    public String getUserId() { return userId; }
+    public String getEmail() { return email; }
+    public String getUsername() { return username; }
+    public String getFirstName() { return firstName; }
+    public String getLastName() { return lastName; }
+    public String getImageUrl() { return imageUrl; }
+    public String getAvatarUrl() { return avatarUrl; }
+    public String getRole() { return role; }
+    public Boolean getActive() { return active; }
+    public MembershipTier getMembershipTier() { return membershipTier; }
+    public Integer getPurchaseCount() { return purchaseCount; }
+    public Double getTotalSpent() { return totalSpent; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+}
@@ -1,15 +1,23 @@
 package com.b2110941.UserService.repository;
 
+import java.util.List;
 import java.util.Optional;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import com.b2110941.UserService.entity.UserEntity;
 
 @Repository
 public interface UserRepository extends MongoRepository<UserEntity, String> {
+
+    // Không đọc field avatarImage cũ (ảnh nhị phân) của các document chưa được migrate
+    String WITHOUT_AVATAR_IMAGE = "{ 'avatarImage': 0 }";
+
+    @Query(fields = WITHOUT_AVATAR_IMAGE)
     Optional<UserEntity> findByUsername(String username);
     
+    @Query(fields = WITHOUT_AVATAR_IMAGE)
     Optional<UserEntity> findByEmail(String email);
     
     Boolean existsByUsername(String username);
@@ -18,5 +26,14 @@ public interface UserRepository extends MongoRepository<UserEntity, String> {
     
     Boolean existsByEmail(String email);
 
+    @Query(fields = WITHOUT_AVATAR_IMAGE)
     Optional<UserEntity> findByUserId(String userId);
+
+    @Override
+    @Query(value = "{ '_id': ?0 }", fields = WITHOUT_AVATAR_IMAGE)
+    Optional<UserEntity> findById(String userId);
+
+    @Override
+    @Query(value = "{}", fields = WITHOUT_AVATAR_IMAGE)
+    List<UserEntity> findAll();
 }
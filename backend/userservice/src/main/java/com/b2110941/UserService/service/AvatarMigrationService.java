@@ -0,0 +1,186 @@
+package com.b2110941.UserService.service;
+
+import com.b2110941.CommonStorage.BlobStore;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Migrate 1 lần: chuyển ảnh đại diện nhị phân cũ (field avatarImage trong document user) sang kho file
+ * và $unset field đó, để document user chỉ còn vài trăm byte (chạy lúc khởi động qua StartupMigrationRunner).
+ */
+@Service
+public class AvatarMigrationService
+        implements SmartInitializingSingleton, StartupMigrationRunner.LegacyUserFieldMigration {
+
+    static final String MIGRATION_LOCK = "avatar-image-migration";
+    static final String LEGACY_AVATAR_FIELD = "avatarImage";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private StartupMigrationRunner migrationRunner;
+
+    // Tắt được cho môi trường không có MongoDB lúc khởi động (test context)
+    @Value("${avatar.migration.on-startup:true}")
+    private boolean onStartup = true;
+
+    @Value("${avatar.migration.batch-size:100}")
+    private int batchSize = 100;
+
+    @Value("${avatar.migration.lease-seconds:300}")
+    private long leaseSeconds = 300;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (onStartup) {
+            migrateBeforeServing();
+        }
+    }
+
+    /**
+     * Chạy tới khi không còn user nào có avatarImage. User không lưu được ảnh bị bỏ qua và báo trong log
+     * (giữ nguyên field), không chặn service khởi động.
+     * @return số user còn avatarImage
+     */
+    public long migrateBeforeServing() {
+        return migrationRunner.migrateBeforeServing(this);
+    }
+
+    @Override
+    public String name() {
+        return "ảnh đại diện";
+    }
+
+    @Override
+    public String lockName() {
+        return MIGRATION_LOCK;
+    }
+
+    @Override
+    public String legacyField() {
+        return LEGACY_AVATAR_FIELD;
+    }
+
+    @Override
+    public int batchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public Duration lease() {
+        return Duration.ofSeconds(leaseSeconds);
+    }
+
+    // Lô chỉ đọc _id; ảnh được đọc từng user một nên bộ nhớ không phụ thuộc kích thước lô
+    @Override
+    public boolean readsFieldInBatch() {
+        return false;
+    }
+
+    /**
+     * Ghi ảnh của 1 user ra kho file, gán avatarUrl nếu user chưa có rồi bỏ field avatarImage.
+     * @return true nếu field avatarImage của user đã được bỏ
+     */
+    @Override
+    public boolean migrateUser(Document user, String collection) {
+        Object id = user.get("_id");
+        Query one = Query.query(Criteria.where("_id").is(id));
+        one.fields().include(LEGACY_AVATAR_FIELD, "avatarUrl");
+        Document current = mongoTemplate.findOne(one, Document.class, collection);
+        if (current == null || !moveToBlobStore(id, current, collection)) {
+            return false;
+        }
+        return mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(id)),
+                new Update().unset(LEGACY_AVATAR_FIELD), collection).getModifiedCount() > 0;
+    }
+
+    /**
+     * @return true nếu field avatarImage của user có thể bỏ
+     */
+    private boolean moveToBlobStore(Object id, Document user, String collection) {
+        byte[] image = bytesOf(user.get(LEGACY_AVATAR_FIELD));
+        // avatarUrl là ảnh đang được hiển thị; bản nhị phân cũ khi đó chỉ là bản sao thừa
+        if (image == null || image.length == 0 || hasText(user.getString("avatarUrl"))) {
+            return true;
+        }
+
+        try {
+            BlobStore.StoredBlob blob = blobStore.store(new ByteArrayInputStream(image), "avatar." + imageExtension(image));
+            boolean assigned = mongoTemplate.updateFirst(
+                    Query.query(new Criteria().andOperator(
+                            Criteria.where("_id").is(id),
+                            new Criteria().orOperator(
+                                    Criteria.where("avatarUrl").is(null),
+                                    Criteria.where("avatarUrl").is("")))),
+                    new Update().set("avatarUrl", blob.url()),
+                    collection).getModifiedCount() > 0;
+            if (!assigned) {
+                // User vừa upload ảnh mới trong lúc migrate
+                blobStore.release(blob.name());
+            }
+            return true;
+        } catch (Exception e) {
+            System.err.println("❌ Bỏ qua ảnh đại diện của user " + id + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static byte[] bytesOf(Object value) {
+        if (value instanceof Binary binary) {
+            return binary.getData();
+        }
+        return value instanceof byte[] bytes ? bytes : null;
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !value.isBlank();
+    }
+
+    /**
+     * Phần mở rộng theo chữ ký đầu file (ảnh cũ không lưu tên file gốc)
+     */
+    static String imageExtension(byte[] image) {
+        if (startsWith(image, 0, new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF})) {
+            return "jpg";
+        }
+        if (startsWith(image, 0, new byte[]{(byte) 0x89, 'P', 'N', 'G'})) {
+            return "png";
+        }
+        if (startsWith(image, 0, "GIF8".getBytes(StandardCharsets.US_ASCII))) {
+            return "gif";
+        }
+        if (startsWith(image, 0, "RIFF".getBytes(StandardCharsets.US_ASCII))
+                && startsWith(image, 8, "WEBP".getBytes(StandardCharsets.US_ASCII))) {
+            return "webp";
+        }
+        return "bin";
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] prefix) {
+        if (data.length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,165 @@
+package com.b2110941.UserService.service;
+
+import com.b2110941.UserService.entity.MembershipPurchaseRecord;
+import org.bson.Document;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+
+/**
+ * Migrate 1 lần: chuyển mảng countedOrders cũ trong document user sang membership_purchases rồi $unset
+ * (chạy lúc khởi động qua StartupMigrationRunner).
+ * Index của membership_purchases cũng được tạo đồng bộ ở đây (trước migrate): unique (userId, orderId)
+ * là thứ duy nhất chặn 1 đơn hàng bị cộng 2 lần, nên tạo index lỗi thì service không khởi động.
+ */
+@Service
+public class CountedOrdersMigrationService
+        implements SmartInitializingSingleton, StartupMigrationRunner.LegacyUserFieldMigration {
+
+    static final String MIGRATION_LOCK = "counted-orders-migration";
+    static final String LEGACY_FIELD = "countedOrders";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private StartupMigrationRunner migrationRunner;
+
+    // Tắt được cho môi trường không có MongoDB lúc khởi động (test context)
+    @Value("${membership.migration.on-startup:true}")
+    private boolean onStartup = true;
+
+    @Value("${membership.migration.batch-size:500}")
+    private int batchSize = 500;
+
+    @Value("${membership.migration.lease-seconds:300}")
+    private long leaseSeconds = 300;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (onStartup) {
+            ensurePurchaseIndexes();
+            migrateBeforeServing();
+        }
+    }
+
+    /**
+     * Tạo index của membership_purchases; khóa trùng (userId, orderId) còn sót từ trước khi có unique index
+     * được bỏ bớt, giữ bản ghi sớm nhất. Ném IllegalStateException nếu không tạo được index.
+     */
+    public void ensurePurchaseIndexes() {
+        try {
+            int removed = removeDuplicatePurchaseRecords();
+            if (removed > 0) {
+                System.out.println("⚠️ Đã xóa " + removed + " khóa membership_purchases bị trùng");
+            }
+            IndexOperations indexOps = mongoTemplate.indexOps(MembershipPurchaseRecord.class);
+            new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext())
+                    .resolveIndexFor(MembershipPurchaseRecord.class)
+                    .forEach(indexOps::createIndex);
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Không tạo được index cho membership_purchases", e);
+        }
+    }
+
+    private int removeDuplicatePurchaseRecords() {
+        Aggregation duplicates = newAggregation(
+                sort(Sort.by(Sort.Direction.ASC, "createdAt", "_id")),
+                group("userId", "orderId").count().as("count").push("_id").as("ids"),
+                match(Criteria.where("count").gt(1)));
+        int removed = 0;
+        for (Document row : mongoTemplate.aggregate(duplicates, MembershipPurchaseRecord.class, Document.class).getMappedResults()) {
+            List<?> ids = row.getList("ids", Object.class);
+            // Bản ghi đầu tiên (sớm nhất) giữ lại
+            removed += (int) mongoTemplate.remove(
+                    Query.query(Criteria.where("_id").in(ids.subList(1, ids.size()))),
+                    MembershipPurchaseRecord.class).getDeletedCount();
+        }
+        return removed;
+    }
+
+    /**
+     * Chạy tới khi không còn user nào có countedOrders.
+     * User không chuyển được làm service không khởi động: mất khóa idempotency thì đơn cũ có thể bị cộng lại.
+     */
+    public void migrateBeforeServing() {
+        if (migrationRunner.migrateBeforeServing(this) > 0) {
+            throw new IllegalStateException("Không migrate được countedOrders của các user còn lại");
+        }
+    }
+
+    @Override
+    public String name() {
+        return LEGACY_FIELD;
+    }
+
+    @Override
+    public String lockName() {
+        return MIGRATION_LOCK;
+    }
+
+    @Override
+    public String legacyField() {
+        return LEGACY_FIELD;
+    }
+
+    @Override
+    public int batchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public Duration lease() {
+        return Duration.ofSeconds(leaseSeconds);
+    }
+
+    /**
+     * Ghi khóa idempotency cho từng mã đơn cũ (upsert, chạy lại vẫn an toàn) rồi mới $unset,
+     * chỉ khi mảng chưa bị đổi từ lúc đọc.
+     * @return true nếu field countedOrders của user đã được bỏ
+     */
+    @Override
+    public boolean migrateUser(Document user, String collection) {
+        Object userId = user.get("_id");
+        Object orderIds = user.get(LEGACY_FIELD);
+        if (orderIds instanceof Collection<?> ids) {
+            for (Object orderId : ids) {
+                try {
+                    mongoTemplate.upsert(
+                            Query.query(Criteria.where("userId").is(userId.toString()).and("orderId").is(orderId.toString())),
+                            new Update()
+                                    .setOnInsert("orderAmount", 0.0)
+                                    .setOnInsert("purchaseCount", 0)
+                                    .setOnInsert("createdAt", new Date()),
+                            MembershipPurchaseRecord.class);
+                } catch (DuplicateKeyException ignored) {
+                    // Đã có khóa cho đơn này
+                }
+            }
+        }
+        return mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(userId).and(LEGACY_FIELD).is(orderIds)),
+                new Update().unset(LEGACY_FIELD),
+                collection).getModifiedCount() > 0;
+    }
+}
@@ -0,0 +1,67 @@
+package com.b2110941.UserService.service;
+
+import com.b2110941.UserService.entity.SchedulerLock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Khóa phân tán đơn giản trên MongoDB (collection scheduler_locks).
+ * Lấy khóa = 1 upsert có điều kiện lockedUntil <= now: nếu khóa đang bị giữ thì upsert
+ * cố insert trùng _id và bị DuplicateKey, nên chỉ 1 instance thắng.
+ */
+@Service
+public class LeaseLockService {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // Định danh instance này: pid@host + uuid (nhiều instance có thể cùng host trong docker)
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+
+    public boolean tryAcquire(String name, Duration lease) {
+        Date now = new Date();
+        Query free = Query.query(Criteria.where("_id").is(name).and("lockedUntil").lte(now));
+        Update take = new Update()
+                .set("owner", owner)
+                .set("lockedAt", now)
+                .set("lockedUntil", new Date(now.getTime() + lease.toMillis()));
+        try {
+            mongoTemplate.upsert(free, take, SchedulerLock.class);
+            return true;
+        } catch (DuplicateKeyException e) {
+            // Instance khác đang giữ khóa
+            return false;
+        }
+    }
+
+    /**
+     * Gia hạn khóa đang giữ; trả về false nếu đã mất khóa (hết hạn và instance khác đã nhận)
+     */
+    public boolean renew(String name, Duration lease) {
+        return mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(name).and("owner").is(owner)),
+                new Update().set("lockedUntil", new Date(System.currentTimeMillis() + lease.toMillis())),
+                SchedulerLock.class).getMatchedCount() > 0;
+    }
+
+    public void release(String name) {
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(name).and("owner").is(owner)),
+                new Update().set("lockedUntil", new Date()),
+                SchedulerLock.class);
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+}
@@ -1,56 +1,184 @@
 package com.b2110941.UserService.service;
 
+import com.b2110941.UserService.entity.MembershipPurchaseRecord;
 import com.b2110941.UserService.entity.MembershipTier;
 import com.b2110941.UserService.entity.UserEntity;
 import com.b2110941.UserService.payload.MembershipInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
 @Service
 public class MembershipService {
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MembershipStatsService membershipStatsService;
+
+    // Khóa chưa applied quá thời gian này được coi là của request đã chết giữa chừng
+    @Value("${membership.purchase.pending-timeout-seconds:60}")
+    private long pendingTimeoutSeconds = 60;
+
     public MembershipService() {
         System.out.println("🚀 MembershipService: Đã khởi tạo");
     }
 
     /**
-     * Cập nhật thông tin mua hàng của user
-     * @param user User cần cập nhật
+     * Ghi nhận 1 đơn hàng vào membership của user (được gọi từ OrderService khi đơn hàng thành công).
+     * Idempotent theo (userId, orderId) qua collection membership_purchases (unique index + TTL),
+     * còn purchaseCount/totalSpent được cộng bằng $inc nên các request song song không ghi đè nhau.
+     * Khóa được ghi ở trạng thái chưa applied; nếu instance chết trước khi cộng xong, request lặp lại
+     * sau pendingTimeoutSeconds giành lại khóa đó và cộng lại thay vì bị coi là trùng.
+     * @param userId User cần cập nhật
+     * @param orderId Mã đơn hàng (null = không kiểm tra trùng)
      * @param orderAmount Số tiền đơn hàng
-     * @param purchaseCount Số lần mua hàng (mặc định là 1)
-     * @return MembershipInfo mới
+     * @param purchaseCount Số lần mua hàng
+     * @return kết quả sau khi cập nhật, null nếu user không tồn tại
      */
-    public MembershipInfo updatePurchaseInfo(UserEntity user, double orderAmount, int purchaseCount) {
-        // 🗓️ Kiểm tra và reset hạng thành viên theo tháng
-        if (user.needsMonthlyReset()) {
-            user.resetMonthlyStats();
-            System.out.println("🔄 Đã reset hạng thành viên cho user " + user.getUsername() + " theo tháng mới");
+    public PurchaseResult recordPurchase(String userId, String orderId, double orderAmount, int purchaseCount) {
+        // 🗓️ Reset hạng thành viên nếu user chưa được reset trong tháng này (có điều kiện, chạy 1 lần)
+        String currentMonth = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM"));
+        boolean reset = mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(userId).and("lastResetMonth").ne(currentMonth)),
+                monthlyResetUpdate(currentMonth),
+                UserEntity.class).getModifiedCount() > 0;
+        if (reset) {
+            membershipStatsService.invalidate();
         }
-        
-        // Tăng số lần mua hàng
-        int newPurchaseCount = user.getPurchaseCount() + purchaseCount;
-        user.setPurchaseCount(newPurchaseCount);
-        
-        // Cập nhật tổng tiền đã chi
-        double newTotalSpent = user.getTotalSpent() + orderAmount;
-        user.setTotalSpent(newTotalSpent);
-        
-        // Tự động cập nhật hạng thành viên
-        MembershipTier newTier = MembershipTier.getTierByPurchaseCount(newPurchaseCount);
-        user.setMembershipTier(newTier);
-        
-        return new MembershipInfo(newTier, newPurchaseCount, newTotalSpent);
+
+        MembershipPurchaseRecord record = null;
+        if (orderId != null) {
+            MembershipPurchaseRecord pending = new MembershipPurchaseRecord(userId, orderId, orderAmount, purchaseCount);
+            pending.setApplied(false);
+            try {
+                record = mongoTemplate.insert(pending);
+            } catch (DuplicateKeyException e) {
+                record = takeOverStalePending(userId, orderId);
+                if (record == null) {
+                    // Đơn này đã được tính rồi (callback/retry lặp lại) hoặc request khác đang tính
+                    UserEntity user = mongoTemplate.findOne(userById(userId), UserEntity.class);
+                    return user == null ? null : new PurchaseResult(user, getMembershipInfo(user), true);
+                }
+            }
+        }
+
+        UserEntity user;
+        try {
+            user = mongoTemplate.findAndModify(
+                    userById(userId),
+                    new Update()
+                            .inc("purchaseCount", purchaseCount)
+                            .inc("totalSpent", orderAmount)
+                            .set("updatedAt", LocalDateTime.now()),
+                    FindAndModifyOptions.options().returnNew(true),
+                    UserEntity.class);
+        } catch (RuntimeException e) {
+            // Chưa cộng được thì bỏ khóa để lần retry sau vẫn được tính
+            removeRecord(record);
+            throw e;
+        }
+        if (user == null) {
+            removeRecord(record);
+            return null;
+        }
+        markApplied(record);
+
+        // Tự động cập nhật hạng thành viên; chỉ ghi khi purchaseCount vẫn nằm trong khoảng của hạng đó
+        // để request chậm hơn không hạ hạng đã được request khác nâng lên
+        MembershipTier newTier = MembershipTier.getTierByPurchaseCount(user.getPurchaseCount());
+        // Cache thống kê chỉ chuyển user sang hạng mới khi chính request này đổi được hạng (từ hạng thực sự có trong DB);
+        // request đồng thời đọc cùng hạng cũ nhưng không đổi được chỉ cộng chi tiêu
+        boolean moved = false;
+        MembershipTier movedFrom = null;
+        if (newTier != user.getMembershipTier()) {
+            Criteria inTierRange = Criteria.where("purchaseCount").gte(newTier.getMinPurchaseCount());
+            if (newTier.ordinal() + 1 < MembershipTier.values().length) {
+                inTierRange = inTierRange.lt(MembershipTier.values()[newTier.ordinal() + 1].getMinPurchaseCount());
+            }
+            Query tierQuery = Query.query(Criteria.where("_id").is(userId).and("membershipTier").ne(newTier)
+                    .andOperator(inTierRange));
+            tierQuery.fields().include("membershipTier");
+            UserEntity before = mongoTemplate.findAndModify(tierQuery,
+                    new Update().set("membershipTier", newTier),
+                    FindAndModifyOptions.options().returnNew(false),
+                    UserEntity.class);
+            if (before != null) {
+                moved = true;
+                movedFrom = before.getMembershipTier();
+            }
+            user.setMembershipTier(newTier);
+        }
+        membershipStatsService.onPurchase(moved ? movedFrom : newTier, newTier, user.getTotalSpent(), orderAmount);
+
+        return new PurchaseResult(user, new MembershipInfo(newTier, user.getPurchaseCount(), user.getTotalSpent()), false);
+    }
+
+    // Đọc user theo _id, bỏ ảnh nhị phân cũ (avatarImage) nếu document chưa được migrate
+    private static Query userById(String userId) {
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        query.fields().exclude(AvatarMigrationService.LEGACY_AVATAR_FIELD);
+        return query;
     }
 
     /**
-     * Cập nhật thông tin mua hàng của user (overload với purchaseCount mặc định là 1)
-     * @param user User cần cập nhật
-     * @param orderAmount Số tiền đơn hàng
-     * @return MembershipInfo mới
+     * Update reset hạng thành viên theo tháng, giống UserEntity.resetMonthlyStats nhưng thực hiện trên server.
+     * Khóa idempotency trong membership_purchases được giữ nguyên: đơn cũ gọi lại sau reset vẫn không được tính.
      */
-    public MembershipInfo updatePurchaseInfo(UserEntity user, double orderAmount) {
-        return updatePurchaseInfo(user, orderAmount, 1);
+    static Update monthlyResetUpdate(String currentMonth) {
+        return new Update()
+                .set("purchaseCount", 0)
+                .set("totalSpent", 0.0)
+                .set("membershipTier", MembershipTier.BRONZE)
+                .unset("countedOrders")
+                .set("lastResetMonth", currentMonth)
+                .set("updatedAt", LocalDateTime.now());
     }
 
+    // Giành khóa chưa applied đã quá hạn (request trước chết giữa ghi khóa và $inc); null nếu khóa đã applied hoặc còn mới
+    private MembershipPurchaseRecord takeOverStalePending(String userId, String orderId) {
+        Date staleBefore = new Date(System.currentTimeMillis() - pendingTimeoutSeconds * 1000);
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("userId").is(userId).and("orderId").is(orderId)
+                        .and("applied").is(false).and("createdAt").lt(staleBefore)),
+                new Update().set("createdAt", new Date()),
+                FindAndModifyOptions.options().returnNew(true),
+                MembershipPurchaseRecord.class);
+    }
+
+    private void markApplied(MembershipPurchaseRecord record) {
+        if (record != null) {
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(record.getId())),
+                    new Update().set("applied", true), MembershipPurchaseRecord.class);
+        }
+    }
+
+    private void removeRecord(MembershipPurchaseRecord record) {
+        if (record != null) {
+            mongoTemplate.remove(record);
+        }
+    }
+
+    /**
+     * Kết quả ghi nhận đơn hàng
+     * @param user User sau khi cập nhật
+     * @param membershipInfo Thông tin hạng thành viên mới
+     * @param duplicate true nếu đơn hàng đã được tính trước đó (không cộng thêm)
+     */
+    public record PurchaseResult(UserEntity user, MembershipInfo membershipInfo, boolean duplicate) {}
+
     /**
      * Lấy thông tin hạng thành viên hiện tại
      * @param user User cần kiểm tra
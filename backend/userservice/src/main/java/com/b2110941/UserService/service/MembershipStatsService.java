@@ -0,0 +1,125 @@
+package com.b2110941.UserService.service;
+
+import com.b2110941.UserService.entity.MembershipTier;
+import com.b2110941.UserService.entity.UserEntity;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thống kê số user và tổng chi tiêu theo hạng thành viên.
+ * Tính bằng 1 aggregation $group theo membershipTier (không tải users vào bộ nhớ), kết quả được cache
+ * trong thời gian ngắn và cập nhật dần khi 1 đơn hàng làm đổi hạng/chi tiêu; reset theo tháng thì bỏ cache.
+ */
+@Service
+public class MembershipStatsService {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${membership.stats.ttl-ms:60000}")
+    private long ttlMs = 60000;
+
+    // Cache hiện tại (null = chưa có/đã bỏ), chỉ đọc/ghi trong synchronized
+    private EnumMap<MembershipTier, TierStats> cached;
+    private long cachedAt;
+    // Tăng mỗi khi có thay đổi: kết quả aggregation bắt đầu trước thay đổi thì không được cache
+    private long version;
+
+    /**
+     * Lấy thống kê theo hạng (từ cache nếu còn hạn)
+     */
+    public Map<MembershipTier, TierStats> getTierStats() {
+        long startVersion;
+        synchronized (this) {
+            if (cached != null && System.currentTimeMillis() - cachedAt < ttlMs) {
+                return snapshot(cached);
+            }
+            startVersion = version;
+        }
+
+        EnumMap<MembershipTier, TierStats> fresh = aggregate();
+        synchronized (this) {
+            if (version == startVersion) {
+                cached = fresh;
+                cachedAt = System.currentTimeMillis();
+            }
+        }
+        return snapshot(fresh);
+    }
+
+    /**
+     * Cập nhật cache sau khi 1 đơn hàng được tính cho user
+     * @param previousTier Hạng trước đơn hàng
+     * @param newTier Hạng sau đơn hàng
+     * @param totalSpent Tổng chi tiêu của user sau đơn hàng
+     * @param orderAmount Số tiền đơn hàng
+     */
+    public synchronized void onPurchase(MembershipTier previousTier, MembershipTier newTier,
+                                        double totalSpent, double orderAmount) {
+        version++;
+        if (cached == null) {
+            return;
+        }
+        MembershipTier from = previousTier != null ? previousTier : MembershipTier.BRONZE;
+        if (from == newTier) {
+            cached.put(newTier, cached.get(newTier).add(0, orderAmount));
+        } else {
+            // User chuyển hạng: chuyển toàn bộ chi tiêu cũ sang hạng mới
+            cached.put(from, cached.get(from).add(-1, -(totalSpent - orderAmount)));
+            cached.put(newTier, cached.get(newTier).add(1, totalSpent));
+        }
+    }
+
+    /**
+     * Bỏ cache khi nhiều user đổi hạng cùng lúc (reset theo tháng)
+     */
+    public synchronized void invalidate() {
+        version++;
+        cached = null;
+    }
+
+    private EnumMap<MembershipTier, TierStats> aggregate() {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.group("membershipTier").count().as("users").sum("totalSpent").as("totalSpent"));
+
+        EnumMap<MembershipTier, TierStats> stats = new EnumMap<>(MembershipTier.class);
+        for (MembershipTier tier : MembershipTier.values()) {
+            stats.put(tier, TierStats.EMPTY);
+        }
+        for (Document group : mongoTemplate.aggregate(aggregation, UserEntity.class, Document.class)) {
+            // User cũ chưa có membershipTier được tính là Đồng (giống initializeMembershipTier)
+            Object tierName = group.get("_id");
+            MembershipTier tier = tierName != null ? MembershipTier.valueOf(tierName.toString()) : MembershipTier.BRONZE;
+            Number users = group.get("users", Number.class);
+            Number totalSpent = group.get("totalSpent", Number.class);
+            stats.put(tier, stats.get(tier).add(
+                    users != null ? users.longValue() : 0,
+                    totalSpent != null ? totalSpent.doubleValue() : 0.0));
+        }
+        return stats;
+    }
+
+    private static Map<MembershipTier, TierStats> snapshot(EnumMap<MembershipTier, TierStats> stats) {
+        return new LinkedHashMap<>(stats);
+    }
+
+    /**
+     * Số user và tổng chi tiêu của 1 hạng
+     */
+    public record TierStats(long users, double totalSpent) {
+
+        static final TierStats EMPTY = new TierStats(0, 0.0);
+
+        TierStats add(long userDelta, double spentDelta) {
+            return new TierStats(users + userDelta, totalSpent + spentDelta);
+        }
+    }
+}
@@ -1,50 +1,132 @@
 package com.b2110941.UserService.service;
 
 import com.b2110941.UserService.entity.UserEntity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class MonthlyResetService {
 
+    static final String RESET_LOCK = "membership-monthly-reset";
+
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private LeaseLockService leaseLockService;
+
+    @Autowired
+    private MembershipStatsService membershipStatsService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${membership.reset.batch-size:1000}")
+    private int batchSize = 1000;
+
+    @Value("${membership.reset.lease-seconds:300}")
+    private long leaseSeconds = 300;
+
+    private final AtomicLong lastRunProgress = new AtomicLong();
+    private Counter resetUsers;
+    private Counter skippedRuns;
+
+    @PostConstruct
+    public void initMetrics() {
+        resetUsers = meterRegistry.counter("membership.reset.users");
+        skippedRuns = meterRegistry.counter("membership.reset.skipped");
+        // Số user đã reset trong lần chạy hiện tại/gần nhất
+        meterRegistry.gauge("membership.reset.progress", lastRunProgress);
+    }
+
     /**
      * 🗓️ Tự động reset hạng thành viên cho tất cả users vào ngày 1 hàng tháng lúc 00:00
      * Cron: "0 0 1 * * ?" = mỗi ngày 1 hàng tháng lúc 00:00 (Spring Boot 6.x format)
+     * Reset chạy trên MongoDB theo từng lô (keyset theo _id, updateMulti lọc lastResetMonth != tháng hiện tại),
+     * không tải toàn bộ users vào bộ nhớ. Chỉ 1 instance chạy nhờ lease lock; chạy lại nhiều lần vẫn an toàn.
+     * @return số user được reset trong lần chạy này
      */
     @Scheduled(cron = "0 0 1 * * ?")
-    public void resetAllUsersMembershipMonthly() {
+    public int resetAllUsersMembershipMonthly() {
+        String currentMonth = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM"));
+        Duration lease = Duration.ofSeconds(leaseSeconds);
+
+        if (!leaseLockService.tryAcquire(RESET_LOCK, lease)) {
+            System.out.println("⏭️ Bỏ qua reset hạng thành viên: instance khác đang chạy");
+            skippedRuns.increment();
+            return 0;
+        }
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        int resetCount = 0;
+        lastRunProgress.set(0);
         try {
-            System.out.println("🔄 Bắt đầu reset hạng thành viên theo tháng cho tất cả users...");
-            
-            String currentMonth = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM"));
-            System.out.println("📅 Tháng hiện tại: " + currentMonth);
-            
-            List<UserEntity> allUsers = userService.getAllUsers();
-            int resetCount = 0;
-            
-            for (UserEntity user : allUsers) {
-                if (user.needsMonthlyReset()) {
-                    user.resetMonthlyStats();
-                    userService.updateUser(user);
-                    resetCount++;
-                    System.out.println("✅ Đã reset hạng thành viên cho user: " + user.getUsername());
+            System.out.println("🔄 Bắt đầu reset hạng thành viên theo tháng " + currentMonth);
+
+            Object lastId = null;
+            while (true) {
+                // Chỉ lấy _id của 1 lô user chưa reset trong tháng, tiếp sau lô trước theo _id
+                Criteria notReset = Criteria.where("lastResetMonth").ne(currentMonth);
+                if (lastId != null) {
+                    notReset = notReset.and("_id").gt(lastId);
+                }
+                Query pending = Query.query(notReset).with(Sort.by("_id")).limit(batchSize);
+                pending.fields().include("_id");
+                List<Object> ids = mongoTemplate.find(pending, UserEntity.class).stream()
+                        .map(user -> (Object) user.getUserId())
+                        .toList();
+                if (ids.isEmpty()) {
+                    break;
+                }
+                lastId = ids.get(ids.size() - 1);
+
+                long modified = mongoTemplate.updateMulti(
+                        Query.query(Criteria.where("_id").in(ids).and("lastResetMonth").ne(currentMonth)),
+                        MembershipService.monthlyResetUpdate(currentMonth),
+                        UserEntity.class).getModifiedCount();
+                resetCount += (int) modified;
+                resetUsers.increment(modified);
+                lastRunProgress.set(resetCount);
+                System.out.println("📊 Đã reset " + resetCount + " users");
+
+                // modified có thể bằng 0 khi cả lô vừa được reset bởi request mua hàng: vẫn đi tiếp lô sau
+                if (ids.size() < batchSize) {
+                    break;
+                }
+                if (!leaseLockService.renew(RESET_LOCK, lease)) {
+                    // Mất khóa: instance khác sẽ tiếp tục phần còn lại
+                    System.err.println("⚠️ Mất lease lock khi đang reset, dừng lại");
+                    break;
                 }
             }
-            
-            System.out.println("🎉 Hoàn thành reset hạng thành viên theo tháng!");
-            System.out.println("📊 Tổng số users được reset: " + resetCount + "/" + allUsers.size());
-            
-        } catch (Exception e) {
-            System.err.println("❌ Lỗi khi reset hạng thành viên theo tháng: " + e.getMessage());
-            e.printStackTrace();
+
+            if (resetCount > 0) {
+                membershipStatsService.invalidate();
+            }
+            System.out.println("🎉 Hoàn thành reset hạng thành viên theo tháng! Tổng số users được reset: " + resetCount);
+            return resetCount;
+        } finally {
+            sample.stop(meterRegistry.timer("membership.reset.duration"));
+            leaseLockService.release(RESET_LOCK);
         }
     }
 
@@ -57,6 +139,7 @@ public class MonthlyResetService {
             if (user != null) {
                 user.resetMonthlyStats();
                 userService.updateUser(user);
+                membershipStatsService.invalidate();
                 System.out.println("✅ Đã reset thủ công hạng thành viên cho user: " + user.getUsername());
             } else {
                 System.err.println("❌ Không tìm thấy user với ID: " + userId);
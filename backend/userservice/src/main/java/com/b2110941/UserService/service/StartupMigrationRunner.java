@@ -0,0 +1,146 @@
+package com.b2110941.UserService.service;
+
+import com.b2110941.UserService.entity.UserEntity;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Khung chung cho các migrate 1 lần bỏ 1 field cũ khỏi document user.
+ * UserEntity không còn map field cũ nên 1 lần userRepository.save (ghi đè cả document) sẽ làm mất nó;
+ * vì vậy migrate chạy đồng bộ lúc khởi động, trước khi web server nhận request.
+ * Duyệt các user còn field theo lô (keyset theo _id) dưới lease lock: 1 instance chạy, instance khác chờ tới khi xong.
+ * Chạy lại nhiều lần vẫn an toàn.
+ */
+@Service
+public class StartupMigrationRunner {
+
+    static final int LOCK_BUSY = -1;
+
+    private static final long LOCK_WAIT_MS = 2000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private LeaseLockService leaseLockService;
+
+    /**
+     * Chạy tới khi không còn user nào có field cũ, hoặc 1 lượt không chuyển thêm được user nào
+     * (instance khác đang giữ khóa thì chờ nó xong).
+     * @return số user vẫn còn field cũ vì không chuyển được
+     */
+    public long migrateBeforeServing(LegacyUserFieldMigration migration) {
+        Query remaining = Query.query(Criteria.where(migration.legacyField()).exists(true));
+        String collection = mongoTemplate.getCollectionName(UserEntity.class);
+        while (mongoTemplate.exists(remaining, collection)) {
+            int migrated = runOnce(migration);
+            if (migrated == LOCK_BUSY) {
+                System.out.println("⏳ Instance khác đang migrate " + migration.name() + ", chờ...");
+                try {
+                    Thread.sleep(LOCK_WAIT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Bị ngắt khi chờ migrate " + migration.name(), e);
+                }
+            } else if (migrated == 0) {
+                break;
+            }
+        }
+        long skipped = mongoTemplate.count(remaining, collection);
+        if (skipped > 0) {
+            System.err.println("⚠️ Còn " + skipped + " users chưa migrate được " + migration.name());
+        }
+        return skipped;
+    }
+
+    /**
+     * 1 lượt qua các user còn field cũ
+     * @return số user đã được bỏ field cũ trong lượt này, LOCK_BUSY nếu instance khác đang giữ khóa
+     */
+    int runOnce(LegacyUserFieldMigration migration) {
+        Duration lease = migration.lease();
+        if (!leaseLockService.tryAcquire(migration.lockName(), lease)) {
+            return LOCK_BUSY;
+        }
+
+        String collection = mongoTemplate.getCollectionName(UserEntity.class);
+        int migrated = 0;
+        Object lastId = null;
+        try {
+            while (true) {
+                // Keyset theo _id: user bị bỏ qua không bị đọc lại trong cùng lượt
+                Criteria pending = Criteria.where(migration.legacyField()).exists(true);
+                if (lastId != null) {
+                    pending = pending.and("_id").gt(lastId);
+                }
+                Query batch = Query.query(pending).with(Sort.by("_id")).limit(migration.batchSize());
+                batch.fields().include("_id");
+                if (migration.readsFieldInBatch()) {
+                    batch.fields().include(migration.legacyField());
+                }
+                List<Document> users = mongoTemplate.find(batch, Document.class, collection);
+                if (users.isEmpty()) {
+                    break;
+                }
+                lastId = users.get(users.size() - 1).get("_id");
+
+                for (Document user : users) {
+                    if (migration.migrateUser(user, collection)) {
+                        migrated++;
+                    }
+                }
+                System.out.println("📊 Đã migrate " + migration.name() + " của " + migrated + " users");
+
+                if (users.size() < migration.batchSize()) {
+                    break;
+                }
+                if (!leaseLockService.renew(migration.lockName(), lease)) {
+                    System.err.println("⚠️ Mất lease lock khi đang migrate " + migration.name() + ", dừng lại");
+                    break;
+                }
+            }
+            if (migrated > 0) {
+                System.out.println("🎉 Hoàn thành migrate " + migration.name() + "! Tổng số users: " + migrated);
+            }
+            return migrated;
+        } finally {
+            leaseLockService.release(migration.lockName());
+        }
+    }
+
+    /**
+     * 1 migrate bỏ field cũ khỏi document user
+     */
+    public interface LegacyUserFieldMigration {
+
+        // Tên dùng trong log
+        String name();
+
+        String lockName();
+
+        String legacyField();
+
+        int batchSize();
+
+        Duration lease();
+
+        // false khi field lớn: lô chỉ đọc _id, migrateUser tự đọc từng user
+        default boolean readsFieldInBatch() {
+            return true;
+        }
+
+        /**
+         * Chuyển dữ liệu của 1 user và bỏ field cũ
+         * @return true nếu field cũ của user đã được bỏ
+         */
+        boolean migrateUser(Document user, String collection);
+    }
+}
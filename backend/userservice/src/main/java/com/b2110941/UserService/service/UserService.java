@@ -1,19 +1,40 @@
 package com.b2110941.UserService.service;
 
+import com.b2110941.UserService.entity.MembershipTier;
 import com.b2110941.UserService.entity.UserEntity;
+import com.b2110941.UserService.payload.request.UserSyncRequest;
 import com.b2110941.UserService.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.regex.Pattern;
 
 @Service
 public class UserService {
 
+    // Các field trả về cho danh sách user (bỏ addresses, password...)
+    private static final String[] SUMMARY_FIELDS = {
+            "email", "username", "firstName", "lastName", "imageUrl", "avatarUrl", "role",
+            "active", "membershipTier", "purchaseCount", "totalSpent", "createdAt"
+    };
+
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     public UserService() {
         System.out.println("🚀 UserService: Đã khởi tạo");
     }
@@ -46,6 +67,120 @@ public class UserService {
         return userRepository.findAll();
     }
 
+    /**
+     * Lấy 1 trang users theo keyset (_id > afterUserId), chỉ đọc các field rút gọn
+     * @param afterUserId userId cuối của trang trước (null = trang đầu)
+     * @param limit Số user tối đa
+     * @param role Lọc theo role (null = tất cả)
+     * @param active Lọc theo trạng thái hoạt động (null = tất cả)
+     * @param tier Lọc theo hạng thành viên (null = tất cả)
+     * @param search Tiền tố của username/họ/tên/email, không phân biệt hoa thường (null = không lọc)
+     */
+    public List<UserEntity> getUserPage(String afterUserId, int limit, String role, Boolean active,
+                                        MembershipTier tier, String search) {
+        List<Criteria> filters = new ArrayList<>();
+        if (afterUserId != null) {
+            filters.add(Criteria.where("_id").gt(afterUserId));
+        }
+        if (role != null) {
+            filters.add(Criteria.where("role").is(role));
+        }
+        if (active != null) {
+            // User cũ không có field active được coi là đang hoạt động
+            filters.add(active ? Criteria.where("active").ne(false) : Criteria.where("active").is(false));
+        }
+        if (tier != null) {
+            filters.add(Criteria.where("membershipTier").is(tier));
+        }
+        if (search != null) {
+            Pattern prefix = Pattern.compile("^" + Pattern.quote(search), Pattern.CASE_INSENSITIVE);
+            filters.add(new Criteria().orOperator(
+                    Criteria.where("username").regex(prefix),
+                    Criteria.where("firstName").regex(prefix),
+                    Criteria.where("lastName").regex(prefix),
+                    Criteria.where("email").regex(prefix)));
+        }
+
+        Query query = new Query();
+        if (!filters.isEmpty()) {
+            query.addCriteria(new Criteria().andOperator(filters));
+        }
+        query.with(Sort.by(Sort.Direction.ASC, "_id")).limit(limit);
+        query.fields().include(SUMMARY_FIELDS);
+        return mongoTemplate.find(query, UserEntity.class);
+    }
+
+    /**
+     * Đồng bộ thông tin từ Clerk bằng 1 lệnh upsert theo userId, chỉ $set các field hồ sơ.
+     * purchaseCount, totalSpent, membershipTier, lastResetMonth do MembershipService cập nhật đồng thời
+     * nên chỉ được gán giá trị mặc định khi tạo user mới, không bao giờ bị ghi đè.
+     */
+    public SyncResult syncProfile(UserSyncRequest request) {
+        LocalDateTime now = LocalDateTime.now();
+        String role = request.getRole() != null ? request.getRole() : "user";
+        Update update = new Update()
+                .set("email", request.getEmail())
+                .set("username", request.getUsername())
+                .set("firstName", request.getFirstName())
+                .set("lastName", request.getLastName())
+                .set("imageUrl", request.getImageUrl())
+                .set("provider", request.getProvider())
+                .set("role", role)
+                .set("updatedAt", now)
+                .setOnInsert("purchaseCount", 0)
+                .setOnInsert("totalSpent", 0.0)
+                .setOnInsert("membershipTier", MembershipTier.BRONZE)
+                .setOnInsert("active", true)
+                .setOnInsert("createdAt", now);
+        // Các trường bổ sung từ custom registration
+        if (request.getPhone() != null) {
+            update.set("phone", request.getPhone());
+        }
+        if (request.getDateOfBirth() != null) {
+            update.set("dateOfBirth", request.getDateOfBirth());
+        }
+        if (request.getGender() != null) {
+            update.set("gender", request.getGender());
+        }
+        UserEntity previous = mongoTemplate.findAndModify(byUserId(request.getUserId()), update,
+                FindAndModifyOptions.options().upsert(true).returnNew(false), UserEntity.class);
+        // Đồng bộ không đổi active (chỉ gán khi tạo mới), nên quyền chỉ đổi khi user mới được tạo hoặc role khác trước
+        boolean accessChanged = previous == null || !Objects.equals(previous.getRole(), role);
+        return new SyncResult(previous, accessChanged);
+    }
+
+    /**
+     * Kết quả đồng bộ hồ sơ từ Clerk
+     * @param previous User trước khi đồng bộ, null nếu vừa được tạo
+     * @param accessChanged true nếu role/active có thể đã đổi (cần bỏ principal đã cache của user)
+     */
+    public record SyncResult(UserEntity previous, boolean accessChanged) {}
+
+    /**
+     * Cập nhật 1 phần hồ sơ user ($set các field được gửi lên), trả về user sau khi cập nhật hoặc null nếu không tồn tại
+     */
+    public UserEntity updateProfile(String userId, Update update) {
+        update.set("updatedAt", LocalDateTime.now());
+        return mongoTemplate.findAndModify(byUserId(userId), update,
+                FindAndModifyOptions.options().returnNew(true), UserEntity.class);
+    }
+
+    /**
+     * Đổi avatarUrl, trả về user trước khi đổi (để giải phóng avatar cũ) hoặc null nếu không tồn tại
+     */
+    public UserEntity replaceAvatarUrl(String userId, String avatarUrl) {
+        return mongoTemplate.findAndModify(byUserId(userId),
+                new Update().set("avatarUrl", avatarUrl).set("updatedAt", LocalDateTime.now()),
+                FindAndModifyOptions.options().returnNew(false), UserEntity.class);
+    }
+
+    // Không đọc field avatarImage cũ (ảnh nhị phân) của các document chưa được migrate
+    private Query byUserId(String userId) {
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        query.fields().exclude("avatarImage");
+        return query;
+    }
+
     /**
      * Cập nhật user
      */
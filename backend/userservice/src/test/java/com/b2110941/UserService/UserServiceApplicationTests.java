@@ -3,7 +3,10 @@ package com.b2110941.UserService;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+// Không có MongoDB trong context test: bỏ migrate đồng bộ lúc khởi động
+@SpringBootTest(properties = {
+		"membership.migration.on-startup=false",
+		"avatar.migration.on-startup=false"})
 class UserServiceApplicationTests {
 
 	@Test
@@ -0,0 +1,82 @@
+package com.b2110941.UserService.configuration.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AuthenticatedPrincipalCacheTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    @Test
+    void countsHitsAndMissesAndExpiresWithToken() {
+        AuthenticatedPrincipalCache cache = new AuthenticatedPrincipalCache(registry, 100, 60, now::get);
+        String hash = AuthenticatedPrincipalCache.hash("token-a");
+
+        assertNull(cache.get(hash));
+        // Token hết hạn sau 10s, sớm hơn TTL 60s
+        cache.put(hash, claims("user_1", now.get() + 10_000), user("user_1"), cache.epoch());
+        assertNotNull(cache.get(hash));
+        assertNotNull(cache.get(hash));
+
+        now.addAndGet(10_000);
+        assertNull(cache.get(hash));
+
+        assertEquals(2, registry.get("auth.principal.cache.requests").tag("result", "hit").counter().count());
+        assertEquals(2, registry.get("auth.principal.cache.requests").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void evictsAllTokensOfUserAndDropsStaleLoads() {
+        AuthenticatedPrincipalCache cache = new AuthenticatedPrincipalCache(registry, 100, 60, now::get);
+        long epoch = cache.epoch();
+        cache.put("a1", claims("user_1", null), user("user_1"), epoch);
+        cache.put("a2", claims("user_1", null), user("user_1"), epoch);
+        cache.put("b1", claims("user_2", null), user("user_2"), epoch);
+
+        cache.evictUser("user_1");
+        assertNull(cache.get("a1"));
+        assertNull(cache.get("a2"));
+        assertNotNull(cache.get("b1"));
+        assertEquals(2, registry.get("auth.principal.cache.evictions").counter().count());
+
+        // Dữ liệu tải trước lần evict (role cũ) không được đưa vào cache
+        cache.put("a3", claims("user_1", null), user("user_1"), epoch);
+        assertNull(cache.get("a3"));
+    }
+
+    @Test
+    void staysWithinMaxEntries() {
+        AuthenticatedPrincipalCache cache = new AuthenticatedPrincipalCache(registry, 2, 60, now::get);
+        cache.put("t1", claims("u1", null), user("u1"), cache.epoch());
+        cache.put("t2", claims("u2", null), user("u2"), cache.epoch());
+        cache.get("t1");
+        cache.put("t3", claims("u3", null), user("u3"), cache.epoch());
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("t2"));
+        assertEquals(2.0, registry.get("auth.principal.cache.size").gauge().value());
+    }
+
+    private static Claims claims(String subject, Long expiresAt) {
+        Claims claims = Jwts.claims().setSubject(subject);
+        if (expiresAt != null) {
+            claims.setExpiration(new Date(expiresAt));
+        }
+        return claims;
+    }
+
+    private static UserDetailsImpl user(String userId) {
+        return UserDetailsImpl.builder().userId(userId).username(userId).password("").authorities(List.of()).build();
+    }
+}
@@ -0,0 +1,128 @@
+package com.b2110941.UserService.configuration.security;
+
+import com.sun.net.httpserver.HttpServer;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.jose4j.jwk.JsonWebKeySet;
+import org.jose4j.jwk.RsaJsonWebKey;
+import org.jose4j.jwk.RsaJwkGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JwtTokenProviderTests {
+
+    private static final String ISSUER = "https://clerk.test";
+
+    private HttpServer jwksServer;
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final AtomicReference<String> jwksBody = new AtomicReference<>();
+    private volatile int jwksStatus = 200;
+
+    @BeforeEach
+    void startJwksStub() throws Exception {
+        jwksServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        jwksServer.createContext("/.well-known/jwks.json", exchange -> {
+            fetches.incrementAndGet();
+            byte[] body = jwksBody.get().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(jwksStatus, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        jwksServer.start();
+    }
+
+    @AfterEach
+    void stopJwksStub() {
+        jwksServer.stop(0);
+    }
+
+    @Test
+    void fetchesJwksOnceAndValidatesByKid() throws Exception {
+        RsaJsonWebKey first = rsaKey("key-1");
+        RsaJsonWebKey second = rsaKey("key-2");
+        jwksBody.set(new JsonWebKeySet(first, second).toJson());
+        JwtTokenProvider provider = provider(30000);
+
+        for (int i = 0; i < 20; i++) {
+            Claims claims = provider.validateAndGetClaims(token(i % 2 == 0 ? first : second, ISSUER));
+            assertNotNull(claims);
+            assertEquals("user_1", claims.getSubject());
+        }
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    void refreshesOnUnknownKidWithRateLimit() throws Exception {
+        RsaJsonWebKey oldKey = rsaKey("old");
+        RsaJsonWebKey rotated = rsaKey("rotated");
+        jwksBody.set(new JsonWebKeySet(oldKey).toJson());
+        JwtTokenProvider provider = provider(60000);
+        provider.scheduledRefresh();
+        assertEquals(1, fetches.get());
+
+        // Khóa mới xuất hiện nhưng vừa tải xong: chưa được tải lại
+        jwksBody.set(new JsonWebKeySet(oldKey, rotated).toJson());
+        assertFalse(provider.validateToken(token(rotated, ISSUER)));
+        assertFalse(provider.validateToken(token(rsaKey("forged"), ISSUER)));
+        assertEquals(1, fetches.get());
+
+        // Hết khoảng giới hạn: kid lạ kích hoạt tải lại ngay
+        jwksBody.set(new JsonWebKeySet(oldKey).toJson());
+        JwtTokenProvider eagerProvider = provider(0);
+        eagerProvider.scheduledRefresh();
+        jwksBody.set(new JsonWebKeySet(oldKey, rotated).toJson());
+        assertTrue(eagerProvider.validateToken(token(rotated, ISSUER)));
+        assertEquals(3, fetches.get());
+    }
+
+    @Test
+    void keepsCachedKeysDuringJwksOutage() throws Exception {
+        RsaJsonWebKey key = rsaKey("key-1");
+        jwksBody.set(new JsonWebKeySet(key).toJson());
+        JwtTokenProvider provider = provider(0);
+        provider.scheduledRefresh();
+
+        jwksStatus = 503;
+        jwksBody.set("unavailable");
+        provider.scheduledRefresh();
+
+        assertTrue(provider.validateToken(token(key, ISSUER)));
+        assertNull(provider.validateAndGetClaims(token(key, "https://other-issuer")));
+    }
+
+    private JwtTokenProvider provider(long minRefreshIntervalMs) {
+        String jwksUrl = "http://127.0.0.1:" + jwksServer.getAddress().getPort() + "/.well-known/jwks.json";
+        return new JwtTokenProvider(jwksUrl, ISSUER, minRefreshIntervalMs, 1000, 1000);
+    }
+
+    private static RsaJsonWebKey rsaKey(String kid) throws Exception {
+        RsaJsonWebKey jwk = RsaJwkGenerator.generateJwk(2048);
+        jwk.setKeyId(kid);
+        jwk.setUse("sig");
+        return jwk;
+    }
+
+    private static String token(RsaJsonWebKey key, String issuer) {
+        return Jwts.builder()
+                .setHeaderParam("kid", key.getKeyId())
+                .setSubject("user_1")
+                .setIssuer(issuer)
+                .setExpiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(SignatureAlgorithm.RS256, key.getPrivateKey())
+                .compact();
+    }
+}
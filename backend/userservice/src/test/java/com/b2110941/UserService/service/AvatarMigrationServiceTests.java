@@ -0,0 +1,195 @@
+package com.b2110941.UserService.service;
+
+import com.b2110941.CommonStorage.BlobStore;
+import com.b2110941.CommonStorage.BlobStoreProperties;
+import com.b2110941.UserService.entity.UserEntity;
+import com.b2110941.UserService.repository.UserRepository;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AvatarMigrationServiceTests {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 1, 2, 3};
+    private static final byte[] GIF = "GIF89a".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path uploads;
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private BlobStore blobStore;
+    private StartupMigrationRunner migrationRunner;
+    private AvatarMigrationService migrationService;
+
+    @BeforeEach
+    void setUp() {
+        server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+        client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        mongoTemplate = new MongoTemplate(client, "avatar_migration_test");
+
+        BlobStoreProperties properties = new BlobStoreProperties();
+        properties.setDirectory(uploads.toString());
+        properties.setUrlPrefix("/uploads/avatars");
+        // Ảnh GIF không lưu được (mô phỏng 1 ảnh lỗi giữa các ảnh bình thường)
+        blobStore = new BlobStore(properties, mongoTemplate) {
+            @Override
+            public StoredBlob store(InputStream content, String originalFilename) throws IOException {
+                if (originalFilename.endsWith(".gif")) {
+                    throw new IOException("disk full");
+                }
+                return super.store(content, originalFilename);
+            }
+        };
+
+        LeaseLockService leaseLockService = new LeaseLockService();
+        ReflectionTestUtils.setField(leaseLockService, "mongoTemplate", mongoTemplate);
+        migrationRunner = new StartupMigrationRunner();
+        ReflectionTestUtils.setField(migrationRunner, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(migrationRunner, "leaseLockService", leaseLockService);
+
+        migrationService = new AvatarMigrationService();
+        ReflectionTestUtils.setField(migrationService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(migrationService, "blobStore", blobStore);
+        ReflectionTestUtils.setField(migrationService, "migrationRunner", migrationRunner);
+        ReflectionTestUtils.setField(migrationService, "batchSize", 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        blobStore.close();
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    void movesLegacyBytesToBlobStoreAndUnsetsField() throws Exception {
+        insertUser("a", PNG, null);
+        insertUser("b", PNG, "/uploads/avatars/1700000000000_me.jpg");
+        insertUser("c", new byte[0], null);
+        insertUser("d", null, null);
+        insertUser("e", PNG, "");
+
+        assertEquals(4, migrationRunner.runOnce(migrationService));
+
+        for (String id : new String[]{"a", "b", "c", "d", "e"}) {
+            assertFalse(rawUser(id).containsKey(AvatarMigrationService.LEGACY_AVATAR_FIELD), "Còn avatarImage: " + id);
+        }
+
+        // a và e cùng ảnh: chỉ lưu 1 file, mỗi user 1 tham chiếu
+        String avatarUrl = rawUser("a").getString("avatarUrl");
+        assertTrue(avatarUrl.startsWith("/uploads/avatars/") && avatarUrl.endsWith(".png"), avatarUrl);
+        assertEquals(avatarUrl, rawUser("e").getString("avatarUrl"));
+        Path file = blobStore.resolve(avatarUrl.substring(avatarUrl.lastIndexOf('/') + 1));
+        assertArrayEquals(PNG, Files.readAllBytes(file));
+        assertEquals(2, mongoTemplate.findById(file.getFileName().toString(), Document.class, "blob_refs")
+                .get("refs", Number.class).intValue());
+
+        // User đã có avatarUrl giữ nguyên ảnh đang dùng
+        assertEquals("/uploads/avatars/1700000000000_me.jpg", rawUser("b").getString("avatarUrl"));
+        assertFalse(rawUser("c").containsKey("avatarUrl"));
+
+        assertEquals(0, migrationRunner.runOnce(migrationService));
+    }
+
+    @Test
+    void fullSaveAfterStartupMigrationKeepsTheAvatar() {
+        insertUser("legacy", PNG, null);
+        UserRepository repository = new MongoRepositoryFactory(mongoTemplate).getRepository(UserRepository.class);
+
+        migrationService.migrateBeforeServing();
+
+        // Endpoint ghi kiểu đọc-sửa-save cả document: ảnh đã nằm ở avatarUrl nên không mất
+        UserEntity user = repository.findByUserId("legacy").orElseThrow();
+        user.setFirstName("Cũ");
+        repository.save(user);
+        String avatarUrl = rawUser("legacy").getString("avatarUrl");
+        assertTrue(avatarUrl.startsWith("/uploads/avatars/"), avatarUrl);
+        assertArrayEquals(PNG, readBlob(avatarUrl));
+    }
+
+    @Test
+    void startupSkipsAvatarsThatCannotBeStored() {
+        insertUser("a", PNG, null);
+        insertUser("broken", GIF, null);
+        insertUser("c", PNG, null);
+
+        // Ảnh lỗi được giữ trong document và báo lại, các user khác vẫn được migrate
+        assertEquals(1, migrationService.migrateBeforeServing());
+        assertTrue(rawUser("broken").containsKey(AvatarMigrationService.LEGACY_AVATAR_FIELD));
+        assertFalse(rawUser("broken").containsKey("avatarUrl"));
+        assertFalse(rawUser("a").containsKey(AvatarMigrationService.LEGACY_AVATAR_FIELD));
+        assertFalse(rawUser("c").containsKey(AvatarMigrationService.LEGACY_AVATAR_FIELD));
+        assertTrue(rawUser("c").getString("avatarUrl").endsWith(".png"));
+    }
+
+    @Test
+    void repositoryReadsStillWorkOnUnmigratedDocuments() {
+        insertUser("legacy", PNG, null);
+        UserRepository repository = new MongoRepositoryFactory(mongoTemplate).getRepository(UserRepository.class);
+
+        assertEquals("legacy@shop.vn", repository.findByUserId("legacy").orElseThrow().getEmail());
+        assertEquals("legacy", repository.findByEmail("legacy@shop.vn").orElseThrow().getUserId());
+        assertTrue(repository.findById("legacy").isPresent());
+        assertEquals(1, repository.findAll().size());
+    }
+
+    @Test
+    void detectsImageTypeFromSignature() {
+        assertEquals("png", AvatarMigrationService.imageExtension(PNG));
+        assertEquals("jpg", AvatarMigrationService.imageExtension(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 0}));
+        assertEquals("gif", AvatarMigrationService.imageExtension("GIF89a".getBytes()));
+        assertEquals("webp", AvatarMigrationService.imageExtension("RIFF\0\0\0\0WEBPVP8 ".getBytes()));
+        assertEquals("bin", AvatarMigrationService.imageExtension(Arrays.copyOf(PNG, 2)));
+    }
+
+    private void insertUser(String userId, byte[] avatarImage, String avatarUrl) {
+        Document user = new Document("_id", userId)
+                .append("email", userId + "@shop.vn")
+                .append("username", userId);
+        if (avatarImage != null) {
+            user.append(AvatarMigrationService.LEGACY_AVATAR_FIELD, new Binary(avatarImage));
+        }
+        if (avatarUrl != null) {
+            user.append("avatarUrl", avatarUrl);
+        }
+        mongoTemplate.insert(user, mongoTemplate.getCollectionName(UserEntity.class));
+    }
+
+    private byte[] readBlob(String url) {
+        try {
+            return Files.readAllBytes(blobStore.resolve(url.substring(url.lastIndexOf('/') + 1)));
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private Document rawUser(String userId) {
+        return mongoTemplate.findById(userId, Document.class, mongoTemplate.getCollectionName(UserEntity.class));
+    }
+}
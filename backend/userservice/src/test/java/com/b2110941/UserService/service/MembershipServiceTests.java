@@ -0,0 +1,269 @@
+package com.b2110941.UserService.service;
+
+import com.b2110941.UserService.entity.MembershipPurchaseRecord;
+import com.b2110941.UserService.entity.MembershipTier;
+import com.b2110941.UserService.entity.UserEntity;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MembershipServiceTests {
+
+    private static final String CURRENT_MONTH = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM"));
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private MembershipStatsService statsService;
+    private MembershipService membershipService;
+
+    @BeforeEach
+    void setUp() {
+        server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+        client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        mongoTemplate = new MongoTemplate(client, "membership_test");
+        new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext())
+                .resolveIndexFor(MembershipPurchaseRecord.class)
+                .forEach(mongoTemplate.indexOps(MembershipPurchaseRecord.class)::createIndex);
+
+        statsService = new MembershipStatsService();
+        ReflectionTestUtils.setField(statsService, "mongoTemplate", mongoTemplate);
+
+        membershipService = new MembershipService();
+        ReflectionTestUtils.setField(membershipService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(membershipService, "membershipStatsService", statsService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    void countsEachOrderOnlyOnce() {
+        saveUser("u1", CURRENT_MONTH, 4);
+
+        MembershipService.PurchaseResult first = membershipService.recordPurchase("u1", "order-1", 200_000.0, 1);
+        assertFalse(first.duplicate());
+        assertEquals(5, first.membershipInfo().getCurrentPurchaseCount());
+        assertEquals("SILVER", first.membershipInfo().getTierName());
+
+        MembershipService.PurchaseResult retry = membershipService.recordPurchase("u1", "order-1", 200_000.0, 1);
+        assertTrue(retry.duplicate());
+
+        UserEntity stored = mongoTemplate.findById("u1", UserEntity.class);
+        assertEquals(5, stored.getPurchaseCount());
+        assertEquals(4_200_000.0, stored.getTotalSpent());
+        assertEquals(MembershipTier.SILVER, stored.getMembershipTier());
+        assertEquals(1, mongoTemplate.count(new Query(), MembershipPurchaseRecord.class));
+        assertTrue(mongoTemplate.findOne(new Query(), MembershipPurchaseRecord.class).getApplied());
+    }
+
+    @Test
+    void concurrentPurchasesAreNotLost() throws Exception {
+        saveUser("u1", CURRENT_MONTH, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<MembershipService.PurchaseResult>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                String orderId = "order-" + i;
+                results.add(pool.submit(() -> membershipService.recordPurchase("u1", orderId, 1_000.0, 1)));
+            }
+            for (Future<MembershipService.PurchaseResult> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        UserEntity stored = mongoTemplate.findById("u1", UserEntity.class);
+        assertEquals(20, stored.getPurchaseCount());
+        assertEquals(20_000.0, stored.getTotalSpent());
+        assertEquals(MembershipTier.DIAMOND, stored.getMembershipTier());
+    }
+
+    @Test
+    void concurrentTierChangesMoveCachedUserOnce() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            saveUser("u" + i, CURRENT_MONTH, 4);
+        }
+        assertEquals(10, statsService.getTierStats().get(MembershipTier.BRONZE).users());
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<MembershipService.PurchaseResult>> results = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                String userId = "u" + i;
+                // Cả 2 đơn cùng đọc hạng Đồng và cùng đưa user qua mốc hạng Bạc
+                for (int order = 0; order < 2; order++) {
+                    String orderId = userId + "-order-" + order;
+                    results.add(pool.submit(() -> membershipService.recordPurchase(userId, orderId, 1_000.0, 1)));
+                }
+            }
+            for (Future<MembershipService.PurchaseResult> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Map<MembershipTier, MembershipStatsService.TierStats> cached = statsService.getTierStats();
+        assertEquals(0, cached.get(MembershipTier.BRONZE).users());
+        assertEquals(10, cached.get(MembershipTier.SILVER).users());
+    }
+
+    @Test
+    void resetsStatsOfPreviousMonthBeforeCounting() {
+        saveUser("u1", "2000-01", 12);
+
+        MembershipService.PurchaseResult result = membershipService.recordPurchase("u1", "order-1", 50_000.0, 1);
+
+        assertEquals(1, result.membershipInfo().getCurrentPurchaseCount());
+        assertEquals(50_000.0, result.membershipInfo().getTotalSpent());
+        assertEquals(MembershipTier.BRONZE, mongoTemplate.findById("u1", UserEntity.class).getMembershipTier());
+        assertEquals(CURRENT_MONTH, mongoTemplate.findById("u1", UserEntity.class).getLastResetMonth());
+    }
+
+    @Test
+    void migratesLegacyCountedOrdersIntoPurchaseRecords() {
+        for (int i = 1; i <= 3; i++) {
+            saveUser("u" + i, CURRENT_MONTH, 2);
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is("u" + i)),
+                    new Update().set("countedOrders", List.of("old-1", "old-2")), UserEntity.class);
+        }
+        // Khóa của 1 đơn đã có sẵn: upsert không tạo trùng
+        mongoTemplate.insert(new MembershipPurchaseRecord("u1", "old-1", 100.0, 1));
+
+        LeaseLockService leaseLockService = new LeaseLockService();
+        ReflectionTestUtils.setField(leaseLockService, "mongoTemplate", mongoTemplate);
+        StartupMigrationRunner migrationRunner = new StartupMigrationRunner();
+        ReflectionTestUtils.setField(migrationRunner, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(migrationRunner, "leaseLockService", leaseLockService);
+        CountedOrdersMigrationService migrationService = new CountedOrdersMigrationService();
+        ReflectionTestUtils.setField(migrationService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(migrationService, "migrationRunner", migrationRunner);
+        ReflectionTestUtils.setField(migrationService, "batchSize", 2);
+
+        migrationService.migrateBeforeServing();
+
+        assertEquals(0, mongoTemplate.count(Query.query(Criteria.where("countedOrders").exists(true)), "users"));
+        assertEquals(6, mongoTemplate.count(new Query(), MembershipPurchaseRecord.class));
+        assertTrue(membershipService.recordPurchase("u2", "old-2", 100.0, 1).duplicate());
+        assertEquals(2, mongoTemplate.findById("u2", Document.class, "users").getInteger("purchaseCount"));
+
+        // Chạy lại (instance khác khởi động sau) không làm gì thêm
+        assertEquals(0, migrationRunner.runOnce(migrationService));
+    }
+
+    @Test
+    void purchaseIndexesAreCreatedAfterRemovingDuplicateKeys() {
+        mongoTemplate.indexOps(MembershipPurchaseRecord.class).dropAllIndexes();
+        // Callback lặp lại đến trước khi có unique index
+        mongoTemplate.insert(new MembershipPurchaseRecord("u1", "order-1", 100.0, 1));
+        mongoTemplate.insert(new MembershipPurchaseRecord("u1", "order-1", 100.0, 1));
+        mongoTemplate.insert(new MembershipPurchaseRecord("u1", "order-2", 100.0, 1));
+        saveUser("u1", CURRENT_MONTH, 3);
+
+        CountedOrdersMigrationService migrationService = new CountedOrdersMigrationService();
+        ReflectionTestUtils.setField(migrationService, "mongoTemplate", mongoTemplate);
+        migrationService.ensurePurchaseIndexes();
+
+        assertEquals(2, mongoTemplate.count(new Query(), MembershipPurchaseRecord.class));
+        assertTrue(mongoTemplate.indexOps(MembershipPurchaseRecord.class).getIndexInfo().stream()
+                .anyMatch(index -> index.isUnique() && "user_order_uniq".equals(index.getName())));
+        assertTrue(membershipService.recordPurchase("u1", "order-1", 100.0, 1).duplicate());
+    }
+
+    @Test
+    void keepsCachedTierStatsInSyncWithPurchases() {
+        saveUser("u1", CURRENT_MONTH, 4);
+        saveUser("u2", CURRENT_MONTH, 10);
+        saveUser("u3", CURRENT_MONTH, 0);
+        assertEquals(2, statsService.getTierStats().get(MembershipTier.BRONZE).users());
+
+        membershipService.recordPurchase("u1", "order-1", 500_000.0, 1);
+        membershipService.recordPurchase("u2", "order-2", 100_000.0, 1);
+        // Ghi thẳng DB (không qua service): cache không thấy thay đổi này cho tới khi hết hạn
+        saveUser("u4", CURRENT_MONTH, 20);
+
+        Map<MembershipTier, MembershipStatsService.TierStats> cached = statsService.getTierStats();
+        assertEquals(new MembershipStatsService.TierStats(1, 0.0), cached.get(MembershipTier.BRONZE));
+        assertEquals(new MembershipStatsService.TierStats(1, 4_500_000.0), cached.get(MembershipTier.SILVER));
+        assertEquals(new MembershipStatsService.TierStats(1, 10_100_000.0), cached.get(MembershipTier.GOLD));
+        assertEquals(0, cached.get(MembershipTier.DIAMOND).users());
+
+        statsService.invalidate();
+        assertEquals(1, statsService.getTierStats().get(MembershipTier.DIAMOND).users());
+    }
+
+    @Test
+    void stalePendingRecordIsAppliedOnRetry() {
+        saveUser("u1", CURRENT_MONTH, 4);
+        // Instance chết sau khi ghi khóa, trước khi cộng vào user
+        MembershipPurchaseRecord crashed = new MembershipPurchaseRecord("u1", "order-1", 200_000.0, 1);
+        crashed.setApplied(false);
+        crashed.setCreatedAt(new Date(System.currentTimeMillis() - 10 * 60_000));
+        mongoTemplate.insert(crashed);
+        // Request khác vẫn đang tính đơn này: lần gọi lặp lại không cộng
+        MembershipPurchaseRecord inFlight = new MembershipPurchaseRecord("u1", "order-2", 100_000.0, 1);
+        inFlight.setApplied(false);
+        mongoTemplate.insert(inFlight);
+
+        MembershipService.PurchaseResult retried = membershipService.recordPurchase("u1", "order-1", 200_000.0, 1);
+        assertFalse(retried.duplicate());
+        assertEquals(5, retried.membershipInfo().getCurrentPurchaseCount());
+        assertTrue(membershipService.recordPurchase("u1", "order-1", 200_000.0, 1).duplicate());
+        assertTrue(membershipService.recordPurchase("u1", "order-2", 100_000.0, 1).duplicate());
+
+        assertEquals(5, mongoTemplate.findById("u1", UserEntity.class).getPurchaseCount());
+        assertTrue(mongoTemplate.findOne(Query.query(Criteria.where("orderId").is("order-1")),
+                MembershipPurchaseRecord.class).getApplied());
+    }
+
+    @Test
+    void unknownUserLeavesNoPurchaseRecord() {
+        assertNull(membershipService.recordPurchase("missing", "order-1", 100.0, 1));
+        assertEquals(0, mongoTemplate.count(new Query(), MembershipPurchaseRecord.class));
+    }
+
+    private void saveUser(String userId, String lastResetMonth, int purchaseCount) {
+        UserEntity user = new UserEntity();
+        user.setUserId(userId);
+        user.setUsername(userId);
+        user.setPurchaseCount(purchaseCount);
+        user.setTotalSpent(purchaseCount * 1_000_000.0);
+        user.setMembershipTier(MembershipTier.getTierByPurchaseCount(purchaseCount));
+        user.setLastResetMonth(lastResetMonth);
+        mongoTemplate.save(user);
+    }
+}
@@ -0,0 +1,142 @@
+package com.b2110941.UserService.service;
+
+import com.b2110941.UserService.entity.MembershipTier;
+import com.b2110941.UserService.entity.UserEntity;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.result.UpdateResult;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MonthlyResetServiceTests {
+
+    private static final String CURRENT_MONTH = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM"));
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private MonthlyResetService resetService;
+
+    @BeforeEach
+    void setUp() {
+        server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+        client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        mongoTemplate = new MongoTemplate(client, "membership_reset_test");
+        meterRegistry = new SimpleMeterRegistry();
+
+        resetService = new MonthlyResetService();
+        ReflectionTestUtils.setField(resetService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(resetService, "leaseLockService", leaseLock());
+        ReflectionTestUtils.setField(resetService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(resetService, "membershipStatsService", new MembershipStatsService());
+        ReflectionTestUtils.setField(resetService, "batchSize", 3);
+        resetService.initMetrics();
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    void resetsOnlyUsersNotYetResetThisMonthInBatches() {
+        for (int i = 0; i < 7; i++) {
+            saveUser("old-" + i, i % 2 == 0 ? "2000-01" : null, 12);
+        }
+        saveUser("current", CURRENT_MONTH, 6);
+
+        assertEquals(7, resetService.resetAllUsersMembershipMonthly());
+
+        UserEntity reset = mongoTemplate.findById("old-3", UserEntity.class);
+        assertEquals(0, reset.getPurchaseCount());
+        assertEquals(0.0, reset.getTotalSpent());
+        assertEquals(MembershipTier.BRONZE, reset.getMembershipTier());
+        assertEquals(CURRENT_MONTH, reset.getLastResetMonth());
+
+        UserEntity untouched = mongoTemplate.findById("current", UserEntity.class);
+        assertEquals(6, untouched.getPurchaseCount());
+        assertEquals(MembershipTier.SILVER, untouched.getMembershipTier());
+
+        // Chạy lại trong cùng tháng không làm gì
+        assertEquals(0, resetService.resetAllUsersMembershipMonthly());
+        assertEquals(7.0, meterRegistry.get("membership.reset.users").counter().count());
+        assertEquals(2, meterRegistry.get("membership.reset.duration").timer().count());
+    }
+
+    @Test
+    void keepsGoingWhenABatchWasAlreadyResetConcurrently() {
+        for (int i = 0; i < 7; i++) {
+            saveUser("old-" + i, "2000-01", 12);
+        }
+        // Lô đầu vừa được reset bởi request mua hàng giữa lúc tìm _id và updateMulti
+        MongoTemplate racing = new MongoTemplate(client, "membership_reset_test") {
+            private boolean raced;
+
+            @Override
+            public UpdateResult updateMulti(Query query, UpdateDefinition update, Class<?> entityClass) {
+                if (!raced) {
+                    raced = true;
+                    super.updateMulti(query, update, entityClass);
+                }
+                return super.updateMulti(query, update, entityClass);
+            }
+        };
+        ReflectionTestUtils.setField(resetService, "mongoTemplate", racing);
+
+        assertEquals(4, resetService.resetAllUsersMembershipMonthly());
+        assertEquals(0, mongoTemplate.count(
+                Query.query(Criteria.where("lastResetMonth").ne(CURRENT_MONTH)), UserEntity.class));
+    }
+
+    @Test
+    void skipsWhileAnotherReplicaHoldsTheLease() {
+        saveUser("old", "2000-01", 12);
+        LeaseLockService otherReplica = leaseLock();
+        assertTrue(otherReplica.tryAcquire(MonthlyResetService.RESET_LOCK, Duration.ofMinutes(5)));
+
+        assertEquals(0, resetService.resetAllUsersMembershipMonthly());
+        assertEquals(12, mongoTemplate.findById("old", UserEntity.class).getPurchaseCount());
+        assertEquals(1.0, meterRegistry.get("membership.reset.skipped").counter().count());
+
+        otherReplica.release(MonthlyResetService.RESET_LOCK);
+        assertEquals(1, resetService.resetAllUsersMembershipMonthly());
+        assertFalse(otherReplica.renew(MonthlyResetService.RESET_LOCK, Duration.ofMinutes(5)));
+    }
+
+    private LeaseLockService leaseLock() {
+        LeaseLockService leaseLockService = new LeaseLockService();
+        ReflectionTestUtils.setField(leaseLockService, "mongoTemplate", mongoTemplate);
+        return leaseLockService;
+    }
+
+    private void saveUser(String userId, String lastResetMonth, int purchaseCount) {
+        UserEntity user = new UserEntity();
+        user.setUserId(userId);
+        user.setUsername(userId);
+        user.setPurchaseCount(purchaseCount);
+        user.setTotalSpent(purchaseCount * 1_000_000.0);
+        user.setLastResetMonth(lastResetMonth);
+        mongoTemplate.save(user);
+    }
+}
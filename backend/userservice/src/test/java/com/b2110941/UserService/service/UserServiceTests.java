@@ -0,0 +1,150 @@
+package com.b2110941.UserService.service;
+
+import com.b2110941.UserService.entity.MembershipTier;
+import com.b2110941.UserService.entity.UserEntity;
+import com.b2110941.UserService.payload.request.UserSyncRequest;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserServiceTests {
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private UserService userService;
+
+    @BeforeEach
+    void setUp() {
+        server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+        client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        mongoTemplate = new MongoTemplate(client, "user_page_test");
+
+        userService = new UserService();
+        ReflectionTestUtils.setField(userService, "mongoTemplate", mongoTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    void pagesByUserIdWithoutLoadingLargeFields() {
+        for (int i = 0; i < 5; i++) {
+            saveUser("user-" + i, "customer" + i + "@shop.vn", "USER", true, MembershipTier.BRONZE);
+        }
+
+        List<UserEntity> first = userService.getUserPage(null, 2, null, null, null, null);
+        assertEquals(List.of("user-0", "user-1"), ids(first));
+        assertNull(first.get(0).getAddresses());
+        assertEquals("customer0@shop.vn", first.get(0).getEmail());
+
+        assertEquals(List.of("user-2", "user-3"), ids(userService.getUserPage("user-1", 2, null, null, null, null)));
+        assertEquals(List.of("user-4"), ids(userService.getUserPage("user-3", 2, null, null, null, null)));
+    }
+
+    @Test
+    void filtersByRoleActiveTierAndPrefix() {
+        saveUser("a", "an@shop.vn", "ADMIN", true, MembershipTier.GOLD);
+        saveUser("b", "binh@shop.vn", "USER", false, MembershipTier.GOLD);
+        saveUser("c", "cuong@shop.vn", "USER", true, MembershipTier.SILVER);
+        saveUser("d", "an.nguyen@shop.vn", "USER", true, MembershipTier.BRONZE);
+
+        assertEquals(List.of("a"), ids(userService.getUserPage(null, 10, "ADMIN", null, null, null)));
+        assertEquals(List.of("b"), ids(userService.getUserPage(null, 10, null, false, null, null)));
+        assertEquals(List.of("a", "b"), ids(userService.getUserPage(null, 10, null, null, MembershipTier.GOLD, null)));
+        assertEquals(List.of("a", "d"), ids(userService.getUserPage(null, 10, null, true, null, "AN")));
+        assertEquals(List.of("d"), ids(userService.getUserPage("a", 10, "USER", true, null, "an")));
+    }
+
+    @Test
+    void syncKeepsMembershipFieldsAndDefaultsNewUsers() {
+        saveUser("u1", "old@shop.vn", "USER", true, MembershipTier.GOLD);
+        // MembershipService cộng dồn trong lúc client đang tải trang
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is("u1")),
+                new Update().set("purchaseCount", 7).set("totalSpent", 9_000_000.0).set("lastResetMonth", "2026-10"),
+                UserEntity.class);
+
+        assertTrue(userService.syncProfile(syncRequest("u1", "new@shop.vn", "admin")).accessChanged());
+        UserEntity synced = mongoTemplate.findById("u1", UserEntity.class);
+        assertEquals("new@shop.vn", synced.getEmail());
+        assertEquals("admin", synced.getRole());
+        assertEquals(7, synced.getPurchaseCount());
+        assertEquals(9_000_000.0, synced.getTotalSpent());
+        assertEquals(MembershipTier.GOLD, synced.getMembershipTier());
+        assertEquals("2026-10", synced.getLastResetMonth());
+
+        // Tải trang lại với cùng role: không cần bỏ principal đã cache
+        assertFalse(userService.syncProfile(syncRequest("u1", "new@shop.vn", "admin")).accessChanged());
+
+        UserService.SyncResult createdResult = userService.syncProfile(syncRequest("u2", "moi@shop.vn", null));
+        assertNull(createdResult.previous());
+        assertTrue(createdResult.accessChanged());
+        UserEntity created = mongoTemplate.findById("u2", UserEntity.class);
+        assertEquals("user", created.getRole());
+        assertEquals(0, created.getPurchaseCount());
+        assertEquals(MembershipTier.BRONZE, created.getMembershipTier());
+        assertEquals(true, created.getActive());
+    }
+
+    @Test
+    void profileAndAvatarUpdatesOnlySetTheirFields() {
+        saveUser("u1", "an@shop.vn", "USER", true, MembershipTier.SILVER);
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is("u1")),
+                new Update().set("purchaseCount", 3).set("avatarUrl", "/uploads/avatars/old.png"), UserEntity.class);
+
+        UserEntity updated = userService.updateProfile("u1", new Update().set("phone", "0901234567"));
+        assertEquals("0901234567", updated.getPhone());
+        assertEquals(3, updated.getPurchaseCount());
+        assertEquals(MembershipTier.SILVER, updated.getMembershipTier());
+
+        assertEquals("/uploads/avatars/old.png", userService.replaceAvatarUrl("u1", "/uploads/avatars/new.png").getAvatarUrl());
+        assertEquals("/uploads/avatars/new.png", mongoTemplate.findById("u1", UserEntity.class).getAvatarUrl());
+        assertNull(userService.updateProfile("missing", new Update().set("phone", "0")));
+        assertNull(userService.replaceAvatarUrl("missing", "/uploads/avatars/x.png"));
+    }
+
+    private static UserSyncRequest syncRequest(String userId, String email, String role) {
+        UserSyncRequest request = new UserSyncRequest();
+        request.setUserId(userId);
+        request.setEmail(email);
+        request.setRole(role);
+        return request;
+    }
+
+    private static List<String> ids(List<UserEntity> users) {
+        return users.stream().map(UserEntity::getUserId).toList();
+    }
+
+    private void saveUser(String userId, String email, String role, boolean active, MembershipTier tier) {
+        UserEntity user = new UserEntity();
+        user.setUserId(userId);
+        user.setEmail(email);
+        user.setUsername(email.substring(0, email.indexOf('@')));
+        user.setRole(role);
+        user.setActive(active);
+        user.setMembershipTier(tier);
+        user.setAddresses(List.of());
+        mongoTemplate.save(user);
+    }
+}